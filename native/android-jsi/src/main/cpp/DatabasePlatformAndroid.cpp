@@ -1,8 +1,13 @@
 #include <android/log.h>
 #include <mutex>
 #include <unordered_map>
+#include <vector>
 #include <sqlite3.h>
 #include <cassert>
+#include <fcntl.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+#include <unistd.h>
 
 #include "DatabasePlatform.h"
 #include "DatabasePlatformAndroid.h"
@@ -130,33 +135,85 @@ void deleteDatabaseFile(std::string path, bool warnIfDoesNotExist) {
     // TODO: Unimplemented
 }
 
-void onMemoryAlert(std::function<void(void)> callback) {
-    // TODO: Unimplemented
-    // NOTE: https://developer.android.com/reference/android/app/Application#onTrimMemory(int)
+std::vector<std::function<MemoryTrimResult(MemoryTrimTier)>> memoryAlertListeners;
+std::mutex memoryAlertListenersMutex;
+
+void onMemoryAlert(std::function<MemoryTrimResult(MemoryTrimTier)> callback) {
+    const std::lock_guard<std::mutex> lock(memoryAlertListenersMutex);
+    memoryAlertListeners.push_back(callback);
 }
 
+// Levels from https://developer.android.com/reference/android/content/ComponentCallbacks2
+// NOTE: RUNNING_* levels (app in foreground) are lower than background levels, but more urgent
+static MemoryTrimTier memoryTrimTierFor(int level) {
+    if (level >= 80) { // TRIM_MEMORY_COMPLETE
+        return MemoryTrimTier::DropCaches;
+    } else if (level >= 60) { // TRIM_MEMORY_MODERATE
+        return MemoryTrimTier::ShrinkCaches;
+    } else if (level >= 20) { // TRIM_MEMORY_UI_HIDDEN, TRIM_MEMORY_BACKGROUND
+        return MemoryTrimTier::ReleaseSqliteMemory;
+    } else if (level >= 15) { // TRIM_MEMORY_RUNNING_CRITICAL
+        return MemoryTrimTier::DropCaches;
+    } else if (level >= 10) { // TRIM_MEMORY_RUNNING_LOW
+        return MemoryTrimTier::ShrinkCaches;
+    } else if (level >= 5) { // TRIM_MEMORY_RUNNING_MODERATE
+        return MemoryTrimTier::ReleaseSqliteMemory;
+    }
+    return MemoryTrimTier::None;
+}
+
+long long trimMemory(int level) {
+    MemoryTrimTier tier = memoryTrimTierFor(level);
+    if (tier == MemoryTrimTier::None) {
+        return 0;
+    }
+    const std::lock_guard<std::mutex> lock(memoryAlertListenersMutex);
+    long long bytesFreed = 0;
+    for (auto listener : memoryAlertListeners) {
+        bytesFreed += listener(tier).totalBytes();
+    }
+    return bytesFreed;
+}
+
+// Sync JSON is read in place from one of: a Java byte[] (`array`), a direct ByteBuffer (`buffer`),
+// or a memory-mapped file (`mapping`)
 struct ProvidedSyncJson {
     jbyteArray array;
     jbyte *bytes;
-    jsize length;
+    jobject buffer;
+    void *mapping;
+    const char *data;
+    size_t length;
 };
 
 std::unordered_map<int, ProvidedSyncJson> providedSyncJsons;
 std::mutex providedSyncJsonsMutex;
 
-void provideJson(int id, jbyteArray array) {
-    const std::lock_guard<std::mutex> lock(providedSyncJsonsMutex);
-
+static JNIEnv *attachSyncJsonThread() {
     JNIEnv *env;
     assert(jvm);
     if (jvm->AttachCurrentThread(&env, NULL) != JNI_OK) {
-        return;
+        return nullptr;
     }
     assert(env);
+    return env;
+}
 
+// NOTE: Must be called with providedSyncJsonsMutex held
+static bool ensureSyncJsonNotProvided(JNIEnv *env, int id) {
     if (providedSyncJsons.find(id) != providedSyncJsons.end()) {
         jclass exceptionClass = env->FindClass("java/lang/Exception");
         env->ThrowNew(exceptionClass, "sync json is already provided");
+        return false;
+    }
+    return true;
+}
+
+void provideJson(int id, jbyteArray array) {
+    const std::lock_guard<std::mutex> lock(providedSyncJsonsMutex);
+
+    JNIEnv *env = attachSyncJsonThread();
+    if (!env || !ensureSyncJsonNotProvided(env, id)) {
         return;
     }
 
@@ -164,7 +221,58 @@ void provideJson(int id, jbyteArray array) {
     jsize length = env->GetArrayLength(array);
     jbyteArray arrayGlobalRef = static_cast<jbyteArray>(env->NewGlobalRef(array));
 
-    ProvidedSyncJson json = { arrayGlobalRef, bytes, length };
+    ProvidedSyncJson json = { arrayGlobalRef, bytes, nullptr, nullptr, (const char *) bytes, (size_t) length };
+    providedSyncJsons[id] = json;
+}
+
+void provideJsonBuffer(int id, jobject buffer, jlong offset, jlong length) {
+    const std::lock_guard<std::mutex> lock(providedSyncJsonsMutex);
+
+    JNIEnv *env = attachSyncJsonThread();
+    if (!env || !ensureSyncJsonNotProvided(env, id)) {
+        return;
+    }
+
+    char *address = (char *) env->GetDirectBufferAddress(buffer);
+    if (address == NULL) {
+        jclass exceptionClass = env->FindClass("java/lang/IllegalArgumentException");
+        env->ThrowNew(exceptionClass, "sync json buffer must be a direct ByteBuffer");
+        return;
+    }
+    // NOTE: Global ref keeps the buffer (and so its memory) alive until the json is deleted
+    jobject bufferGlobalRef = env->NewGlobalRef(buffer);
+
+    ProvidedSyncJson json = { nullptr, nullptr, bufferGlobalRef, nullptr, address + offset, (size_t) length };
+    providedSyncJsons[id] = json;
+}
+
+void provideJsonFile(int id, std::string path) {
+    const std::lock_guard<std::mutex> lock(providedSyncJsonsMutex);
+
+    JNIEnv *env = attachSyncJsonThread();
+    if (!env || !ensureSyncJsonNotProvided(env, id)) {
+        return;
+    }
+
+    int fd = open(path.c_str(), O_RDONLY);
+    struct stat fileStat;
+    void *mapping = MAP_FAILED;
+    if (fd != -1 && fstat(fd, &fileStat) == 0 && fileStat.st_size > 0) {
+        mapping = mmap(NULL, fileStat.st_size, PROT_READ, MAP_PRIVATE, fd, 0);
+    }
+    // NOTE: Mapping stays valid after the file is closed
+    if (fd != -1) {
+        close(fd);
+    }
+    if (mapping == MAP_FAILED) {
+        jclass exceptionClass = env->FindClass("java/io/IOException");
+        env->ThrowNew(exceptionClass, ("unable to map sync json file " + path).c_str());
+        return;
+    }
+    // JSON is read front to back, once
+    madvise(mapping, fileStat.st_size, MADV_SEQUENTIAL);
+
+    ProvidedSyncJson json = { nullptr, nullptr, nullptr, mapping, (const char *) mapping, (size_t) fileStat.st_size };
     providedSyncJsons[id] = json;
 }
 
@@ -177,26 +285,30 @@ std::string_view getSyncJson(int id) {
     }
 
     auto json = jsonSearch->second;
-    std::string_view view((char *) json.bytes, json.length);
+    std::string_view view(json.data, json.length);
     return view;
 }
 
 void deleteSyncJson(int id) {
     const std::lock_guard<std::mutex> lock(providedSyncJsonsMutex);
 
-    JNIEnv *env;
-    assert(jvm);
-    if (jvm->AttachCurrentThread(&env, NULL) != JNI_OK) {
+    JNIEnv *env = attachSyncJsonThread();
+    if (!env) {
         throw std::runtime_error("JVM thread attach failed");
     }
-    assert(env);
 
     auto jsonSearch = providedSyncJsons.find(id);
     if (jsonSearch != providedSyncJsons.end()) {
         auto json = jsonSearch->second;
-        env->ReleaseByteArrayElements(json.array, json.bytes, JNI_ABORT);
         providedSyncJsons.erase(id);
-        env->DeleteGlobalRef(json.array);
+        if (json.array) {
+            env->ReleaseByteArrayElements(json.array, json.bytes, JNI_ABORT);
+            env->DeleteGlobalRef(json.array);
+        } else if (json.buffer) {
+            env->DeleteGlobalRef(json.buffer);
+        } else if (json.mapping) {
+            munmap(json.mapping, json.length);
+        }
     }
 }
 
@@ -207,6 +319,9 @@ void destroy() {
         listener();
     }
     destroyListeners.clear();
+
+    const std::lock_guard<std::mutex> lock(memoryAlertListenersMutex);
+    memoryAlertListeners.clear();
 }
 
 void onDestroy(std::function<void()> callback) {
@@ -1,13 +1,18 @@
 #pragma once
 
 #include <jni.h>
+#include <string>
 
 namespace watermelondb {
 namespace platform {
 
 void configureJNI(JNIEnv *env);
 void provideJson(int id, jbyteArray array);
+void provideJsonBuffer(int id, jobject buffer, jlong offset, jlong length);
+void provideJsonFile(int id, std::string path);
 void destroy();
+// Returns number of bytes freed by all databases
+long long trimMemory(int level);
 
 } // namespace platform
 } // namespace watermelondb
@@ -18,6 +18,24 @@ extern "C" JNIEXPORT void JNICALL Java_com_nozbe_watermelondb_jsi_JSIInstaller_p
     watermelondb::platform::provideJson(id, array);
 }
 
+extern "C" JNIEXPORT void JNICALL Java_com_nozbe_watermelondb_jsi_JSIInstaller_provideSyncJsonBuffer(JNIEnv *env, jclass clazz, jint id, jobject buffer, jlong offset, jlong length) {
+    watermelondb::platform::provideJsonBuffer(id, buffer, offset, length);
+}
+
+extern "C" JNIEXPORT void JNICALL Java_com_nozbe_watermelondb_jsi_JSIInstaller_provideSyncJsonFile(JNIEnv *env, jclass clazz, jint id, jstring path) {
+    const char *cPath = env->GetStringUTFChars(path, 0);
+    if (cPath == NULL) {
+        return;
+    }
+    std::string pathString(cPath);
+    env->ReleaseStringUTFChars(path, cPath);
+    watermelondb::platform::provideJsonFile(id, pathString);
+}
+
 extern "C" JNIEXPORT void JNICALL Java_com_nozbe_watermelondb_jsi_JSIInstaller_destroy(JNIEnv *env, jclass clazz) {
     watermelondb::platform::destroy();
 }
+
+extern "C" JNIEXPORT jlong JNICALL Java_com_nozbe_watermelondb_jsi_JSIInstaller_trimMemory(JNIEnv *env, jclass clazz, jint level) {
+    return watermelondb::platform::trimMemory(level);
+}
@@ -1,6 +1,9 @@
 package com.nozbe.watermelondb.jsi;
 
 import android.content.Context;
+
+import java.nio.ByteBuffer;
+
 class JSIInstaller {
     static void install(Context context, long javaScriptContextHolder) {
         JSIInstaller.context = context;
@@ -22,8 +25,14 @@ class JSIInstaller {
 
     static native void provideSyncJson(int id, byte[] json);
 
+    static native void provideSyncJsonBuffer(int id, ByteBuffer json, long offset, long length);
+
+    static native void provideSyncJsonFile(int id, String path);
+
     static native void destroy();
 
+    static native long trimMemory(int level);
+
     private static Context context;
 
     static {
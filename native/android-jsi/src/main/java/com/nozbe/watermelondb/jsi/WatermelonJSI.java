@@ -2,16 +2,35 @@ package com.nozbe.watermelondb.jsi;
 
 import android.app.Application;
 
+import java.nio.ByteBuffer;
+
 // Public interface to JSI-based Watermelon
 public class WatermelonJSI {
-    public static void onTrimMemory(int level) {
-      // TODO: Unimplemented
+    // Call from your Application's or Activity's onTrimMemory(level). Depending on the level,
+    // frees SQLite memory, compiled statements and record caches. Returns number of bytes freed
+    public static long onTrimMemory(int level) {
+        return JSIInstaller.trimMemory(level);
     }
 
     public static void provideSyncJson(int id, byte[] json) {
         JSIInstaller.provideSyncJson(id, json);
     }
 
+    // Same as above, but JSON (UTF-8) is read in place, between the buffer's position and limit,
+    // instead of being copied. Buffer must be direct, and must not be modified until it's loaded
+    public static void provideSyncJson(int id, ByteBuffer json) {
+        if (!json.isDirect()) {
+            throw new IllegalArgumentException("Sync json buffer must be a direct ByteBuffer");
+        }
+        JSIInstaller.provideSyncJsonBuffer(id, json, json.position(), json.remaining());
+    }
+
+    // Same as above, but JSON is memory-mapped from a file (e.g. the response was downloaded
+    // straight to disk). The file is not deleted after loading
+    public static void provideSyncJsonFile(int id, String path) {
+        JSIInstaller.provideSyncJsonFile(id, path);
+    }
+
     public static void onCatalystInstanceDestroy() {
         JSIInstaller.destroy();
     }
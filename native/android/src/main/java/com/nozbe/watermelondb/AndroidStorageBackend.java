@@ -0,0 +1,277 @@
+package com.nozbe.watermelondb;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDoneException;
+
+import net.zetetic.database.sqlcipher.SQLiteCursor;
+import net.zetetic.database.sqlcipher.SQLiteDatabase;
+import net.zetetic.database.sqlcipher.SQLiteDatabaseHook;
+import net.zetetic.database.sqlcipher.SQLiteDebug;
+import net.zetetic.database.sqlcipher.SQLiteProgram;
+import net.zetetic.database.sqlcipher.SQLiteStatement;
+
+import java.util.Arrays;
+
+// StorageBackend backed by SQLCipher (drop-in replacement for android.database.sqlite)
+public class AndroidStorageBackend implements StorageBackend {
+    private final SQLiteDatabase db;
+    private final byte[] key;
+    private final SQLiteDatabaseHook hook;
+
+    static {
+        System.loadLibrary("sqlcipher");
+    }
+
+    private AndroidStorageBackend(SQLiteDatabase db, byte[] key, SQLiteDatabaseHook hook) {
+        this.db = db;
+        this.key = key;
+        this.hook = hook;
+    }
+
+    // NOTE: Empty key means no encryption
+    public static AndroidStorageBackend open(String path, int openFlags, byte[] key, SQLiteDatabaseHook hook) {
+        return new AndroidStorageBackend(SQLiteDatabase.openDatabase(path, key, null, openFlags, null, hook), key, hook);
+    }
+
+    @Override
+    public StorageBackend openReader() {
+        // NOTE: Without ENABLE_WRITE_AHEAD_LOGGING, the reader's pool is a single connection, so all of
+        // its statements (incl. WMDatabase.beginReadTransaction's) run on the same SQLite connection
+        return open(db.getPath(), SQLiteDatabase.OPEN_READONLY, key, hook);
+    }
+
+    @Override
+    public void execute(String sql) {
+        db.execSQL(sql);
+    }
+
+    @Override
+    public void execute(String sql, Object[] args) {
+        db.execSQL(sql, args);
+    }
+
+    @Override
+    public StorageStatement compileStatement(String sql) {
+        return new Statement(db.compileStatement(sql));
+    }
+
+    @Override
+    public StorageCursor query(String sql, Object[] args) {
+        // HACK: db.rawQuery only supports String args, and there's no clean way AFAIK to construct
+        // a query with arbitrary args (like with execSQL). However, we can misuse cursor factory
+        // to get the reference of a SQLiteQuery before it's executed
+        // https://github.com/aosp-mirror/platform_frameworks_base/blob/0799624dc7eb4b4641b4659af5b5ec4b9f80dd81/core/java/android/database/sqlite/SQLiteDirectCursorDriver.java#L30
+        // https://github.com/aosp-mirror/platform_frameworks_base/blob/0799624dc7eb4b4641b4659af5b5ec4b9f80dd81/core/java/android/database/sqlite/SQLiteProgram.java#L32
+        String[] rawArgs = new String[args.length];
+        Arrays.fill(rawArgs, "");
+        return new CursorAdapter(db.rawQueryWithFactory(
+                (db1, driver, editTable, query) -> {
+                    bindArgs(query, args);
+                    return new SQLiteCursor(driver, editTable, query);
+                }, sql, rawArgs, null, null
+        ));
+    }
+
+    @Override
+    public void beginTransaction() {
+        db.beginTransaction();
+    }
+
+    @Override
+    public void setTransactionSuccessful() {
+        db.setTransactionSuccessful();
+    }
+
+    @Override
+    public void endTransaction() {
+        db.endTransaction();
+    }
+
+    @Override
+    public int getVersion() {
+        return db.getVersion();
+    }
+
+    @Override
+    public void setVersion(int version) {
+        db.setVersion(version);
+    }
+
+    @Override
+    public boolean isWriteAheadLoggingEnabled() {
+        return db.isWriteAheadLoggingEnabled();
+    }
+
+    @Override
+    public void enableWriteAheadLogging() {
+        db.enableWriteAheadLogging();
+    }
+
+    @Override
+    public long getSqliteMemoryUsed() {
+        return SQLiteDebug.getDatabaseInfo().memoryUsed;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return db.isOpen();
+    }
+
+    @Override
+    public void close() {
+        db.close();
+    }
+
+    private static void bindArgs(SQLiteProgram program, Object[] args) {
+        for (int i = 0; i < args.length; i++) {
+            Object arg = args[i];
+            if (arg instanceof String) {
+                program.bindString(i + 1, (String) arg);
+            } else if (arg instanceof Boolean) {
+                program.bindLong(i + 1, (Boolean) arg ? 1 : 0);
+            } else if (arg instanceof Double) {
+                program.bindDouble(i + 1, (Double) arg);
+            } else if (arg instanceof Long || arg instanceof Integer) {
+                program.bindLong(i + 1, ((Number) arg).longValue());
+            } else if (arg == null) {
+                program.bindNull(i + 1);
+            } else {
+                throw new IllegalArgumentException("Bad query arg type: " + arg.getClass().getCanonicalName());
+            }
+        }
+    }
+
+    private static class Statement implements StorageStatement {
+        private final SQLiteStatement statement;
+
+        Statement(SQLiteStatement statement) {
+            this.statement = statement;
+        }
+
+        @Override
+        public void bindString(int index, String value) {
+            statement.bindString(index, value);
+        }
+
+        @Override
+        public void bindLong(int index, long value) {
+            statement.bindLong(index, value);
+        }
+
+        @Override
+        public void bindDouble(int index, double value) {
+            statement.bindDouble(index, value);
+        }
+
+        @Override
+        public void bindNull(int index) {
+            statement.bindNull(index);
+        }
+
+        @Override
+        public void clearBindings() {
+            statement.clearBindings();
+        }
+
+        @Override
+        public void execute() {
+            statement.execute();
+        }
+
+        @Override
+        public long simpleQueryForLong(long defaultValue) {
+            try {
+                return statement.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                return defaultValue;
+            }
+        }
+
+        @Override
+        public String simpleQueryForString() {
+            try {
+                return statement.simpleQueryForString();
+            } catch (SQLiteDoneException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public void close() {
+            statement.close();
+        }
+    }
+
+    private static class CursorAdapter implements StorageCursor {
+        private final Cursor cursor;
+
+        CursorAdapter(Cursor cursor) {
+            this.cursor = cursor;
+        }
+
+        @Override
+        public int getCount() {
+            return cursor.getCount();
+        }
+
+        @Override
+        public boolean moveToFirst() {
+            return cursor.moveToFirst();
+        }
+
+        @Override
+        public boolean moveToNext() {
+            return cursor.moveToNext();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return cursor.getColumnCount();
+        }
+
+        @Override
+        public String getColumnName(int columnIndex) {
+            return cursor.getColumnName(columnIndex);
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return cursor.getColumnNames();
+        }
+
+        @Override
+        public int getColumnIndex(String columnName) {
+            return cursor.getColumnIndex(columnName);
+        }
+
+        @Override
+        public int getType(int columnIndex) {
+            return cursor.getType(columnIndex);
+        }
+
+        @Override
+        public String getString(int columnIndex) {
+            return cursor.getString(columnIndex);
+        }
+
+        @Override
+        public long getLong(int columnIndex) {
+            return cursor.getLong(columnIndex);
+        }
+
+        @Override
+        public int getInt(int columnIndex) {
+            return cursor.getInt(columnIndex);
+        }
+
+        @Override
+        public double getDouble(int columnIndex) {
+            return cursor.getDouble(columnIndex);
+        }
+
+        @Override
+        public void close() {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.nozbe.watermelondb;
+
+import com.facebook.react.bridge.ReadableMap;
+
+// How WMDatabaseDriver.batchInChunks splits a batch into transactions. A transaction is committed
+// once it has `maxRows` rows, or once it has been running for `maxMillis` - whichever comes first.
+// Pass 0 to disable either limit
+public class BatchCommitOptions {
+    public static final int DEFAULT_MAX_ROWS = 5000;
+
+    public int maxRows = DEFAULT_MAX_ROWS;
+    public long maxMillis = 0;
+    // If set, progress is saved along with each commit, so that a batch interrupted midway can be
+    // resumed by running it again with the same key
+    public String checkpointKey;
+
+    public void validate() {
+        if (maxRows < 0 || maxMillis < 0 || (maxRows == 0 && maxMillis == 0)) {
+            throw new IllegalArgumentException("Invalid batch commit options: maxRows " + maxRows + ", maxMillis " + maxMillis);
+        }
+    }
+
+    // Parses `{ maxRows?, maxMillis?, checkpointKey? }` passed from JS
+    public static BatchCommitOptions fromMap(ReadableMap map) {
+        BatchCommitOptions options = new BatchCommitOptions();
+        if (map == null) {
+            return options;
+        }
+        if (map.hasKey("maxRows") && !map.isNull("maxRows")) {
+            options.maxRows = map.getInt("maxRows");
+        }
+        if (map.hasKey("maxMillis") && !map.isNull("maxMillis")) {
+            options.maxMillis = (long) map.getDouble("maxMillis");
+        }
+        if (map.hasKey("checkpointKey") && !map.isNull("checkpointKey")) {
+            options.checkpointKey = map.getString("checkpointKey");
+        }
+        options.validate();
+        return options;
+    }
+}
@@ -0,0 +1,124 @@
+package com.nozbe.watermelondb;
+
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Records changed by a batch (or by native code, e.g. sync), per table, so that observers can
+// re-run only queries of tables that changed.
+//
+// Ids are known for operations encoded by encodeBatch: created (cache behavior 1), deleted (-1),
+// and updated (`update ... where "id" is ?`). For other writes to a table (e.g. raw SQL), the table
+// is marked as incomplete - its records may have changed in ways not listed. Writes to a table
+// that can't be determined from SQL set `hasUnknownChanges`
+public class ChangeSet {
+    public static class TableChanges {
+        public final List<String> created = new ArrayList<>();
+        public final List<String> updated = new ArrayList<>();
+        public final List<String> deleted = new ArrayList<>();
+        public boolean isIncomplete = false;
+
+        void addAll(TableChanges other) {
+            created.addAll(other.created);
+            updated.addAll(other.updated);
+            deleted.addAll(other.deleted);
+            isIncomplete |= other.isIncomplete;
+        }
+    }
+
+    private static final String UPDATE_BY_ID_SUFFIX = "where \"id\" is ?";
+
+    public final Map<String, TableChanges> tables = new LinkedHashMap<>();
+    public boolean hasUnknownChanges = false;
+
+    public TableChanges table(String table) {
+        TableChanges changes = tables.get(table);
+        if (changes == null) {
+            changes = new TableChanges();
+            tables.put(table, changes);
+        }
+        return changes;
+    }
+
+    public boolean isEmpty() {
+        return tables.isEmpty() && !hasUnknownChanges;
+    }
+
+    // Returns how rows of a batch operation [cacheBehavior, table, sql, argBatches] are recorded:
+    // a RowRecorder to pass each row's args to, or null if rows don't need to be looked at
+    public RowRecorder recorderFor(ReadableArray operation) {
+        int cacheBehavior = operation.getInt(0);
+        if (cacheBehavior != 0) {
+            TableChanges changes = table(operation.getString(1));
+            return new RowRecorder(cacheBehavior == 1 ? changes.created : changes.deleted, 0);
+        }
+        String sql = operation.getString(2);
+        if (DatabaseUtils.isIndexStatement(sql)) {
+            return null;
+        }
+        String table = DatabaseUtils.writtenTable(sql);
+        if (table == null) {
+            hasUnknownChanges = true;
+            return null;
+        }
+        TableChanges changes = table(table);
+        if (sql.startsWith("update ") && sql.endsWith(UPDATE_BY_ID_SUFFIX)) {
+            return new RowRecorder(changes.updated, -1);
+        }
+        changes.isIncomplete = true;
+        return null;
+    }
+
+    public static final class RowRecorder {
+        private final List<String> ids;
+        // -1 = last arg
+        private final int idArgIndex;
+
+        RowRecorder(List<String> ids, int idArgIndex) {
+            this.ids = ids;
+            this.idArgIndex = idArgIndex;
+        }
+
+        public void record(ReadableArray args) {
+            ids.add(args.getString(idArgIndex == -1 ? args.size() - 1 : idArgIndex));
+        }
+    }
+
+    public void addAll(ChangeSet other) {
+        for (Map.Entry<String, TableChanges> entry : other.tables.entrySet()) {
+            table(entry.getKey()).addAll(entry.getValue());
+        }
+        hasUnknownChanges |= other.hasUnknownChanges;
+    }
+
+    // `{ tables: { [table]: { created, updated, deleted, isIncomplete } }, hasUnknownChanges }`
+    public WritableMap toMap() {
+        WritableMap tablesMap = Platform.current().createMap();
+        for (Map.Entry<String, TableChanges> entry : tables.entrySet()) {
+            TableChanges changes = entry.getValue();
+            WritableMap tableMap = Platform.current().createMap();
+            tableMap.putArray("created", toArray(changes.created));
+            tableMap.putArray("updated", toArray(changes.updated));
+            tableMap.putArray("deleted", toArray(changes.deleted));
+            tableMap.putBoolean("isIncomplete", changes.isIncomplete);
+            tablesMap.putMap(entry.getKey(), tableMap);
+        }
+        WritableMap map = Platform.current().createMap();
+        map.putMap("tables", tablesMap);
+        map.putBoolean("hasUnknownChanges", hasUnknownChanges);
+        return map;
+    }
+
+    private static WritableArray toArray(List<String> ids) {
+        WritableArray array = Platform.current().createArray();
+        for (String id : ids) {
+            array.pushString(id);
+        }
+        return array;
+    }
+}
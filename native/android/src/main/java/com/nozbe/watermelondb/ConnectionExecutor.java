@@ -0,0 +1,462 @@
+package com.nozbe.watermelondb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+// Runs database work for a single connection tag on threads of its own, so that it doesn't compete
+// with other native modules.
+//
+// Reads and writes are queued separately. Writes run one at a time, on the writer's thread. With
+// reader threads (see setReaderThreads - one per reader connection), reads run on them, alongside
+// each other and a write in progress. By default, results are still identical to running
+// operations serially, in the order they were submitted (e.g. a read issued after a write sees
+// that write): a read starts once writes submitted before it are done, and a write starts once
+// reads submitted before it have taken their snapshot of the database (see snapshotTaken). Without
+// reader threads, reads run on the writer's thread, in order with writes.
+//
+// With `readsCanBypassWrites`, a read doesn't wait for BACKGROUND_WRITEs submitted before it (it
+// will then see the database as it was before them, or after) - long-running writes JS doesn't
+// expect to see results of right away, e.g. batchInChunks or sync. A read never overtakes a regular
+// WRITE submitted before it, so that e.g. a query issued after a batch always sees that batch. On the
+// writer's thread, a read can overtake writes no more than `maxReadBypasses` times in a row, so that
+// writes are not starved. (Reads on reader threads don't hold up writes.)
+//
+// Writes submitted with a Grouping (see submitGrouped) that are next to each other in the queue are
+// run together, as one unit of work (e.g. batches committed in one transaction - see GroupCommit).
+// A group never takes in a write submitted after a pending read, so ordering is the same as if they
+// ran one by one
+public class ConnectionExecutor {
+    public enum Kind {
+        READ,
+        WRITE,
+        // A write that reads may overtake (see readsCanBypassWrites)
+        BACKGROUND_WRITE
+    }
+
+    public interface IdleWork {
+        // Returns true if it's done until the next write. Otherwise, it's run again once idle
+        boolean run();
+    }
+
+    public interface Grouping {
+        // Max number of items in a group
+        int maxItems();
+
+        // Max total weight of items in a group (0 = no limit). A single item may exceed it
+        long maxWeight();
+
+        long weightOf(Object item);
+
+        // How long after the first item of a group was submitted to wait for more, if none are
+        // queued (0 = don't wait). Not waited for if reads are pending
+        long windowMillis();
+
+        // Runs items of a group, in order of submission. submittedAtNanos are System.nanoTime() of
+        // each item's submission (e.g. for queue wait stats)
+        void run(List<Object> items, long[] submittedAtNanos);
+    }
+
+    public static final int DEFAULT_MAX_READ_BYPASSES = 8;
+
+    private static class Task {
+        final long seq;
+        final Kind kind;
+        final long submittedAt;
+        final Runnable work;
+        // Set for grouped writes, instead of work
+        final Grouping grouping;
+        final Object item;
+
+        Task(long seq, Kind kind, Runnable work, Grouping grouping, Object item) {
+            this.seq = seq;
+            this.kind = kind;
+            this.submittedAt = System.nanoTime();
+            this.work = work;
+            this.grouping = grouping;
+            this.item = item;
+        }
+    }
+
+    private final String name;
+    private final ArrayDeque<Task> reads = new ArrayDeque<>();
+    private final ArrayDeque<Task> writes = new ArrayDeque<>();
+    private final Thread thread;
+    private long nextSeq = 0;
+    private boolean isShutDown = false;
+
+    private int readerThreadCount = 0;
+    // Reads running on reader threads that haven't taken their snapshot yet. Writes submitted after
+    // them wait until they do
+    private final ArrayList<Task> unpinnedReads = new ArrayList<>();
+    // Write (or first write of a group) running on the writer's thread
+    private Task runningWrite = null;
+    // Reports the snapshot of the read running on this thread as taken (see snapshotTaken)
+    private static final ThreadLocal<Runnable> pinCurrentRead = new ThreadLocal<>();
+
+    // Run once no work was submitted for `idleDelayMillis` after a write (see setIdleWork)
+    private IdleWork idleWork = null;
+    private long idleDelayNanos = 0;
+    private boolean hasWrittenSinceIdleWork = false;
+    private long lastFinishedAt = System.nanoTime();
+
+    private boolean readsCanBypassWrites = false;
+    private int maxReadBypasses = DEFAULT_MAX_READ_BYPASSES;
+    private int consecutiveBypasses = 0;
+
+    // stats
+    private int maxQueueDepth = 0;
+    private long executedCount = 0;
+    private long bypassCount = 0;
+    private long totalWaitNanos = 0;
+    private long maxWaitNanos = 0;
+
+    public ConnectionExecutor(String name) {
+        this.name = name;
+        thread = new Thread(this::runLoop, name);
+        thread.start();
+    }
+
+    // Runs reads on `count` threads of their own, instead of the writer's thread. Reads must then
+    // only use reader connections (see WMDatabase.read), and call snapshotTaken() once their
+    // snapshot is pinned - WMDatabase does both. Never removes threads already started
+    public synchronized void setReaderThreads(int count) {
+        if (isShutDown) {
+            return;
+        }
+        while (readerThreadCount < count) {
+            readerThreadCount++;
+            new Thread(this::runReaderLoop, name + "-reader-" + readerThreadCount).start();
+        }
+        notifyAll();
+    }
+
+    // Called by a read running on a reader thread once its queries see a fixed snapshot of the
+    // database (e.g. it began a read transaction). Writes submitted after the read can then run
+    // concurrently with it. No-op if called on another thread
+    public static void snapshotTaken() {
+        Runnable pin = pinCurrentRead.get();
+        if (pin != null) {
+            pin.run();
+        }
+    }
+
+    public synchronized void configure(boolean readsCanBypassWrites, int maxReadBypasses) {
+        this.readsCanBypassWrites = readsCanBypassWrites;
+        this.maxReadBypasses = maxReadBypasses;
+    }
+
+    public synchronized void submit(Kind kind, Runnable work) {
+        enqueue(new Task(nextSeq++, kind, work, null, null));
+    }
+
+    // Sets work (e.g. database maintenance) to run on the connection's thread once it's been idle
+    // for `idleDelayMillis` after a write. Pass null to remove. Should check hasPendingWork()
+    // regularly, and return as soon as there is some
+    public synchronized void setIdleWork(long idleDelayMillis, IdleWork work) {
+        this.idleWork = work;
+        this.idleDelayNanos = idleDelayMillis * 1_000_000;
+        notifyAll();
+    }
+
+    // Whether there's work waiting for the writer's thread
+    public synchronized boolean hasPendingWork() {
+        return !writes.isEmpty() || (readerThreadCount == 0 && !reads.isEmpty());
+    }
+
+    // Submits a write that can run together with adjacent writes of the same grouping
+    public synchronized void submitGrouped(Grouping grouping, Object item) {
+        enqueue(new Task(nextSeq++, Kind.WRITE, null, grouping, item));
+    }
+
+    private void enqueue(Task task) {
+        if (isShutDown) {
+            throw new IllegalStateException("Cannot submit database work after the connection was shut down");
+        }
+        if (task.kind == Kind.READ) {
+            reads.add(task);
+        } else {
+            writes.add(task);
+        }
+        maxQueueDepth = Math.max(maxQueueDepth, reads.size() + writes.size());
+        notifyAll();
+    }
+
+    // Lets already submitted work finish, then stops the threads
+    public synchronized void shutdown() {
+        isShutDown = true;
+        notifyAll();
+    }
+
+    // Takes next work for the writer's thread. Returns null once shut down
+    private synchronized Task takeNext() throws InterruptedException {
+        while (true) {
+            Task next = readerThreadCount > 0 ? nextWrite() : nextReadOrWrite();
+            if (next != null) {
+                if (next.kind != Kind.READ) {
+                    hasWrittenSinceIdleWork = true;
+                    runningWrite = next;
+                }
+                recordTaken(next);
+                return next;
+            }
+            boolean isIdle = writes.isEmpty() && (readerThreadCount > 0 || reads.isEmpty());
+            if (!isIdle) {
+                // A write is waiting for reads submitted before it
+                wait();
+            } else if (isShutDown) {
+                return null;
+            } else if (idleWork != null && hasWrittenSinceIdleWork) {
+                long remainingNanos = lastFinishedAt + idleDelayNanos - System.nanoTime();
+                if (remainingNanos <= 0) {
+                    hasWrittenSinceIdleWork = false;
+                    IdleWork work = idleWork;
+                    return new Task(-1, Kind.WRITE, () -> {
+                        if (!work.run()) {
+                            synchronized (this) {
+                                hasWrittenSinceIdleWork = true;
+                            }
+                        }
+                    }, null, null);
+                }
+                wait(remainingNanos / 1_000_000, (int) (remainingNanos % 1_000_000));
+            } else {
+                wait();
+            }
+        }
+    }
+
+    // Without reader threads, reads and writes both run on the writer's thread
+    private Task nextReadOrWrite() {
+        Task read = reads.peek();
+        Task write = writes.peek();
+        if (write == null) {
+            return reads.poll();
+        } else if (read == null) {
+            consecutiveBypasses = 0;
+            return writes.poll();
+        } else if (read.seq < write.seq) {
+            return reads.poll();
+        } else if (readsCanBypassWrites && consecutiveBypasses < maxReadBypasses && !hasForegroundWriteBefore(read.seq)) {
+            consecutiveBypasses++;
+            bypassCount++;
+            return reads.poll();
+        } else {
+            consecutiveBypasses = 0;
+            return writes.poll();
+        }
+    }
+
+    // With reader threads, a write waits for reads submitted before it to take their snapshot
+    private Task nextWrite() {
+        Task write = writes.peek();
+        if (write == null || hasReadBefore(write.seq)) {
+            return null;
+        }
+        return writes.poll();
+    }
+
+    // Whether a read submitted before `seq` is pending, or running without its snapshot taken
+    private boolean hasReadBefore(long seq) {
+        Task read = reads.peek();
+        if (read != null && read.seq < seq) {
+            return true;
+        }
+        for (Task unpinned : unpinnedReads) {
+            if (unpinned.seq < seq) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Whether a write other than BACKGROUND_WRITE submitted before `seq` is pending or running
+    private boolean hasForegroundWriteBefore(long seq) {
+        if (runningWrite != null && runningWrite.seq < seq && runningWrite.kind != Kind.BACKGROUND_WRITE) {
+            return true;
+        }
+        for (Task write : writes) {
+            if (write.seq > seq) {
+                break;
+            }
+            if (write.kind != Kind.BACKGROUND_WRITE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Takes next read for a reader thread. Returns null once shut down and no reads are left
+    private synchronized Task takeRead() throws InterruptedException {
+        while (true) {
+            // NOTE: Reads start in order, so if the first pending read can't start, no other can
+            Task read = reads.peek();
+            if (read != null) {
+                Task write = writes.peek();
+                boolean isAfterWrite = (write != null && write.seq < read.seq) ||
+                        (runningWrite != null && runningWrite.seq < read.seq);
+                if (!isAfterWrite || (readsCanBypassWrites && !hasForegroundWriteBefore(read.seq))) {
+                    if (isAfterWrite) {
+                        bypassCount++;
+                    }
+                    reads.poll();
+                    unpinnedReads.add(read);
+                    recordTaken(read);
+                    return read;
+                }
+            } else if (isShutDown) {
+                return null;
+            }
+            wait();
+        }
+    }
+
+    private synchronized void markPinned(Task read) {
+        if (unpinnedReads.remove(read)) {
+            notifyAll();
+        }
+    }
+
+    private void recordTaken(Task task) {
+        long waitNanos = System.nanoTime() - task.submittedAt;
+        executedCount++;
+        totalWaitNanos += waitNanos;
+        maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+    }
+
+    // Takes grouped writes queued right after `first`, waiting for more within the grouping's window
+    private synchronized List<Task> takeGroup(Task first) throws InterruptedException {
+        Grouping grouping = first.grouping;
+        List<Task> items = new ArrayList<>();
+        items.add(first);
+        long weight = grouping.weightOf(first.item);
+        long deadline = first.submittedAt + grouping.windowMillis() * 1_000_000;
+        while (items.size() < grouping.maxItems()) {
+            Task next = writes.peek();
+            if (next != null) {
+                if (next.grouping != grouping || hasReadBefore(next.seq)) {
+                    break;
+                }
+                long nextWeight = grouping.weightOf(next.item);
+                if (grouping.maxWeight() > 0 && weight + nextWeight > grouping.maxWeight()) {
+                    break;
+                }
+                writes.poll();
+                recordTaken(next);
+                items.add(next);
+                weight += nextWeight;
+                continue;
+            }
+            long remainingNanos = deadline - System.nanoTime();
+            if (remainingNanos <= 0 || !reads.isEmpty() || isShutDown) {
+                break;
+            }
+            wait(remainingNanos / 1_000_000, (int) (remainingNanos % 1_000_000));
+        }
+        return items;
+    }
+
+    private void runReaderLoop() {
+        while (true) {
+            Task task;
+            try {
+                task = takeRead();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (task == null) {
+                return;
+            }
+            pinCurrentRead.set(() -> markPinned(task));
+            try {
+                // NOTE: Work is expected to report its own errors (e.g. by rejecting a promise)
+                task.work.run();
+            } finally {
+                pinCurrentRead.remove();
+                markPinned(task);
+            }
+        }
+    }
+
+    private void runLoop() {
+        while (true) {
+            Task task;
+            try {
+                task = takeNext();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (task == null) {
+                return;
+            }
+            // NOTE: Work is expected to report its own errors (e.g. by rejecting a promise)
+            if (task.grouping != null) {
+                List<Task> group;
+                try {
+                    group = takeGroup(task);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                List<Object> items = new ArrayList<>(group.size());
+                long[] submittedAt = new long[group.size()];
+                for (int i = 0; i < group.size(); i++) {
+                    items.add(group.get(i).item);
+                    submittedAt[i] = group.get(i).submittedAt;
+                }
+                task.grouping.run(items, submittedAt);
+            } else {
+                task.work.run();
+            }
+            markFinished();
+        }
+    }
+
+    private synchronized void markFinished() {
+        lastFinishedAt = System.nanoTime();
+        if (runningWrite != null) {
+            runningWrite = null;
+            notifyAll();
+        }
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(
+                reads.size(),
+                writes.size(),
+                maxQueueDepth,
+                executedCount,
+                bypassCount,
+                executedCount > 0 ? totalWaitNanos / executedCount : 0,
+                maxWaitNanos
+        );
+    }
+
+    public synchronized void resetStats() {
+        maxQueueDepth = reads.size() + writes.size();
+        executedCount = 0;
+        bypassCount = 0;
+        totalWaitNanos = 0;
+        maxWaitNanos = 0;
+    }
+
+    public static class Stats {
+        public final int pendingReads;
+        public final int pendingWrites;
+        public final int maxQueueDepth;
+        public final long executedCount;
+        public final long bypassCount;
+        public final long averageWaitNanos;
+        public final long maxWaitNanos;
+
+        Stats(int pendingReads, int pendingWrites, int maxQueueDepth, long executedCount,
+              long bypassCount, long averageWaitNanos, long maxWaitNanos) {
+            this.pendingReads = pendingReads;
+            this.pendingWrites = pendingWrites;
+            this.maxQueueDepth = maxQueueDepth;
+            this.executedCount = executedCount;
+            this.bypassCount = bypassCount;
+            this.averageWaitNanos = averageWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.nozbe.watermelondb;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Base64;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+// Caches derived database keys, wrapped (AES-GCM) with a non-exportable Android Keystore key,
+// so that the expensive KDF only runs when a database is created or its passphrase changes.
+// Any failure (e.g. Keystore key invalidated) is treated as a cache miss
+class DatabaseKeyCache {
+    private static final String PREFERENCES_NAME = "com.nozbe.watermelondb.keys";
+    private static final String KEYSTORE = "AndroidKeyStore";
+    private static final String WRAPPING_KEY_ALIAS = "com.nozbe.watermelondb.keyWrapping";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+
+    private final SharedPreferences preferences;
+
+    DatabaseKeyCache(Context context) {
+        this.preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    byte[] get(String path, byte[] fingerprint) {
+        String stored = preferences.getString(path, null);
+        if (stored == null || fingerprint == null) {
+            return null;
+        }
+        try {
+            byte[] wrapped = Base64.decode(stored, Base64.NO_WRAP);
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, getWrappingKey(),
+                    new GCMParameterSpec(TAG_LENGTH_BITS, wrapped, 0, IV_LENGTH));
+            byte[] entry = cipher.doFinal(wrapped, IV_LENGTH, wrapped.length - IV_LENGTH);
+            byte[] storedFingerprint = Arrays.copyOfRange(entry, 0, entry.length - EncryptionConfig.KEY_LENGTH);
+            if (!MessageDigest.isEqual(storedFingerprint, fingerprint)) {
+                return null;
+            }
+            return Arrays.copyOfRange(entry, entry.length - EncryptionConfig.KEY_LENGTH, entry.length);
+        } catch (GeneralSecurityException | IOException | IllegalArgumentException e) {
+            preferences.edit().remove(path).apply();
+            return null;
+        }
+    }
+
+    void put(String path, byte[] fingerprint, byte[] rawKey) {
+        try {
+            byte[] entry = Arrays.copyOf(fingerprint, fingerprint.length + rawKey.length);
+            System.arraycopy(rawKey, 0, entry, fingerprint.length, rawKey.length);
+
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, getWrappingKey());
+            byte[] iv = cipher.getIV();
+            byte[] encrypted = cipher.doFinal(entry);
+            byte[] wrapped = Arrays.copyOf(iv, iv.length + encrypted.length);
+            System.arraycopy(encrypted, 0, wrapped, iv.length, encrypted.length);
+
+            preferences.edit().putString(path, Base64.encodeToString(wrapped, Base64.NO_WRAP)).apply();
+        } catch (GeneralSecurityException | IOException e) {
+            // Not fatal - we'll just have to derive the key again next time
+        }
+    }
+
+    private static SecretKey getWrappingKey() throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance(KEYSTORE);
+        keyStore.load(null);
+        KeyStore.Entry entry = keyStore.getEntry(WRAPPING_KEY_ALIAS, null);
+        if (entry instanceof KeyStore.SecretKeyEntry) {
+            return ((KeyStore.SecretKeyEntry) entry).getSecretKey();
+        }
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
+        generator.init(new KeyGenParameterSpec.Builder(WRAPPING_KEY_ALIAS,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .setKeySize(256)
+                .build());
+        return generator.generateKey();
+    }
+}
@@ -0,0 +1,138 @@
+package com.nozbe.watermelondb;
+
+// Keeps the WAL and free pages in check, in small slices run while the connection is idle (see
+// ConnectionExecutor.setIdleWork), instead of leaving it all to SQLite's autocheckpoint, which runs
+// as part of whichever write happens to cross the threshold.
+//
+// A slice checkpoints the WAL, then releases free pages with incremental_vacuum steps, until the
+// time budget runs out, or it's interrupted (user work arrived).
+// NOTE: A checkpoint can't be split, so a slice may take longer than its budget if the WAL is large.
+// NOTE: Must be used on the writer's thread, outside of a transaction
+public class DatabaseMaintenance {
+    public interface Interruption {
+        boolean shouldStop();
+    }
+
+    // Outcome of a single slice. WAL size is in bytes of frames in the WAL (0 if not in WAL mode)
+    public static class Report {
+        public long walBytesBefore;
+        public long walBytesAfter;
+        // Whether the checkpoint couldn't copy everything (e.g. readers are still using old frames)
+        public boolean isCheckpointBusy;
+        public long freelistPages;
+        public long pagesVacuumed;
+        public double millisSpent;
+        // Whether there's nothing left to do until the next write. A busy checkpoint is not retried
+        // until then, so that a long-open reader doesn't keep waking the connection up
+        public boolean isComplete;
+    }
+
+    public static class Stats {
+        public long slices;
+        public long interruptedSlices;
+        public long checkpoints;
+        public long pagesVacuumed;
+        public double millisSpent;
+        public long lastWalBytes = -1;
+        public long lastFreelistPages = -1;
+    }
+
+    private final WMDatabase database;
+    private MaintenanceOptions options = null;
+    private final Stats stats = new Stats();
+
+    DatabaseMaintenance(WMDatabase database) {
+        this.database = database;
+    }
+
+    // Pass null to disable
+    public synchronized void configure(MaintenanceOptions options) {
+        if (options != null) {
+            options.validate();
+        }
+        this.options = options;
+    }
+
+    public synchronized MaintenanceOptions getOptions() {
+        return options;
+    }
+
+    // Runs one slice. With `canTruncate` false, TRUNCATE checkpoints are downgraded to PASSIVE (e.g.
+    // while a query is open, a TRUNCATE checkpoint would wait for it). Returns null if disabled
+    public Report runSlice(boolean canTruncate, Interruption interruption) {
+        MaintenanceOptions options = getOptions();
+        if (options == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        long deadline = start + options.sliceMillis * 1_000_000;
+        Report report = new Report();
+        long pageSize = queryLong("pragma page_size");
+
+        String mode = canTruncate ? options.checkpointMode : "PASSIVE";
+        try (StorageCursor cursor = database.rawQuery("pragma wal_checkpoint(" + mode + ")")) {
+            if (cursor.moveToFirst()) {
+                long walFrames = cursor.getLong(1);
+                long checkpointedFrames = cursor.getLong(2);
+                report.isCheckpointBusy = cursor.getLong(0) != 0 || checkpointedFrames < walFrames;
+                // NOTE: -1 if not in WAL mode
+                report.walBytesBefore = Math.max(walFrames, 0) * (pageSize + 24);
+                report.walBytesAfter = mode.equals("TRUNCATE") && !report.isCheckpointBusy ? 0 : report.walBytesBefore;
+            }
+        }
+
+        report.freelistPages = queryLong("pragma freelist_count");
+        boolean canVacuum = options.vacuumPagesPerStep > 0 && queryLong("pragma auto_vacuum") == 2;
+        boolean isInterrupted = false;
+        while (canVacuum && report.freelistPages > 0) {
+            if (System.nanoTime() - deadline >= 0 || interruption.shouldStop()) {
+                isInterrupted = true;
+                break;
+            }
+            long pages = Math.min(report.freelistPages, options.vacuumPagesPerStep);
+            // NOTE: Stepped through like a query, since it returns rows in some SQLite versions
+            try (StorageCursor cursor = database.rawQuery("pragma incremental_vacuum(" + pages + ")")) {
+                while (cursor.moveToNext()) {
+                    // consume
+                }
+            }
+            long freelistPages = queryLong("pragma freelist_count");
+            if (freelistPages >= report.freelistPages) {
+                break;
+            }
+            report.pagesVacuumed += report.freelistPages - freelistPages;
+            report.freelistPages = freelistPages;
+        }
+
+        report.millisSpent = (System.nanoTime() - start) / 1e6;
+        report.isComplete = !isInterrupted;
+        synchronized (this) {
+            stats.slices++;
+            stats.interruptedSlices += isInterrupted ? 1 : 0;
+            stats.checkpoints++;
+            stats.pagesVacuumed += report.pagesVacuumed;
+            stats.millisSpent += report.millisSpent;
+            stats.lastWalBytes = report.walBytesAfter;
+            stats.lastFreelistPages = report.freelistPages;
+        }
+        return report;
+    }
+
+    public synchronized Stats getStats() {
+        Stats copy = new Stats();
+        copy.slices = stats.slices;
+        copy.interruptedSlices = stats.interruptedSlices;
+        copy.checkpoints = stats.checkpoints;
+        copy.pagesVacuumed = stats.pagesVacuumed;
+        copy.millisSpent = stats.millisSpent;
+        copy.lastWalBytes = stats.lastWalBytes;
+        copy.lastFreelistPages = stats.lastFreelistPages;
+        return copy;
+    }
+
+    private long queryLong(String sql) {
+        try (StorageCursor cursor = database.rawQuery(sql)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.nozbe.watermelondb;
+
+import android.content.Context;
+
+import net.zetetic.database.sqlcipher.SQLiteDatabase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Logger;
+
+// Opens a database before JS asks for it (e.g. from Application.onCreate), on a background thread,
+// so that opening the file and reading the schema version are off the critical path to first query.
+// The driver then picks up the open database instead of opening its own (see take).
+//
+// After opening, the database is warmed up, without holding up the driver: `warmQueries` (e.g. the
+// queries of the first screen) are run on a reader connection, so that SQLite has their pages
+// cached, and up to `warmFileBytes` of the WAL and the database file are read ahead, so that
+// they're in the OS page cache. Warm queries still to run are skipped once the driver takes the
+// database, and the driver waits for the one in progress, so that the database is not in use when
+// it's set up, reset or closed. Reading ahead doesn't use the database, and may go on after that.
+// NOTE: Pass the same name, profile and encryption as JS does. Only for the non-JSI adapter
+public final class DatabasePrewarm {
+    // Timings of the prewarm, and how long the driver had to wait for it
+    public static class Result {
+        public double openMillis = -1;
+        public double warmMillis = -1;
+        public double driverWaitMillis = -1;
+        public int schemaVersion = -1;
+        public int queriesWarmed = 0;
+        public long fileBytesWarmed = 0;
+        public String error;
+    }
+
+    private static final Map<String, DatabasePrewarm> PREWARMS = new HashMap<>();
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final CountDownLatch opened = new CountDownLatch(1);
+    // Counted down once warm queries are done with the database
+    private final CountDownLatch queriesDone = new CountDownLatch(1);
+    private volatile boolean isCancelled = false;
+    private final Result result = new Result();
+    private volatile WMDatabase database;
+    private boolean isTaken = false;
+
+    private DatabasePrewarm() {
+    }
+
+    // Starts opening the database on a background thread. Does nothing if it was already started
+    public static void start(Context context, String name, PerformanceProfile profile, EncryptionConfig encryption,
+                             List<String> warmQueries, long warmFileBytes) {
+        DatabasePrewarm prewarm;
+        synchronized (PREWARMS) {
+            if (PREWARMS.containsKey(name)) {
+                return;
+            }
+            prewarm = new DatabasePrewarm();
+            PREWARMS.put(name, prewarm);
+        }
+        Context appContext = context.getApplicationContext();
+        List<String> queries = warmQueries != null ? new ArrayList<>(warmQueries) : new ArrayList<>();
+        Thread thread = new Thread(() -> prewarm.run(appContext, name, profile, encryption, queries, warmFileBytes),
+                "WMDatabase-prewarm-" + name);
+        thread.start();
+    }
+
+    // Returns the prewarmed database (waiting for it to be opened, and for the warm query in progress,
+    // if needed), or null if it wasn't prewarmed, or failed to open. A database is only handed over
+    // once. With `isShared` false, it's removed from WMDatabase.INSTANCES, since it will be owned by
+    // one driver
+    static WMDatabase take(String name, boolean isShared) {
+        DatabasePrewarm prewarm;
+        synchronized (PREWARMS) {
+            prewarm = PREWARMS.get(name);
+            if (prewarm == null || prewarm.isTaken) {
+                return null;
+            }
+            prewarm.isTaken = true;
+        }
+        long start = System.nanoTime();
+        prewarm.isCancelled = true;
+        try {
+            prewarm.opened.await();
+            prewarm.queriesDone.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        WMDatabase database = prewarm.database;
+        synchronized (prewarm.result) {
+            prewarm.result.driverWaitMillis = (System.nanoTime() - start) / 1e6;
+        }
+        if (database == null || !database.isOpen()) {
+            return null;
+        }
+        if (!isShared) {
+            synchronized (WMDatabase.class) {
+                WMDatabase.INSTANCES.remove(name, database);
+            }
+        }
+        return database;
+    }
+
+    // null if the database wasn't prewarmed
+    public static Result getResult(String name) {
+        DatabasePrewarm prewarm;
+        synchronized (PREWARMS) {
+            prewarm = PREWARMS.get(name);
+        }
+        if (prewarm == null) {
+            return null;
+        }
+        Result copy = new Result();
+        synchronized (prewarm.result) {
+            copy.openMillis = prewarm.result.openMillis;
+            copy.warmMillis = prewarm.result.warmMillis;
+            copy.driverWaitMillis = prewarm.result.driverWaitMillis;
+            copy.schemaVersion = prewarm.result.schemaVersion;
+            copy.queriesWarmed = prewarm.result.queriesWarmed;
+            copy.fileBytesWarmed = prewarm.result.fileBytesWarmed;
+            copy.error = prewarm.result.error;
+        }
+        return copy;
+    }
+
+    private void run(Context context, String name, PerformanceProfile profile, EncryptionConfig encryption,
+                     List<String> warmQueries, long warmFileBytes) {
+        long start = System.nanoTime();
+        try {
+            // NOTE: Registered in WMDatabase.INSTANCES, so drivers with unsafeNativeReuse pick it up, too
+            WMDatabase database = WMDatabase.getInstance(name, context,
+                    SQLiteDatabase.CREATE_IF_NECESSARY | SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING, profile, encryption);
+            int schemaVersion = database.getUserVersion();
+            this.database = database;
+            synchronized (result) {
+                result.openMillis = (System.nanoTime() - start) / 1e6;
+                result.schemaVersion = schemaVersion;
+            }
+        } catch (RuntimeException e) {
+            queriesDone.countDown();
+            recordError(e);
+            return;
+        } finally {
+            opened.countDown();
+        }
+
+        long warmStart = System.nanoTime();
+        int queriesWarmed = 0;
+        try {
+            for (String query : warmQueries) {
+                if (isCancelled) {
+                    break;
+                }
+                database.read(reader -> {
+                    try (StorageCursor cursor = reader.rawQuery(query)) {
+                        while (cursor.moveToNext()) {
+                            // consume
+                        }
+                    }
+                    return null;
+                });
+                queriesWarmed++;
+            }
+        } catch (RuntimeException e) {
+            // NOTE: Warming up is best-effort - the database is usable anyway
+            recordError(e);
+        } finally {
+            synchronized (result) {
+                result.queriesWarmed = queriesWarmed;
+            }
+            queriesDone.countDown();
+        }
+
+        try {
+            // NOTE: WAL first - it has the most recently written pages, and is checked on every read
+            String path = WMDatabase.getDatabasePath(name, context);
+            long fileBytes = readAhead(new File(path + "-wal"), warmFileBytes);
+            fileBytes += readAhead(new File(path), warmFileBytes - fileBytes);
+            synchronized (result) {
+                result.fileBytesWarmed = fileBytes;
+                result.warmMillis = (System.nanoTime() - warmStart) / 1e6;
+            }
+        } catch (RuntimeException | IOException e) {
+            // NOTE: Warming up is best-effort - the database is usable anyway
+            recordError(e);
+        }
+    }
+
+    private void recordError(Exception e) {
+        synchronized (result) {
+            result.error = e.toString();
+        }
+        if (BuildConfig.DEBUG) {
+            Logger.getLogger("DB_Prewarm").warning("Failed to prewarm database: " + e);
+        }
+    }
+
+    // Reads up to `maxBytes` of the file, so that it's in the OS page cache. Returns bytes read
+    private static long readAhead(File file, long maxBytes) throws IOException {
+        if (maxBytes <= 0 || !file.exists()) {
+            return 0;
+        }
+        long total = 0;
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        try (FileInputStream stream = new FileInputStream(file)) {
+            while (total < maxBytes) {
+                int read = stream.read(buffer, 0, (int) Math.min(buffer.length, maxBytes - total));
+                if (read == -1) {
+                    break;
+                }
+                total += read;
+            }
+        }
+        return total;
+    }
+}
@@ -1,31 +1,89 @@
 package com.nozbe.watermelondb;
 
-import android.database.Cursor;
-import com.facebook.react.bridge.Arguments;
-import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.ReadableArray;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class DatabaseUtils {
-    public static WritableMap cursorToMap(Cursor cursor) {
-        WritableMap map = Arguments.createMap();
-        for (int i = 0; i < cursor.getColumnCount(); i++) {
-            switch (cursor.getType(i)) {
-                case Cursor.FIELD_TYPE_NULL:
-                    map.putNull(cursor.getColumnName(i));
+    public static void bindArgs(StorageStatement statement, Object[] args) {
+        for (int i = 0; i < args.length; i++) {
+            Object arg = args[i];
+            if (arg instanceof String) {
+                statement.bindString(i + 1, (String) arg);
+            } else if (arg instanceof Boolean) {
+                statement.bindLong(i + 1, (Boolean) arg ? 1 : 0);
+            } else if (arg instanceof Double) {
+                statement.bindDouble(i + 1, (Double) arg);
+            } else if (arg instanceof Long || arg instanceof Integer) {
+                statement.bindLong(i + 1, ((Number) arg).longValue());
+            } else if (arg == null) {
+                statement.bindNull(i + 1);
+            } else {
+                throw new IllegalArgumentException("Bad query arg type: " + arg.getClass().getCanonicalName());
+            }
+        }
+    }
+
+    // NOTE: Reads values by type instead of going through toArrayList() so that no
+    // intermediate collections or boxed values are allocated per row
+    public static void bindArgs(StorageStatement statement, ReadableArray args) {
+        for (int i = 0; i < args.size(); i++) {
+            switch (args.getType(i)) {
+                case String:
+                    statement.bindString(i + 1, args.getString(i));
                     break;
-                case Cursor.FIELD_TYPE_INTEGER:
-                case Cursor.FIELD_TYPE_FLOAT:
-                    map.putDouble(cursor.getColumnName(i), cursor.getDouble(i));
+                case Boolean:
+                    statement.bindLong(i + 1, args.getBoolean(i) ? 1 : 0);
                     break;
-                case Cursor.FIELD_TYPE_STRING:
-                    map.putString(cursor.getColumnName(i), cursor.getString(i));
+                case Number:
+                    statement.bindDouble(i + 1, args.getDouble(i));
                     break;
-                case Cursor.FIELD_TYPE_BLOB:
-                default:
-                    map.putString(cursor.getColumnName(i), "");
+                case Null:
+                    statement.bindNull(i + 1);
                     break;
+                default:
+                    throw new IllegalArgumentException("Bad query arg type: " + args.getType(i));
+            }
+        }
+    }
+
+    // insert / replace / update / delete, and the table written to
+    private static final Pattern WRITTEN_TABLE = Pattern.compile(
+            "^\\s*(?:insert(?:\\s+or\\s+\\w+)?\\s+into|replace\\s+into|update(?:\\s+or\\s+\\w+)?|delete\\s+from)\\s+" +
+                    "(?:\"([^\"]+)\"|`([^`]+)`|\\[([^\\]]+)\\]|(\\w+))(\\s*\\.)?",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern INDEX_STATEMENT = Pattern.compile("^\\s*(?:create|drop)\\s+(?:unique\\s+)?index\\b",
+            Pattern.CASE_INSENSITIVE);
+
+    // Name of the table `sql` writes to, or null if it's not a simple insert/update/delete
+    // NOTE: Schema-qualified names (`main.tasks`) are not handled
+    public static String writtenTable(String sql) {
+        Matcher matcher = WRITTEN_TABLE.matcher(sql);
+        if (!matcher.find() || matcher.group(5) != null) {
+            return null;
+        }
+        for (int group = 1; group <= 4; group++) {
+            if (matcher.group(group) != null) {
+                return matcher.group(group);
             }
         }
-        return map;
+        return null;
+    }
+
+    // Whether `sql` only creates or drops an index (doesn't change any data)
+    public static boolean isIndexStatement(String sql) {
+        return INDEX_STATEMENT.matcher(sql).find();
+    }
+
+    // Count queries generated by encodeQuery: `select count(*) as "count" from ...` or
+    // `select count(distinct "table"."id") as "count" from ...`
+    private static final Pattern COUNT_FIRST = Pattern.compile(
+            "^select count\\((?:\\*|distinct \"[^\"]+\"\\.\"id\")\\) as \"count\" from ");
+
+    // Whether `count` is the first column of `sql`, so it can be read without looking up its name
+    public static boolean isCountFirst(String sql) {
+        return COUNT_FIRST.matcher(sql).find();
     }
 
     public static <T> boolean arrayContains(final T[] array, final T value) {
@@ -0,0 +1,156 @@
+package com.nozbe.watermelondb;
+
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Column metadata of a query's results (names, position of `id`), resolved once and reused for
+// every row, and every later run of the same SQL - so that decoding a row is a loop over column
+// indexes with no name lookups.
+//
+// NOTE: Value types are still read per cell. Schema SQL generated by WatermelonDB doesn't declare
+// column types, and SQLite is dynamically typed, so any cell can be NULL or of another type than
+// the rest of its column
+public final class DecodingPlan {
+    public final String[] columnNames;
+    // -1 if results don't have an `id` column
+    public final int idColumnIndex;
+    // Sum of lengths of column names, for estimating bytes bridged
+    private final long columnNamesSize;
+
+    private DecodingPlan(String[] columnNames) {
+        this.columnNames = columnNames;
+        int idColumnIndex = -1;
+        long columnNamesSize = 0;
+        for (int i = 0; i < columnNames.length; i++) {
+            if (idColumnIndex == -1 && columnNames[i].equals("id")) {
+                idColumnIndex = i;
+            }
+            columnNamesSize += columnNames[i].length();
+        }
+        this.idColumnIndex = idColumnIndex;
+        this.columnNamesSize = columnNamesSize;
+    }
+
+    public static DecodingPlan of(StorageCursor cursor) {
+        return new DecodingPlan(cursor.getColumnNames());
+    }
+
+    // Cheap sanity check that a cached plan still fits the query's results
+    boolean matches(StorageCursor cursor) {
+        return cursor.getColumnCount() == columnNames.length;
+    }
+
+    public WritableArray columnNamesToArray(DriverStats stats) {
+        WritableArray array = Platform.current().createArray();
+        for (String columnName : columnNames) {
+            array.pushString(columnName);
+        }
+        if (stats != null) {
+            stats.current().bytesBridged += columnNamesSize;
+        }
+        return array;
+    }
+
+    // Row as { column: value }. NULL as null, numbers as doubles, BLOBs as empty strings (not supported)
+    public WritableMap decodeToMap(StorageCursor cursor, DriverStats stats) {
+        WritableMap map = Platform.current().createMap();
+        String[] names = columnNames;
+        long size = columnNamesSize;
+        for (int i = 0; i < names.length; i++) {
+            switch (cursor.getType(i)) {
+                case StorageCursor.FIELD_TYPE_NULL:
+                    map.putNull(names[i]);
+                    break;
+                case StorageCursor.FIELD_TYPE_INTEGER:
+                case StorageCursor.FIELD_TYPE_FLOAT:
+                    map.putDouble(names[i], cursor.getDouble(i));
+                    size += 8;
+                    break;
+                case StorageCursor.FIELD_TYPE_STRING:
+                    String value = cursor.getString(i);
+                    map.putString(names[i], value);
+                    size += value.length();
+                    break;
+                case StorageCursor.FIELD_TYPE_BLOB:
+                default:
+                    map.putString(names[i], "");
+                    break;
+            }
+        }
+        if (stats != null) {
+            stats.current().bytesBridged += size;
+        }
+        return map;
+    }
+
+    // Columnar format: same values as decodeToMap, in column order, without names (those are sent
+    // once per result - see columnNamesToArray, and decodeQueryResult on the JS side)
+    public WritableArray decodeToArray(StorageCursor cursor, DriverStats stats) {
+        WritableArray array = Platform.current().createArray();
+        int columnCount = columnNames.length;
+        long size = 0;
+        for (int i = 0; i < columnCount; i++) {
+            switch (cursor.getType(i)) {
+                case StorageCursor.FIELD_TYPE_NULL:
+                    array.pushNull();
+                    break;
+                case StorageCursor.FIELD_TYPE_INTEGER:
+                case StorageCursor.FIELD_TYPE_FLOAT:
+                    array.pushDouble(cursor.getDouble(i));
+                    size += 8;
+                    break;
+                case StorageCursor.FIELD_TYPE_STRING:
+                    String value = cursor.getString(i);
+                    array.pushString(value);
+                    size += value.length();
+                    break;
+                case StorageCursor.FIELD_TYPE_BLOB:
+                default:
+                    array.pushString("");
+                    break;
+            }
+        }
+        if (stats != null) {
+            stats.current().bytesBridged += size;
+        }
+        return array;
+    }
+
+    // Bounded LRU of plans, keyed by SQL text. Must be cleared when the schema changes.
+    // NOTE: Thread-safe
+    public static class Cache {
+        public static final int DEFAULT_MAX_SIZE = 64;
+
+        private final LinkedHashMap<String, DecodingPlan> plans;
+
+        public Cache(int maxSize) {
+            this.plans = new LinkedHashMap<String, DecodingPlan>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, DecodingPlan> eldest) {
+                    return size() > maxSize;
+                }
+            };
+        }
+
+        // Returns the plan for `sql`, building it from `cursor` if needed
+        public synchronized DecodingPlan get(String sql, StorageCursor cursor) {
+            DecodingPlan plan = plans.get(sql);
+            if (plan == null || !plan.matches(cursor)) {
+                plan = DecodingPlan.of(cursor);
+                plans.put(sql, plan);
+            }
+            return plan;
+        }
+
+        public synchronized void clear() {
+            plans.clear();
+        }
+
+        public synchronized int size() {
+            return plans.size();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.nozbe.watermelondb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Per-connection instrumentation of driver operations: latency histograms (split into time
+// spent waiting in queue and executing), and counters of rows and bytes that crossed the bridge.
+//
+// Driver code adds to the counters of the call in progress (`current()`), which are folded into
+// the operation's totals by endCall(). Counters are per thread, since reads run on multiple threads
+// at once. Apart from the first call of each operation (and on each thread), nothing is allocated
+public class DriverStats {
+    // Receives every completed operation, e.g. to forward to a telemetry pipeline.
+    // Called on the thread that ran the operation, so it must be fast
+    public interface Listener {
+        void onOperationCompleted(int tag, String operation, long queueWaitNanos, long executionNanos,
+                                  long rowsReturned, long rowsWritten, boolean failed);
+    }
+
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public static void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public static class OperationStats {
+        public final String operation;
+        public final LatencyHistogram queueWait = new LatencyHistogram();
+        public final LatencyHistogram execution = new LatencyHistogram();
+        public long count = 0;
+        public long errors = 0;
+        public long rowsReturned = 0;
+        public long rowsWritten = 0;
+        public long cacheHits = 0;
+        public long fullRecords = 0;
+        public long bytesBridged = 0;
+
+        OperationStats(String operation) {
+            this.operation = operation;
+        }
+
+        void reset() {
+            queueWait.reset();
+            execution.reset();
+            count = 0;
+            errors = 0;
+            rowsReturned = 0;
+            rowsWritten = 0;
+            cacheHits = 0;
+            fullRecords = 0;
+            bytesBridged = 0;
+        }
+    }
+
+    private final Map<String, OperationStats> operations = new HashMap<>();
+
+    // Counters of a call in progress
+    static class Counters {
+        long rowsReturned = 0;
+        long rowsWritten = 0;
+        long cacheHits = 0;
+        long fullRecords = 0;
+        long bytesBridged = 0;
+    }
+
+    private final ThreadLocal<Counters> counters = new ThreadLocal<>();
+
+    // Counters of the call in progress on this thread
+    Counters current() {
+        Counters current = counters.get();
+        if (current == null) {
+            current = new Counters();
+            counters.set(current);
+        }
+        return current;
+    }
+
+    public void beginCall() {
+        Counters current = current();
+        current.rowsReturned = 0;
+        current.rowsWritten = 0;
+        current.cacheHits = 0;
+        current.fullRecords = 0;
+        current.bytesBridged = 0;
+    }
+
+    public void endCall(int tag, String operation, long queueWaitNanos, long executionNanos, boolean failed) {
+        Counters current = current();
+        synchronized (this) {
+            OperationStats stats = operations.get(operation);
+            if (stats == null) {
+                stats = new OperationStats(operation);
+                operations.put(operation, stats);
+            }
+            stats.count++;
+            if (failed) {
+                stats.errors++;
+            }
+            stats.queueWait.record(queueWaitNanos);
+            stats.execution.record(executionNanos);
+            stats.rowsReturned += current.rowsReturned;
+            stats.rowsWritten += current.rowsWritten;
+            stats.cacheHits += current.cacheHits;
+            stats.fullRecords += current.fullRecords;
+            stats.bytesBridged += current.bytesBridged;
+        }
+        for (Listener listener : listeners) {
+            listener.onOperationCompleted(tag, operation, queueWaitNanos, executionNanos,
+                    current.rowsReturned, current.rowsWritten, failed);
+        }
+    }
+
+    // NOTE: Returned objects are live - read them while holding this object's monitor
+    public synchronized List<OperationStats> getOperations() {
+        return new ArrayList<>(operations.values());
+    }
+
+    public synchronized void reset() {
+        for (OperationStats stats : operations.values()) {
+            stats.reset();
+        }
+    }
+}
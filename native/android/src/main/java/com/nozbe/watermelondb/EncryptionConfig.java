@@ -0,0 +1,183 @@
+package com.nozbe.watermelondb;
+
+import android.content.Context;
+
+import com.facebook.react.bridge.ReadableMap;
+
+import net.zetetic.database.sqlcipher.SQLiteConnection;
+import net.zetetic.database.sqlcipher.SQLiteDatabaseHook;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// At-rest encryption settings (SQLCipher 4 compatible).
+//
+// NOTE: SQLCipher would normally run PBKDF2 on the passphrase every time the database is opened,
+// which takes hundreds of milliseconds with the default iteration count. Instead, we derive the
+// key ourselves (same algorithm, so the file can still be opened with the passphrase elsewhere),
+// pass it to SQLCipher as a raw key, and cache it wrapped with a Keystore key (see DatabaseKeyCache)
+public class EncryptionConfig {
+    public static final int DEFAULT_KDF_ITERATIONS = 256000;
+    public static final int DEFAULT_CIPHER_PAGE_SIZE = 4096;
+
+    static final int KEY_LENGTH = 32;
+    static final int SALT_LENGTH = 16;
+    private static final byte[] PLAINTEXT_HEADER = "SQLite format 3\u0000".getBytes(StandardCharsets.US_ASCII);
+
+    public final String passphrase;
+    public final int kdfIterations;
+    public final int cipherPageSize;
+    public final boolean cachesDerivedKey;
+
+    public EncryptionConfig(String passphrase, int kdfIterations, int cipherPageSize, boolean cachesDerivedKey) {
+        if (passphrase == null || passphrase.isEmpty()) {
+            throw new IllegalArgumentException("Encryption passphrase must not be empty");
+        }
+        if (kdfIterations < 1) {
+            throw new IllegalArgumentException("Invalid KDF iteration count: " + kdfIterations);
+        }
+        if (cipherPageSize < 512 || cipherPageSize > 65536 || Integer.bitCount(cipherPageSize) != 1) {
+            throw new IllegalArgumentException("Invalid cipher page size: " + cipherPageSize);
+        }
+        this.passphrase = passphrase;
+        this.kdfIterations = kdfIterations;
+        this.cipherPageSize = cipherPageSize;
+        this.cachesDerivedKey = cachesDerivedKey;
+    }
+
+    // Parses `{ passphrase, kdfIterations?, cipherPageSize?, cachesDerivedKey? }` passed from JS.
+    // Returns null (no encryption) if map is null
+    public static EncryptionConfig fromMap(ReadableMap map) {
+        if (map == null) {
+            return null;
+        }
+        return new EncryptionConfig(
+                map.getString("passphrase"),
+                map.hasKey("kdfIterations") && !map.isNull("kdfIterations") ? map.getInt("kdfIterations") : DEFAULT_KDF_ITERATIONS,
+                map.hasKey("cipherPageSize") && !map.isNull("cipherPageSize") ? map.getInt("cipherPageSize") : DEFAULT_CIPHER_PAGE_SIZE,
+                !map.hasKey("cachesDerivedKey") || map.isNull("cachesDerivedKey") || map.getBoolean("cachesDerivedKey")
+        );
+    }
+
+    // Returns key data to pass to SQLCipher, in raw key form: x'<key><salt>'
+    byte[] resolveKey(Context context, String path) {
+        File file = new File(path);
+        byte[] salt = readSalt(file);
+        byte[] rawKey = null;
+        DatabaseKeyCache cache = cachesDerivedKey ? new DatabaseKeyCache(context) : null;
+
+        if (cache != null) {
+            rawKey = cache.get(path, fingerprint(salt));
+        }
+        if (rawKey == null) {
+            if (salt == null) {
+                salt = new byte[SALT_LENGTH];
+                new SecureRandom().nextBytes(salt);
+            }
+            rawKey = deriveKey(salt);
+            if (cache != null) {
+                cache.put(path, fingerprint(salt), rawKey);
+            }
+        }
+
+        return ("x'" + toHex(rawKey) + toHex(salt) + "'").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    SQLiteDatabaseHook createHook() {
+        return new SQLiteDatabaseHook() {
+            @Override
+            public void preKey(SQLiteConnection connection) {
+            }
+
+            @Override
+            public void postKey(SQLiteConnection connection) {
+                connection.execute("pragma cipher_page_size = " + cipherPageSize, null, null);
+            }
+        };
+    }
+
+    // SQLCipher keeps the KDF salt in the first 16 bytes of the file. Returns null for a new database
+    private static byte[] readSalt(File file) {
+        if (!file.exists() || file.length() < SALT_LENGTH) {
+            return null;
+        }
+        byte[] salt = new byte[SALT_LENGTH];
+        try (FileInputStream stream = new FileInputStream(file)) {
+            if (stream.read(salt) != SALT_LENGTH) {
+                return null;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read database header", e);
+        }
+        if (Arrays.equals(salt, PLAINTEXT_HEADER)) {
+            throw new IllegalStateException("Database at " + file.getPath() + " exists and is not encrypted");
+        }
+        return salt;
+    }
+
+    // Identifies passphrase + KDF settings, so that a cached key is not used after they change.
+    // Stored only inside the wrapped (encrypted) cache entry
+    private byte[] fingerprint(byte[] salt) {
+        if (salt == null) {
+            return null;
+        }
+        return hmacSha512(passphrase.getBytes(StandardCharsets.UTF_8),
+                concat(salt, Integer.toString(kdfIterations).getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    // PBKDF2-HMAC-SHA512, like SQLCipher 4. Implemented by hand because SecretKeyFactory only
+    // supports SHA-512 on API 26+
+    private byte[] deriveKey(byte[] salt) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA512");
+            mac.init(new SecretKeySpec(passphrase.getBytes(StandardCharsets.UTF_8), "HmacSHA512"));
+            // KEY_LENGTH is smaller than the SHA-512 output, so a single block is enough
+            mac.update(salt);
+            mac.update(new byte[]{0, 0, 0, 1});
+            byte[] u = mac.doFinal();
+            byte[] result = u.clone();
+            for (int i = 1; i < kdfIterations; i++) {
+                u = mac.doFinal(u);
+                for (int j = 0; j < result.length; j++) {
+                    result[j] ^= u[j];
+                }
+            }
+            return Arrays.copyOf(result, KEY_LENGTH);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not derive database key", e);
+        }
+    }
+
+    private static byte[] hmacSha512(byte[] key, byte[] data) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA512");
+            mac.init(new SecretKeySpec(key, "HmacSHA512"));
+            return mac.doFinal(data);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not compute key fingerprint", e);
+        }
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte value : bytes) {
+            builder.append(Character.forDigit((value >> 4) & 0xF, 16));
+            builder.append(Character.forDigit(value & 0xF, 16));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,119 @@
+package com.nozbe.watermelondb;
+
+import com.facebook.react.bridge.ReadableArray;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Group commit: small batches submitted close together (within `windowMillis` of the first one,
+// or while an earlier commit is in progress) are committed in a single transaction, instead of one
+// transaction (and WAL sync) each. Groups are capped at `maxBatches` batches and `maxRows` rows.
+//
+// Each batch still succeeds or fails on its own: if a group fails, it's rolled back, and its
+// batches are re-run one by one (see WMDatabaseDriver.batchGroup).
+// NOTE: Batches are grouped by ConnectionExecutor, so only batches that are next to each other in
+// its queue are merged, and order of reads and writes is preserved
+public class GroupCommit implements ConnectionExecutor.Grouping {
+    public interface Callback {
+        // Exactly one of the arguments is null
+        void onResult(ChangeSet changes, RuntimeException error);
+    }
+
+    public static class Batch {
+        final ReadableArray operations;
+        final Callback callback;
+        final int rowCount;
+
+        public Batch(ReadableArray operations, Callback callback) {
+            this.operations = operations;
+            this.callback = callback;
+            int rows = 0;
+            for (int i = 0; i < operations.size(); i++) {
+                rows += operations.getArray(i).getArray(3).size();
+            }
+            this.rowCount = rows;
+        }
+    }
+
+    public static class Stats {
+        public long batches;
+        public long commits;
+        // Groups that failed, and were re-run one batch at a time
+        public long fallbacks;
+        public int maxGroupSize;
+
+        // Average number of batches per commit
+        public double coalescingRatio() {
+            return commits == 0 ? 0 : (double) batches / commits;
+        }
+    }
+
+    private final WMDatabaseDriver driver;
+    // Connection tag, for DriverStats
+    final int tag;
+    public final long windowMillis;
+    public final int maxBatches;
+    public final int maxRows;
+    // Guarded by this object (read on other threads)
+    private final Stats stats = new Stats();
+
+    GroupCommit(WMDatabaseDriver driver, int tag, long windowMillis, int maxBatches, int maxRows) {
+        if (windowMillis < 0 || maxBatches < 1 || maxRows < 0) {
+            throw new IllegalArgumentException("Invalid group commit options: windowMillis " + windowMillis +
+                    ", maxBatches " + maxBatches + ", maxRows " + maxRows);
+        }
+        this.driver = driver;
+        this.tag = tag;
+        this.windowMillis = windowMillis;
+        this.maxBatches = maxBatches;
+        this.maxRows = maxRows;
+    }
+
+    @Override
+    public int maxItems() {
+        return maxBatches;
+    }
+
+    @Override
+    public long maxWeight() {
+        return maxRows;
+    }
+
+    @Override
+    public long weightOf(Object item) {
+        return ((Batch) item).rowCount;
+    }
+
+    @Override
+    public long windowMillis() {
+        return windowMillis;
+    }
+
+    @Override
+    public void run(List<Object> items, long[] submittedAtNanos) {
+        List<Batch> batches = new ArrayList<>(items.size());
+        for (Object item : items) {
+            batches.add((Batch) item);
+        }
+        // NOTE: Batches' callbacks deliver their results, so they run within the call, too
+        driver.runCall(() -> driver.batchGroup(this, batches, submittedAtNanos));
+    }
+
+    synchronized void recordCommit(int batchCount, boolean isFallback) {
+        stats.batches += batchCount;
+        stats.commits += isFallback ? batchCount : 1;
+        stats.maxGroupSize = Math.max(stats.maxGroupSize, batchCount);
+        if (isFallback) {
+            stats.fallbacks++;
+        }
+    }
+
+    public synchronized Stats getStats() {
+        Stats copy = new Stats();
+        copy.batches = stats.batches;
+        copy.commits = stats.commits;
+        copy.fallbacks = stats.fallbacks;
+        copy.maxGroupSize = stats.maxGroupSize;
+        return copy;
+    }
+}
@@ -0,0 +1,80 @@
+package com.nozbe.watermelondb;
+
+// Fixed-size log-linear histogram of durations in microseconds (8 buckets per power of two, so
+// ~12% precision). Recording doesn't allocate.
+// NOTE: Not thread-safe, callers must synchronize
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Enough for ~2^40us (~12 days)
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount = 0;
+    private long totalMicros = 0;
+    private long maxMicros = 0;
+
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts[bucketIndex(micros)]++;
+        totalCount++;
+        totalMicros += micros;
+        maxMicros = Math.max(maxMicros, micros);
+    }
+
+    public long getCount() {
+        return totalCount;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    public double getMeanMicros() {
+        return totalCount > 0 ? (double) totalMicros / totalCount : 0;
+    }
+
+    // Returns (lower bound of the bucket containing) the value at the given percentile (0-100)
+    public long getPercentileMicros(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(totalCount * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(bucketLowerBound(i), maxMicros);
+            }
+        }
+        return maxMicros;
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = 0;
+        }
+        totalCount = 0;
+        totalMicros = 0;
+        maxMicros = 0;
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return Math.min((exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket, BUCKET_COUNT - 1);
+    }
+
+    private static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        return (1L << exponent) | ((long) subBucket << (exponent - SUB_BUCKET_BITS));
+    }
+}
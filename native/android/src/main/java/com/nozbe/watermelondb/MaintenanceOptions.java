@@ -0,0 +1,52 @@
+package com.nozbe.watermelondb;
+
+import com.facebook.react.bridge.ReadableMap;
+
+// When and how DatabaseMaintenance runs: once the connection has been idle for `idleDelayMillis`
+// after a write, in slices of up to `sliceMillis`
+public class MaintenanceOptions {
+    public static final long DEFAULT_IDLE_DELAY_MILLIS = 2000;
+    public static final long DEFAULT_SLICE_MILLIS = 50;
+    public static final int DEFAULT_VACUUM_PAGES_PER_STEP = 128;
+
+    public long idleDelayMillis = DEFAULT_IDLE_DELAY_MILLIS;
+    public long sliceMillis = DEFAULT_SLICE_MILLIS;
+    // PASSIVE checkpoints copy what they can from the WAL without waiting for anyone. TRUNCATE also
+    // waits for readers, and then truncates the WAL file to zero bytes
+    public String checkpointMode = "PASSIVE";
+    // Free pages released by each incremental_vacuum step. 0 disables vacuuming. Only has effect if
+    // the database has auto_vacuum = INCREMENTAL (see PerformanceProfile.autoVacuum)
+    public int vacuumPagesPerStep = DEFAULT_VACUUM_PAGES_PER_STEP;
+
+    public void validate() {
+        if (idleDelayMillis < 0 || sliceMillis <= 0 || vacuumPagesPerStep < 0) {
+            throw new IllegalArgumentException("Invalid maintenance options: idleDelayMillis " + idleDelayMillis +
+                    ", sliceMillis " + sliceMillis + ", vacuumPagesPerStep " + vacuumPagesPerStep);
+        }
+        if (!checkpointMode.equals("PASSIVE") && !checkpointMode.equals("TRUNCATE")) {
+            throw new IllegalArgumentException("Invalid checkpoint mode: " + checkpointMode);
+        }
+    }
+
+    // Parses `{ idleDelayMillis?, sliceMillis?, checkpointMode?, vacuumPagesPerStep? }` passed from JS
+    public static MaintenanceOptions fromMap(ReadableMap map) {
+        MaintenanceOptions options = new MaintenanceOptions();
+        if (map == null) {
+            return options;
+        }
+        if (map.hasKey("idleDelayMillis") && !map.isNull("idleDelayMillis")) {
+            options.idleDelayMillis = (long) map.getDouble("idleDelayMillis");
+        }
+        if (map.hasKey("sliceMillis") && !map.isNull("sliceMillis")) {
+            options.sliceMillis = (long) map.getDouble("sliceMillis");
+        }
+        if (map.hasKey("checkpointMode") && !map.isNull("checkpointMode")) {
+            options.checkpointMode = map.getString("checkpointMode").toUpperCase();
+        }
+        if (map.hasKey("vacuumPagesPerStep") && !map.isNull("vacuumPagesPerStep")) {
+            options.vacuumPagesPerStep = map.getInt("vacuumPagesPerStep");
+        }
+        options.validate();
+        return options;
+    }
+}
@@ -0,0 +1,70 @@
+package com.nozbe.watermelondb;
+
+import android.content.ComponentCallbacks2;
+
+// Tiered response to memory pressure (levels passed to ComponentCallbacks2.onTrimMemory).
+// Each tier does everything the tiers below it do:
+// - RELEASE_SQLITE_MEMORY: SQLite frees its page cache and other memory it can rebuild
+// - SHRINK_CACHES: half of the compiled statements are closed, idle reader connections are
+//   closed (they're reopened when needed), record caches are compacted
+// - DROP_CACHES: all compiled statements are closed and record caches are dropped. Records JS
+//   already has are then sent as full records again, until they're cached anew. Queries open
+//   for reading in chunks are closed (otherwise, only the idle ones are)
+public final class MemoryTrim {
+    public enum Tier {
+        NONE,
+        RELEASE_SQLITE_MEMORY,
+        SHRINK_CACHES,
+        DROP_CACHES
+    }
+
+    private MemoryTrim() {
+    }
+
+    // NOTE: RUNNING_* levels (app in foreground) are lower than background levels, but more urgent
+    public static Tier tierFor(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            return Tier.DROP_CACHES;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            return Tier.SHRINK_CACHES;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            return Tier.RELEASE_SQLITE_MEMORY;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return Tier.DROP_CACHES;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return Tier.SHRINK_CACHES;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            return Tier.RELEASE_SQLITE_MEMORY;
+        }
+        return Tier.NONE;
+    }
+
+    // What a trim freed. Byte counts are -1 if they couldn't be measured
+    public static class Result {
+        public final Tier tier;
+        // Heap freed by SQLite (page caches, compiled statements), across all of its connections
+        public long sqliteBytes = -1;
+        public int statementsClosed = 0;
+        public int readersClosed = 0;
+        public long recordCacheBytes = 0;
+        public int recordIdsDropped = 0;
+        public int queriesClosed = 0;
+        public long resultCacheBytes = 0;
+
+        public Result(Tier tier) {
+            this.tier = tier;
+        }
+
+        public long totalBytes() {
+            return Math.max(sqliteBytes, 0) + recordCacheBytes + resultCacheBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "Trimmed memory (" + tier + "): " + totalBytes() + " bytes freed - SQLite: " + sqliteBytes +
+                    " bytes, " + statementsClosed + " statements and " + readersClosed + " readers closed, record cache: " +
+                    recordCacheBytes + " bytes, " + recordIdsDropped + " ids dropped, " + queriesClosed + " open queries closed, query result cache: " +
+                    resultCacheBytes + " bytes";
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.nozbe.watermelondb;
+
+import com.facebook.react.bridge.ReadableMap;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// SQLite settings applied when a database is opened. `null` means "leave SQLite/Android default"
+public class PerformanceProfile {
+    public int readerCount = WMDatabase.DEFAULT_READER_COUNT;
+    public Long mmapSize;
+    // Negative values are in KiB, positive values are in pages (see sqlite docs)
+    public Integer cacheSize;
+    // NOTE: Only takes effect when the database file is created
+    public Integer pageSize;
+    public String synchronous;
+    public String tempStore;
+    public Long journalSizeLimit;
+    // NONE, FULL, or INCREMENTAL (free pages are then released by DatabaseMaintenance).
+    // NOTE: Only takes effect when the database file is created
+    public String autoVacuum;
+
+    private static final List<String> SYNCHRONOUS_VALUES = Arrays.asList("OFF", "NORMAL", "FULL", "EXTRA");
+    private static final List<String> TEMP_STORE_VALUES = Arrays.asList("DEFAULT", "FILE", "MEMORY");
+    private static final List<String> AUTO_VACUUM_VALUES = Arrays.asList("NONE", "FULL", "INCREMENTAL");
+
+    public static PerformanceProfile defaults() {
+        return new PerformanceProfile();
+    }
+
+    // Safe for most apps. NORMAL is durable in WAL mode except for a power loss right after commit
+    public static PerformanceProfile balanced() {
+        PerformanceProfile profile = new PerformanceProfile();
+        profile.synchronous = "NORMAL";
+        profile.tempStore = "MEMORY";
+        profile.cacheSize = -8 * 1024;
+        profile.journalSizeLimit = 32L * 1024 * 1024;
+        return profile;
+    }
+
+    // Large, mostly-read databases: memory-mapped I/O avoids copying pages into the page cache
+    public static PerformanceProfile readHeavy() {
+        PerformanceProfile profile = balanced();
+        profile.readerCount = 4;
+        profile.mmapSize = 256L * 1024 * 1024;
+        profile.cacheSize = -16 * 1024;
+        return profile;
+    }
+
+    // Initial sync and other large imports
+    public static PerformanceProfile bulkIngest() {
+        PerformanceProfile profile = balanced();
+        profile.readerCount = 1;
+        profile.cacheSize = -32 * 1024;
+        profile.journalSizeLimit = 64L * 1024 * 1024;
+        return profile;
+    }
+
+    public static PerformanceProfile preset(String name) {
+        switch (name) {
+            case "default":
+                return defaults();
+            case "balanced":
+                return balanced();
+            case "readHeavy":
+                return readHeavy();
+            case "bulkIngest":
+                return bulkIngest();
+            default:
+                throw new IllegalArgumentException("Unknown performance profile preset: " + name);
+        }
+    }
+
+    // Parses `{ preset?, readerCount?, mmapSize?, cacheSize?, pageSize?, synchronous?, tempStore?,
+    // journalSizeLimit?, autoVacuum? }` passed from JS. Explicit values override the preset
+    public static PerformanceProfile fromMap(ReadableMap map) {
+        if (map == null) {
+            return defaults();
+        }
+        PerformanceProfile profile = map.hasKey("preset") && !map.isNull("preset")
+                ? preset(map.getString("preset"))
+                : defaults();
+        if (map.hasKey("readerCount") && !map.isNull("readerCount")) {
+            profile.readerCount = map.getInt("readerCount");
+        }
+        if (map.hasKey("mmapSize") && !map.isNull("mmapSize")) {
+            profile.mmapSize = (long) map.getDouble("mmapSize");
+        }
+        if (map.hasKey("cacheSize") && !map.isNull("cacheSize")) {
+            profile.cacheSize = map.getInt("cacheSize");
+        }
+        if (map.hasKey("pageSize") && !map.isNull("pageSize")) {
+            profile.pageSize = map.getInt("pageSize");
+        }
+        if (map.hasKey("synchronous") && !map.isNull("synchronous")) {
+            profile.synchronous = map.getString("synchronous");
+        }
+        if (map.hasKey("tempStore") && !map.isNull("tempStore")) {
+            profile.tempStore = map.getString("tempStore");
+        }
+        if (map.hasKey("journalSizeLimit") && !map.isNull("journalSizeLimit")) {
+            profile.journalSizeLimit = (long) map.getDouble("journalSizeLimit");
+        }
+        if (map.hasKey("autoVacuum") && !map.isNull("autoVacuum")) {
+            profile.autoVacuum = map.getString("autoVacuum");
+        }
+        profile.validate();
+        return profile;
+    }
+
+    public void validate() {
+        if (synchronous != null && !SYNCHRONOUS_VALUES.contains(synchronous.toUpperCase())) {
+            throw new IllegalArgumentException("Invalid synchronous pragma value: " + synchronous);
+        }
+        if (tempStore != null && !TEMP_STORE_VALUES.contains(tempStore.toUpperCase())) {
+            throw new IllegalArgumentException("Invalid temp_store pragma value: " + tempStore);
+        }
+        if (autoVacuum != null && !AUTO_VACUUM_VALUES.contains(autoVacuum.toUpperCase())) {
+            throw new IllegalArgumentException("Invalid auto_vacuum pragma value: " + autoVacuum);
+        }
+        if (pageSize != null && (pageSize < 512 || pageSize > 65536 || Integer.bitCount(pageSize) != 1)) {
+            throw new IllegalArgumentException("Invalid page_size pragma value: " + pageSize);
+        }
+        if (readerCount < 0) {
+            throw new IllegalArgumentException("Invalid reader count: " + readerCount);
+        }
+    }
+
+    // Settings of the database file. Must be called before WAL is enabled, and before any tables
+    // are created (see WMDatabase.buildDatabase)
+    void applyFileSettings(WMDatabase database) {
+        if (pageSize != null) {
+            setPragma(database, "page_size", pageSize.toString());
+        }
+        if (autoVacuum != null) {
+            setPragma(database, "auto_vacuum", autoVacuum.toUpperCase());
+        }
+    }
+
+    void applyTo(WMDatabase database, boolean isReader) {
+        if (mmapSize != null) {
+            setPragma(database, "mmap_size", mmapSize.toString());
+        }
+        if (cacheSize != null) {
+            setPragma(database, "cache_size", cacheSize.toString());
+        }
+        if (tempStore != null) {
+            setPragma(database, "temp_store", tempStore.toUpperCase());
+        }
+        if (isReader) {
+            return;
+        }
+        if (synchronous != null) {
+            setPragma(database, "synchronous", synchronous.toUpperCase());
+        }
+        if (journalSizeLimit != null) {
+            setPragma(database, "journal_size_limit", journalSizeLimit.toString());
+        }
+    }
+
+    private static void setPragma(WMDatabase database, String pragma, String value) {
+        // NOTE: Some pragmas return a row, which execSQL refuses to run, so we always go via cursor
+        try (StorageCursor cursor = database.rawQuery("pragma " + pragma + " = " + value)) {
+            cursor.moveToFirst();
+        }
+    }
+
+    static final String[] REPORTED_PRAGMAS = {
+            "mmap_size", "cache_size", "page_size", "synchronous", "temp_store", "journal_size_limit",
+            "journal_mode", "auto_vacuum"
+    };
+
+    // Reads back values in effect on this connection - they may differ from what was requested
+    static Map<String, String> readEffectivePragmas(WMDatabase database) {
+        Map<String, String> result = new LinkedHashMap<>();
+        for (String pragma : REPORTED_PRAGMAS) {
+            try (StorageCursor cursor = database.rawQuery("pragma " + pragma)) {
+                result.put(pragma, cursor.moveToFirst() ? cursor.getString(0) : null);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,54 @@
+package com.nozbe.watermelondb;
+
+import android.os.Trace;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+// Everything the driver needs from React Native and Android, other than storage: creating bridge
+// values (results passed to JS) and tracing. Replace with setCurrent() to run the driver outside
+// of an app, e.g. on a plain JVM, where Arguments and Trace are not available
+public abstract class Platform {
+    public abstract WritableArray createArray();
+
+    public abstract WritableMap createMap();
+
+    public void beginSection(String sectionName) {
+    }
+
+    public void endSection() {
+    }
+
+    private static volatile Platform current = new ReactNativeAndroid();
+
+    public static Platform current() {
+        return current;
+    }
+
+    public static void setCurrent(Platform platform) {
+        current = platform;
+    }
+
+    private static class ReactNativeAndroid extends Platform {
+        @Override
+        public WritableArray createArray() {
+            return Arguments.createArray();
+        }
+
+        @Override
+        public WritableMap createMap() {
+            return Arguments.createMap();
+        }
+
+        @Override
+        public void beginSection(String sectionName) {
+            Trace.beginSection(sectionName);
+        }
+
+        @Override
+        public void endSection() {
+            Trace.endSection();
+        }
+    }
+}
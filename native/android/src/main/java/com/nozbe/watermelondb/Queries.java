@@ -2,8 +2,18 @@ package com.nozbe.watermelondb;
 
 public class Queries {
     public static final String select_local_storage = "select value from local_storage where key = ?";
+    public static final String insert_local_storage = "insert or replace into local_storage (key, value) values (?, ?)";
+    public static final String delete_local_storage = "delete from local_storage where key = ?";
     public static final String select_tables = "select * from sqlite_master where type='table'";
     public static String dropTable(String table) {
         return "drop table if exists `" + table + "`";
     }
+
+    public static String selectByIds(String table, int idCount) {
+        StringBuilder builder = new StringBuilder("select * from `").append(table).append("` where id in (");
+        for (int i = 0; i < idCount; i++) {
+            builder.append(i == 0 ? "?" : ",?");
+        }
+        return builder.append(")").toString();
+    }
 }
@@ -0,0 +1,185 @@
+package com.nozbe.watermelondb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+// Queries left open so that their results can be read in chunks (openQuery / fetchNext /
+// closeQuery), instead of being loaded into memory, and then sent to JS, all at once.
+//
+// Open queries are capped per connection (opening one more fails - closing someone else's query
+// would silently break it), and closed once not fetched from for `idleTimeoutMs`.
+//
+// Each open query holds a reader connection of its own, in a read transaction, so all of its rows
+// come from the same snapshot of the database, however long it's read for. If no reader can be
+// spared (see ReaderPool.tryAcquireSpare), opening a query fails - the writer can't be used, as
+// its snapshot moves with every commit.
+// NOTE: Thread-safe. Read a handle's cursor while holding the handle's monitor, and check that it's
+// not closed (a query can be closed by another thread, e.g. on memory trim). A handle's monitor may
+// be held while calling this object's methods, but not the other way around
+public class QueryHandles {
+    public static final int DEFAULT_MAX_OPEN = 4;
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 30_000;
+
+    public static class Handle {
+        public final int id;
+        // null for raw queries. Otherwise, rows are records of this table, and records already
+        // cached on the JS side are sent as ids
+        public final String table;
+        public final String sql;
+        public final StorageCursor cursor;
+        public final DecodingPlan plan;
+        // Reader the query runs on. Its read transaction ends when the query is closed
+        private final ReaderPool.Lease lease;
+        // Guarded by QueryHandles
+        long lastUsedAt;
+        // Guarded by the handle
+        private boolean isClosed = false;
+
+        Handle(int id, String table, String sql, StorageCursor cursor, DecodingPlan plan, ReaderPool.Lease lease) {
+            this.id = id;
+            this.table = table;
+            this.sql = sql;
+            this.cursor = cursor;
+            this.plan = plan;
+            this.lease = lease;
+            this.lastUsedAt = System.nanoTime();
+        }
+
+        public boolean isClosed() {
+            return isClosed;
+        }
+    }
+
+    private final WMDatabase database;
+    private final LinkedHashMap<Integer, Handle> handles = new LinkedHashMap<>();
+    private int nextId = 1;
+    private int maxOpen = DEFAULT_MAX_OPEN;
+    private long idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+
+    QueryHandles(WMDatabase database) {
+        this.database = database;
+    }
+
+    public synchronized void configure(int maxOpen, long idleTimeoutMs) {
+        if (maxOpen < 0 || idleTimeoutMs <= 0) {
+            throw new IllegalArgumentException("Invalid query handle limits: maxOpen " + maxOpen + ", idleTimeoutMs " + idleTimeoutMs);
+        }
+        this.maxOpen = maxOpen;
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    public synchronized long getIdleTimeoutMs() {
+        return idleTimeoutMs;
+    }
+
+    public synchronized int size() {
+        return handles.size();
+    }
+
+    public Handle open(String table, String sql, Object[] args, DecodingPlan.Cache decodingPlans) {
+        closeIdle();
+        return openNew(table, sql, args, decodingPlans);
+    }
+
+    private synchronized Handle openNew(String table, String sql, Object[] args, DecodingPlan.Cache decodingPlans) {
+        if (handles.size() >= maxOpen) {
+            throw new IllegalStateException("Too many open queries (" + handles.size() + "). Close queries that are no longer needed with closeQuery");
+        }
+        ReaderPool.Lease lease = database.leaseSpareReader();
+        if (lease == null) {
+            throw new IllegalStateException("No reader connection can be spared for an open query. Close open queries, or use more reader connections (performanceProfile.readerCount)");
+        }
+        StorageCursor cursor = null;
+        boolean isInTransaction = false;
+        try {
+            lease.reader.beginReadTransaction();
+            isInTransaction = true;
+            cursor = lease.reader.rawQuery(sql, args);
+            Handle handle = new Handle(nextId++, table, sql, cursor, decodingPlans.get(sql, cursor), lease);
+            handles.put(handle.id, handle);
+            return handle;
+        } catch (RuntimeException e) {
+            try {
+                if (cursor != null) {
+                    cursor.close();
+                }
+                if (isInTransaction) {
+                    lease.reader.endReadTransaction();
+                }
+            } finally {
+                database.releaseReader(lease);
+            }
+            throw e;
+        }
+    }
+
+    public synchronized Handle get(int id) {
+        Handle handle = handles.get(id);
+        if (handle == null) {
+            throw new IllegalArgumentException("No open query with handle " + id + ". It was already fully read, closed, or timed out");
+        }
+        handle.lastUsedAt = System.nanoTime();
+        return handle;
+    }
+
+    // NOTE: Closing a query that is no longer open is a no-op
+    public void close(int id) {
+        Handle handle;
+        synchronized (this) {
+            handle = handles.remove(id);
+        }
+        if (handle != null) {
+            release(handle);
+        }
+    }
+
+    // Closes queries not fetched from for longer than the idle timeout
+    public int closeIdle() {
+        List<Handle> idle = new ArrayList<>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            long timeoutNanos = idleTimeoutMs * 1_000_000;
+            Iterator<Handle> iterator = handles.values().iterator();
+            while (iterator.hasNext()) {
+                Handle handle = iterator.next();
+                if (now - handle.lastUsedAt >= timeoutNanos) {
+                    iterator.remove();
+                    idle.add(handle);
+                }
+            }
+        }
+        for (Handle handle : idle) {
+            release(handle);
+        }
+        return idle.size();
+    }
+
+    public int closeAll() {
+        List<Handle> all;
+        synchronized (this) {
+            all = new ArrayList<>(handles.values());
+            handles.clear();
+        }
+        for (Handle handle : all) {
+            release(handle);
+        }
+        return all.size();
+    }
+
+    // Waits for a fetch from the handle in progress, if any
+    private void release(Handle handle) {
+        synchronized (handle) {
+            handle.isClosed = true;
+            try {
+                handle.cursor.close();
+                if (handle.lease.reader.isOpen()) {
+                    handle.lease.reader.endReadTransaction();
+                }
+            } finally {
+                database.releaseReader(handle.lease);
+            }
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.nozbe.watermelondb;
+
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+
+// Results of `count`, `queryIds` and `unsafeQueryRaw`, reused until a table the query reads from
+// is written to. Bounded LRU, by number of entries and estimated bytes. Disabled by default.
+//
+// Every write bumps a sequence number, and the written table's version is set to it. An entry
+// remembers the sequence number from before its query ran, and is stale once any table it reads
+// has a newer version. Tables a query reads are over-approximated by all identifiers in its SQL.
+// Writes to a table that can't be determined from SQL invalidate all entries.
+//
+// NOTE: Only sees writes made through noteWrite. Do not enable if tables are also changed some
+// other way - e.g. by another connection, or by triggers, or read through views
+// NOTE: Thread-safe
+public class QueryResultCache {
+    public enum Kind {
+        COUNT,
+        QUERY_IDS,
+        RAW
+    }
+
+    // Result of unsafeQueryRaw, kept as plain values, since a WritableArray can only be sent once
+    public static class RawRows {
+        final DecodingPlan plan;
+        // Row-major. Each value is null, Double, or String
+        final Object[] values;
+        final int rowCount;
+        final long estimatedBytes;
+
+        RawRows(DecodingPlan plan, Object[] values, int rowCount, long estimatedBytes) {
+            this.plan = plan;
+            this.values = values;
+            this.rowCount = rowCount;
+            this.estimatedBytes = estimatedBytes;
+        }
+
+        // Same decoding as DecodingPlan.decodeToMap / decodeToArray
+        public static RawRows of(StorageCursor cursor, DecodingPlan plan) {
+            int columnCount = plan.columnNames.length;
+            int rowCount = cursor.getCount();
+            Object[] values = new Object[rowCount * columnCount];
+            long bytes = 16L * values.length;
+            int index = 0;
+            while (cursor.moveToNext()) {
+                for (int i = 0; i < columnCount; i++) {
+                    Object value;
+                    switch (cursor.getType(i)) {
+                        case StorageCursor.FIELD_TYPE_NULL:
+                            value = null;
+                            break;
+                        case StorageCursor.FIELD_TYPE_INTEGER:
+                        case StorageCursor.FIELD_TYPE_FLOAT:
+                            value = cursor.getDouble(i);
+                            bytes += 16;
+                            break;
+                        case StorageCursor.FIELD_TYPE_STRING:
+                            String string = cursor.getString(i);
+                            value = string;
+                            bytes += 40 + 2L * string.length();
+                            break;
+                        case StorageCursor.FIELD_TYPE_BLOB:
+                        default:
+                            value = "";
+                            break;
+                    }
+                    values[index++] = value;
+                }
+            }
+            return new RawRows(plan, values, index / Math.max(columnCount, 1), bytes);
+        }
+
+        public WritableArray toArray(boolean isColumnar, DriverStats stats) {
+            WritableArray resultArray = Platform.current().createArray();
+            if (rowCount == 0) {
+                return resultArray;
+            }
+            String[] names = plan.columnNames;
+            if (isColumnar) {
+                resultArray.pushArray(plan.columnNamesToArray(stats));
+            }
+            long size = 0;
+            int index = 0;
+            for (int row = 0; row < rowCount; row++) {
+                WritableArray array = isColumnar ? Platform.current().createArray() : null;
+                WritableMap map = isColumnar ? null : Platform.current().createMap();
+                for (int i = 0; i < names.length; i++) {
+                    Object value = values[index++];
+                    if (value == null) {
+                        if (isColumnar) {
+                            array.pushNull();
+                        } else {
+                            map.putNull(names[i]);
+                        }
+                    } else if (value instanceof Double) {
+                        if (isColumnar) {
+                            array.pushDouble((Double) value);
+                        } else {
+                            map.putDouble(names[i], (Double) value);
+                        }
+                        size += 8;
+                    } else {
+                        String string = (String) value;
+                        if (isColumnar) {
+                            array.pushString(string);
+                        } else {
+                            map.putString(names[i], string);
+                        }
+                        size += string.length();
+                    }
+                }
+                if (isColumnar) {
+                    resultArray.pushArray(array);
+                } else {
+                    resultArray.pushMap(map);
+                    for (String name : names) {
+                        size += name.length();
+                    }
+                }
+            }
+            if (stats != null) {
+                stats.current().bytesBridged += size;
+            }
+            return resultArray;
+        }
+    }
+
+    public static class Stats {
+        public long hits;
+        public long misses;
+        // Entries found stale when looked up
+        public long invalidations;
+        public long evictions;
+        public int entries;
+        public long estimatedBytes;
+        public int maxEntries;
+        public long maxBytes;
+
+        public double hitRatio() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+    }
+
+    private static final class Key {
+        final Kind kind;
+        final String sql;
+        final Object[] args;
+        final int hashCode;
+
+        Key(Kind kind, String sql, Object[] args) {
+            this.kind = kind;
+            this.sql = sql;
+            this.args = args;
+            this.hashCode = 31 * (31 * kind.hashCode() + sql.hashCode()) + Arrays.hashCode(args);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return kind == key.kind && sql.equals(key.sql) && Arrays.equals(args, key.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class Entry {
+        final Object value;
+        final String[] identifiers;
+        final long readAt;
+        final long estimatedBytes;
+
+        Entry(Object value, String[] identifiers, long readAt, long estimatedBytes) {
+            this.value = value;
+            this.identifiers = identifiers;
+            this.readAt = readAt;
+            this.estimatedBytes = estimatedBytes;
+        }
+    }
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Lowercased table name -> sequence number of its last write
+    private final Map<String, Long> tableVersions = new HashMap<>();
+    private long sequence = 0;
+    private long invalidatedAt = 0;
+    private long estimatedBytes = 0;
+    private int maxEntries = 0;
+    private long maxBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long invalidations = 0;
+    private long evictions = 0;
+
+    // Pass maxEntries 0 to disable (and clear) the cache
+    public synchronized void configure(int maxEntries, long maxBytes) {
+        if (maxEntries < 0 || maxBytes < 0 || (maxEntries > 0 && maxBytes == 0)) {
+            throw new IllegalArgumentException("Invalid query result cache limits: maxEntries " + maxEntries + ", maxBytes " + maxBytes);
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        evictToLimits();
+    }
+
+    public synchronized boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    // Call before running a query whose result is to be cached, and pass the result to put()
+    public synchronized long beginRead() {
+        return sequence;
+    }
+
+    // Returns the cached result, or null if there's no valid one
+    public synchronized Object get(Kind kind, String sql, Object[] args) {
+        if (maxEntries == 0) {
+            return null;
+        }
+        Key key = new Key(kind, sql, args);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (isStale(entry)) {
+            entries.remove(key);
+            estimatedBytes -= entry.estimatedBytes;
+            invalidations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    public synchronized void put(Kind kind, String sql, Object[] args, Object value, long valueBytes, long readAt) {
+        if (maxEntries == 0) {
+            return;
+        }
+        long bytes = 64 + 2L * sql.length() + 16L * args.length + valueBytes;
+        if (bytes > maxBytes) {
+            return;
+        }
+        Entry previous = entries.put(new Key(kind, sql, args), new Entry(value, identifiersOf(sql), readAt, bytes));
+        if (previous != null) {
+            estimatedBytes -= previous.estimatedBytes;
+        }
+        estimatedBytes += bytes;
+        evictToLimits();
+    }
+
+    // Call after executing `sql` that may have changed the database
+    public synchronized void noteWrite(String sql) {
+        if (DatabaseUtils.isIndexStatement(sql)) {
+            return;
+        }
+        sequence++;
+        String table = writtenTable(sql);
+        if (table == null) {
+            invalidatedAt = sequence;
+        } else {
+            tableVersions.put(table, sequence);
+        }
+    }
+
+    // Call after the database was changed in an unknown way (schema changes, sync, reset)
+    public synchronized void invalidateAll() {
+        sequence++;
+        invalidatedAt = sequence;
+        clear();
+    }
+
+    // Returns estimated number of bytes freed
+    public synchronized long clear() {
+        long freed = estimatedBytes;
+        entries.clear();
+        estimatedBytes = 0;
+        return freed;
+    }
+
+    public synchronized Stats getStats() {
+        Stats stats = new Stats();
+        stats.hits = hits;
+        stats.misses = misses;
+        stats.invalidations = invalidations;
+        stats.evictions = evictions;
+        stats.entries = entries.size();
+        stats.estimatedBytes = estimatedBytes;
+        stats.maxEntries = maxEntries;
+        stats.maxBytes = maxBytes;
+        return stats;
+    }
+
+    private boolean isStale(Entry entry) {
+        if (entry.readAt < invalidatedAt) {
+            return true;
+        }
+        for (String identifier : entry.identifiers) {
+            Long version = tableVersions.get(identifier);
+            if (version != null && version > entry.readAt) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void evictToLimits() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while ((entries.size() > maxEntries || estimatedBytes > maxBytes) && iterator.hasNext()) {
+            estimatedBytes -= iterator.next().estimatedBytes;
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    // Lowercased name of the table `sql` writes to, or null if unknown
+    static String writtenTable(String sql) {
+        String table = DatabaseUtils.writtenTable(sql);
+        return table != null ? table.toLowerCase(Locale.ROOT) : null;
+    }
+
+    // All (lowercased) identifiers and keywords in `sql`, skipping string literals
+    static String[] identifiersOf(String sql) {
+        LinkedHashSet<String> identifiers = new LinkedHashSet<>();
+        int length = sql.length();
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"' || c == '`' || c == '[') {
+                char close = c == '[' ? ']' : c;
+                int end = sql.indexOf(close, i + 1);
+                if (end == -1) {
+                    end = length;
+                }
+                if (c != '\'') {
+                    identifiers.add(sql.substring(i + 1, end).toLowerCase(Locale.ROOT));
+                }
+                i = end + 1;
+            } else if (Character.isLetter(c) || c == '_') {
+                int start = i;
+                while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_' || sql.charAt(i) == '$')) {
+                    i++;
+                }
+                identifiers.add(sql.substring(start, i).toLowerCase(Locale.ROOT));
+            } else {
+                i++;
+            }
+        }
+        return identifiers.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,142 @@
+package com.nozbe.watermelondb;
+
+import com.facebook.react.bridge.WritableArray;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+// Queries registered once by JS (subscribeQuery), re-evaluated natively after each commit that
+// changes tables they read, so that only ids added to and removed from their results are sent to JS.
+//
+// Each subscription keeps the set of ids last sent. If a commit only changed the query's own table,
+// and the ids changed are known (see ChangeSet), and the query is row-local (whether a record
+// matches depends only on that record - no joins, subqueries, aggregates, or limits), only those
+// records are re-checked, so cost depends on the number of records changed, not on the size of the
+// result. Otherwise, the whole query is re-run and compared.
+// NOTE: Not thread-safe. Must be used on the connection's (writer's) thread, so that results can't
+// miss a commit
+public class QuerySubscriptions {
+    public static class Subscription {
+        public final int id;
+        public final String table;
+        public final String sql;
+        public final Object[] args;
+        // Tables (and other identifiers) the query reads - same as QueryResultCache
+        final Set<String> identifiers;
+        final boolean isRowLocal;
+        Set<String> ids = new HashSet<>();
+
+        Subscription(int id, String table, String sql, Object[] args) {
+            this.id = id;
+            this.table = table;
+            this.sql = sql;
+            this.args = args;
+            this.identifiers = new HashSet<>(Arrays.asList(QueryResultCache.identifiersOf(sql)));
+            this.isRowLocal = isRowLocal(sql);
+        }
+    }
+
+    public static class Diff {
+        public final int subscriptionId;
+        // Records (or ids of records already cached on the JS side) now in the result, in query order
+        public final WritableArray added;
+        public final WritableArray removed;
+        // If set, the query failed, and the subscription was removed
+        public final String error;
+
+        Diff(int subscriptionId, WritableArray added, WritableArray removed, String error) {
+            this.subscriptionId = subscriptionId;
+            this.added = added;
+            this.removed = removed;
+            this.error = error;
+        }
+    }
+
+    private static final Pattern NOT_ROW_LOCAL = Pattern.compile(
+            "\\b(join|limit|offset|group|having|union|intersect|except|exists|over|window|count|min|max|sum|avg|total)\\b");
+
+    private final LinkedHashMap<Integer, Subscription> subscriptions = new LinkedHashMap<>();
+    private int nextId = 1;
+
+    public Subscription add(String table, String sql, Object[] args) {
+        Subscription subscription = new Subscription(nextId++, table, sql, args);
+        subscriptions.put(subscription.id, subscription);
+        return subscription;
+    }
+
+    // NOTE: Removing a subscription that doesn't exist is a no-op
+    public void remove(int id) {
+        subscriptions.remove(id);
+    }
+
+    public void clear() {
+        subscriptions.clear();
+    }
+
+    public boolean isEmpty() {
+        return subscriptions.isEmpty();
+    }
+
+    public Collection<Subscription> all() {
+        return subscriptions.values();
+    }
+
+    // Returns true if the subscription's result may have changed
+    static boolean isAffected(Subscription subscription, ChangeSet changes) {
+        if (changes.hasUnknownChanges) {
+            return true;
+        }
+        for (String table : changes.tables.keySet()) {
+            if (subscription.identifiers.contains(table.toLowerCase(Locale.ROOT))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Returns ids of records to re-check, or null if the whole query must be re-run
+    static Set<String> changedIds(Subscription subscription, ChangeSet changes) {
+        if (!subscription.isRowLocal || changes.hasUnknownChanges) {
+            return null;
+        }
+        Set<String> ids = new HashSet<>();
+        for (Map.Entry<String, ChangeSet.TableChanges> entry : changes.tables.entrySet()) {
+            if (!subscription.identifiers.contains(entry.getKey().toLowerCase(Locale.ROOT))) {
+                continue;
+            }
+            ChangeSet.TableChanges tableChanges = entry.getValue();
+            if (!entry.getKey().equals(subscription.table) || tableChanges.isIncomplete) {
+                return null;
+            }
+            ids.addAll(tableChanges.created);
+            ids.addAll(tableChanges.updated);
+            ids.addAll(tableChanges.deleted);
+        }
+        return ids;
+    }
+
+    // `sql` restricted to records with given ids (must be row-local)
+    static String restrictToIds(String sql, int idCount) {
+        StringBuilder builder = new StringBuilder("select * from (").append(sql).append(") where \"id\" in (");
+        for (int i = 0; i < idCount; i++) {
+            builder.append(i == 0 ? "?" : ", ?");
+        }
+        return builder.append(")").toString();
+    }
+
+    private static boolean isRowLocal(String sql) {
+        String lowercased = sql.toLowerCase(Locale.ROOT);
+        int firstSelect = lowercased.indexOf("select");
+        if (firstSelect == -1 || lowercased.indexOf("select", firstSelect + 1) != -1) {
+            return false;
+        }
+        // NOTE: Keywords inside string literals make this conservatively false
+        return !NOT_ROW_LOCAL.matcher(lowercased).find();
+    }
+}
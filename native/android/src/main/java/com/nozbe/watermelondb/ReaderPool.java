@@ -0,0 +1,112 @@
+package com.nozbe.watermelondb;
+
+import java.util.ArrayDeque;
+
+// Lazily opened pool of read-only connections to a WAL database.
+// Readers see a consistent snapshot, so they can run while the writer is in a transaction
+public class ReaderPool {
+    interface ReaderFactory {
+        WMDatabase openReader();
+    }
+
+    private final ReaderFactory factory;
+    private final int maxSize;
+    private final ArrayDeque<WMDatabase> idleReaders = new ArrayDeque<>();
+    private int openCount = 0;
+    // Bumped on schema changes. Readers opened before that are closed instead of being reused
+    private int generation = 0;
+
+    ReaderPool(int maxSize, ReaderFactory factory) {
+        this.maxSize = maxSize;
+        this.factory = factory;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    // Returns null if the pool is disabled - caller should fall back to the writer
+    public synchronized Lease acquire() throws InterruptedException {
+        if (maxSize <= 0) {
+            return null;
+        }
+        while (idleReaders.isEmpty() && openCount >= maxSize) {
+            wait();
+        }
+        WMDatabase reader = idleReaders.poll();
+        if (reader == null) {
+            reader = factory.openReader();
+            openCount++;
+        }
+        return new Lease(reader, generation);
+    }
+
+    // Like acquire(), but for leases held across calls (see QueryHandles): doesn't wait, and only
+    // succeeds if another reader would still be available for regular reads. Returns null otherwise
+    public synchronized Lease tryAcquireSpare() {
+        int leasedCount = openCount - idleReaders.size();
+        if (maxSize <= 0 || leasedCount + 1 >= maxSize) {
+            return null;
+        }
+        WMDatabase reader = idleReaders.poll();
+        if (reader == null) {
+            reader = factory.openReader();
+            openCount++;
+        }
+        return new Lease(reader, generation);
+    }
+
+    public synchronized void release(Lease lease) {
+        if (lease.generation != generation || !lease.reader.isOpen()) {
+            lease.reader.close();
+            openCount--;
+        } else {
+            idleReaders.push(lease.reader);
+        }
+        notify();
+    }
+
+    // Closes idle readers and makes sure readers currently in use are not reused
+    public synchronized void invalidate() {
+        generation++;
+        for (WMDatabase reader : idleReaders) {
+            reader.close();
+            openCount--;
+        }
+        idleReaders.clear();
+        notifyAll();
+    }
+
+    // Closes idle readers to free their memory. Unlike invalidate(), readers in use are still reused
+    public synchronized int closeIdle() {
+        int closed = idleReaders.size();
+        for (WMDatabase reader : idleReaders) {
+            reader.close();
+            openCount--;
+        }
+        idleReaders.clear();
+        notifyAll();
+        return closed;
+    }
+
+    // Runs `work` on each idle reader. Readers in use are skipped
+    public synchronized void forEachIdle(ReaderConsumer work) {
+        for (WMDatabase reader : idleReaders) {
+            work.accept(reader);
+        }
+    }
+
+    interface ReaderConsumer {
+        void accept(WMDatabase reader);
+    }
+
+    public static class Lease {
+        public final WMDatabase reader;
+        final int generation;
+
+        Lease(WMDatabase reader, int generation) {
+            this.reader = reader;
+            this.generation = generation;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.nozbe.watermelondb;
+
+import java.util.HashSet;
+import java.util.Set;
+
+// Set of record ids, specialized for WatermelonDB ids (16 random alphanumeric characters).
+// Ids of up to 16 ASCII characters are packed into two longs and stored in an open-addressing
+// hash table - so there's no object per id, and a lookup doesn't allocate. Any other ids
+// (e.g. longer ids assigned by a sync server) go to a regular HashSet.
+// NOTE: Not thread-safe
+public class RecordIdSet {
+    private static final int MAX_PACKED_LENGTH = 16;
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Two longs per slot: characters 0-7 and 8-15, one per byte. Since a packed id is never
+    // empty, its first long is never 0, so 0 marks an empty slot.
+    // Kept at most half full, so that probe sequences stay short
+    private long[] slots = new long[INITIAL_CAPACITY * 2];
+    private int capacity = INITIAL_CAPACITY;
+    private int packedSize = 0;
+    private Set<String> unpackedIds = null;
+
+    // Result of pack()
+    private long packedLow;
+    private long packedHigh;
+
+    public boolean contains(String id) {
+        if (!pack(id)) {
+            return unpackedIds != null && unpackedIds.contains(id);
+        }
+        return indexOf(packedLow, packedHigh) >= 0;
+    }
+
+    public boolean add(String id) {
+        if (!pack(id)) {
+            if (unpackedIds == null) {
+                unpackedIds = new HashSet<>();
+            }
+            return unpackedIds.add(id);
+        }
+        long low = packedLow;
+        long high = packedHigh;
+        int mask = capacity - 1;
+        int i = slotFor(low, high, mask);
+        while (slots[i * 2] != 0) {
+            if (slots[i * 2] == low && slots[i * 2 + 1] == high) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        slots[i * 2] = low;
+        slots[i * 2 + 1] = high;
+        packedSize++;
+        if (packedSize * 2 > capacity) {
+            resize(capacity * 2);
+        }
+        return true;
+    }
+
+    public boolean remove(String id) {
+        if (!pack(id)) {
+            return unpackedIds != null && unpackedIds.remove(id);
+        }
+        int hole = indexOf(packedLow, packedHigh);
+        if (hole < 0) {
+            return false;
+        }
+        // Backward-shift deletion: move up entries that would become unreachable past the hole,
+        // so that we don't need tombstones
+        int mask = capacity - 1;
+        int i = hole;
+        while (true) {
+            i = (i + 1) & mask;
+            long low = slots[i * 2];
+            if (low == 0) {
+                break;
+            }
+            long high = slots[i * 2 + 1];
+            int ideal = slotFor(low, high, mask);
+            if (((i - ideal) & mask) >= ((i - hole) & mask)) {
+                slots[hole * 2] = low;
+                slots[hole * 2 + 1] = high;
+                hole = i;
+            }
+        }
+        slots[hole * 2] = 0;
+        slots[hole * 2 + 1] = 0;
+        packedSize--;
+        return true;
+    }
+
+    public int size() {
+        return packedSize + (unpackedIds != null ? unpackedIds.size() : 0);
+    }
+
+    public void clear() {
+        slots = new long[INITIAL_CAPACITY * 2];
+        capacity = INITIAL_CAPACITY;
+        packedSize = 0;
+        unpackedIds = null;
+    }
+
+    // Shrinks the table to the smallest capacity that fits current ids (the table only grows
+    // on its own, so after many removals, most of it can be empty)
+    public void compact() {
+        int newCapacity = INITIAL_CAPACITY;
+        while (packedSize * 2 > newCapacity) {
+            newCapacity *= 2;
+        }
+        if (newCapacity < capacity) {
+            resize(newCapacity);
+        }
+        if (unpackedIds != null) {
+            unpackedIds = unpackedIds.isEmpty() ? null : new HashSet<>(unpackedIds);
+        }
+    }
+
+    // Approximate heap use in bytes
+    public long estimatedBytes() {
+        long bytes = 16 + (long) slots.length * 8;
+        if (unpackedIds != null) {
+            for (String id : unpackedIds) {
+                // HashMap node and table entry + String and its backing array
+                bytes += 48 + 40 + id.length() * 2L;
+            }
+        }
+        return bytes;
+    }
+
+    private int indexOf(long low, long high) {
+        int mask = capacity - 1;
+        int i = slotFor(low, high, mask);
+        while (slots[i * 2] != 0) {
+            if (slots[i * 2] == low && slots[i * 2 + 1] == high) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void resize(int newCapacity) {
+        long[] oldSlots = slots;
+        slots = new long[newCapacity * 2];
+        capacity = newCapacity;
+        int mask = newCapacity - 1;
+        for (int j = 0; j < oldSlots.length; j += 2) {
+            long low = oldSlots[j];
+            if (low != 0) {
+                long high = oldSlots[j + 1];
+                int i = slotFor(low, high, mask);
+                while (slots[i * 2] != 0) {
+                    i = (i + 1) & mask;
+                }
+                slots[i * 2] = low;
+                slots[i * 2 + 1] = high;
+            }
+        }
+    }
+
+    private static int slotFor(long low, long high, int mask) {
+        // Random ids are already well distributed, but packed bytes aren't - mix them (MurmurHash3 finalizer)
+        long hash = low * 0x9E3779B97F4A7C15L + high;
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        return (int) hash & mask;
+    }
+
+    // Packs id into packedLow/packedHigh in a single pass. Returns false if it can't be packed
+    private boolean pack(String id) {
+        int length = id.length();
+        if (length == 0 || length > MAX_PACKED_LENGTH) {
+            return false;
+        }
+        long low = 0;
+        long high = 0;
+        // For characters 1-127, (c - 1) | c fits in 7 bits. For 0 (which would be ambiguous with
+        // padding) or non-ASCII characters, it doesn't
+        int invalidBits = 0;
+        int lowLength = Math.min(length, 8);
+        for (int i = 0; i < lowLength; i++) {
+            char c = id.charAt(i);
+            invalidBits |= (c - 1) | c;
+            low |= ((long) c) << (i * 8);
+        }
+        for (int i = 8; i < length; i++) {
+            char c = id.charAt(i);
+            invalidBits |= (c - 1) | c;
+            high |= ((long) c) << ((i - 8) * 8);
+        }
+        if ((invalidBits & ~0x7F) != 0) {
+            return false;
+        }
+        packedLow = low;
+        packedHigh = high;
+        return true;
+    }
+}
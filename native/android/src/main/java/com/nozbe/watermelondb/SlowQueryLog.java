@@ -0,0 +1,147 @@
+package com.nozbe.watermelondb;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Bounded ring buffer of queries that took longer than a threshold, together with their
+// EXPLAIN QUERY PLAN output (captured once per distinct SQL).
+// NOTE: Argument values are never stored, only their types
+public class SlowQueryLog {
+    private static final int MAX_PLANS = 128;
+
+    public static class QueryPlan {
+        public final List<String> details;
+        public final boolean hasFullTableScan;
+        public final boolean hasTempBTree;
+
+        QueryPlan(List<String> details) {
+            this.details = details;
+            boolean hasFullTableScan = false;
+            boolean hasTempBTree = false;
+            for (String detail : details) {
+                // e.g. `SCAN tasks` or (older sqlite) `SCAN TABLE tasks`, but not `SCAN tasks USING INDEX ...`
+                if (detail.startsWith("SCAN ") && !detail.contains(" INDEX ") && !detail.contains("CONSTANT ROW")) {
+                    hasFullTableScan = true;
+                }
+                if (detail.contains("USE TEMP B-TREE")) {
+                    hasTempBTree = true;
+                }
+            }
+            this.hasFullTableScan = hasFullTableScan;
+            this.hasTempBTree = hasTempBTree;
+        }
+    }
+
+    public static class Entry {
+        public final String sql;
+        public final String[] argTypes;
+        public final int rowCount;
+        public final long durationNanos;
+        public final long timestamp;
+        public final QueryPlan plan;
+
+        Entry(String sql, String[] argTypes, int rowCount, long durationNanos, QueryPlan plan) {
+            this.sql = sql;
+            this.argTypes = argTypes;
+            this.rowCount = rowCount;
+            this.durationNanos = durationNanos;
+            this.timestamp = System.currentTimeMillis();
+            this.plan = plan;
+        }
+    }
+
+    private final long thresholdNanos;
+    private final Entry[] entries;
+    private int next = 0;
+    private int size = 0;
+    private final Map<String, QueryPlan> plans = new LinkedHashMap<String, QueryPlan>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, QueryPlan> eldest) {
+            return size() > MAX_PLANS;
+        }
+    };
+
+    public SlowQueryLog(double thresholdMs, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Slow query log capacity must be positive");
+        }
+        this.thresholdNanos = (long) (thresholdMs * 1_000_000);
+        this.entries = new Entry[capacity];
+    }
+
+    public boolean isSlow(long durationNanos) {
+        return durationNanos >= thresholdNanos;
+    }
+
+    // Call after a query ran on `database`, with its `startNanos` (System.nanoTime())
+    public void recordIfSlow(WMDatabase database, String sql, Object[] args, int rowCount, long startNanos) {
+        long durationNanos = System.nanoTime() - startNanos;
+        if (!isSlow(durationNanos)) {
+            return;
+        }
+        QueryPlan plan;
+        synchronized (this) {
+            plan = plans.get(sql);
+        }
+        if (plan == null) {
+            plan = explain(database, sql, args);
+        }
+        synchronized (this) {
+            plans.put(sql, plan);
+            entries[next] = new Entry(sql, argTypes(args), rowCount, durationNanos, plan);
+            next = (next + 1) % entries.length;
+            size = Math.min(size + 1, entries.length);
+        }
+    }
+
+    // Oldest first
+    public synchronized List<Entry> getEntries() {
+        List<Entry> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(entries[(next - size + i + entries.length) % entries.length]);
+        }
+        return result;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = null;
+        }
+        next = 0;
+        size = 0;
+    }
+
+    private static QueryPlan explain(WMDatabase database, String sql, Object[] args) {
+        List<String> details = new ArrayList<>();
+        try (StorageCursor cursor = database.rawQuery("explain query plan " + sql, args)) {
+            int detailIndex = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                details.add(cursor.getString(detailIndex));
+            }
+        } catch (Exception e) {
+            details.add("(could not explain query: " + e.getMessage() + ")");
+        }
+        return new QueryPlan(details);
+    }
+
+    private static String[] argTypes(Object[] args) {
+        String[] types = new String[args.length];
+        for (int i = 0; i < args.length; i++) {
+            Object arg = args[i];
+            if (arg == null) {
+                types[i] = "null";
+            } else if (arg instanceof String) {
+                types[i] = "string";
+            } else if (arg instanceof Boolean) {
+                types[i] = "boolean";
+            } else if (arg instanceof Number) {
+                types[i] = "number";
+            } else {
+                types[i] = arg.getClass().getSimpleName();
+            }
+        }
+        return types;
+    }
+}
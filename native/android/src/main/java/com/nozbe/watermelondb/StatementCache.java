@@ -0,0 +1,110 @@
+package com.nozbe.watermelondb;
+
+import com.facebook.react.bridge.ReadableArray;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bounded LRU of compiled statements, keyed by SQL text.
+// Statements belong to the connection they were compiled on, so each WMDatabase owns its own cache.
+// NOTE: Not thread-safe. Callers must hold the cache's monitor while binding and executing
+// a statement obtained from it, since bindings are shared state
+public class StatementCache {
+    public static final int DEFAULT_MAX_SIZE = 32;
+
+    // Hits and misses of a database's caches - its writer's, and its readers' (see WMDatabase)
+    public static class Counters {
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+
+        public long getHitCount() {
+            return hits.get();
+        }
+
+        public long getMissCount() {
+            return misses.get();
+        }
+    }
+
+    private final StorageBackend storage;
+    private final int maxSize;
+    private final LinkedHashMap<String, StorageStatement> statements;
+    private final Counters counters;
+
+    public StatementCache(StorageBackend storage, int maxSize, Counters counters) {
+        this.storage = storage;
+        this.maxSize = maxSize;
+        this.counters = counters;
+        this.statements = new LinkedHashMap<String, StorageStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, StorageStatement> eldest) {
+                if (size() > StatementCache.this.maxSize) {
+                    eldest.getValue().close();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // Returns a compiled statement for `sql` with `args` bound, compiling it if needed
+    public StorageStatement acquire(String sql, Object[] args) {
+        StorageStatement statement = get(sql);
+        DatabaseUtils.bindArgs(statement, args);
+        return statement;
+    }
+
+    // Same as above, but binds straight from the bridge array to avoid boxing every value
+    public StorageStatement acquire(String sql, ReadableArray args) {
+        StorageStatement statement = get(sql);
+        DatabaseUtils.bindArgs(statement, args);
+        return statement;
+    }
+
+    private StorageStatement get(String sql) {
+        StorageStatement statement = statements.get(sql);
+        if (statement == null) {
+            counters.misses.incrementAndGet();
+            statement = storage.compileStatement(sql);
+            if (maxSize > 0) {
+                statements.put(sql, statement);
+            }
+        } else {
+            counters.hits.incrementAndGet();
+            statement.clearBindings();
+        }
+        return statement;
+    }
+
+    // Statements that were not retained (cache disabled) must be closed by the caller
+    public void release(StorageStatement statement) {
+        if (maxSize <= 0) {
+            statement.close();
+        }
+    }
+
+    public void clear() {
+        for (StorageStatement statement : statements.values()) {
+            statement.close();
+        }
+        statements.clear();
+    }
+
+    // Closes least recently used statements until at most `size` are left. Returns number closed
+    public int trimTo(int size) {
+        int closed = 0;
+        Iterator<StorageStatement> iterator = statements.values().iterator();
+        while (statements.size() > size && iterator.hasNext()) {
+            iterator.next().close();
+            iterator.remove();
+            closed++;
+        }
+        return closed;
+    }
+
+    public int size() {
+        return statements.size();
+    }
+}
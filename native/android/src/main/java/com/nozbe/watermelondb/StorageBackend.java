@@ -0,0 +1,42 @@
+package com.nozbe.watermelondb;
+
+// A single SQLite connection. WMDatabase only talks to SQLite through this interface, so that
+// the driver can run on storage other than Android's (e.g. sqlite-jdbc on a plain JVM, to
+// benchmark it). See AndroidStorageBackend for the implementation used in apps
+public interface StorageBackend {
+    void execute(String sql);
+
+    void execute(String sql, Object[] args);
+
+    StorageStatement compileStatement(String sql);
+
+    // Args can be String, Boolean, Double, Long, Integer or null
+    StorageCursor query(String sql, Object[] args);
+
+    // NOTE: Transactions can be nested. The outermost transaction is only committed if all
+    // nested transactions were marked as successful
+    void beginTransaction();
+
+    void setTransactionSuccessful();
+
+    void endTransaction();
+
+    int getVersion();
+
+    void setVersion(int version);
+
+    boolean isWriteAheadLoggingEnabled();
+
+    void enableWriteAheadLogging();
+
+    // Opens a new read-only connection to the same database
+    StorageBackend openReader();
+
+    // Bytes currently allocated by the SQLite library (shared by all of its connections),
+    // or -1 if the backend can't tell
+    long getSqliteMemoryUsed();
+
+    boolean isOpen();
+
+    void close();
+}
@@ -0,0 +1,42 @@
+package com.nozbe.watermelondb;
+
+import java.io.Closeable;
+
+// Query results of a StorageBackend - the subset of android.database.Cursor used by the driver,
+// with the same semantics (starts before the first row)
+public interface StorageCursor extends Closeable {
+    // Same values as android.database.Cursor.FIELD_TYPE_*
+    int FIELD_TYPE_NULL = 0;
+    int FIELD_TYPE_INTEGER = 1;
+    int FIELD_TYPE_FLOAT = 2;
+    int FIELD_TYPE_STRING = 3;
+    int FIELD_TYPE_BLOB = 4;
+
+    int getCount();
+
+    boolean moveToFirst();
+
+    boolean moveToNext();
+
+    int getColumnCount();
+
+    String getColumnName(int columnIndex);
+
+    String[] getColumnNames();
+
+    // -1 if there's no such column
+    int getColumnIndex(String columnName);
+
+    int getType(int columnIndex);
+
+    String getString(int columnIndex);
+
+    long getLong(int columnIndex);
+
+    int getInt(int columnIndex);
+
+    double getDouble(int columnIndex);
+
+    @Override
+    void close();
+}
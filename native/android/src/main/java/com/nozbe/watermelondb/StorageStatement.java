@@ -0,0 +1,24 @@
+package com.nozbe.watermelondb;
+
+// A compiled statement of a StorageBackend. Parameter indices are 1-based
+public interface StorageStatement {
+    void bindString(int index, String value);
+
+    void bindLong(int index, long value);
+
+    void bindDouble(int index, double value);
+
+    void bindNull(int index);
+
+    void clearBindings();
+
+    void execute();
+
+    // Value of the first column of the first row, or `defaultValue` if there are no rows
+    long simpleQueryForLong(long defaultValue);
+
+    // Value of the first column of the first row, or null if there are no rows
+    String simpleQueryForString();
+
+    void close();
+}
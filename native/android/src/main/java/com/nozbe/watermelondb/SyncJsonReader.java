@@ -0,0 +1,407 @@
+package com.nozbe.watermelondb;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Forward-only (pull) JSON reader over UTF-8 bytes, used to load sync JSON without building a tree
+// of it. API is modeled after android.util.JsonReader, which we don't use because it isn't available
+// off Android, and can't return a value as raw JSON (see nextRawValue).
+// Reads the buffer in place, so JSON can be read straight from a memory-mapped file
+public class SyncJsonReader {
+    public enum Token {
+        BEGIN_OBJECT,
+        END_OBJECT,
+        BEGIN_ARRAY,
+        END_ARRAY,
+        STRING,
+        NUMBER,
+        BOOLEAN,
+        NULL,
+        END_DOCUMENT
+    }
+
+    private final ByteBuffer json;
+    private final int length;
+    private int position;
+    // Reused to decode strings out of direct buffers
+    private byte[] scratch = new byte[256];
+
+    // Whether an element was already read at each nesting depth (so the next one needs a comma)
+    private boolean[] hasElement = new boolean[32];
+    private int depth = 0;
+    // A name was just read, so a value follows without a comma
+    private boolean isAfterName = false;
+    // hasNext() or peek() already went past the comma of the next element
+    private boolean isElementPending = false;
+
+    // NOTE: Reads bytes between the buffer's position and limit. Buffer's position is not changed
+    public SyncJsonReader(ByteBuffer json) {
+        this.json = json;
+        this.position = json.position();
+        this.length = json.limit();
+    }
+
+    public SyncJsonReader(String json) {
+        this(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public void beginObject() {
+        beginElement();
+        expect('{');
+        push();
+    }
+
+    public void endObject() {
+        end('}');
+    }
+
+    public void beginArray() {
+        beginElement();
+        expect('[');
+        push();
+    }
+
+    public void endArray() {
+        end(']');
+    }
+
+    // Whether the current object or array has more elements
+    public boolean hasNext() {
+        if (isAfterName || isElementPending) {
+            return true;
+        }
+        skipWhitespace();
+        if (position >= length) {
+            return false;
+        }
+        byte c = json.get(position);
+        if (c == '}' || c == ']') {
+            return false;
+        }
+        beginElement();
+        return true;
+    }
+
+    public Token peek() {
+        if (depth == 0 && !isElementPending) {
+            skipWhitespace();
+            if (position >= length) {
+                return Token.END_DOCUMENT;
+            }
+        }
+        if (!hasNext()) {
+            if (position >= length) {
+                throw error("Unexpected end of JSON");
+            }
+            return json.get(position) == '}' ? Token.END_OBJECT : Token.END_ARRAY;
+        }
+        switch (json.get(position)) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                return Token.STRING;
+            case 't':
+            case 'f':
+                return Token.BOOLEAN;
+            case 'n':
+                return Token.NULL;
+            default:
+                return Token.NUMBER;
+        }
+    }
+
+    public String nextName() {
+        if (isAfterName) {
+            throw error("Expected a value, not a name");
+        }
+        beginElement();
+        String name = readString();
+        skipWhitespace();
+        expect(':');
+        skipWhitespace();
+        isElementPending = false;
+        isAfterName = true;
+        return name;
+    }
+
+    public String nextString() {
+        beginElement();
+        String value = readString();
+        endValue();
+        return value;
+    }
+
+    public double nextDouble() {
+        beginElement();
+        int start = position;
+        while (position < length && isNumberChar(json.get(position))) {
+            position++;
+        }
+        if (start == position) {
+            throw error("Expected a number");
+        }
+        double value;
+        try {
+            value = Double.parseDouble(decode(start, position));
+        } catch (NumberFormatException e) {
+            throw error("Malformed number");
+        }
+        endValue();
+        return value;
+    }
+
+    public boolean nextBoolean() {
+        beginElement();
+        boolean value;
+        if (startsWith("true")) {
+            position += 4;
+            value = true;
+        } else if (startsWith("false")) {
+            position += 5;
+            value = false;
+        } else {
+            throw error("Expected a boolean");
+        }
+        endValue();
+        return value;
+    }
+
+    public void nextNull() {
+        beginElement();
+        if (!startsWith("null")) {
+            throw error("Expected null");
+        }
+        position += 4;
+        endValue();
+    }
+
+    public void skipValue() {
+        beginElement();
+        skipRawValue();
+        endValue();
+    }
+
+    // Returns the next value as JSON, as it appears in the document
+    public String nextRawValue() {
+        beginElement();
+        int start = position;
+        skipRawValue();
+        String value = decode(start, position);
+        endValue();
+        return value;
+    }
+
+    private void beginElement() {
+        if (isAfterName || isElementPending) {
+            return;
+        }
+        skipWhitespace();
+        if (depth > 0 && hasElement[depth]) {
+            expect(',');
+            skipWhitespace();
+        }
+        hasElement[depth] = true;
+        isElementPending = true;
+    }
+
+    private void endValue() {
+        isAfterName = false;
+        isElementPending = false;
+    }
+
+    private void push() {
+        endValue();
+        depth++;
+        if (depth == hasElement.length) {
+            boolean[] grown = new boolean[hasElement.length * 2];
+            System.arraycopy(hasElement, 0, grown, 0, hasElement.length);
+            hasElement = grown;
+        }
+        hasElement[depth] = false;
+    }
+
+    private void end(char c) {
+        if (isAfterName || isElementPending || depth == 0) {
+            throw error("Unexpected '" + c + "'");
+        }
+        skipWhitespace();
+        expect(c);
+        depth--;
+    }
+
+    // Skips over a value that has already begun (no whitespace or comma in front)
+    private void skipRawValue() {
+        if (position >= length) {
+            throw error("Unexpected end of JSON");
+        }
+        byte c = json.get(position);
+        if (c == '"') {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            // Strings are skipped whole, so brackets in them don't count
+            int nesting = 0;
+            do {
+                if (position >= length) {
+                    throw error("Unexpected end of JSON");
+                }
+                byte next = json.get(position);
+                if (next == '"') {
+                    skipString();
+                    continue;
+                } else if (next == '{' || next == '[') {
+                    nesting++;
+                } else if (next == '}' || next == ']') {
+                    nesting--;
+                }
+                position++;
+            } while (nesting > 0);
+        } else {
+            int start = position;
+            while (position < length && (isNumberChar(json.get(position)) || isLetter(json.get(position)))) {
+                position++;
+            }
+            if (start == position) {
+                throw error("Unexpected character '" + (char) c + "'");
+            }
+        }
+    }
+
+    private void skipString() {
+        position++;
+        while (position < length) {
+            byte c = json.get(position++);
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                position++;
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private String readString() {
+        if (position >= length || json.get(position) != '"') {
+            throw error("Expected a string");
+        }
+        int start = ++position;
+        // Fast path: no escapes
+        while (position < length) {
+            byte c = json.get(position);
+            if (c == '"') {
+                return decode(start, position++);
+            } else if (c == '\\') {
+                break;
+            }
+            position++;
+        }
+        StringBuilder builder = new StringBuilder(decode(start, position));
+        // Unescaped bytes are decoded in runs, so that multi-byte characters stay whole
+        int runStart = position;
+        while (position < length) {
+            byte c = json.get(position);
+            if (c != '"' && c != '\\') {
+                position++;
+                continue;
+            }
+            builder.append(decode(runStart, position));
+            position++;
+            if (c == '"') {
+                return builder.toString();
+            }
+            if (position >= length) {
+                break;
+            }
+            byte escaped = json.get(position++);
+            switch (escaped) {
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    if (position + 4 > length) {
+                        throw error("Malformed unicode escape");
+                    }
+                    try {
+                        builder.append((char) Integer.parseInt(decode(position, position + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Malformed unicode escape");
+                    }
+                    position += 4;
+                    break;
+                default:
+                    builder.append((char) escaped);
+                    break;
+            }
+            runStart = position;
+        }
+        throw error("Unterminated string");
+    }
+
+    private String decode(int start, int end) {
+        int count = end - start;
+        if (json.hasArray()) {
+            return new String(json.array(), json.arrayOffset() + start, count, StandardCharsets.UTF_8);
+        }
+        if (scratch.length < count) {
+            scratch = new byte[Math.max(count, scratch.length * 2)];
+        }
+        for (int i = 0; i < count; i++) {
+            scratch[i] = json.get(start + i);
+        }
+        return new String(scratch, 0, count, StandardCharsets.UTF_8);
+    }
+
+    private boolean startsWith(String literal) {
+        if (position + literal.length() > length) {
+            return false;
+        }
+        for (int i = 0; i < literal.length(); i++) {
+            if (json.get(position + i) != literal.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void skipWhitespace() {
+        while (position < length) {
+            byte c = json.get(position);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return;
+            }
+            position++;
+        }
+    }
+
+    private void expect(char c) {
+        if (position >= length || json.get(position) != c) {
+            throw error("Expected '" + c + "'");
+        }
+        position++;
+    }
+
+    private static boolean isNumberChar(byte c) {
+        return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E';
+    }
+
+    private static boolean isLetter(byte c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Malformed sync JSON at position " + position + ": " + message);
+    }
+}
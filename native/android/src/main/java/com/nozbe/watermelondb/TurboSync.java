@@ -0,0 +1,261 @@
+package com.nozbe.watermelondb;
+
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableMapKeySetIterator;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Loads sync pull JSON straight into the database, without sending records through JS and back
+// (`unsafeTurbo` sync). Same behavior as the JSI implementation (Database-turboSync.cpp): only
+// the first sync is supported (so `deleted` must be empty), records of tables not in the schema are
+// ignored, and fields of the JSON other than `changes` are returned as JSON, for JS to parse.
+// Values of the wrong type are replaced with the column's default (same as sanitizeRaw)
+public final class TurboSync {
+    private enum ColumnType {
+        STRING,
+        NUMBER,
+        BOOLEAN
+    }
+
+    private static class Column {
+        // Index of the column's parameter in the insert statement
+        final int argumentIndex;
+        final ColumnType type;
+        final boolean isOptional;
+
+        Column(int argumentIndex, ColumnType type, boolean isOptional) {
+            this.argumentIndex = argumentIndex;
+            this.type = type;
+            this.isOptional = isOptional;
+        }
+    }
+
+    public static class TableSchema {
+        final Column[] columns;
+        final Map<String, Column> columnsByName;
+        final String insertSql;
+
+        TableSchema(Column[] columns, Map<String, Column> columnsByName, String insertSql) {
+            this.columns = columns;
+            this.columnsByName = columnsByName;
+            this.insertSql = insertSql;
+        }
+    }
+
+    public static class Result {
+        // Top-level fields of the JSON other than `changes`, as JSON
+        public final Map<String, String> residualValues = new LinkedHashMap<>();
+        public final Map<String, Integer> recordCounts = new LinkedHashMap<>();
+        public int totalRecordCount = 0;
+    }
+
+    // Sync JSON (UTF-8) provided ahead of loading, by id (see provideSyncJson)
+    private static final Map<Integer, ByteBuffer> SYNC_JSONS = new ConcurrentHashMap<>();
+
+    private TurboSync() {
+    }
+
+    // Stores sync JSON to be loaded with unsafeLoadFromSync. Can be called from app's native code,
+    // so that JSON from the network doesn't have to go through JS at all
+    public static void provideSyncJson(int id, String json) {
+        SYNC_JSONS.put(id, ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    // Same, but JSON is read in place from the buffer (e.g. a direct buffer the response was
+    // downloaded into), between its position and limit. Buffer must not be modified until loaded
+    public static void provideSyncJson(int id, ByteBuffer json) {
+        SYNC_JSONS.put(id, json.slice());
+    }
+
+    // Same, but JSON is read from a file the response was downloaded to. The file is memory-mapped,
+    // not read into memory, and is not deleted after loading
+    public static void provideSyncJsonFile(int id, String path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r");
+             FileChannel channel = file.getChannel()) {
+            SYNC_JSONS.put(id, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    // NOTE: JSON is removed, so it can only be loaded once
+    static ByteBuffer takeSyncJson(int id) {
+        ByteBuffer json = SYNC_JSONS.remove(id);
+        if (json == null) {
+            throw new IllegalArgumentException("Sync json " + id + " does not exist");
+        }
+        return json;
+    }
+
+    // Parses AppSchema passed from JS: `{ tables: { [name]: { columnArray: [{ name, type, isOptional? }] } } }`
+    public static Map<String, TableSchema> schemaFromMap(ReadableMap schema) {
+        Map<String, TableSchema> tables = new HashMap<>();
+        ReadableMap tableMaps = schema.getMap("tables");
+        ReadableMapKeySetIterator iterator = tableMaps.keySetIterator();
+        while (iterator.hasNextKey()) {
+            String tableName = iterator.nextKey();
+            ReadableArray columnArray = tableMaps.getMap(tableName).getArray("columnArray");
+            Column[] columns = new Column[columnArray.size()];
+            Map<String, Column> columnsByName = new HashMap<>();
+            StringBuilder sql = new StringBuilder("insert into `").append(tableName).append("` (`id`, `_status`, `_changed");
+            for (int i = 0; i < columnArray.size(); i++) {
+                ReadableMap columnMap = columnArray.getMap(i);
+                String name = columnMap.getString("name");
+                boolean isOptional = columnMap.hasKey("isOptional") && !columnMap.isNull("isOptional") && columnMap.getBoolean("isOptional");
+                // NOTE: id is bound at 1, `_status` and `_changed` are constant
+                Column column = new Column(i + 2, columnTypeFromString(columnMap.getString("type")), isOptional);
+                columns[i] = column;
+                columnsByName.put(name, column);
+                sql.append("`, `").append(name);
+            }
+            sql.append("`) values (?, 'synced', ''");
+            for (int i = 0; i < columns.length; i++) {
+                sql.append(", ?");
+            }
+            sql.append(")");
+            tables.put(tableName, new TableSchema(columns, columnsByName, sql.toString()));
+        }
+        return tables;
+    }
+
+    private static ColumnType columnTypeFromString(String type) {
+        switch (type) {
+            case "string":
+                return ColumnType.STRING;
+            case "number":
+                return ColumnType.NUMBER;
+            case "boolean":
+                return ColumnType.BOOLEAN;
+            default:
+                throw new IllegalArgumentException("Invalid column type in schema: " + type);
+        }
+    }
+
+    // `preamble` and `postamble` are run before and after inserting (to drop and recreate indices)
+    public static Result load(WMDatabase database, ByteBuffer json, Map<String, TableSchema> schema, String preamble, String postamble) {
+        Result result = new Result();
+        database.transaction(() -> {
+            database.unsafeExecuteStatements(preamble);
+            SyncJsonReader reader = new SyncJsonReader(json);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String fieldName = reader.nextName();
+                if (fieldName.equals("changes")) {
+                    loadChanges(database, reader, schema, result);
+                } else {
+                    result.residualValues.put(fieldName, reader.nextRawValue());
+                }
+            }
+            reader.endObject();
+            database.unsafeExecuteStatements(postamble);
+        });
+        return result;
+    }
+
+    private static void loadChanges(WMDatabase database, SyncJsonReader reader, Map<String, TableSchema> schema, Result result) {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String tableName = reader.nextName();
+            TableSchema tableSchema = schema.get(tableName);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String changeSetKey = reader.nextName();
+                if (changeSetKey.equals("deleted")) {
+                    reader.beginArray();
+                    if (reader.hasNext()) {
+                        throw new IllegalArgumentException("expected deleted field to be empty");
+                    }
+                    reader.endArray();
+                } else if (!changeSetKey.equals("created") && !changeSetKey.equals("updated")) {
+                    throw new IllegalArgumentException("bad changeset field: " + changeSetKey);
+                } else if (tableSchema == null) {
+                    reader.skipValue();
+                } else {
+                    int count = insertRecords(database, reader, tableSchema);
+                    Integer previousCount = result.recordCounts.get(tableName);
+                    result.recordCounts.put(tableName, (previousCount != null ? previousCount : 0) + count);
+                    result.totalRecordCount += count;
+                }
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+    }
+
+    private static int insertRecords(WMDatabase database, SyncJsonReader reader, TableSchema tableSchema) {
+        int count = 0;
+        StorageStatement statement = database.compileStatement(tableSchema.insertSql);
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                // Fields missing from the record are left with the default value
+                for (Column column : tableSchema.columns) {
+                    bindDefault(statement, column);
+                }
+                boolean hasId = false;
+
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String key = reader.nextName();
+                    SyncJsonReader.Token token = reader.peek();
+                    if (key.equals("id")) {
+                        if (token != SyncJsonReader.Token.STRING) {
+                            throw new IllegalArgumentException("expected record id to be a string");
+                        }
+                        statement.bindString(1, reader.nextString());
+                        hasId = true;
+                        continue;
+                    }
+                    Column column = tableSchema.columnsByName.get(key);
+                    if (column == null) {
+                        reader.skipValue();
+                    } else if (column.type == ColumnType.STRING && token == SyncJsonReader.Token.STRING) {
+                        statement.bindString(column.argumentIndex, reader.nextString());
+                    } else if (column.type == ColumnType.NUMBER && token == SyncJsonReader.Token.NUMBER) {
+                        statement.bindDouble(column.argumentIndex, reader.nextDouble());
+                    } else if (column.type == ColumnType.BOOLEAN && token == SyncJsonReader.Token.BOOLEAN) {
+                        statement.bindLong(column.argumentIndex, reader.nextBoolean() ? 1 : 0);
+                    } else if (column.type == ColumnType.BOOLEAN && token == SyncJsonReader.Token.NUMBER) {
+                        // NOTE: Same as sanitizeRaw, 0 and 1 are accepted as booleans
+                        double value = reader.nextDouble();
+                        if (value == 0 || value == 1) {
+                            statement.bindLong(column.argumentIndex, (long) value);
+                        }
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (!hasId) {
+                    throw new IllegalArgumentException("expected record to have an id");
+                }
+
+                statement.execute();
+                count++;
+            }
+            reader.endArray();
+        } finally {
+            statement.close();
+        }
+        return count;
+    }
+
+    private static void bindDefault(StorageStatement statement, Column column) {
+        if (column.isOptional) {
+            statement.bindNull(column.argumentIndex);
+        } else if (column.type == ColumnType.STRING) {
+            statement.bindString(column.argumentIndex, "");
+        } else if (column.type == ColumnType.BOOLEAN) {
+            statement.bindLong(column.argumentIndex, 0);
+        } else {
+            statement.bindDouble(column.argumentIndex, 0);
+        }
+    }
+}
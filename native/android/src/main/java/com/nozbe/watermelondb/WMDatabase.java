@@ -1,21 +1,38 @@
 package com.nozbe.watermelondb;
 
 import android.content.Context;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteCursor;
-import android.database.sqlite.SQLiteDatabase;
+
+import com.facebook.react.bridge.ReadableArray;
+
+import net.zetetic.database.sqlcipher.SQLiteDatabase;
+import net.zetetic.database.sqlcipher.SQLiteDatabaseHook;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 public class WMDatabase {
-    private final SQLiteDatabase db;
+    // Number of read-only connections used for queries by default. Set to 0 to run queries
+    // on the writer connection
+    public static final int DEFAULT_READER_COUNT = 2;
+
+    private final StorageBackend storage;
+    private final StatementCache statementCache;
+    private final StatementCache.Counters statementCounters;
+    private final ReaderPool readers;
+    private final DatabaseMaintenance maintenance = new DatabaseMaintenance(this);
 
-    private WMDatabase(SQLiteDatabase db) {
-        this.db = db;
+    private WMDatabase(StorageBackend storage, PerformanceProfile profile, int readerCount, StatementCache.Counters statementCounters) {
+        this.storage = storage;
+        this.statementCounters = statementCounters;
+        this.statementCache = new StatementCache(storage, StatementCache.DEFAULT_MAX_SIZE, statementCounters);
+        this.readers = new ReaderPool(readerCount, () -> {
+            // NOTE: Readers count their statement cache hits and misses with the writer
+            WMDatabase reader = new WMDatabase(storage.openReader(), profile, 0, statementCounters);
+            profile.applyTo(reader, true);
+            return reader;
+        });
     }
 
     public static Map<String, WMDatabase> INSTANCES = new HashMap<>();
@@ -25,10 +42,18 @@ public class WMDatabase {
     }
 
     public static WMDatabase getInstance(String name, Context context, int openFlags) {
+        return getInstance(name, context, openFlags, PerformanceProfile.defaults());
+    }
+
+    public static WMDatabase getInstance(String name, Context context, int openFlags, PerformanceProfile profile) {
+        return getInstance(name, context, openFlags, profile, null);
+    }
+
+    public static WMDatabase getInstance(String name, Context context, int openFlags, PerformanceProfile profile, EncryptionConfig encryption) {
         synchronized (WMDatabase.class) {
             WMDatabase instance = INSTANCES.getOrDefault(name, null);
             if (instance == null || !instance.isOpen()) {
-                WMDatabase database = buildDatabase(name, context, openFlags);
+                WMDatabase database = buildDatabase(name, context, openFlags, profile, encryption);
                 INSTANCES.put(name, database);
                 return database;
             } else {
@@ -38,31 +63,149 @@ public class WMDatabase {
     }
 
     public static WMDatabase buildDatabase(String name, Context context, int openFlags) {
-        SQLiteDatabase sqLiteDatabase = WMDatabase.createSQLiteDatabase(name, context, openFlags);
-        return new WMDatabase(sqLiteDatabase);
+        return buildDatabase(name, context, openFlags, PerformanceProfile.defaults());
+    }
+
+    public static WMDatabase buildDatabase(String name, Context context, int openFlags, PerformanceProfile profile) {
+        return buildDatabase(name, context, openFlags, profile, null);
     }
 
-    private static SQLiteDatabase createSQLiteDatabase(String name, Context context, int openFlags) {
-        String path;
+    // Pass `encryption` to open (or create) an encrypted database. Otherwise, database is plaintext
+    public static WMDatabase buildDatabase(String name, Context context, int openFlags, PerformanceProfile profile, EncryptionConfig encryption) {
+        profile.validate();
+        boolean isWAL = (openFlags & SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING) != 0;
+        String path = WMDatabase.getDatabasePath(name, context);
+        boolean isNewDatabase = !new File(path).exists();
+        // NOTE: Empty key means no encryption
+        byte[] key = encryption != null ? encryption.resolveKey(context, path) : new byte[0];
+        SQLiteDatabaseHook hook = encryption != null ? encryption.createHook() : null;
+
+        // page_size can't be changed once the database is in WAL mode (nor auto_vacuum once it has
+        // tables), so for new databases we open in rollback journal mode, set them, and only then
+        // switch to WAL
+        boolean setsFileSettings = (profile.pageSize != null || profile.autoVacuum != null) && isNewDatabase;
+        AndroidStorageBackend storage = AndroidStorageBackend.open(path,
+                setsFileSettings ? openFlags & ~SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING : openFlags,
+                key, hook);
+        // Without WAL, readers would block on (and block) the writer, so there's no point
+        WMDatabase database = new WMDatabase(storage, profile, isWAL ? profile.readerCount : 0, new StatementCache.Counters());
+        if (setsFileSettings) {
+            profile.applyFileSettings(database);
+            if (isWAL) {
+                storage.enableWriteAheadLogging();
+            }
+        }
+        profile.applyTo(database, false);
+        return database;
+    }
+
+    // Opens a database on an arbitrary storage backend, e.g. sqlite-jdbc to run on a plain JVM
+    // NOTE: page_size from the profile is not applied
+    public static WMDatabase open(StorageBackend storage, PerformanceProfile profile) {
+        profile.validate();
+        int readerCount = storage.isWriteAheadLoggingEnabled() ? profile.readerCount : 0;
+        WMDatabase database = new WMDatabase(storage, profile, readerCount, new StatementCache.Counters());
+        profile.applyTo(database, false);
+        return database;
+    }
+
+    static String getDatabasePath(String name, Context context) {
         if (name.equals(":memory:") || name.contains("mode=memory")) {
             context.getCacheDir().delete();
-            path = new File(context.getCacheDir(), name).getPath();
+            return new File(context.getCacheDir(), name).getPath();
         } else {
             // On some systems there is some kind of lock on `/databases` folder ¯\_(ツ)_/¯
-            path = context.getDatabasePath("" + name + ".db").getPath().replace("/databases", "");
+            return context.getDatabasePath("" + name + ".db").getPath().replace("/databases", "");
+        }
+    }
+
+    // WAL checkpoints and incremental vacuum, run while idle (see DatabaseMaintenance)
+    public DatabaseMaintenance getMaintenance() {
+        return maintenance;
+    }
+
+    // Values of performance-related pragmas actually in effect on the writer connection
+    public Map<String, String> getEffectivePragmas() {
+        return PerformanceProfile.readEffectivePragmas(this);
+    }
+
+    interface ReadFunction<T> {
+        T applyReadFunction(WMDatabase reader);
+    }
+
+    // Runs read-only work on a pooled reader connection, or on the writer if readers are disabled.
+    // On a reader, all of `function`'s queries run in one read transaction, so they see the same
+    // snapshot of the database, even if the writer commits in between them (see
+    // beginReadTransaction). Do NOT call from inside a write transaction if you need to see its
+    // uncommitted changes
+    public <T> T read(ReadFunction<T> function) {
+        ReaderPool.Lease lease;
+        try {
+            lease = readers.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a reader connection", e);
         }
-        return SQLiteDatabase.openDatabase(path, null, openFlags);
+        if (lease == null) {
+            // NOTE: Readers are disabled, so queries run on the writer's thread, in between writes
+            return function.applyReadFunction(this);
+        }
+        try {
+            lease.reader.beginReadTransaction();
+            try {
+                return function.applyReadFunction(lease.reader);
+            } finally {
+                lease.reader.endReadTransaction();
+            }
+        } finally {
+            readers.release(lease);
+        }
+    }
+
+    // Pins this reader's snapshot until endReadTransaction(), and reports it to ConnectionExecutor
+    // (see snapshotTaken), so that writes submitted later can run meanwhile. Only for reader connections
+    //
+    // NOTE: Outside of a transaction, SAVEPOINT begins a deferred one. We can't use BEGIN, because
+    // Android makes it BEGIN EXCLUSIVE, which a read-only connection can't take. (This relies on the
+    // reader's connection pool being a single connection - see AndroidStorageBackend.openReader)
+    public void beginReadTransaction() {
+        execute("savepoint wm_read");
+        // A deferred transaction takes its snapshot on first read, so take it now
+        count("select count(*) as \"count\" from sqlite_master");
+        ConnectionExecutor.snapshotTaken();
+    }
+
+    public void endReadTransaction() {
+        execute("release wm_read");
+    }
+
+    // Number of reader connections, or 0 if readers are disabled
+    public int getReaderCount() {
+        return readers.getMaxSize();
+    }
+
+    // Reader connection for work spanning multiple calls (e.g. a query read in chunks), if one can
+    // be spared without blocking read(). Returns null otherwise. Must be returned with releaseReader()
+    public ReaderPool.Lease leaseSpareReader() {
+        return readers.tryAcquireSpare();
+    }
+
+    public void releaseReader(ReaderPool.Lease lease) {
+        readers.release(lease);
     }
 
     public void setUserVersion(int version) {
-        db.setVersion(version);
+        storage.setVersion(version);
     }
 
     public int getUserVersion() {
-        return db.getVersion();
+        return storage.getVersion();
     }
 
     public void unsafeExecuteStatements(String statements) {
+        // Schema is about to change, so previously compiled statements may no longer be valid
+        clearStatementCache();
+        readers.invalidate();
         this.transaction(() -> {
             // NOTE: This must NEVER be allowed to take user input - split by `;` is not grammar-aware
             // and so is unsafe. Only works with Watermelon-generated strings known to be safe
@@ -75,58 +218,70 @@ public class WMDatabase {
     }
 
     public void execute(String query, Object[] args) {
-        db.execSQL(query, args);
+        storage.execute(query, args);
     }
 
     public void execute(String query) {
-        db.execSQL(query);
+        storage.execute(query);
+    }
+
+    // Like execute(), but reuses a compiled statement for repeated SQL (e.g. batch inserts)
+    public void executeCached(String query, Object[] args) {
+        synchronized (statementCache) {
+            StorageStatement statement = statementCache.acquire(query, args);
+            try {
+                statement.execute();
+            } finally {
+                statementCache.release(statement);
+            }
+        }
+    }
+
+    public void executeCached(String query, ReadableArray args) {
+        synchronized (statementCache) {
+            StorageStatement statement = statementCache.acquire(query, args);
+            try {
+                statement.execute();
+            } finally {
+                statementCache.release(statement);
+            }
+        }
     }
 
     public void delete(String query, Object[] args) {
-        db.execSQL(query, args);
-    }
-
-    public Cursor rawQuery(String sql, Object[] args) {
-        // HACK: db.rawQuery only supports String args, and there's no clean way AFAIK to construct
-        // a query with arbitrary args (like with execSQL). However, we can misuse cursor factory
-        // to get the reference of a SQLiteQuery before it's executed
-        // https://github.com/aosp-mirror/platform_frameworks_base/blob/0799624dc7eb4b4641b4659af5b5ec4b9f80dd81/core/java/android/database/sqlite/SQLiteDirectCursorDriver.java#L30
-        // https://github.com/aosp-mirror/platform_frameworks_base/blob/0799624dc7eb4b4641b4659af5b5ec4b9f80dd81/core/java/android/database/sqlite/SQLiteProgram.java#L32
-        String[] rawArgs = new String[args.length];
-        Arrays.fill(rawArgs, "");
-        return db.rawQueryWithFactory(
-                (db1, driver, editTable, query) -> {
-                    for (int i = 0; i < args.length; i++) {
-                        Object arg = args[i];
-                        if (arg instanceof String) {
-                            query.bindString(i + 1, (String) arg);
-                        } else if (arg instanceof Boolean) {
-                            query.bindLong(i + 1, (Boolean) arg ? 1 : 0);
-                        } else if (arg instanceof Double) {
-                            query.bindDouble(i + 1, (Double) arg);
-                        } else if (arg == null) {
-                            query.bindNull(i + 1);
-                        } else {
-                            throw new IllegalArgumentException("Bad query arg type: " + arg.getClass().getCanonicalName());
-                        }
-                    }
-                    return new SQLiteCursor(driver, editTable, query);
-                }, sql, rawArgs, null, null
-        );
-    }
-
-    public Cursor rawQuery(String sql) {
+        storage.execute(query, args);
+    }
+
+    // NOTE: Unlike executeCached, the statement is not cached - caller must close it
+    public StorageStatement compileStatement(String sql) {
+        return storage.compileStatement(sql);
+    }
+
+    public StorageCursor rawQuery(String sql, Object[] args) {
+        return storage.query(sql, args);
+    }
+
+    public StorageCursor rawQuery(String sql) {
         return rawQuery(sql, new Object[] {});
     }
 
     public int count(String query, Object[] args) {
-        try (Cursor cursor = rawQuery(query, args)) {
-            cursor.moveToFirst();
-            int columnIndex = cursor.getColumnIndex("count");
-            if (cursor.getCount() > 0) {
-                return cursor.getInt(columnIndex);
-            } else {
-                return 0;
+        if (!DatabaseUtils.isCountFirst(query)) {
+            // NOTE: Unsafe SQL count queries may select other columns before `count`
+            try (StorageCursor cursor = rawQuery(query, args)) {
+                if (!cursor.moveToFirst()) {
+                    return 0;
+                }
+                return cursor.getInt(cursor.getColumnIndex("count"));
+            }
+        }
+        // NOTE: Watermelon count queries return a single `count` column, so we can skip the cursor
+        synchronized (statementCache) {
+            StorageStatement statement = statementCache.acquire(query, args);
+            try {
+                return (int) statement.simpleQueryForLong(0);
+            } finally {
+                statementCache.release(statement);
             }
         }
     }
@@ -136,22 +291,23 @@ public class WMDatabase {
     }
 
     public String getFromLocalStorage(String key) {
-        try (Cursor cursor = rawQuery(Queries.select_local_storage, new Object[]{key})) {
-            cursor.moveToFirst();
-            if (cursor.getCount() > 0) {
-                return cursor.getString(0);
-            } else {
-                return null;
+        synchronized (statementCache) {
+            StorageStatement statement = statementCache.acquire(Queries.select_local_storage, new Object[]{key});
+            try {
+                return statement.simpleQueryForString();
+            } finally {
+                statementCache.release(statement);
             }
         }
     }
 
     private ArrayList<String> getAllTables() {
         ArrayList<String> allTables = new ArrayList<>();
-        try (Cursor cursor = rawQuery(Queries.select_tables)) {
-            cursor.moveToFirst();
+        try (StorageCursor cursor = rawQuery(Queries.select_tables)) {
+            // NOTE: Android databases always have `android_metadata`, but other backends may be empty
+            boolean hasRows = cursor.moveToFirst();
             int nameIndex = cursor.getColumnIndex("name");
-            if (nameIndex > -1) {
+            if (hasRows && nameIndex > -1) {
                 do {
                     allTables.add(cursor.getString(nameIndex));
                 } while (cursor.moveToNext());
@@ -161,6 +317,9 @@ public class WMDatabase {
     }
 
     public void unsafeDestroyEverything() {
+        clearStatementCache();
+        // NOTE: writable_schema changes below are not reliably picked up by other connections
+        readers.invalidate();
         this.transaction(() -> {
             for (String tableName : getAllTables()) {
                 execute(Queries.dropTable(tableName));
@@ -177,20 +336,63 @@ public class WMDatabase {
     }
 
     public void transaction(TransactionFunction function) {
-        db.beginTransaction();
+        storage.beginTransaction();
         try {
             function.applyTransactionFunction();
-            db.setTransactionSuccessful();
+            storage.setTransactionSuccessful();
         } finally {
-            db.endTransaction();
+            storage.endTransaction();
         }
     }
 
     public Boolean isOpen() {
-        return db.isOpen();
+        return storage.isOpen();
+    }
+
+    public void clearStatementCache() {
+        synchronized (statementCache) {
+            statementCache.clear();
+        }
+    }
+
+    // Including hits and misses on reader connections. Thread-safe
+    public long getStatementCacheHitCount() {
+        return statementCounters.getHitCount();
+    }
+
+    public long getStatementCacheMissCount() {
+        return statementCounters.getMissCount();
+    }
+
+    // Frees memory held by this connection and its idle readers. See MemoryTrim for what each
+    // tier does. Adds what was freed to `result`
+    public void trimMemory(MemoryTrim.Result result) {
+        if (result.tier == MemoryTrim.Tier.NONE) {
+            return;
+        }
+        long memoryUsedBefore = storage.getSqliteMemoryUsed();
+        synchronized (statementCache) {
+            if (result.tier == MemoryTrim.Tier.DROP_CACHES) {
+                result.statementsClosed += statementCache.trimTo(0);
+            } else if (result.tier == MemoryTrim.Tier.SHRINK_CACHES) {
+                result.statementsClosed += statementCache.trimTo(statementCache.size() / 2);
+            }
+        }
+        if (result.tier == MemoryTrim.Tier.RELEASE_SQLITE_MEMORY) {
+            readers.forEachIdle(reader -> reader.execute("pragma shrink_memory"));
+        } else {
+            result.readersClosed += readers.closeIdle();
+        }
+        execute("pragma shrink_memory");
+        long memoryUsedAfter = storage.getSqliteMemoryUsed();
+        if (memoryUsedBefore >= 0 && memoryUsedAfter >= 0) {
+            result.sqliteBytes = Math.max(result.sqliteBytes, 0) + Math.max(memoryUsedBefore - memoryUsedAfter, 0);
+        }
     }
 
     public void close() {
-        db.close();
+        readers.invalidate();
+        clearStatementCache();
+        storage.close();
     }
 }
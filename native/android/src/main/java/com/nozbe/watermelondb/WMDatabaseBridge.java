@@ -1,6 +1,10 @@
 package com.nozbe.watermelondb;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.Trace;
 import androidx.annotation.NonNull;
 
@@ -10,16 +14,18 @@ import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
 import com.nozbe.watermelondb.utils.MigrationSet;
 import com.nozbe.watermelondb.utils.Schema;
 
 import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 import java.security.SecureRandom;
 
@@ -29,6 +35,7 @@ public class WMDatabaseBridge extends ReactContextBaseJavaModule {
     public WMDatabaseBridge(ReactApplicationContext reactContext) {
         super(reactContext);
         this.reactContext = reactContext;
+        reactContext.getApplicationContext().registerComponentCallbacks(memoryCallbacks);
     }
 
 
@@ -40,16 +47,40 @@ public class WMDatabaseBridge extends ReactContextBaseJavaModule {
         return NAME;
     }
 
-    private final Map<Integer, Connection> connections = new HashMap<>();
+    // NOTE: Concurrent, because memory trims are requested on the main thread
+    private final Map<Integer, Connection> connections = new ConcurrentHashMap<>();
+    private final Map<Integer, ConnectionExecutor> executors = new ConcurrentHashMap<>();
+    private volatile boolean areExecutorsShutDown = false;
+
+    // Schedules closing of idle queries (see QueryHandles)
+    private final Handler idleQueryHandler = new Handler(Looper.getMainLooper());
+
+    private final ComponentCallbacks2 memoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            trimAllConnections(level);
+        }
+
+        @Override
+        public void onLowMemory() {
+            trimAllConnections(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        }
+
+        @Override
+        public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        }
+    };
 
     @ReactMethod
-    public void initialize(final Integer tag, final String databaseName, final int schemaVersion, final boolean unsafeNativeReuse, final Promise promise) {
+    public void initialize(final Integer tag, final String databaseName, final int schemaVersion, final boolean unsafeNativeReuse, final ReadableMap performanceProfile, final ReadableMap encryption, final Promise promise) {
         if (connections.containsKey(tag)) {
             throw new IllegalStateException("A driver with tag " + tag + " already set up");
         }
         final WritableMap promiseMap = Arguments.createMap();
         try {
-            connections.put(tag, new Connection.Connected(new WMDatabaseDriver((Context) reactContext, databaseName, schemaVersion, unsafeNativeReuse)));
+            WMDatabaseDriver driver = new WMDatabaseDriver((Context) reactContext, databaseName, schemaVersion, unsafeNativeReuse, PerformanceProfile.fromMap(performanceProfile), EncryptionConfig.fromMap(encryption));
+            getExecutor(tag).setReaderThreads(driver.getReaderCount());
+            connections.put(tag, new Connection.Connected(driver));
             promiseMap.putString("code", "ok");
             promise.resolve(promiseMap);
         } catch (SchemaNeededError e) {
@@ -67,14 +98,14 @@ public class WMDatabaseBridge extends ReactContextBaseJavaModule {
     }
 
     @ReactMethod
-    public void setUpWithSchema(final Integer tag, final String databaseName, final String schema, final int schemaVersion, final boolean unsafeNativeReuse, final Promise promise) {
-        connectDriver(tag, new WMDatabaseDriver(reactContext, databaseName, new Schema(schemaVersion, schema), unsafeNativeReuse), promise);
+    public void setUpWithSchema(final Integer tag, final String databaseName, final String schema, final int schemaVersion, final boolean unsafeNativeReuse, final ReadableMap performanceProfile, final ReadableMap encryption, final Promise promise) {
+        connectDriver(tag, new WMDatabaseDriver(reactContext, databaseName, new Schema(schemaVersion, schema), unsafeNativeReuse, PerformanceProfile.fromMap(performanceProfile), EncryptionConfig.fromMap(encryption)), promise);
     }
 
     @ReactMethod
-    public void setUpWithMigrations(final Integer tag, final String databaseName, final String migrations, final int fromVersion, final int toVersion, final boolean unsafeNativeReuse, final Promise promise) {
+    public void setUpWithMigrations(final Integer tag, final String databaseName, final String migrations, final int fromVersion, final int toVersion, final boolean unsafeNativeReuse, final ReadableMap performanceProfile, final ReadableMap encryption, final Promise promise) {
         try {
-            connectDriver(tag, new WMDatabaseDriver(reactContext, databaseName, new MigrationSet(fromVersion, toVersion, migrations), unsafeNativeReuse), promise);
+            connectDriver(tag, new WMDatabaseDriver(reactContext, databaseName, new MigrationSet(fromVersion, toVersion, migrations), unsafeNativeReuse, PerformanceProfile.fromMap(performanceProfile), EncryptionConfig.fromMap(encryption)), promise);
         } catch (Exception e) {
             disconnectDriver(tag);
             promise.reject(e);
@@ -83,35 +114,271 @@ public class WMDatabaseBridge extends ReactContextBaseJavaModule {
 
     @ReactMethod
     private void find(int tag, String table, String id, Promise promise) {
-        withDriver(tag, promise, (driver) -> driver.find(table, id), "find " + id);
+        withDriver(tag, promise, (driver) -> driver.find(table, id), "find", ConnectionExecutor.Kind.READ);
+    }
+
+    @ReactMethod
+    public void findMany(int tag, String table, ReadableArray ids, Promise promise) {
+        withDriver(tag, promise, (driver) -> driver.findMany(table, ids), "findMany", ConnectionExecutor.Kind.READ);
     }
 
     @ReactMethod
     public void query(int tag, String table, String query, ReadableArray args, Promise promise) {
-        withDriver(tag, promise, (driver) -> driver.cachedQuery(table, query, args.toArrayList().toArray()), "query");
+        withDriver(tag, promise, (driver) -> driver.cachedQuery(table, query, args.toArrayList().toArray()), "query", ConnectionExecutor.Kind.READ);
+    }
+
+    // Same as query, but in columnar format (see WMDatabaseDriver.cachedQueryAsArray)
+    @ReactMethod
+    public void queryAsArray(int tag, String table, String query, ReadableArray args, Promise promise) {
+        withDriver(tag, promise, (driver) -> driver.cachedQueryAsArray(table, query, args.toArrayList().toArray()), "queryAsArray", ConnectionExecutor.Kind.READ);
     }
 
     @ReactMethod
     public void queryIds(int tag, String query, ReadableArray args, Promise promise) {
-        withDriver(tag, promise, (driver) -> driver.queryIds(query, args.toArrayList().toArray()), "queryIds");
+        withDriver(tag, promise, (driver) -> driver.queryIds(query, args.toArrayList().toArray()), "queryIds", ConnectionExecutor.Kind.READ);
     }
 
     @ReactMethod
     public void unsafeQueryRaw(int tag, String query, ReadableArray args, Promise promise) {
-        withDriver(tag, promise, (driver) -> driver.unsafeQueryRaw(query, args.toArrayList().toArray()), "unsafeQueryRaw");
+        withDriver(tag, promise, (driver) -> driver.unsafeQueryRaw(query, args.toArrayList().toArray()), "unsafeQueryRaw", ConnectionExecutor.Kind.READ);
+    }
+
+    @ReactMethod
+    public void unsafeQueryRawAsArray(int tag, String query, ReadableArray args, Promise promise) {
+        withDriver(tag, promise, (driver) -> driver.unsafeQueryRawAsArray(query, args.toArrayList().toArray()), "unsafeQueryRawAsArray", ConnectionExecutor.Kind.READ);
+    }
+
+    // Opens a query to be read in chunks with fetchNext (see WMDatabaseDriver.openQuery). Pass null
+    // table for raw rows. Resolves with a query handle
+    @ReactMethod
+    public void openQuery(int tag, String table, String query, ReadableArray args, Promise promise) {
+        withDriver(tag, promise, (driver) -> {
+            int handle = driver.openQuery(table, query, args.toArrayList().toArray());
+            scheduleIdleQueryCheck(tag, driver);
+            return handle;
+        }, "openQuery", ConnectionExecutor.Kind.READ);
+    }
+
+    @ReactMethod
+    public void fetchNext(int tag, int handle, int count, Promise promise) {
+        withDriver(tag, promise, (driver) -> {
+            WritableArray rows = driver.fetchNext(handle, count);
+            if (rows.size() == count) {
+                scheduleIdleQueryCheck(tag, driver);
+            }
+            return rows;
+        }, "fetchNext", ConnectionExecutor.Kind.READ);
+    }
+
+    @ReactMethod
+    public void closeQuery(int tag, int handle, Promise promise) {
+        withDriver(tag, promise, (driver) -> {
+            driver.closeQuery(handle);
+            return true;
+        }, "closeQuery", ConnectionExecutor.Kind.READ);
+    }
+
+    @ReactMethod
+    public void configureQueryHandles(int tag, int maxOpenQueries, double idleTimeoutMs, Promise promise) {
+        withDriver(tag, promise, (driver) -> {
+            driver.configureQueryHandles(maxOpenQueries, (long) idleTimeoutMs);
+            return true;
+        }, "configureQueryHandles", ConnectionExecutor.Kind.WRITE);
+    }
+
+    // Queries are also checked for idleness whenever another is opened or fetched from, but this
+    // makes sure that an abandoned query is closed even if the connection is not used afterwards
+    private void scheduleIdleQueryCheck(int tag, WMDatabaseDriver driver) {
+        idleQueryHandler.postDelayed(() -> {
+            ConnectionExecutor executor = executors.get(tag);
+            if (executor == null) {
+                return;
+            }
+            try {
+                executor.submit(ConnectionExecutor.Kind.READ, () -> {
+                    try {
+                        driver.closeIdleQueries();
+                    } catch (Exception e) {
+                        if (BuildConfig.DEBUG) {
+                            Logger.getLogger("DB_Bridge").warning("Failed to close idle queries: " + e);
+                        }
+                    }
+                });
+            } catch (IllegalStateException e) {
+                // Connection is shutting down
+            }
+        }, driver.getQueryIdleTimeoutMs() + 1);
     }
 
     @ReactMethod
     public void count(int tag, String query, ReadableArray args, Promise promise) {
-        withDriver(tag, promise, (driver) -> driver.count(query, args.toArrayList().toArray()), "count");
+        withDriver(tag, promise, (driver) -> driver.count(query, args.toArrayList().toArray()), "count", ConnectionExecutor.Kind.READ);
+    }
+
+    // Runs multiple read operations in one call (see WMDatabaseDriver.multiQuery). Resolves with
+    // an array of their results, in order
+    @ReactMethod
+    public void multiQuery(int tag, ReadableArray operations, Promise promise) {
+        withDriver(tag, promise, (driver) -> driver.multiQuery(operations), "multiQuery", ConnectionExecutor.Kind.READ);
     }
 
     @ReactMethod
     public void batch(int tag, ReadableArray operations, Promise promise) {
+        batch(tag, operations, false, promise);
+    }
+
+    // Same as batch, but resolves with records changed, per table (see ChangeSet.toMap), instead
+    // of true. NOTE: Opt-in, because collecting all ids changed by a large batch isn't free
+    @ReactMethod
+    public void batchWithChanges(int tag, ReadableArray operations, Promise promise) {
+        batch(tag, operations, true, promise);
+    }
+
+    private void batch(int tag, ReadableArray operations, boolean resolvesChanges, Promise promise) {
+        Connection connection = connections.get(tag);
+        GroupCommit groupCommit = connection instanceof Connection.Connected ? ((Connection.Connected) connection).driver.getGroupCommit() : null;
+        if (groupCommit == null) {
+            withDriver(tag, promise, (driver) -> {
+                ChangeSet changes = driver.batch(operations);
+                return resolvesChanges ? changes.toMap() : true;
+            }, "batch", ConnectionExecutor.Kind.WRITE);
+            return;
+        }
+        try {
+            getExecutor(tag).submitGrouped(groupCommit, new GroupCommit.Batch(operations, (changes, error) -> {
+                if (error != null) {
+                    promise.reject("batch", error);
+                } else {
+                    promise.resolve(resolvesChanges ? changes.toMap() : true);
+                }
+            }));
+        } catch (Exception e) {
+            promise.reject("batch", e);
+        }
+    }
+
+    // Enables group commit of batches (see GroupCommit). Pass maxBatches 0 to disable, maxRows 0
+    // for no limit of rows
+    @ReactMethod
+    public void configureGroupCommit(int tag, double windowMs, int maxBatches, int maxRows, Promise promise) {
         withDriver(tag, promise, (driver) -> {
-            driver.batch(operations);
+            driver.configureGroupCommit(tag, (long) windowMs, maxBatches, maxRows);
             return true;
-        }, "batch");
+        }, "configureGroupCommit", ConnectionExecutor.Kind.WRITE);
+    }
+
+    @ReactMethod
+    public void getGroupCommitStats(int tag, Promise promise) {
+        withDriver(tag, promise, (driver) -> {
+            GroupCommit groupCommit = driver.getGroupCommit();
+            GroupCommit.Stats stats = groupCommit != null ? groupCommit.getStats() : new GroupCommit.Stats();
+            WritableMap result = Arguments.createMap();
+            result.putBoolean("isEnabled", groupCommit != null);
+            result.putDouble("batches", stats.batches);
+            result.putDouble("commits", stats.commits);
+            result.putDouble("fallbacks", stats.fallbacks);
+            result.putInt("maxGroupSize", stats.maxGroupSize);
+            result.putDouble("coalescingRatio", stats.coalescingRatio());
+            return result;
+        }, "getGroupCommitStats", ConnectionExecutor.Kind.READ);
+    }
+
+    // Like batch, but commits in chunks and can be resumed (see WMDatabaseDriver.batchInChunks).
+    // Emits BATCH_PROGRESS_EVENT after each commit. Resolves with `{ totalRows, rowsSkipped }`
+    @ReactMethod
+    public void batchInChunks(int tag, ReadableArray operations, ReadableMap options, Promise promise) {
+        withDriver(tag, promise, (driver) -> {
+            BatchCommitOptions commitOptions = BatchCommitOptions.fromMap(options);
+            int[] totalRows = {0};
+            int rowsSkipped = driver.batchInChunks(operations, commitOptions, (rowsCommitted, rowsInBatch) -> {
+                totalRows[0] = rowsInBatch;
+                WritableMap event = Arguments.createMap();
+                event.putInt("tag", tag);
+                event.putString("checkpointKey", commitOptions.checkpointKey);
+                event.putInt("rowsCommitted", rowsCommitted);
+                event.putInt("totalRows", rowsInBatch);
+                emit(BATCH_PROGRESS_EVENT, event);
+            });
+            WritableMap result = Arguments.createMap();
+            result.putInt("totalRows", Math.max(totalRows[0], rowsSkipped));
+            result.putInt("rowsSkipped", rowsSkipped);
+            return result;
+        }, "batchInChunks", ConnectionExecutor.Kind.BACKGROUND_WRITE);
+    }
+
+    public static final String BATCH_PROGRESS_EVENT = "WMDatabaseBatchProgress";
+
+    // When enabled, emits CHANGES_EVENT with `{ tag, tables, hasUnknownChanges }` after each commit
+    // that changed the database (see WMDatabaseDriver.setChangeListener), including those made by
+    // native code (e.g. sync loaded with unsafeLoadFromSync, or the app's own native writes)
+    @ReactMethod
+    public void setChangeEventsEnabled(int tag, boolean enabled, Promise promise) {
+        withDriver(tag, promise, (driver) -> {
+            driver.setChangeListener(enabled ? (changes) -> {
+                WritableMap event = changes.toMap();
+                event.putInt("tag", tag);
+                emit(CHANGES_EVENT, event);
+            } : null);
+            return true;
+        }, "setChangeEventsEnabled", ConnectionExecutor.Kind.WRITE);
+    }
+
+    public static final String CHANGES_EVENT = "WMDatabaseChanges";
+
+    // Registers a query to be re-evaluated natively after each commit that changes tables it reads
+    // (see WMDatabaseDriver.subscribeQuery). Resolves with `{ subscriptionId, results }`. Changes
+    // to results are emitted as QUERY_DIFF_EVENT: `{ tag, subscriptionId, added, removed }`, where
+    // added are records (or ids of cached records), or `{ tag, subscriptionId, error }`, after which
+    // the subscription is removed. NOTE: Records sent in full are not marked as cached (see
+    // WMDatabaseDriver.runSubscription), so they're sent in full again by the next query
+    @ReactMethod
+    public void subscribeQuery(int tag, String table, String query, ReadableArray args, Promise promise) {
+        withDriver(tag, promise, (driver) -> {
+            driver.setQueryDiffListener((diffs) -> {
+                for (QuerySubscriptions.Diff diff : diffs) {
+                    WritableMap event = Arguments.createMap();
+                    event.putInt("tag", tag);
+                    event.putInt("subscriptionId", diff.subscriptionId);
+                    if (diff.error != null) {
+                        event.putString("error", diff.error);
+                    } else {
+                        event.putArray("added", diff.added);
+                        event.putArray("removed", diff.removed);
+                    }
+                    emit(QUERY_DIFF_EVENT, event);
+                }
+            });
+            return driver.subscribeQuery(table, query, args.toArrayList().toArray());
+        }, "subscribeQuery", ConnectionExecutor.Kind.WRITE);
+    }
+
+    @ReactMethod
+    public void unsubscribeQuery(int tag, int subscriptionId, Promise promise) {
+        withDriver(tag, promise, (driver) -> {
+            driver.unsubscribeQuery(subscriptionId);
+            return true;
+        }, "unsubscribeQuery", ConnectionExecutor.Kind.WRITE);
+    }
+
+    public static final String QUERY_DIFF_EVENT = "WMDatabaseQueryDiff";
+
+    // Emitted with `{ tag, generation }` when a memory trim drops the record cache of a connection
+    // (see WMDatabaseDriver.setRecordCacheDropListener)
+    public static final String RECORD_CACHE_DROPPED_EVENT = "WMDatabaseRecordCacheDropped";
+
+    private void emit(String eventName, WritableMap event) {
+        if (reactContext.hasActiveReactInstance()) {
+            reactContext.getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class).emit(eventName, event);
+        }
+    }
+
+    // Required by NativeEventEmitter
+    @ReactMethod
+    public void addListener(String eventName) {
+    }
+
+    @ReactMethod
+    public void removeListeners(double count) {
     }
 
     @ReactMethod
@@ -119,12 +386,64 @@ public class WMDatabaseBridge extends ReactContextBaseJavaModule {
         withDriver(tag, promise, (driver) -> {
             driver.unsafeResetDatabase(new Schema(schemaVersion, schema));
             return null;
-        }, "unsafeResetDatabase");
+        }, "unsafeResetDatabase", ConnectionExecutor.Kind.WRITE);
     }
 
     @ReactMethod
     public void getLocal(int tag, String key, Promise promise) {
-        withDriver(tag, promise, (driver) -> driver.getLocal(key), "getLocal");
+        withDriver(tag, promise, (driver) -> driver.getLocal(key), "getLocal", ConnectionExecutor.Kind.READ);
+    }
+
+    @ReactMethod
+    public void getEffectivePragmas(int tag, Promise promise) {
+        withDriver(tag, promise, (driver) -> {
+            WritableMap result = Arguments.createMap();
+            for (Map.Entry<String, String> pragma : driver.getEffectivePragmas().entrySet()) {
+                result.putString(pragma.getKey(), pragma.getValue());
+            }
+            return result;
+        }, "getEffectivePragmas", ConnectionExecutor.Kind.WRITE);
+    }
+
+    // Opt-in: logs queries that take at least `thresholdMs` (pass a negative value to disable)
+    @ReactMethod
+    public void configureSlowQueryLog(int tag, double thresholdMs, int capacity, Promise promise) {
+        withDriver(tag, promise, (driver) -> {
+            driver.configureSlowQueryLog(thresholdMs, capacity);
+            return true;
+        }, "configureSlowQueryLog", ConnectionExecutor.Kind.WRITE);
+    }
+
+    @ReactMethod
+    public void getSlowQueries(int tag, Promise promise) {
+        withDriver(tag, promise, WMDatabaseDriver::getSlowQueries, "getSlowQueries", ConnectionExecutor.Kind.READ);
+    }
+
+    // Pass maxEntries 0 to disable (see QueryResultCache)
+    @ReactMethod
+    public void configureQueryResultCache(int tag, int maxEntries, double maxBytes, Promise promise) {
+        withDriver(tag, promise, (driver) -> {
+            driver.configureQueryResultCache(maxEntries, (long) maxBytes);
+            return true;
+        }, "configureQueryResultCache", ConnectionExecutor.Kind.WRITE);
+    }
+
+    @ReactMethod
+    public void getQueryResultCacheStats(int tag, Promise promise) {
+        withDriver(tag, promise, (driver) -> {
+            QueryResultCache.Stats stats = driver.getQueryResultCacheStats();
+            WritableMap result = Arguments.createMap();
+            result.putDouble("hits", stats.hits);
+            result.putDouble("misses", stats.misses);
+            result.putDouble("hitRatio", stats.hitRatio());
+            result.putDouble("invalidations", stats.invalidations);
+            result.putDouble("evictions", stats.evictions);
+            result.putInt("entries", stats.entries);
+            result.putDouble("estimatedBytes", stats.estimatedBytes);
+            result.putInt("maxEntries", stats.maxEntries);
+            result.putDouble("maxBytes", stats.maxBytes);
+            return result;
+        }, "getQueryResultCacheStats", ConnectionExecutor.Kind.READ);
     }
 
     @ReactMethod(isBlockingSynchronousMethod = true)
@@ -171,30 +490,281 @@ public class WMDatabaseBridge extends ReactContextBaseJavaModule {
         Object applyParamFunction(WMDatabaseDriver arg);
     }
 
-    private void withDriver(final int tag, final Promise promise, final ParamFunction function, String functionName) {
+    // NOTE: Call on the React thread only (not from work running on an executor), so that no
+    // executor can be created after shutDownExecutors()
+    private ConnectionExecutor getExecutor(int connectionTag) {
+        if (areExecutorsShutDown) {
+            throw new IllegalStateException("Cannot use connection " + connectionTag + " after the bridge was invalidated");
+        }
+        return executors.computeIfAbsent(connectionTag, (tag) -> new ConnectionExecutor("WMDatabase-" + tag));
+    }
+
+    private void withDriver(final int tag, final Promise promise, final ParamFunction function, String functionName, ConnectionExecutor.Kind kind) {
         try {
-            Trace.beginSection("WMDatabaseBridge." + functionName);
             Connection connection = connections.get(tag);
             if (connection == null) {
                 promise.reject(new Exception("No driver with tag " + tag + " available"));
             } else if (connection instanceof Connection.Connected) {
-                Object result = function.applyParamFunction(((Connection.Connected) connection).driver);
-                promise.resolve(result == Void.TYPE ? true : result);
+                WMDatabaseDriver driver = ((Connection.Connected) connection).driver;
+                long submittedAt = System.nanoTime();
+                getExecutor(tag).submit(kind, () -> {
+                    long start = System.nanoTime();
+                    boolean[] failed = {false};
+                    DriverStats stats = driver.getStats();
+                    stats.beginCall();
+                    Trace.beginSection("WMDatabaseBridge." + functionName);
+                    try {
+                        // NOTE: Result must be delivered within runCall (see WMDatabaseDriver.recordCacheLock)
+                        driver.runCall(() -> {
+                            try {
+                                Object result = function.applyParamFunction(driver);
+                                promise.resolve(result == Void.TYPE ? true : result);
+                            } catch (Exception e) {
+                                failed[0] = true;
+                                promise.reject(functionName, e);
+                            }
+                        });
+                    } finally {
+                        Trace.endSection();
+                        stats.endCall(tag, functionName, start - submittedAt, System.nanoTime() - start, failed[0]);
+                    }
+                });
             } else if (connection instanceof Connection.Waiting) {
                 // try again when driver is ready
-                connection.getQueue().add(() -> withDriver(tag, promise, function, functionName));
+                connection.getQueue().add(() -> withDriver(tag, promise, function, functionName, kind));
                 connections.put(tag, new Connection.Waiting(connection.getQueue()));
             }
         } catch (Exception e) {
             promise.reject(functionName, e);
-        } finally {
-            Trace.endSection();
         }
     }
 
+    // Lets reads run ahead of background writes (batchInChunks, unsafeLoadFromSync, memory trims)
+    // submitted earlier. Reads never overtake other writes (see ConnectionExecutor)
+    @ReactMethod
+    public void configureScheduler(int tag, boolean readsCanBypassWrites, int maxReadBypasses, Promise promise) {
+        try {
+            getExecutor(tag).configure(readsCanBypassWrites, maxReadBypasses);
+            promise.resolve(true);
+        } catch (IllegalStateException e) {
+            promise.reject("configureScheduler", e);
+        }
+    }
+
+    // Latency (p50/p90/p99/max/mean, in ms) and counters per operation since last reset. Also
+    // `statementCache: { hits, misses, hitRatio }`, since the database was opened (not reset)
+    @ReactMethod
+    public void getStats(int tag, Promise promise) {
+        WMDatabaseDriver driver = getConnectedDriver(tag, promise);
+        if (driver == null) {
+            return;
+        }
+        DriverStats stats = driver.getStats();
+        WritableMap result = Arguments.createMap();
+        synchronized (stats) {
+            for (DriverStats.OperationStats operation : stats.getOperations()) {
+                WritableMap map = Arguments.createMap();
+                map.putDouble("count", operation.count);
+                map.putDouble("errors", operation.errors);
+                map.putMap("queueWait", histogramToMap(operation.queueWait));
+                map.putMap("execution", histogramToMap(operation.execution));
+                map.putDouble("rowsReturned", operation.rowsReturned);
+                map.putDouble("rowsWritten", operation.rowsWritten);
+                map.putDouble("cacheHits", operation.cacheHits);
+                map.putDouble("fullRecords", operation.fullRecords);
+                map.putDouble("bytesBridged", operation.bytesBridged);
+                result.putMap(operation.operation, map);
+            }
+        }
+        long hits = driver.getStatementCacheHitCount();
+        long misses = driver.getStatementCacheMissCount();
+        WritableMap statementCache = Arguments.createMap();
+        statementCache.putDouble("hits", hits);
+        statementCache.putDouble("misses", misses);
+        statementCache.putDouble("hitRatio", hits + misses == 0 ? 0 : (double) hits / (hits + misses));
+        result.putMap("statementCache", statementCache);
+        promise.resolve(result);
+    }
+
+    @ReactMethod
+    public void resetStats(int tag, Promise promise) {
+        WMDatabaseDriver driver = getConnectedDriver(tag, promise);
+        if (driver == null) {
+            return;
+        }
+        driver.getStats().reset();
+        promise.resolve(true);
+    }
+
+    private WritableMap histogramToMap(LatencyHistogram histogram) {
+        WritableMap map = Arguments.createMap();
+        map.putDouble("p50", histogram.getPercentileMicros(50) / 1000.0);
+        map.putDouble("p90", histogram.getPercentileMicros(90) / 1000.0);
+        map.putDouble("p99", histogram.getPercentileMicros(99) / 1000.0);
+        map.putDouble("max", histogram.getMaxMicros() / 1000.0);
+        map.putDouble("mean", histogram.getMeanMicros() / 1000.0);
+        return map;
+    }
+
+    // NOTE: Unlike withDriver, doesn't wait for the driver to be set up - rejects instead
+    private WMDatabaseDriver getConnectedDriver(int tag, Promise promise) {
+        Connection connection = connections.get(tag);
+        if (connection instanceof Connection.Connected) {
+            return ((Connection.Connected) connection).driver;
+        }
+        promise.reject(new Exception("No driver with tag " + tag + " available"));
+        return null;
+    }
+
+    // Frees memory as if the system called onTrimMemory(level). Resolves with what was freed
+    @ReactMethod
+    public void trimMemory(int tag, int level, Promise promise) {
+        withDriver(tag, promise, (driver) -> trimResultToMap(driver.trimMemory(level)), "trimMemory", ConnectionExecutor.Kind.WRITE);
+    }
+
+    private WritableMap trimResultToMap(MemoryTrim.Result trim) {
+        WritableMap map = Arguments.createMap();
+        map.putString("tier", trim.tier.name());
+        map.putDouble("bytesFreed", trim.totalBytes());
+        map.putDouble("sqliteBytes", trim.sqliteBytes);
+        map.putInt("statementsClosed", trim.statementsClosed);
+        map.putInt("readersClosed", trim.readersClosed);
+        map.putDouble("recordCacheBytes", trim.recordCacheBytes);
+        map.putInt("recordIdsDropped", trim.recordIdsDropped);
+        map.putInt("queriesClosed", trim.queriesClosed);
+        map.putDouble("resultCacheBytes", trim.resultCacheBytes);
+        return map;
+    }
+
+    // Called by the system on the main thread. Each connection is trimmed on its writer's thread,
+    // after writes already queued
+    private void trimAllConnections(int level) {
+        if (MemoryTrim.tierFor(level) == MemoryTrim.Tier.NONE) {
+            return;
+        }
+        for (Map.Entry<Integer, Connection> entry : connections.entrySet()) {
+            ConnectionExecutor executor = executors.get(entry.getKey());
+            if (executor == null || !(entry.getValue() instanceof Connection.Connected)) {
+                continue;
+            }
+            WMDatabaseDriver driver = ((Connection.Connected) entry.getValue()).driver;
+            try {
+                executor.submit(ConnectionExecutor.Kind.BACKGROUND_WRITE, () -> {
+                    try {
+                        driver.trimMemory(level);
+                    } catch (Exception e) {
+                        logTrimFailure(e);
+                    }
+                });
+            } catch (IllegalStateException e) {
+                // Connection is shutting down, its memory will be freed anyway
+            }
+        }
+    }
+
+    private void logTrimFailure(Exception e) {
+        if (BuildConfig.DEBUG) {
+            Logger logger = Logger.getLogger("DB_Bridge");
+            logger.warning("Failed to trim memory: " + e);
+        }
+    }
+
+    // Enables WAL checkpoints and incremental vacuum while the connection is idle (see
+    // DatabaseMaintenance, MaintenanceOptions). Pass null options to disable
+    @ReactMethod
+    public void configureMaintenance(int tag, ReadableMap options, Promise promise) {
+        ConnectionExecutor executor;
+        try {
+            executor = getExecutor(tag);
+        } catch (IllegalStateException e) {
+            promise.reject("configureMaintenance", e);
+            return;
+        }
+        withDriver(tag, promise, (driver) -> {
+            MaintenanceOptions maintenanceOptions = options != null ? MaintenanceOptions.fromMap(options) : null;
+            driver.configureMaintenance(maintenanceOptions);
+            if (maintenanceOptions == null) {
+                executor.setIdleWork(0, null);
+            } else {
+                executor.setIdleWork(maintenanceOptions.idleDelayMillis, () -> {
+                    try {
+                        return driver.runMaintenanceSlice(executor::hasPendingWork);
+                    } catch (Exception e) {
+                        if (BuildConfig.DEBUG) {
+                            Logger.getLogger("DB_Bridge").warning("Database maintenance failed: " + e);
+                        }
+                        return true;
+                    }
+                });
+            }
+            return true;
+        }, "configureMaintenance", ConnectionExecutor.Kind.WRITE);
+    }
+
+    @ReactMethod
+    public void getMaintenanceStats(int tag, Promise promise) {
+        withDriver(tag, promise, (driver) -> {
+            DatabaseMaintenance.Stats stats = driver.getMaintenanceStats();
+            WritableMap result = Arguments.createMap();
+            result.putDouble("slices", stats.slices);
+            result.putDouble("interruptedSlices", stats.interruptedSlices);
+            result.putDouble("checkpoints", stats.checkpoints);
+            result.putDouble("pagesVacuumed", stats.pagesVacuumed);
+            result.putDouble("millisSpent", stats.millisSpent);
+            result.putDouble("lastWalBytes", stats.lastWalBytes);
+            result.putDouble("lastFreelistPages", stats.lastFreelistPages);
+            return result;
+        }, "getMaintenanceStats", ConnectionExecutor.Kind.READ);
+    }
+
+    @ReactMethod
+    public void getQueueStats(int tag, Promise promise) {
+        ConnectionExecutor.Stats stats;
+        try {
+            stats = getExecutor(tag).getStats();
+        } catch (IllegalStateException e) {
+            promise.reject("getQueueStats", e);
+            return;
+        }
+        WritableMap result = Arguments.createMap();
+        result.putInt("pendingReads", stats.pendingReads);
+        result.putInt("pendingWrites", stats.pendingWrites);
+        result.putInt("maxQueueDepth", stats.maxQueueDepth);
+        result.putDouble("executedCount", stats.executedCount);
+        result.putDouble("bypassCount", stats.bypassCount);
+        result.putDouble("averageWaitMs", stats.averageWaitNanos / 1e6);
+        result.putDouble("maxWaitMs", stats.maxWaitNanos / 1e6);
+        promise.resolve(result);
+    }
+
+    // Timings of DatabasePrewarm (started by the app), or null if the database wasn't prewarmed
+    @ReactMethod
+    public void getPrewarmResult(String databaseName, Promise promise) {
+        DatabasePrewarm.Result prewarm = DatabasePrewarm.getResult(databaseName);
+        if (prewarm == null) {
+            promise.resolve(null);
+            return;
+        }
+        WritableMap result = Arguments.createMap();
+        result.putDouble("openMillis", prewarm.openMillis);
+        result.putDouble("warmMillis", prewarm.warmMillis);
+        result.putDouble("driverWaitMillis", prewarm.driverWaitMillis);
+        result.putInt("schemaVersion", prewarm.schemaVersion);
+        result.putInt("queriesWarmed", prewarm.queriesWarmed);
+        result.putDouble("fileBytesWarmed", prewarm.fileBytesWarmed);
+        result.putString("error", prewarm.error);
+        promise.resolve(result);
+    }
 
     private void connectDriver(int connectionTag, WMDatabaseDriver driver, Promise promise) {
         List<Runnable> queue = getQueue(connectionTag);
+        getExecutor(connectionTag).setReaderThreads(driver.getReaderCount());
+        driver.setRecordCacheDropListener((generation) -> {
+            WritableMap event = Arguments.createMap();
+            event.putInt("tag", connectionTag);
+            event.putInt("generation", generation);
+            emit(RECORD_CACHE_DROPPED_EVENT, event);
+        });
         connections.put(connectionTag, new Connection.Connected(driver));
 
         for (Runnable operation : queue) {
@@ -213,6 +783,36 @@ public class WMDatabaseBridge extends ReactContextBaseJavaModule {
         }
     }
 
+    // Same as provideSyncJson, but for unsafeLoadFromSync of this (non-JSI) bridge
+    @ReactMethod
+    public void provideBridgeSyncJson(int id, String json, Promise promise) {
+        TurboSync.provideSyncJson(id, json);
+        promise.resolve(true);
+    }
+
+    // Same as provideSyncJsonFile, but for unsafeLoadFromSync of this (non-JSI) bridge
+    @ReactMethod
+    public void provideBridgeSyncJsonFile(int id, String path, Promise promise) {
+        try {
+            TurboSync.provideSyncJsonFile(id, path);
+            promise.resolve(true);
+        } catch (Exception e) {
+            promise.reject(e);
+        }
+    }
+
+    // Inserts records of sync JSON (see TurboSync). Resolves with other fields of the JSON, as JSON
+    @ReactMethod
+    public void unsafeLoadFromSync(int tag, int jsonId, ReadableMap schema, String preamble, String postamble, Promise promise) {
+        withDriver(tag, promise, (driver) -> {
+            WritableMap result = Arguments.createMap();
+            for (Map.Entry<String, String> entry : driver.unsafeLoadFromSync(jsonId, schema, preamble, postamble).entrySet()) {
+                result.putString(entry.getKey(), entry.getValue());
+            }
+            return result;
+        }, "unsafeLoadFromSync", ConnectionExecutor.Kind.BACKGROUND_WRITE);
+    }
+
     @ReactMethod
     public void provideSyncJson(int id, String json, Promise promise) {
         // Note: WatermelonJSI is optional on Android, but we don't want users to have to set up
@@ -227,6 +827,20 @@ public class WMDatabaseBridge extends ReactContextBaseJavaModule {
         }
     }
 
+    // Same as provideSyncJson, but JSON is memory-mapped from a file (e.g. downloaded there by JS),
+    // so that it doesn't have to be passed from JS, or copied, at all
+    @ReactMethod
+    public void provideSyncJsonFile(int id, String path, Promise promise) {
+        try {
+            Class<?> clazz = Class.forName("com.nozbe.watermelondb.jsi.WatermelonJSI");
+            Method method = clazz.getDeclaredMethod("provideSyncJsonFile", int.class, String.class);
+            method.invoke(null, id, path);
+            promise.resolve(true);
+        } catch (Exception e) {
+            promise.reject(e);
+        }
+    }
+
     @ReactMethod(isBlockingSynchronousMethod = true)
     public WritableArray getRandomBytes(int count) {
         if (count != 256) {
@@ -244,8 +858,19 @@ public class WMDatabaseBridge extends ReactContextBaseJavaModule {
         return result;
     }
 
+    private void shutDownExecutors() {
+        areExecutorsShutDown = true;
+        idleQueryHandler.removeCallbacksAndMessages(null);
+        for (ConnectionExecutor executor : executors.values()) {
+            executor.shutdown();
+        }
+        executors.clear();
+    }
+
     @Override
     public void invalidate() {
+        reactContext.getApplicationContext().unregisterComponentCallbacks(memoryCallbacks);
+        shutDownExecutors();
         // NOTE: See Database::install() for explanation
         super.invalidate();
         reactContext.getCatalystInstance().getReactQueueConfiguration().getJSQueueThread().runOnQueue(() -> {
@@ -265,6 +890,8 @@ public class WMDatabaseBridge extends ReactContextBaseJavaModule {
     @Deprecated
     @Override
     public void onCatalystInstanceDestroy() {
+        reactContext.getApplicationContext().unregisterComponentCallbacks(memoryCallbacks);
+        shutDownExecutors();
         // NOTE: See Database::install() for explanation
         super.onCatalystInstanceDestroy();
         reactContext.getCatalystInstance().getReactQueueConfiguration().getJSQueueThread().runOnQueue(() -> {
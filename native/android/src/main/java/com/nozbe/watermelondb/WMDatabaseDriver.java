@@ -1,36 +1,70 @@
 package com.nozbe.watermelondb;
 
 import android.content.Context;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 
-import android.os.Trace;
-
-import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
 import com.nozbe.watermelondb.utils.MigrationSet;
 import com.nozbe.watermelondb.utils.Pair;
 import com.nozbe.watermelondb.utils.Schema;
 
+import net.zetetic.database.sqlcipher.SQLiteDatabase;
+
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
 public class WMDatabaseDriver {
+    // Max number of ids per query in findMany. Stays under SQLite's limit of bound variables,
+    // which is 999 in versions before 3.32
+    private static final int FIND_MANY_CHUNK_SIZE = 999;
+
     private final WMDatabase database;
 
     private final Logger log;
-    private final Map<String, List<String>> cachedRecords;
+    // Ids of records JS has cached, per table. Guarded by recordCacheLock
+    private final Map<String, RecordIdSet> cachedRecords;
+    // Reads run on multiple threads at once (see ConnectionExecutor), so sending a record as just its
+    // id is only safe once JS received the call that sent it in full. So within runCall(), once a
+    // call checks or marks records as cached, it holds the lock until its result is delivered.
+    // NOTE: Never taken before leasing a reader (see WMDatabase.read) - a call holding it must not wait
+    // for a reader held by a call waiting for it
+    private final ReentrantLock recordCacheLock = new ReentrantLock();
+    private final ThreadLocal<Boolean> isInCall = new ThreadLocal<>();
+    private volatile SlowQueryLog slowQueryLog = null;
+    private final DriverStats stats = new DriverStats();
+    private final DecodingPlan.Cache decodingPlans = new DecodingPlan.Cache(DecodingPlan.Cache.DEFAULT_MAX_SIZE);
+    private final QueryHandles queryHandles;
+    private final QueryResultCache resultCache = new QueryResultCache();
+    private volatile ChangeListener changeListener = null;
+    private final QuerySubscriptions subscriptions = new QuerySubscriptions();
+    private volatile QueryDiffListener queryDiffListener = null;
+    private volatile GroupCommit groupCommit = null;
+    private volatile RecordCacheDropListener recordCacheDropListener = null;
+    // Guarded by recordCacheLock
+    private int recordCacheGeneration = 0;
 
     public WMDatabaseDriver(Context context, String dbName) {
         this(context, dbName, false);
     }
 
     public WMDatabaseDriver(Context context, String dbName, int schemaVersion, boolean unsafeNativeReuse) {
-        this(context, dbName, unsafeNativeReuse);
+        this(context, dbName, schemaVersion, unsafeNativeReuse, PerformanceProfile.defaults(), null);
+    }
+
+    public WMDatabaseDriver(Context context, String dbName, int schemaVersion, boolean unsafeNativeReuse, PerformanceProfile profile, EncryptionConfig encryption) {
+        this(context, dbName, unsafeNativeReuse, profile, encryption);
         SchemaCompatibility compatibility = isCompatible(schemaVersion);
         if (compatibility instanceof SchemaCompatibility.NeedsSetup) {
             throw new SchemaNeededError();
@@ -44,165 +78,1167 @@ public class WMDatabaseDriver {
     }
 
     public WMDatabaseDriver(Context context, String dbName, Schema schema, boolean unsafeNativeReuse) {
-        this(context, dbName, unsafeNativeReuse);
+        this(context, dbName, schema, unsafeNativeReuse, PerformanceProfile.defaults(), null);
+    }
+
+    public WMDatabaseDriver(Context context, String dbName, Schema schema, boolean unsafeNativeReuse, PerformanceProfile profile, EncryptionConfig encryption) {
+        this(context, dbName, unsafeNativeReuse, profile, encryption);
         unsafeResetDatabase(schema);
     }
 
     public WMDatabaseDriver(Context context, String dbName, MigrationSet migrations, boolean unsafeNativeReuse) {
-        this(context, dbName, unsafeNativeReuse);
+        this(context, dbName, migrations, unsafeNativeReuse, PerformanceProfile.defaults(), null);
+    }
+
+    public WMDatabaseDriver(Context context, String dbName, MigrationSet migrations, boolean unsafeNativeReuse, PerformanceProfile profile, EncryptionConfig encryption) {
+        this(context, dbName, unsafeNativeReuse, profile, encryption);
         migrate(migrations);
     }
 
     public WMDatabaseDriver(Context context, String dbName, boolean unsafeNativeReuse) {
-        this.database = unsafeNativeReuse ? WMDatabase.getInstance(dbName, context,
+        this(context, dbName, unsafeNativeReuse, PerformanceProfile.defaults(), null);
+    }
+
+    public WMDatabaseDriver(Context context, String dbName, boolean unsafeNativeReuse, PerformanceProfile profile, EncryptionConfig encryption) {
+        this(openDatabase(context, dbName, unsafeNativeReuse, profile, encryption));
+    }
+
+    private static WMDatabase openDatabase(Context context, String dbName, boolean unsafeNativeReuse, PerformanceProfile profile, EncryptionConfig encryption) {
+        // Opened ahead of time, before JS asked for it
+        WMDatabase prewarmed = DatabasePrewarm.take(dbName, unsafeNativeReuse);
+        if (prewarmed != null) {
+            return prewarmed;
+        }
+        return unsafeNativeReuse ? WMDatabase.getInstance(dbName, context,
                 SQLiteDatabase.CREATE_IF_NECESSARY |
-                        SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING) :
+                        SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING, profile, encryption) :
                 WMDatabase.buildDatabase(dbName, context,
                         SQLiteDatabase.CREATE_IF_NECESSARY |
-                                SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING);
+                                SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING, profile, encryption);
+    }
+
+    // Use with WMDatabase.open() to run on a non-Android storage backend
+    public WMDatabaseDriver(WMDatabase database) {
+        this.database = database;
         if (BuildConfig.DEBUG) {
             this.log = Logger.getLogger("DB_Driver");
         } else {
             this.log = null;
         }
         this.cachedRecords = new HashMap<>();
+        this.queryHandles = new QueryHandles(database);
     }
 
     public Object find(String table, String id) {
+        return database.read(reader -> find(reader, table, id));
+    }
+
+    private Object find(WMDatabase reader, String table, String id) {
         if (isCached(table, id)) {
-            return id;
+            return cachedId(id);
         }
         Object[] args = {id};
-        try (Cursor cursor =
-                     database.rawQuery("select * from `" + table + "` where id == ? limit 1", args)) {
+        String query = "select * from `" + table + "` where id == ? limit 1";
+        long start = System.nanoTime();
+        try (StorageCursor cursor = reader.rawQuery(query, args)) {
             if (cursor.getCount() <= 0) {
+                logIfSlow(reader, query, args, 0, start);
                 return null;
             }
             markAsCached(table, id);
             cursor.moveToFirst();
-            return DatabaseUtils.cursorToMap(cursor);
+            WritableMap record = decodingPlans.get(query, cursor).decodeToMap(cursor, stats);
+            stats.current().rowsReturned++;
+            stats.current().fullRecords++;
+            logIfSlow(reader, query, args, 1, start);
+            return record;
         }
     }
 
+    // Same as calling find for each id, but ids not cached on the JS side are fetched together with
+    // a few `in (...)` queries. Returns results in the order of `ids`: a record, an id of a cached
+    // record, or null if there's no such record
+    public WritableArray findMany(String table, ReadableArray ids) {
+        return database.read(reader -> findMany(reader, table, ids));
+    }
+
+    private WritableArray findMany(WMDatabase reader, String table, ReadableArray ids) {
+        LinkedHashSet<String> idsToFetch = new LinkedHashSet<>();
+        for (int i = 0; i < ids.size(); i++) {
+            String id = ids.getString(i);
+            if (!isCached(table, id)) {
+                idsToFetch.add(id);
+            }
+        }
+
+        Map<String, WritableMap> fetchedRecords = new HashMap<>();
+        // NOTE: Plan is shared with find - it's the same `select *`, and this way chunks of every
+        // size don't each get their own
+        String planKey = "select * from `" + table + "` where id == ? limit 1";
+        Object[] allArgs = idsToFetch.toArray();
+        for (int offset = 0; offset < allArgs.length; offset += FIND_MANY_CHUNK_SIZE) {
+            int chunkSize = Math.min(FIND_MANY_CHUNK_SIZE, allArgs.length - offset);
+            Object[] args = Arrays.copyOfRange(allArgs, offset, offset + chunkSize);
+            String query = Queries.selectByIds(table, chunkSize);
+            long start = System.nanoTime();
+            int rowCount = 0;
+            try (StorageCursor cursor = reader.rawQuery(query, args)) {
+                rowCount = cursor.getCount();
+                DecodingPlan plan = rowCount > 0 ? decodingPlans.get(planKey, cursor) : null;
+                if (plan != null && plan.idColumnIndex != -1) {
+                    while (cursor.moveToNext()) {
+                        fetchedRecords.put(cursor.getString(plan.idColumnIndex), plan.decodeToMap(cursor, stats));
+                    }
+                }
+            }
+            stats.current().rowsReturned += rowCount;
+            logIfSlow(reader, query, args, rowCount, start);
+        }
+
+        WritableArray resultArray = Platform.current().createArray();
+        for (int i = 0; i < ids.size(); i++) {
+            String id = ids.getString(i);
+            // NOTE: If an id is repeated, the record is sent in full only the first time
+            WritableMap record = fetchedRecords.remove(id);
+            if (record != null) {
+                markAsCached(table, id);
+                resultArray.pushMap(record);
+                stats.current().fullRecords++;
+            } else if (isCached(table, id)) {
+                resultArray.pushString(cachedId(id));
+            } else {
+                resultArray.pushNull();
+            }
+        }
+        return resultArray;
+    }
+
+    private String cachedId(String id) {
+        stats.current().cacheHits++;
+        stats.current().bytesBridged += id.length();
+        return id;
+    }
+
     public WritableArray cachedQuery(String table, String query, Object[] args) {
-        WritableArray resultArray = Arguments.createArray();
-        try (Cursor cursor = database.rawQuery(query, args)) {
-            if (cursor.getCount() > 0 && DatabaseUtils.arrayContains(cursor.getColumnNames(), "id")) {
-                int idColumnIndex = cursor.getColumnIndex("id");
+        return database.read(reader -> cachedQuery(reader, table, query, args, false));
+    }
+
+    // Same as cachedQuery, but in columnar format: [columnNames, ...rows], where a row is either
+    // an array of values or an id of a cached record
+    public WritableArray cachedQueryAsArray(String table, String query, Object[] args) {
+        return database.read(reader -> cachedQuery(reader, table, query, args, true));
+    }
+
+    private WritableArray cachedQuery(WMDatabase reader, String table, String query, Object[] args, boolean isColumnar) {
+        long start = System.nanoTime();
+        WritableArray resultArray = Platform.current().createArray();
+        int rowCount = 0;
+        try (StorageCursor cursor = reader.rawQuery(query, args)) {
+            rowCount = cursor.getCount();
+            DecodingPlan plan = rowCount > 0 ? decodingPlans.get(query, cursor) : null;
+            if (plan != null && plan.idColumnIndex != -1) {
+                if (isColumnar) {
+                    resultArray.pushArray(plan.columnNamesToArray(stats));
+                }
                 while (cursor.moveToNext()) {
-                    String id = cursor.getString(idColumnIndex);
-                    if (isCached(table, id)) {
-                        resultArray.pushString(id);
-                    } else {
-                        markAsCached(table, id);
-                        resultArray.pushMap(DatabaseUtils.cursorToMap(cursor));
-                    }
+                    pushRecord(resultArray, table, cursor, plan, isColumnar, true);
                 }
             }
         }
+        stats.current().rowsReturned += rowCount;
+        logIfSlow(reader, query, args, rowCount, start);
         return resultArray;
     }
 
+    // Pushes the record at cursor's position - just its id if JS already has it cached. Pass
+    // marksAsCached false if the result might not reach JS's record cache
+    private void pushRecord(WritableArray resultArray, String table, StorageCursor cursor, DecodingPlan plan, boolean isColumnar,
+                            boolean marksAsCached) {
+        String id = cursor.getString(plan.idColumnIndex);
+        if (isCached(table, id)) {
+            resultArray.pushString(cachedId(id));
+        } else {
+            if (marksAsCached) {
+                markAsCached(table, id);
+            }
+            if (isColumnar) {
+                resultArray.pushArray(plan.decodeToArray(cursor, stats));
+            } else {
+                resultArray.pushMap(plan.decodeToMap(cursor, stats));
+            }
+            stats.current().fullRecords++;
+        }
+    }
+
     public WritableArray queryIds(String query, Object[] args) {
-        WritableArray resultArray = Arguments.createArray();
-        try (Cursor cursor = database.rawQuery(query, args)) {
-            if (cursor.getCount() > 0 && DatabaseUtils.arrayContains(cursor.getColumnNames(), "id")) {
+        return read((reader, readAt) -> queryIds(reader, readAt, query, args));
+    }
+
+    private WritableArray queryIds(WMDatabase reader, long readAt, String query, Object[] args) {
+        String[] cachedIds = (String[]) resultCache.get(QueryResultCache.Kind.QUERY_IDS, query, args);
+        if (cachedIds != null) {
+            WritableArray resultArray = Platform.current().createArray();
+            for (String id : cachedIds) {
+                resultArray.pushString(id);
+                stats.current().bytesBridged += id.length();
+            }
+            stats.current().rowsReturned += cachedIds.length;
+            return resultArray;
+        }
+
+        long start = System.nanoTime();
+        WritableArray resultArray = Platform.current().createArray();
+        int rowCount = 0;
+        String[] ids = null;
+        try (StorageCursor cursor = reader.rawQuery(query, args)) {
+            rowCount = cursor.getCount();
+            DecodingPlan plan = rowCount > 0 ? decodingPlans.get(query, cursor) : null;
+            if (plan != null && plan.idColumnIndex != -1) {
+                int idColumnIndex = plan.idColumnIndex;
+                ids = new String[rowCount];
+                int index = 0;
                 while (cursor.moveToNext()) {
-                    int columnIndex = cursor.getColumnIndex("id");
-                    resultArray.pushString(cursor.getString(columnIndex));
+                    String id = cursor.getString(idColumnIndex);
+                    resultArray.pushString(id);
+                    stats.current().bytesBridged += id.length();
+                    ids[index++] = id;
                 }
             }
         }
+        stats.current().rowsReturned += rowCount;
+        logIfSlow(reader, query, args, rowCount, start);
+        if (resultCache.isEnabled()) {
+            long bytes = 16;
+            ids = ids != null ? ids : new String[0];
+            for (String id : ids) {
+                bytes += 40 + 2L * id.length();
+            }
+            resultCache.put(QueryResultCache.Kind.QUERY_IDS, query, args, ids, bytes, readAt);
+        }
         return resultArray;
     }
 
     public WritableArray unsafeQueryRaw(String query, Object[] args) {
-        WritableArray resultArray = Arguments.createArray();
-        try (Cursor cursor = database.rawQuery(query, args)) {
-            if (cursor.getCount() > 0) {
+        return read((reader, readAt) -> unsafeQueryRaw(reader, readAt, query, args, false));
+    }
+
+    // Same as unsafeQueryRaw, but in columnar format: [columnNames, ...rows]
+    public WritableArray unsafeQueryRawAsArray(String query, Object[] args) {
+        return read((reader, readAt) -> unsafeQueryRaw(reader, readAt, query, args, true));
+    }
+
+    private WritableArray unsafeQueryRaw(WMDatabase reader, long readAt, String query, Object[] args, boolean isColumnar) {
+        if (resultCache.isEnabled()) {
+            return cachedUnsafeQueryRaw(reader, readAt, query, args, isColumnar);
+        }
+        long start = System.nanoTime();
+        WritableArray resultArray = Platform.current().createArray();
+        int rowCount = 0;
+        try (StorageCursor cursor = reader.rawQuery(query, args)) {
+            rowCount = cursor.getCount();
+            if (rowCount > 0) {
+                DecodingPlan plan = decodingPlans.get(query, cursor);
+                if (isColumnar) {
+                    resultArray.pushArray(plan.columnNamesToArray(stats));
+                }
                 while (cursor.moveToNext()) {
-                    resultArray.pushMap(DatabaseUtils.cursorToMap(cursor));
+                    if (isColumnar) {
+                        resultArray.pushArray(plan.decodeToArray(cursor, stats));
+                    } else {
+                        resultArray.pushMap(plan.decodeToMap(cursor, stats));
+                    }
                 }
             }
         }
+        stats.current().rowsReturned += rowCount;
+        logIfSlow(reader, query, args, rowCount, start);
         return resultArray;
     }
 
+    // Same as unsafeQueryRaw, but rows are read into a RawRows first, so that they can be cached
+    private WritableArray cachedUnsafeQueryRaw(WMDatabase reader, long readAt, String query, Object[] args, boolean isColumnar) {
+        QueryResultCache.RawRows rows = (QueryResultCache.RawRows) resultCache.get(QueryResultCache.Kind.RAW, query, args);
+        if (rows == null) {
+            long start = System.nanoTime();
+            try (StorageCursor cursor = reader.rawQuery(query, args)) {
+                rows = QueryResultCache.RawRows.of(cursor, decodingPlans.get(query, cursor));
+            }
+            logIfSlow(reader, query, args, rows.rowCount, start);
+            resultCache.put(QueryResultCache.Kind.RAW, query, args, rows, rows.estimatedBytes, readAt);
+        }
+        stats.current().rowsReturned += rows.rowCount;
+        return rows.toArray(isColumnar, stats);
+    }
+
+    // Opens `query` to be read in chunks with fetchNext, so that its whole result never has to be in
+    // memory at once. With `table`, rows are records in the same format as cachedQuery (records are
+    // marked as cached as they are fetched). With null `table`, rows are raw, like unsafeQueryRaw.
+    // Returns a handle to pass to fetchNext and closeQuery.
+    // NOTE: The query holds a reader connection in a read transaction until it's closed, so all rows
+    // are from the database as of openQuery, even if it's written to in the meantime. Fails if no
+    // reader can be spared (see QueryHandles)
+    // NOTE: Rows are read from SQLite lazily, a CursorWindow at a time. Android's cursor counts all
+    // rows when it fills its first window, and re-steps over all earlier rows to fill each next
+    // one, so reading N rows costs more than N steps (about N^2 / (2 * rows per window)) - fine for
+    // results of tens of thousands of records, but not a substitute for narrowing the query
+    public int openQuery(String table, String query, Object[] args) {
+        return queryHandles.open(table, query, args, decodingPlans).id;
+    }
+
+    // Returns up to `count` next rows of an open query. Once fewer than `count` rows are returned,
+    // the query is fully read and is closed
+    public WritableArray fetchNext(int handleId, int count) {
+        queryHandles.closeIdle();
+        QueryHandles.Handle handle = queryHandles.get(handleId);
+        StorageCursor cursor = handle.cursor;
+        DecodingPlan plan = handle.plan;
+        WritableArray resultArray = Platform.current().createArray();
+        int rowCount = 0;
+        // NOTE: Same as cachedQuery, records without an id column are not returned
+        boolean isDone = handle.table != null && plan.idColumnIndex == -1;
+        synchronized (handle) {
+            if (handle.isClosed()) {
+                throw new IllegalArgumentException("No open query with handle " + handleId + ". It was closed while being fetched from");
+            }
+            try {
+                while (!isDone && rowCount < count) {
+                    if (!cursor.moveToNext()) {
+                        isDone = true;
+                        break;
+                    }
+                    if (handle.table != null) {
+                        pushRecord(resultArray, handle.table, cursor, plan, false, true);
+                    } else {
+                        resultArray.pushMap(plan.decodeToMap(cursor, stats));
+                    }
+                    rowCount++;
+                }
+            } catch (RuntimeException e) {
+                queryHandles.close(handleId);
+                throw e;
+            }
+            if (isDone) {
+                queryHandles.close(handleId);
+            }
+        }
+        stats.current().rowsReturned += rowCount;
+        return resultArray;
+    }
+
+    public void closeQuery(int handleId) {
+        queryHandles.close(handleId);
+    }
+
+    // Closes queries not fetched from for longer than the idle timeout. Returns number of queries closed
+    public int closeIdleQueries() {
+        return queryHandles.closeIdle();
+    }
+
+    public void configureQueryHandles(int maxOpen, long idleTimeoutMs) {
+        queryHandles.configure(maxOpen, idleTimeoutMs);
+    }
+
+    public long getQueryIdleTimeoutMs() {
+        return queryHandles.getIdleTimeoutMs();
+    }
+
     public int count(String query, Object[] args) {
-        return database.count(query, args);
+        return read((reader, readAt) -> count(reader, readAt, query, args));
+    }
+
+    private int count(WMDatabase reader, long readAt, String query, Object[] args) {
+        stats.current().rowsReturned++;
+        stats.current().bytesBridged += 8;
+        Integer cachedCount = (Integer) resultCache.get(QueryResultCache.Kind.COUNT, query, args);
+        if (cachedCount != null) {
+            return cachedCount;
+        }
+        long start = System.nanoTime();
+        int count = reader.count(query, args);
+        logIfSlow(reader, query, args, 1, start);
+        resultCache.put(QueryResultCache.Kind.COUNT, query, args, count, 16, readAt);
+        return count;
+    }
+
+    // Pass maxEntries 0 to disable (see QueryResultCache)
+    public void configureQueryResultCache(int maxEntries, long maxBytes) {
+        resultCache.configure(maxEntries, maxBytes);
+    }
+
+    public QueryResultCache.Stats getQueryResultCacheStats() {
+        return resultCache.getStats();
     }
 
     public String getLocal(String key) {
-        return database.getFromLocalStorage(key);
+        return database.read(reader -> reader.getFromLocalStorage(key));
+    }
+
+    // Runs multiple read operations in one call, on one reader connection, and returns their results in
+    // order. Each operation is [method, ...args], with the same args as the corresponding method:
+    // ['find', table, id], ['findMany', table, ids], ['query' | 'queryAsArray', table, sql, args], ['queryIds', sql, args],
+    // ['unsafeQueryRaw' | 'unsafeQueryRawAsArray', sql, args], ['count', sql, args], ['getLocal', key]
+    //
+    // NOTE: Results share the record cache, so a record is only sent in full the first time it
+    // appears - results MUST be processed in order.
+    // NOTE: Operations run in one read transaction, so they all see the same snapshot of the
+    // database, even if a write is committed while they run
+    public WritableArray multiQuery(ReadableArray operations) {
+        return read((reader, readAt) -> {
+            WritableArray results = Platform.current().createArray();
+            for (int i = 0; i < operations.size(); i++) {
+                ReadableArray operation = operations.getArray(i);
+                String method = operation.getString(0);
+                switch (method) {
+                    case "find":
+                        pushResult(results, find(reader, operation.getString(1), operation.getString(2)));
+                        break;
+                    case "findMany":
+                        results.pushArray(findMany(reader, operation.getString(1), operation.getArray(2)));
+                        break;
+                    case "query":
+                    case "queryAsArray":
+                        results.pushArray(cachedQuery(reader, operation.getString(1), operation.getString(2),
+                                operation.getArray(3).toArrayList().toArray(), method.equals("queryAsArray")));
+                        break;
+                    case "queryIds":
+                        results.pushArray(queryIds(reader, readAt, operation.getString(1), operation.getArray(2).toArrayList().toArray()));
+                        break;
+                    case "unsafeQueryRaw":
+                    case "unsafeQueryRawAsArray":
+                        results.pushArray(unsafeQueryRaw(reader, readAt, operation.getString(1),
+                                operation.getArray(2).toArrayList().toArray(), method.equals("unsafeQueryRawAsArray")));
+                        break;
+                    case "count":
+                        results.pushInt(count(reader, readAt, operation.getString(1), operation.getArray(2).toArrayList().toArray()));
+                        break;
+                    case "getLocal":
+                        pushResult(results, reader.getFromLocalStorage(operation.getString(1)));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Bad multiQuery operation: " + method);
+                }
+            }
+            return results;
+        });
+    }
+
+    interface ReadFunction<T> {
+        T applyReadFunction(WMDatabase reader, long readAt);
+    }
+
+    // Same as WMDatabase.read, but also passes `readAt` for QueryResultCache.put. It's taken before
+    // the reader's snapshot, so that a write committed after the snapshot can't be missed by the cache
+    private <T> T read(ReadFunction<T> function) {
+        long readAt = resultCache.beginRead();
+        return database.read(reader -> function.applyReadFunction(reader, readAt));
+    }
+
+    private static void pushResult(WritableArray results, Object result) {
+        if (result == null) {
+            results.pushNull();
+        } else if (result instanceof String) {
+            results.pushString((String) result);
+        } else {
+            results.pushMap((WritableMap) result);
+        }
+    }
+
+    public DriverStats getStats() {
+        return stats;
+    }
+
+    // Hits and misses of the compiled statement cache (see StatementCache) since the database was opened
+    public long getStatementCacheHitCount() {
+        return database.getStatementCacheHitCount();
     }
 
-    public void batch(ReadableArray operations) {
-        List<Pair<String, String>> newIds = new ArrayList<>();
-        List<Pair<String, String>> removedIds = new ArrayList<>();
+    public long getStatementCacheMissCount() {
+        return database.getStatementCacheMissCount();
+    }
+
+    // Pass thresholdMs < 0 to disable
+    public void configureSlowQueryLog(double thresholdMs, int capacity) {
+        slowQueryLog = thresholdMs < 0 ? null : new SlowQueryLog(thresholdMs, capacity);
+    }
+
+    public WritableArray getSlowQueries() {
+        WritableArray result = Platform.current().createArray();
+        SlowQueryLog log = slowQueryLog;
+        if (log == null) {
+            return result;
+        }
+        for (SlowQueryLog.Entry entry : log.getEntries()) {
+            WritableMap map = Platform.current().createMap();
+            map.putString("sql", entry.sql);
+            WritableArray argTypes = Platform.current().createArray();
+            for (String type : entry.argTypes) {
+                argTypes.pushString(type);
+            }
+            map.putArray("argTypes", argTypes);
+            map.putInt("rowCount", entry.rowCount);
+            map.putDouble("durationMs", entry.durationNanos / 1e6);
+            map.putDouble("timestamp", entry.timestamp);
+            WritableArray plan = Platform.current().createArray();
+            for (String detail : entry.plan.details) {
+                plan.pushString(detail);
+            }
+            map.putArray("queryPlan", plan);
+            map.putBoolean("hasFullTableScan", entry.plan.hasFullTableScan);
+            map.putBoolean("hasTempBTree", entry.plan.hasTempBTree);
+            result.pushMap(map);
+        }
+        return result;
+    }
 
-        Trace.beginSection("Batch");
+    private void logIfSlow(WMDatabase reader, String query, Object[] args, int rowCount, long startNanos) {
+        SlowQueryLog log = slowQueryLog;
+        if (log != null) {
+            log.recordIfSlow(reader, query, args, rowCount, startNanos);
+        }
+    }
+
+    // Returns records changed, per table (see ChangeSet)
+    public ChangeSet batch(ReadableArray operations) {
+        ChangeSet changes = new ChangeSet();
+
+        Platform.current().beginSection("Batch");
         try {
-            database.transaction(() -> {
-                for (int i = 0; i < operations.size(); i++) {
-                    ReadableArray operation = operations.getArray(i);
-                    int cacheBehavior = operation.getInt(0);
-                    String table = cacheBehavior != 0 ? operation.getString(1) : "";
-                    String sql = operation.getString(2);
-                    ReadableArray argBatches = operation.getArray(3);
-
-                    for (int j = 0; j < argBatches.size(); j++) {
-                        Object[] args = argBatches.getArray(j).toArrayList().toArray();
-                        database.execute(sql, args);
-                        if (cacheBehavior != 0) {
-                            String id = (String) args[0];
-                            if (cacheBehavior == 1) {
-                                newIds.add(Pair.create(table, id));
-                            } else if (cacheBehavior == -1) {
-                                removedIds.add(Pair.create(table, id));
-                            }
-                        }
+            database.transaction(() -> executeBatch(operations, changes));
+        } finally {
+            Platform.current().endSection();
+            noteWrites(operations, operations.size());
+        }
+
+        updateRecordCache(changes);
+        notifyChanges(changes);
+        return changes;
+    }
+
+    private void executeBatch(ReadableArray operations, ChangeSet changes) {
+        for (int i = 0; i < operations.size(); i++) {
+            ReadableArray operation = operations.getArray(i);
+            String sql = operation.getString(2);
+            ReadableArray argBatches = operation.getArray(3);
+            ChangeSet.RowRecorder recorder = changes.recorderFor(operation);
+            stats.current().rowsWritten += argBatches.size();
+
+            for (int j = 0; j < argBatches.size(); j++) {
+                ReadableArray args = argBatches.getArray(j);
+                database.executeCached(sql, args);
+                if (recorder != null) {
+                    recorder.record(args);
+                }
+            }
+        }
+    }
+
+    private void updateRecordCache(ChangeSet changes) {
+        Platform.current().beginSection("updateCaches");
+        for (Map.Entry<String, ChangeSet.TableChanges> it : changes.tables.entrySet()) {
+            for (String id : it.getValue().created) {
+                markAsCached(it.getKey(), id);
+            }
+        }
+        for (Map.Entry<String, ChangeSet.TableChanges> it : changes.tables.entrySet()) {
+            for (String id : it.getValue().deleted) {
+                removeFromCache(it.getKey(), id);
+            }
+        }
+        Platform.current().endSection();
+    }
+
+    // Enables group commit (see GroupCommit) of batches submitted with ConnectionExecutor.submitGrouped.
+    // Pass maxBatches 0 to disable. Reconfiguring resets its stats. Stats of grouped batches are
+    // recorded (see DriverStats) as "batch" calls of connection `tag`
+    public void configureGroupCommit(int tag, long windowMillis, int maxBatches, int maxRows) {
+        groupCommit = maxBatches == 0 ? null : new GroupCommit(this, tag, windowMillis, maxBatches, maxRows);
+    }
+
+    // null if group commit is disabled
+    public GroupCommit getGroupCommit() {
+        return groupCommit;
+    }
+
+    // Commits batches in one transaction, and reports each one's result to its callback. If the
+    // transaction fails, batches are re-run one by one, so that only the failing one fails.
+    // Record cache is updated in order of batches, and change listeners are notified once.
+    // Each batch is recorded in DriverStats as if it was a call of its own, which took as long as
+    // the group took until its result was known
+    void batchGroup(GroupCommit groupCommit, List<GroupCommit.Batch> batches, long[] submittedAtNanos) {
+        long start = System.nanoTime();
+        List<ChangeSet> results = new ArrayList<>();
+        boolean isCommitted = false;
+        if (batches.size() > 1) {
+            Platform.current().beginSection("GroupCommit");
+            try {
+                database.transaction(() -> {
+                    for (GroupCommit.Batch batch : batches) {
+                        ChangeSet changes = new ChangeSet();
+                        executeBatch(batch.operations, changes);
+                        results.add(changes);
+                    }
+                });
+                isCommitted = true;
+            } catch (RuntimeException e) {
+                if (log != null) {
+                    log.info("Group commit of " + batches.size() + " batches failed, committing them one by one: " + e);
+                }
+            } finally {
+                Platform.current().endSection();
+                for (GroupCommit.Batch batch : batches) {
+                    noteWrites(batch.operations, batch.operations.size());
+                }
+            }
+        }
+        groupCommit.recordCommit(batches.size(), batches.size() > 1 && !isCommitted);
+
+        if (!isCommitted) {
+            for (int i = 0; i < batches.size(); i++) {
+                GroupCommit.Batch batch = batches.get(i);
+                stats.beginCall();
+                ChangeSet changes = null;
+                RuntimeException error = null;
+                try {
+                    changes = batch(batch.operations);
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+                batch.callback.onResult(changes, error);
+                stats.endCall(groupCommit.tag, "batch", start - submittedAtNanos[i], System.nanoTime() - start, error != null);
+            }
+            return;
+        }
+
+        ChangeSet allChanges = new ChangeSet();
+        for (ChangeSet changes : results) {
+            updateRecordCache(changes);
+            allChanges.addAll(changes);
+        }
+        // NOTE: Same as batch, a failing change listener fails the batches
+        RuntimeException error = null;
+        try {
+            notifyChanges(allChanges);
+        } catch (RuntimeException e) {
+            error = e;
+        }
+        long end = System.nanoTime();
+        for (int i = 0; i < batches.size(); i++) {
+            GroupCommit.Batch batch = batches.get(i);
+            batch.callback.onResult(error == null ? results.get(i) : null, error);
+            stats.beginCall();
+            stats.current().rowsWritten = batch.rowCount;
+            stats.endCall(groupCommit.tag, "batch", start - submittedAtNanos[i], end - start, error != null);
+        }
+    }
+
+    public interface ChangeListener {
+        void onChanges(ChangeSet changes);
+    }
+
+    // Listener is called (on the thread that made the change) after each commit that changed the
+    // database - of a batch, a chunk of batchInChunks, a sync load, or a reset. Pass null to remove
+    public void setChangeListener(ChangeListener listener) {
+        changeListener = listener;
+    }
+
+    private void notifyChanges(ChangeSet changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        updateSubscriptions(changes);
+        ChangeListener listener = changeListener;
+        if (listener != null) {
+            listener.onChanges(changes);
+        }
+    }
+
+    public interface QueryDiffListener {
+        void onQueryDiffs(List<QuerySubscriptions.Diff> diffs);
+    }
+
+    public void setQueryDiffListener(QueryDiffListener listener) {
+        queryDiffListener = listener;
+    }
+
+    // Registers a query (see QuerySubscriptions) to be re-evaluated after each commit that changes
+    // tables it reads. Changes to its results are sent to QueryDiffListener. Returns
+    // `{ subscriptionId, results }`, where results are the same as cachedQuery's.
+    // NOTE: Must be called on the writer's thread
+    public WritableMap subscribeQuery(String table, String query, Object[] args) {
+        QuerySubscriptions.Subscription subscription = subscriptions.add(table, query, args);
+        WritableArray results;
+        try {
+            results = Platform.current().createArray();
+            runSubscription(subscription, query, args, results, new HashSet<>());
+        } catch (RuntimeException e) {
+            subscriptions.remove(subscription.id);
+            throw e;
+        }
+        WritableMap result = Platform.current().createMap();
+        result.putInt("subscriptionId", subscription.id);
+        result.putArray("results", results);
+        return result;
+    }
+
+    public void unsubscribeQuery(int subscriptionId) {
+        subscriptions.remove(subscriptionId);
+    }
+
+    private void updateSubscriptions(ChangeSet changes) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        List<QuerySubscriptions.Diff> diffs = new ArrayList<>();
+        Iterator<QuerySubscriptions.Subscription> iterator = subscriptions.all().iterator();
+        while (iterator.hasNext()) {
+            QuerySubscriptions.Subscription subscription = iterator.next();
+            if (!QuerySubscriptions.isAffected(subscription, changes)) {
+                continue;
+            }
+            try {
+                QuerySubscriptions.Diff diff = diffSubscription(subscription, changes);
+                if (diff != null) {
+                    diffs.add(diff);
+                }
+            } catch (RuntimeException e) {
+                // NOTE: Changes are already committed, so a failing query must not fail the write
+                iterator.remove();
+                diffs.add(new QuerySubscriptions.Diff(subscription.id, null, null, e.getMessage()));
+            }
+        }
+        QueryDiffListener listener = queryDiffListener;
+        if (listener != null && !diffs.isEmpty()) {
+            listener.onQueryDiffs(diffs);
+        }
+    }
+
+    // Returns null if the subscription's results didn't change
+    private QuerySubscriptions.Diff diffSubscription(QuerySubscriptions.Subscription subscription, ChangeSet changes) {
+        Set<String> changedIds = QuerySubscriptions.changedIds(subscription, changes);
+        WritableArray added = Platform.current().createArray();
+        WritableArray removed = Platform.current().createArray();
+        Set<String> matchedIds = new HashSet<>();
+        if (changedIds != null && changedIds.size() + subscription.args.length <= FIND_MANY_CHUNK_SIZE) {
+            // Only changed records can have been added or removed
+            if (changedIds.isEmpty()) {
+                return null;
+            }
+            Object[] args = Arrays.copyOf(subscription.args, subscription.args.length + changedIds.size());
+            int index = subscription.args.length;
+            for (String id : changedIds) {
+                args[index++] = id;
+            }
+            runSubscription(subscription, QuerySubscriptions.restrictToIds(subscription.sql, changedIds.size()), args, added, matchedIds);
+            for (String id : changedIds) {
+                if (!matchedIds.contains(id) && subscription.ids.remove(id)) {
+                    removed.pushString(id);
+                }
+            }
+        } else {
+            runSubscription(subscription, subscription.sql, subscription.args, added, matchedIds);
+            Iterator<String> iterator = subscription.ids.iterator();
+            while (iterator.hasNext()) {
+                String id = iterator.next();
+                if (!matchedIds.contains(id)) {
+                    iterator.remove();
+                    removed.pushString(id);
+                }
+            }
+        }
+        if (added.size() == 0 && removed.size() == 0) {
+            return null;
+        }
+        return new QuerySubscriptions.Diff(subscription.id, added, removed, null);
+    }
+
+    // Runs the subscription's query (or its restricted variant) on the writer, and collects ids
+    // matched. Records not yet in the subscription's results are added to them, and pushed like
+    // cachedQuery does - except that records sent in full are not marked as cached. Results and
+    // diffs are delivered by the bridge as events, which JS may drop or not pass to RecordCache, so
+    // later queries must not send ids of these records
+    private void runSubscription(QuerySubscriptions.Subscription subscription, String query, Object[] args,
+                                 WritableArray added, Set<String> matchedIds) {
+        long start = System.nanoTime();
+        int rowCount;
+        try (StorageCursor cursor = database.rawQuery(query, args)) {
+            rowCount = cursor.getCount();
+            // NOTE: Plan is keyed by the subscription's query - restricted variants have the same columns
+            DecodingPlan plan = rowCount > 0 ? decodingPlans.get(subscription.sql, cursor) : null;
+            if (plan != null && plan.idColumnIndex != -1) {
+                while (cursor.moveToNext()) {
+                    String id = cursor.getString(plan.idColumnIndex);
+                    matchedIds.add(id);
+                    if (subscription.ids.add(id)) {
+                        pushRecord(added, subscription.table, cursor, plan, false, false);
                     }
                 }
-            });
+            }
+        }
+        stats.current().rowsReturned += rowCount;
+        logIfSlow(database, query, args, rowCount, start);
+    }
+
+    // Loads sync JSON provided with TurboSync.provideSyncJson (see TurboSync). Returns fields of the
+    // JSON other than `changes`, as JSON.
+    // NOTE: Records are not marked as cached - this is only allowed as the first sync, so JS can't
+    // have any of them yet
+    public Map<String, String> unsafeLoadFromSync(int jsonId, ReadableMap schema, String preamble, String postamble) {
+        ByteBuffer json = TurboSync.takeSyncJson(jsonId);
+        TurboSync.Result result;
+        try {
+            result = TurboSync.load(database, json, TurboSync.schemaFromMap(schema), preamble, postamble);
         } finally {
-            Trace.endSection();
+            resultCache.invalidateAll();
         }
+        stats.current().rowsWritten += result.totalRecordCount;
+        if (log != null) {
+            log.info("Loaded " + result.totalRecordCount + " records from sync: " + result.recordCounts);
+        }
+        // NOTE: Ids of loaded records are not collected
+        ChangeSet changes = new ChangeSet();
+        for (String table : result.recordCounts.keySet()) {
+            changes.table(table).isIncomplete = true;
+        }
+        notifyChanges(changes);
+        return result.residualValues;
+    }
+
+    public interface BatchProgressListener {
+        void onProgress(int rowsCommitted, int totalRows);
+    }
 
-        Trace.beginSection("updateCaches");
-        for (Pair<String, String> it : newIds) {
-            markAsCached(it.first, it.second);
+    // Like batch, but commits in chunks (see BatchCommitOptions), so that a very large batch (e.g.
+    // an initial sync) doesn't hold the write lock and grow the WAL until it's done. Unlike batch,
+    // it's not atomic - if it fails, chunks already committed stay committed.
+    // With a checkpoint key, the number of rows committed is saved with each chunk, and running the
+    // same operations again with the same key skips them. Returns number of rows skipped
+    public int batchInChunks(ReadableArray operations, BatchCommitOptions options, BatchProgressListener listener) {
+        options.validate();
+        int totalRows = 0;
+        for (int i = 0; i < operations.size(); i++) {
+            totalRows += operations.getArray(i).getArray(3).size();
         }
-        for (Pair<String, String> it : removedIds) {
-            removeFromCache(it.first, it.second);
+        String checkpointKey = options.checkpointKey != null ? BATCH_CHECKPOINT_KEY_PREFIX + options.checkpointKey : null;
+        int rowsSkipped = checkpointKey != null ? readBatchCheckpoint(checkpointKey, totalRows) : 0;
+
+        // NOTE: JS caches records it creates only once the whole batch succeeds, so new records are
+        // marked as cached at the very end (including those committed by an earlier, failed run).
+        // Deleted records are removed from cache as soon as they're committed (and from new records,
+        // if created by an earlier chunk)
+        Map<String, Set<String>> newIds = new HashMap<>();
+        int[] position = {0, 0};
+        applyBatchRows(operations, position, rowsSkipped, 0, false, newIds, new ArrayList<>(), null);
+
+        int rowsCommitted = rowsSkipped;
+        if (checkpointKey != null && rowsCommitted == totalRows) {
+            database.execute(Queries.delete_local_storage, new Object[] {checkpointKey});
+            resultCache.noteWrite(Queries.delete_local_storage);
         }
-        Trace.endSection();
+        while (rowsCommitted < totalRows) {
+            List<Pair<String, String>> removedIds = new ArrayList<>();
+            ChangeSet changes = new ChangeSet();
+            int[] chunkRows = {0};
+            String[] checkpointWrite = {null};
+            int rowsBefore = rowsCommitted;
+            int rowsTotal = totalRows;
+            Platform.current().beginSection("BatchChunk");
+            try {
+                database.transaction(() -> {
+                    long deadline = options.maxMillis > 0 ? System.nanoTime() + options.maxMillis * 1_000_000 : 0;
+                    chunkRows[0] = applyBatchRows(operations, position, options.maxRows > 0 ? options.maxRows : Integer.MAX_VALUE,
+                            deadline, true, newIds, removedIds, changes);
+                    if (checkpointKey != null) {
+                        if (rowsBefore + chunkRows[0] == rowsTotal) {
+                            checkpointWrite[0] = Queries.delete_local_storage;
+                            database.execute(Queries.delete_local_storage, new Object[] {checkpointKey});
+                        } else {
+                            checkpointWrite[0] = Queries.insert_local_storage;
+                            database.execute(Queries.insert_local_storage, new Object[] {checkpointKey, (rowsBefore + chunkRows[0]) + "/" + rowsTotal});
+                        }
+                    }
+                });
+            } finally {
+                Platform.current().endSection();
+                // NOTE: Operations the chunk went through so far (position only moves forward)
+                noteWrites(operations, Math.min(position[0] + 1, operations.size()));
+                if (checkpointWrite[0] != null) {
+                    resultCache.noteWrite(checkpointWrite[0]);
+                }
+            }
+            rowsCommitted += chunkRows[0];
+            stats.current().rowsWritten += chunkRows[0];
+            for (Pair<String, String> it : removedIds) {
+                removeFromCache(it.first, it.second);
+            }
+            notifyChanges(changes);
+            if (listener != null) {
+                listener.onProgress(rowsCommitted, totalRows);
+            }
+        }
+
+        for (Map.Entry<String, Set<String>> entry : newIds.entrySet()) {
+            for (String id : entry.getValue()) {
+                markAsCached(entry.getKey(), id);
+            }
+        }
+        return rowsSkipped;
     }
 
+    // Bumps result cache versions of tables written to by the first `count` operations of a batch
+    private void noteWrites(ReadableArray operations, int count) {
+        if (!resultCache.isEnabled()) {
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            resultCache.noteWrite(operations.getArray(i).getString(2));
+        }
+    }
+
+    private static final String BATCH_CHECKPOINT_KEY_PREFIX = "__watermelon_batch_checkpoint_";
+
+    // Checkpoint is saved as "rowsCommitted/totalRows"
+    private int readBatchCheckpoint(String checkpointKey, int totalRows) {
+        String checkpoint = database.getFromLocalStorage(checkpointKey);
+        if (checkpoint == null) {
+            return 0;
+        }
+        String[] parts = checkpoint.split("/");
+        if (parts.length != 2 || Integer.parseInt(parts[1]) != totalRows) {
+            throw new IllegalStateException("Batch checkpoint " + checkpointKey + " (" + checkpoint + ") doesn't match operations with " +
+                    totalRows + " rows. Resume with the same operations, or remove the checkpoint from local storage");
+        }
+        return Integer.parseInt(parts[0]);
+    }
+
+    // Goes through up to `maxRows` rows of a batch, starting at `position` ([operation index, index
+    // of args in the operation]), which is then advanced. With `deadlineNanos` (0 = none), stops
+    // after the first row past it. Executes the rows if `execute` is set, and collects cache changes
+    // (and records changed, if `changes` is passed). newIds are by table. Returns number of rows
+    // gone through
+    private int applyBatchRows(ReadableArray operations, int[] position, int maxRows, long deadlineNanos, boolean execute,
+                               Map<String, Set<String>> newIds, List<Pair<String, String>> removedIds, ChangeSet changes) {
+        int rows = 0;
+        ChangeSet.RowRecorder recorder = null;
+        int recorderOperation = -1;
+        while (rows < maxRows && position[0] < operations.size()) {
+            ReadableArray operation = operations.getArray(position[0]);
+            ReadableArray argBatches = operation.getArray(3);
+            if (position[1] >= argBatches.size()) {
+                position[0]++;
+                position[1] = 0;
+                continue;
+            }
+            int cacheBehavior = operation.getInt(0);
+            ReadableArray args = argBatches.getArray(position[1]);
+            if (execute) {
+                database.executeCached(operation.getString(2), args);
+            }
+            if (changes != null) {
+                if (recorderOperation != position[0]) {
+                    recorder = changes.recorderFor(operation);
+                    recorderOperation = position[0];
+                }
+                if (recorder != null) {
+                    recorder.record(args);
+                }
+            }
+            if (cacheBehavior == 1) {
+                String table = operation.getString(1);
+                Set<String> tableIds = newIds.get(table);
+                if (tableIds == null) {
+                    tableIds = new LinkedHashSet<>();
+                    newIds.put(table, tableIds);
+                }
+                tableIds.add(args.getString(0));
+            } else if (cacheBehavior == -1) {
+                String table = operation.getString(1);
+                Set<String> tableIds = newIds.get(table);
+                if (tableIds != null) {
+                    tableIds.remove(args.getString(0));
+                }
+                removedIds.add(Pair.create(table, args.getString(0)));
+            }
+            position[1]++;
+            rows++;
+            if (deadlineNanos != 0 && System.nanoTime() - deadlineNanos >= 0) {
+                break;
+            }
+        }
+        return rows;
+    }
+
+
+    // Runs a call (e.g. of the bridge), including delivery of its result to JS - see
+    // recordCacheLock. Calls made from multiple threads at once must go through it
+    public void runCall(Runnable call) {
+        isInCall.set(true);
+        try {
+            call.run();
+        } finally {
+            isInCall.set(false);
+            if (recordCacheLock.isHeldByCurrentThread()) {
+                recordCacheLock.unlock();
+            }
+        }
+    }
+
+    // Within runCall, the lock is then held until the call returns
+    private void lockRecordCache() {
+        if (!Boolean.TRUE.equals(isInCall.get())) {
+            recordCacheLock.lock();
+        } else if (!recordCacheLock.isHeldByCurrentThread()) {
+            recordCacheLock.lock();
+        }
+    }
+
+    private void unlockRecordCache() {
+        if (!Boolean.TRUE.equals(isInCall.get())) {
+            recordCacheLock.unlock();
+        }
+    }
 
     private void markAsCached(String table, String id) {
         // log.info("Mark as cached " + id);
-        List<String> cache = cachedRecords.get(table);
-        if (cache == null) {
-            cache = new ArrayList<>();
+        lockRecordCache();
+        try {
+            RecordIdSet cache = cachedRecords.get(table);
+            if (cache == null) {
+                cache = new RecordIdSet();
+                cachedRecords.put(table, cache);
+            }
+            cache.add(id);
+        } finally {
+            unlockRecordCache();
         }
-        cache.add(id);
-        cachedRecords.put(table, cache);
     }
 
     private boolean isCached(String table, String id) {
-        List<String> cache = cachedRecords.get(table);
-        return cache != null && cache.contains(id);
+        lockRecordCache();
+        try {
+            RecordIdSet cache = cachedRecords.get(table);
+            return cache != null && cache.contains(id);
+        } finally {
+            unlockRecordCache();
+        }
     }
 
+    // NOTE: Sending a record in full again is always safe, so this doesn't hold the lock until the
+    // call returns (e.g. between chunks of batchInChunks)
     private void removeFromCache(String table, String id) {
-        List<String> cache = cachedRecords.get(table);
-        if (cache != null) {
-            cache.remove(id);
-            cachedRecords.put(table, cache);
+        recordCacheLock.lock();
+        try {
+            RecordIdSet cache = cachedRecords.get(table);
+            if (cache != null) {
+                cache.remove(id);
+            }
+        } finally {
+            recordCacheLock.unlock();
+        }
+    }
+
+    public interface RecordCacheDropListener {
+        void onRecordCacheDropped(int generation);
+    }
+
+    // Listener is called after memory trims that drop the record cache (see MemoryTrim), with the
+    // number of such drops so far. Records JS already has are then sent as full records again, which
+    // JS must not mistake for a cache bug. Pass null to remove
+    public void setRecordCacheDropListener(RecordCacheDropListener listener) {
+        recordCacheDropListener = listener;
+    }
+
+    // Responds to ComponentCallbacks2.onTrimMemory(level). Must be called on the writer's thread
+    public MemoryTrim.Result trimMemory(int level) {
+        MemoryTrim.Result result = new MemoryTrim.Result(MemoryTrim.tierFor(level));
+        if (result.tier != MemoryTrim.Tier.NONE) {
+            // NOTE: Before trimming the database, so that readers held by queries can be closed
+            result.queriesClosed = result.tier == MemoryTrim.Tier.DROP_CACHES ? queryHandles.closeAll() : queryHandles.closeIdle();
+        }
+        database.trimMemory(result);
+        lockRecordCache();
+        try {
+            trimRecordCache(result);
+        } finally {
+            unlockRecordCache();
+        }
+        if (log != null) {
+            log.info(result.toString());
+        }
+        return result;
+    }
+
+    private void trimRecordCache(MemoryTrim.Result result) {
+        if (result.tier == MemoryTrim.Tier.DROP_CACHES) {
+            // Ids no longer in the cache will be sent as full records next time they're queried
+            for (RecordIdSet cache : cachedRecords.values()) {
+                result.recordCacheBytes += cache.estimatedBytes();
+                result.recordIdsDropped += cache.size();
+            }
+            cachedRecords.clear();
+            decodingPlans.clear();
+            result.resultCacheBytes = resultCache.clear();
+            recordCacheGeneration += 1;
+            // NOTE: Under the lock, so that JS learns of the drop before any result sent as full
+            // records because of it
+            RecordCacheDropListener listener = recordCacheDropListener;
+            if (listener != null) {
+                listener.onRecordCacheDropped(recordCacheGeneration);
+            }
+        } else if (result.tier == MemoryTrim.Tier.SHRINK_CACHES) {
+            result.resultCacheBytes = resultCache.clear();
+            Iterator<RecordIdSet> iterator = cachedRecords.values().iterator();
+            while (iterator.hasNext()) {
+                RecordIdSet cache = iterator.next();
+                long bytesBefore = cache.estimatedBytes();
+                if (cache.size() == 0) {
+                    iterator.remove();
+                    result.recordCacheBytes += bytesBefore;
+                } else {
+                    cache.compact();
+                    result.recordCacheBytes += bytesBefore - cache.estimatedBytes();
+                }
+            }
+        }
+    }
+
+    // Enables idle-time WAL checkpoints and incremental vacuum (see DatabaseMaintenance). Pass null
+    // to disable
+    public void configureMaintenance(MaintenanceOptions options) {
+        database.getMaintenance().configure(options);
+    }
+
+    // Runs one maintenance slice. Must be called on the writer's thread, when it's idle. Returns
+    // true if there's nothing left to do until the next write
+    public boolean runMaintenanceSlice(DatabaseMaintenance.Interruption interruption) {
+        // NOTE: A TRUNCATE checkpoint would wait for readers held by open queries
+        DatabaseMaintenance.Report report = database.getMaintenance().runSlice(queryHandles.size() == 0, interruption);
+        if (report == null) {
+            return true;
+        }
+        if (log != null) {
+            log.info("Maintenance: WAL " + report.walBytesBefore + " -> " + report.walBytesAfter + " bytes" +
+                    (report.isCheckpointBusy ? " (busy)" : "") + ", vacuumed " + report.pagesVacuumed + " pages, " +
+                    report.freelistPages + " free pages left, took " + report.millisSpent + " ms");
         }
+        return report.isComplete;
+    }
+
+    public DatabaseMaintenance.Stats getMaintenanceStats() {
+        return database.getMaintenance().getStats();
+    }
+
+    // NOTE: Reads the writer connection, so must be called on the writer's thread
+    public Map<String, String> getEffectivePragmas() {
+        return database.getEffectivePragmas();
+    }
+
+    // Number of threads reads can run on at once (see ConnectionExecutor.setReaderThreads)
+    public int getReaderCount() {
+        return database.getReaderCount();
     }
 
     public void close() {
+        queryHandles.closeAll();
         database.close();
     }
 
@@ -212,6 +1248,10 @@ public class WMDatabaseDriver {
             throw new IllegalArgumentException("Incompatible migration set applied. " +
                     "DB: " + databaseVersion + ", migration: " + migrations.from);
         }
+        // Columns may have been added
+        queryHandles.closeAll();
+        decodingPlans.clear();
+        resultCache.invalidateAll();
         database.transaction(() -> {
             database.unsafeExecuteStatements(migrations.sql);
             database.setUserVersion(migrations.to);
@@ -222,12 +1262,25 @@ public class WMDatabaseDriver {
         if (log != null) {
             log.info("Unsafe reset database");
         }
+        queryHandles.closeAll();
         database.unsafeDestroyEverything();
-        cachedRecords.clear();
+        lockRecordCache();
+        try {
+            cachedRecords.clear();
+        } finally {
+            unlockRecordCache();
+        }
+        // NOTE: JS reloads everything after a reset, so subscriptions would only be re-run for nothing
+        subscriptions.clear();
+        decodingPlans.clear();
+        resultCache.invalidateAll();
         database.transaction(() -> {
             database.unsafeExecuteStatements(schema.sql);
             database.setUserVersion(schema.version);
         });
+        ChangeSet changes = new ChangeSet();
+        changes.hasUnknownChanges = true;
+        notifyChanges(changes);
     }
 
     private static class SchemaCompatibility {
@@ -0,0 +1,207 @@
+package com.nozbe.watermelonTest
+
+import android.content.Context
+import android.util.Log
+import androidx.test.platform.app.InstrumentationRegistry
+import com.nozbe.watermelondb.DatabasePrewarm
+import com.nozbe.watermelondb.PerformanceProfile
+import com.nozbe.watermelondb.WMDatabase
+import com.nozbe.watermelondb.WMDatabaseDriver
+import com.nozbe.watermelondb.utils.Schema
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.File
+import java.util.concurrent.CountDownLatch
+
+// Handover of a database opened by DatabasePrewarm to the driver created by initialize. Also logs
+// time from initialize to the first query's result with and without prewarm (tag: DatabasePrewarmTest),
+// run with:
+//   ./gradlew connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.class=com.nozbe.watermelonTest.DatabasePrewarmTest
+class DatabasePrewarmTest {
+    private val context: Context = InstrumentationRegistry.getInstrumentation().targetContext
+    private val names = mutableListOf<String>()
+
+    @After
+    fun tearDown() {
+        names.forEach { name ->
+            // Opened by a prewarm that the driver didn't take
+            synchronized(WMDatabase::class.java) { WMDatabase.INSTANCES.remove(name) }?.close()
+            val path = context.getDatabasePath("$name.db").path.replace("/databases", "")
+            listOf("", "-wal", "-shm").forEach { File(path + it).delete() }
+        }
+    }
+
+    @Test
+    fun initializeTakesPrewarmedDatabase() {
+        val name = createDatabase()
+        startPrewarm(name)
+        val prewarmed = awaitPrewarmed(name)
+
+        val driver = WMDatabaseDriver(context, name, SCHEMA_VERSION, false)
+        // Owned by the driver now, so no longer shared
+        assertNull(synchronized(WMDatabase::class.java) { WMDatabase.INSTANCES[name] })
+        assertEquals(ROWS, driver.count(COUNT_QUERY, arrayOf()))
+        val result = DatabasePrewarm.getResult(name)!!
+        assertNull(result.error)
+        assertEquals(SCHEMA_VERSION, result.schemaVersion)
+        assertTrue(result.driverWaitMillis >= 0)
+
+        driver.close()
+        assertFalse(prewarmed.isOpen)
+    }
+
+    @Test
+    fun initializeWithNativeReuseSharesPrewarmedDatabase() {
+        val name = createDatabase()
+        startPrewarm(name)
+        val prewarmed = awaitPrewarmed(name)
+
+        val driver = WMDatabaseDriver(context, name, SCHEMA_VERSION, true)
+        assertSame(prewarmed, synchronized(WMDatabase::class.java) { WMDatabase.INSTANCES[name] })
+        assertEquals(ROWS, driver.count(COUNT_QUERY, arrayOf()))
+        driver.close()
+        assertFalse(prewarmed.isOpen)
+    }
+
+    @Test
+    fun prewarmedDatabaseIsHandedOverOnce() {
+        val name = createDatabase()
+        startPrewarm(name)
+        awaitPrewarmed(name)
+
+        val first = WMDatabaseDriver(context, name, SCHEMA_VERSION, false)
+        // Opens its own database
+        val second = WMDatabaseDriver(context, name, SCHEMA_VERSION, false)
+        first.close()
+        assertEquals(ROWS, second.count(COUNT_QUERY, arrayOf()))
+        second.close()
+    }
+
+    @Test
+    fun initializeRacingPrewarmGetsWorkingDatabase() {
+        repeat(RACE_ITERATIONS) { i ->
+            val name = createDatabase()
+            // Half of the time, prewarm is started first, so the driver must wait for it to open
+            val isPrewarmFirst = i % 2 == 0
+            if (isPrewarmFirst) {
+                startPrewarm(name)
+            }
+            val go = CountDownLatch(1)
+            var driver: WMDatabaseDriver? = null
+            var error: Throwable? = null
+            val thread = Thread {
+                go.await()
+                try {
+                    driver = WMDatabaseDriver(context, name, SCHEMA_VERSION, false)
+                } catch (e: Throwable) {
+                    error = e
+                }
+            }
+            thread.start()
+            go.countDown()
+            if (!isPrewarmFirst) {
+                startPrewarm(name)
+            }
+            thread.join()
+
+            assertNull(error)
+            assertEquals(ROWS, driver!!.count(COUNT_QUERY, arrayOf()))
+            awaitOpened(name)
+            val result = DatabasePrewarm.getResult(name)!!
+            assertNull(result.error)
+            if (isPrewarmFirst) {
+                assertTrue(result.driverWaitMillis >= 0)
+            }
+            // Otherwise, the driver may have come first, and opened its own database
+            val isHandedOver = result.driverWaitMillis >= 0
+            assertEquals(isHandedOver, synchronized(WMDatabase::class.java) { WMDatabase.INSTANCES[name] } == null)
+            driver!!.close()
+        }
+    }
+
+    @Test
+    fun timeToFirstQuery() {
+        val withoutPrewarm = mutableListOf<Double>()
+        val withPrewarm = mutableListOf<Double>()
+        repeat(TIMING_ITERATIONS) {
+            withoutPrewarm.add(measureFirstQuery(createDatabase(), null))
+            // Started by the app a while before JS initializes the database
+            withPrewarm.add(measureFirstQuery(createDatabase(), PREWARM_HEAD_START_MS))
+        }
+        Log.d(
+            TAG,
+            "time to first query (median of $TIMING_ITERATIONS): without prewarm ${"%.1f".format(withoutPrewarm.median())} ms, " +
+                "with prewarm started $PREWARM_HEAD_START_MS ms earlier ${"%.1f".format(withPrewarm.median())} ms"
+        )
+    }
+
+    // Time from creating the driver to the first query's result
+    // NOTE: Files were just written, so they're in the OS page cache either way. On a cold app
+    // launch, prewarm also saves reading them, so this is a lower bound of what it saves
+    private fun measureFirstQuery(name: String, prewarmHeadStartMs: Long?): Double {
+        if (prewarmHeadStartMs != null) {
+            startPrewarm(name)
+            Thread.sleep(prewarmHeadStartMs)
+        }
+        val start = System.nanoTime()
+        val driver = WMDatabaseDriver(context, name, SCHEMA_VERSION, false)
+        val results = driver.cachedQuery("tasks", FIRST_QUERY, arrayOf())
+        val millis = (System.nanoTime() - start) / 1e6
+        assertEquals(FIRST_QUERY_ROWS, results.size())
+        driver.close()
+        return millis
+    }
+
+    private fun createDatabase(): String {
+        val name = "prewarmTest${System.nanoTime()}"
+        names.add(name)
+        WMDatabaseDriver(context, name, Schema(SCHEMA_VERSION, SCHEMA), false).close()
+        return name
+    }
+
+    private fun startPrewarm(name: String) {
+        DatabasePrewarm.start(context, name, PerformanceProfile.defaults(), null, listOf(FIRST_QUERY), WARM_FILE_BYTES)
+    }
+
+    // Waits for the prewarm to open the database
+    private fun awaitOpened(name: String) {
+        val deadline = System.currentTimeMillis() + 10_000
+        while (DatabasePrewarm.getResult(name)!!.let { it.openMillis < 0 && it.error == null }) {
+            assertTrue("Timed out waiting for prewarm", System.currentTimeMillis() < deadline)
+            Thread.sleep(1)
+        }
+        assertNull(DatabasePrewarm.getResult(name)!!.error)
+    }
+
+    // Waits for the prewarm to open the database, and returns it (before a driver takes it)
+    private fun awaitPrewarmed(name: String): WMDatabase {
+        awaitOpened(name)
+        return requireNotNull(synchronized(WMDatabase::class.java) { WMDatabase.INSTANCES[name] })
+    }
+
+    private fun List<Double>.median(): Double = sorted()[size / 2]
+
+    companion object {
+        private const val TAG = "DatabasePrewarmTest"
+        private const val SCHEMA_VERSION = 1
+        private const val ROWS = 5_000
+        private const val FIRST_QUERY_ROWS = 100
+        private const val RACE_ITERATIONS = 20
+        private const val TIMING_ITERATIONS = 9
+        private const val PREWARM_HEAD_START_MS = 100L
+        private const val WARM_FILE_BYTES = 8L * 1024 * 1024
+        private const val COUNT_QUERY = "select count(*) as \"count\" from \"tasks\""
+        private const val FIRST_QUERY = "select \"tasks\".* from \"tasks\" where \"position\" < $FIRST_QUERY_ROWS"
+        private const val SCHEMA =
+            "create table \"local_storage\" (\"key\" varchar(16) primary key not null, \"value\" text not null);" +
+                "create table \"tasks\" (\"id\" primary key, \"_changed\", \"_status\", \"name\", \"position\");" +
+                "create index \"tasks_position\" on \"tasks\" (\"position\");" +
+                "with recursive c(x) as (select 0 union all select x + 1 from c limit $ROWS) " +
+                "insert into \"tasks\" select 't' || x, '', 'synced', 'Task ' || x, x from c;"
+    }
+}
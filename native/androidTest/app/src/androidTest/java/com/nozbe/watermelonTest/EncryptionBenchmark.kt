@@ -0,0 +1,74 @@
+package com.nozbe.watermelonTest
+
+import android.content.Context
+import android.util.Log
+import androidx.test.platform.app.InstrumentationRegistry
+import com.nozbe.watermelondb.EncryptionConfig
+import com.nozbe.watermelondb.PerformanceProfile
+import com.nozbe.watermelondb.WMDatabase
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+import org.junit.Test
+import java.io.File
+
+// Compares open latency and query throughput with encryption off and on. Results are logged
+// (tag: EncryptionBenchmark), run with:
+//   ./gradlew connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.class=com.nozbe.watermelonTest.EncryptionBenchmark
+class EncryptionBenchmark {
+    private val context: Context = InstrumentationRegistry.getInstrumentation().targetContext
+    private val flags = SQLiteDatabase.CREATE_IF_NECESSARY or SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING
+
+    @Test
+    fun benchmark() {
+        run("plaintext", null)
+        run("encrypted", EncryptionConfig("benchmark-passphrase", EncryptionConfig.DEFAULT_KDF_ITERATIONS, EncryptionConfig.DEFAULT_CIPHER_PAGE_SIZE, true))
+        run("encrypted, no key cache", EncryptionConfig("benchmark-passphrase", EncryptionConfig.DEFAULT_KDF_ITERATIONS, EncryptionConfig.DEFAULT_CIPHER_PAGE_SIZE, false))
+    }
+
+    private fun open(name: String, encryption: EncryptionConfig?): WMDatabase =
+        WMDatabase.buildDatabase(name, context, flags, PerformanceProfile.defaults(), encryption)
+
+    private fun run(label: String, encryption: EncryptionConfig?) {
+        val name = "encryptionBenchmark${System.nanoTime()}"
+        try {
+            var start = System.nanoTime()
+            val db = open(name, encryption)
+            val createMs = (System.nanoTime() - start) / 1e6
+
+            db.unsafeExecuteStatements("create table tasks (id primary key, position, name);")
+            db.execute(
+                "with recursive c(x) as (select 1 union all select x + 1 from c limit $ROWS) " +
+                    "insert into tasks select 'id' || x, x, 'Task name ' || x from c"
+            )
+            db.close()
+
+            // "Warm" open - same as a subsequent app launch
+            start = System.nanoTime()
+            val reopened = open(name, encryption)
+            reopened.getUserVersion()
+            val openMs = (System.nanoTime() - start) / 1e6
+
+            start = System.nanoTime()
+            repeat(QUERY_ITERATIONS) {
+                reopened.rawQuery("select * from tasks where position > ?", arrayOf<Any?>(ROWS / 2.0)).use { cursor ->
+                    while (cursor.moveToNext()) {
+                        cursor.getString(2)
+                    }
+                }
+            }
+            val queryMs = (System.nanoTime() - start) / 1e6 / QUERY_ITERATIONS
+            reopened.close()
+
+            Log.d(TAG, "$label: create ${"%.1f".format(createMs)} ms, reopen ${"%.1f".format(openMs)} ms, " +
+                "query ${ROWS / 2} rows ${"%.2f".format(queryMs)} ms")
+        } finally {
+            val path = context.getDatabasePath("$name.db").path.replace("/databases", "")
+            listOf("", "-wal", "-shm").forEach { File(path + it).delete() }
+        }
+    }
+
+    companion object {
+        private const val TAG = "EncryptionBenchmark"
+        private const val ROWS = 10_000
+        private const val QUERY_ITERATIONS = 20
+    }
+}
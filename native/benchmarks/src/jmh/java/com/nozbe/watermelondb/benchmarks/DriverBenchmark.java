@@ -0,0 +1,143 @@
+package com.nozbe.watermelondb.benchmarks;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.nozbe.watermelondb.WMDatabase;
+import com.nozbe.watermelondb.WMDatabaseDriver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+// Driver operations on a table of `recordCount` records. "Cold" benchmarks run with an empty
+// record cache (as after app launch), so full records are sent; "warm" ones with every record cached
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DriverBenchmark {
+    private static final int FINDS_PER_INVOCATION = 1000;
+
+    private static final String QUERY_SQL = "select \"tasks\".* from \"tasks\" " +
+            "where \"tasks\".\"project_id\" = ? and \"tasks\".\"_status\" is not 'deleted'";
+    private static final String COUNT_SQL = "select count(*) as \"count\" from \"tasks\" " +
+            "where \"tasks\".\"is_completed\" = ? and \"tasks\".\"_status\" is not 'deleted'";
+
+    @Param({"1000", "10000", "100000"})
+    public int recordCount;
+
+    private File file;
+    private WMDatabase database;
+    private WMDatabaseDriver warmDriver;
+    private int nextProject = 0;
+    private int nextId = 0;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws Exception {
+        file = Fixtures.createDatabaseFile();
+        database = Fixtures.openDatabase(file);
+        warmDriver = Fixtures.createPopulatedDriver(database, recordCount);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() {
+        database.close();
+        Fixtures.deleteDatabaseFile(file);
+    }
+
+    // Fresh driver = empty record cache, same database
+    @State(Scope.Thread)
+    public static class ColdState {
+        WMDatabaseDriver driver;
+
+        @Setup(Level.Invocation)
+        public void setUp(DriverBenchmark benchmark) {
+            driver = new WMDatabaseDriver(benchmark.database);
+        }
+    }
+
+    // NOTE: Creates a fresh database for each invocation, so that inserts always hit an empty table
+    @State(Scope.Thread)
+    public static class BatchState {
+        File file;
+        WMDatabase database;
+        WMDatabaseDriver driver;
+        JavaOnlyArray operations;
+
+        @Setup(Level.Invocation)
+        public void setUp(DriverBenchmark benchmark) throws Exception {
+            if (operations == null) {
+                operations = Fixtures.createRecordsOperations(benchmark.recordCount);
+            }
+            file = Fixtures.createDatabaseFile();
+            database = Fixtures.openDatabase(file);
+            driver = new WMDatabaseDriver(database);
+            driver.unsafeResetDatabase(Fixtures.SCHEMA);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            database.close();
+            Fixtures.deleteDatabaseFile(file);
+        }
+    }
+
+    @Benchmark
+    public void batchCreate(BatchState state) {
+        state.driver.batch(state.operations);
+    }
+
+    @Benchmark
+    public Object cachedQueryCold(ColdState state) {
+        return state.driver.cachedQuery(Fixtures.TABLE, QUERY_SQL, new Object[] {nextProject()});
+    }
+
+    @Benchmark
+    public Object cachedQueryWarm() {
+        return warmDriver.cachedQuery(Fixtures.TABLE, QUERY_SQL, new Object[] {nextProject()});
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FINDS_PER_INVOCATION)
+    public void findCold(ColdState state, Blackhole blackhole) {
+        for (int i = 0; i < FINDS_PER_INVOCATION; i++) {
+            blackhole.consume(state.driver.find(Fixtures.TABLE, Fixtures.recordId(nextId())));
+        }
+    }
+
+    @Benchmark
+    public Object findWarm() {
+        return warmDriver.find(Fixtures.TABLE, Fixtures.recordId(nextId()));
+    }
+
+    @Benchmark
+    public int count() {
+        return warmDriver.count(COUNT_SQL, new Object[] {true});
+    }
+
+    private String nextProject() {
+        nextProject = (nextProject + 1) % 100;
+        return "project" + nextProject;
+    }
+
+    private int nextId() {
+        nextId = (nextId + 7919) % recordCount;
+        return nextId;
+    }
+}
@@ -0,0 +1,87 @@
+package com.nozbe.watermelondb.benchmarks;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.nozbe.watermelondb.WMDatabase;
+import com.nozbe.watermelondb.WMDatabaseDriver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+// Looking up `idCount` records by id (e.g. to resolve relations) with one findMany call vs a loop
+// of find calls, with an empty record cache. Ids are spread over the table, not in id order
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FindManyBenchmark {
+    private static final int RECORD_COUNT = 10000;
+
+    @Param({"100", "5000"})
+    public int idCount;
+
+    private File file;
+    private WMDatabase database;
+    private String[] ids;
+    private JavaOnlyArray idsArray;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws Exception {
+        file = Fixtures.createDatabaseFile();
+        database = Fixtures.openDatabase(file);
+        Fixtures.createPopulatedDriver(database, RECORD_COUNT);
+        ids = new String[idCount];
+        idsArray = new JavaOnlyArray();
+        int index = 0;
+        for (int i = 0; i < idCount; i++) {
+            index = (index + 7919) % RECORD_COUNT;
+            ids[i] = Fixtures.recordId(index);
+            idsArray.pushString(ids[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() {
+        database.close();
+        Fixtures.deleteDatabaseFile(file);
+    }
+
+    // Fresh driver = empty record cache, same database
+    @State(Scope.Thread)
+    public static class ColdState {
+        WMDatabaseDriver driver;
+
+        @Setup(Level.Invocation)
+        public void setUp(FindManyBenchmark benchmark) {
+            driver = new WMDatabaseDriver(benchmark.database);
+        }
+    }
+
+    @Benchmark
+    public Object findMany(ColdState state) {
+        return state.driver.findMany(Fixtures.TABLE, idsArray);
+    }
+
+    @Benchmark
+    public void findLoop(ColdState state, Blackhole blackhole) {
+        for (String id : ids) {
+            blackhole.consume(state.driver.find(Fixtures.TABLE, id));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.nozbe.watermelondb.benchmarks;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.nozbe.watermelondb.PerformanceProfile;
+import com.nozbe.watermelondb.Platform;
+import com.nozbe.watermelondb.WMDatabase;
+import com.nozbe.watermelondb.WMDatabaseDriver;
+import com.nozbe.watermelondb.jvm.JdbcStorageBackend;
+import com.nozbe.watermelondb.jvm.JvmPlatform;
+import com.nozbe.watermelondb.utils.Schema;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+// Database, schema and data shared by the benchmarks. Mirrors what the JS side sends over the bridge
+final class Fixtures {
+    static final String TABLE = "tasks";
+
+    // Same shape as schema encoded by src/adapters/sqlite/encodeSchema
+    static final Schema SCHEMA = new Schema(1,
+            "create table \"local_storage\" (\"key\" varchar(16) primary key not null, \"value\" text not null);" +
+                    "create index \"local_storage_key_index\" on \"local_storage\" (\"key\");" +
+                    "create table \"tasks\" (\"id\" primary key, \"_changed\", \"_status\", \"name\", " +
+                    "\"position\", \"is_completed\", \"project_id\");" +
+                    "create index \"tasks__status\" on \"tasks\" (\"_status\");" +
+                    "create index \"tasks_project_id\" on \"tasks\" (\"project_id\");");
+
+    static final String INSERT_SQL = "insert into \"tasks\" (\"id\", \"_changed\", \"_status\", \"name\", " +
+            "\"position\", \"is_completed\", \"project_id\") values (?, ?, ?, ?, ?, ?, ?)";
+
+    private Fixtures() {
+    }
+
+    static File createDatabaseFile() throws IOException {
+        File directory = Files.createTempDirectory("watermelondb-benchmarks").toFile();
+        directory.deleteOnExit();
+        return new File(directory, "benchmark.db");
+    }
+
+    static void deleteDatabaseFile(File file) {
+        for (String suffix : new String[] {"", "-wal", "-shm", "-journal"}) {
+            new File(file.getPath() + suffix).delete();
+        }
+        file.getParentFile().delete();
+    }
+
+    static WMDatabase openDatabase(File file) {
+        Platform.setCurrent(new JvmPlatform());
+        return WMDatabase.open(JdbcStorageBackend.open(file.getPath(), true), PerformanceProfile.defaults());
+    }
+
+    static String recordId(int index) {
+        return "task" + index;
+    }
+
+    private static final String ID_ALPHABET = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+    // Same format as ids generated by src/utils/common/randomId
+    static String[] randomIds(int count, long seed) {
+        Random random = new Random(seed);
+        String[] ids = new String[count];
+        char[] id = new char[16];
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < id.length; j++) {
+                id[j] = ID_ALPHABET.charAt(random.nextInt(ID_ALPHABET.length()));
+            }
+            ids[i] = new String(id);
+        }
+        return ids;
+    }
+
+    // A batch creating `count` tasks, split between 100 projects, every other one completed
+    static JavaOnlyArray createRecordsOperations(int count) {
+        JavaOnlyArray argBatches = new JavaOnlyArray();
+        for (int i = 0; i < count; i++) {
+            argBatches.pushArray(JavaOnlyArray.of(
+                    recordId(i), "", "created", "Task number " + i, (double) i, i % 2 == 0, "project" + (i % 100)
+            ));
+        }
+        JavaOnlyArray operations = new JavaOnlyArray();
+        operations.pushArray(JavaOnlyArray.of(1, TABLE, INSERT_SQL, argBatches));
+        return operations;
+    }
+
+    static WMDatabaseDriver createPopulatedDriver(WMDatabase database, int count) {
+        WMDatabaseDriver driver = new WMDatabaseDriver(database);
+        driver.unsafeResetDatabase(SCHEMA);
+        driver.batch(createRecordsOperations(count));
+        return driver;
+    }
+}
@@ -0,0 +1,181 @@
+package com.nozbe.watermelondb.benchmarks;
+
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableMapKeySetIterator;
+import com.facebook.react.bridge.WritableArray;
+import com.nozbe.watermelondb.WMDatabase;
+import com.nozbe.watermelondb.WMDatabaseDriver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+// Query results of `recordCount` full (not yet cached) records, in the map format (one object
+// per record) vs the columnar format (column names once, then an array of values per record).
+// "materialize" only builds the result; "bridge" also serializes it, which stands in for copying
+// it over to JS (every key and value is visited and copied, same as the bridge does)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryResultBenchmark {
+    private static final String QUERY_SQL = "select \"tasks\".* from \"tasks\" where \"tasks\".\"_status\" is not 'deleted'";
+
+    @Param({"1000", "10000"})
+    public int recordCount;
+
+    @Param({"map", "columnar"})
+    public String format;
+
+    private File file;
+    private WMDatabase database;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws Exception {
+        file = Fixtures.createDatabaseFile();
+        database = Fixtures.openDatabase(file);
+        Fixtures.createPopulatedDriver(database, recordCount);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() {
+        database.close();
+        Fixtures.deleteDatabaseFile(file);
+    }
+
+    // Fresh driver = empty record cache, so that every record is sent in full
+    @State(Scope.Thread)
+    public static class ColdState {
+        WMDatabaseDriver driver;
+
+        @Setup(Level.Invocation)
+        public void setUp(QueryResultBenchmark benchmark) {
+            driver = new WMDatabaseDriver(benchmark.database);
+        }
+    }
+
+    private WritableArray query(WMDatabaseDriver driver) {
+        return format.equals("columnar")
+                ? driver.cachedQueryAsArray(Fixtures.TABLE, QUERY_SQL, new Object[] {})
+                : driver.cachedQuery(Fixtures.TABLE, QUERY_SQL, new Object[] {});
+    }
+
+    private WritableArray unsafeQueryRaw(WMDatabaseDriver driver) {
+        return format.equals("columnar")
+                ? driver.unsafeQueryRawAsArray(QUERY_SQL, new Object[] {})
+                : driver.unsafeQueryRaw(QUERY_SQL, new Object[] {});
+    }
+
+    @Benchmark
+    public Object queryMaterialize(ColdState state) {
+        return query(state.driver);
+    }
+
+    @Benchmark
+    public Object queryBridge(ColdState state) {
+        return serialize(query(state.driver));
+    }
+
+    @Benchmark
+    public Object unsafeQueryRawMaterialize(ColdState state) {
+        return unsafeQueryRaw(state.driver);
+    }
+
+    @Benchmark
+    public Object unsafeQueryRawBridge(ColdState state) {
+        return serialize(unsafeQueryRaw(state.driver));
+    }
+
+    private static String serialize(ReadableArray array) {
+        StringBuilder builder = new StringBuilder();
+        appendArray(builder, array);
+        return builder.toString();
+    }
+
+    private static void appendArray(StringBuilder builder, ReadableArray array) {
+        builder.append('[');
+        for (int i = 0; i < array.size(); i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            switch (array.getType(i)) {
+                case Null:
+                    builder.append("null");
+                    break;
+                case Boolean:
+                    builder.append(array.getBoolean(i));
+                    break;
+                case Number:
+                    builder.append(array.getDouble(i));
+                    break;
+                case String:
+                    appendString(builder, array.getString(i));
+                    break;
+                case Map:
+                    appendMap(builder, array.getMap(i));
+                    break;
+                case Array:
+                    appendArray(builder, array.getArray(i));
+                    break;
+            }
+        }
+        builder.append(']');
+    }
+
+    private static void appendMap(StringBuilder builder, ReadableMap map) {
+        builder.append('{');
+        ReadableMapKeySetIterator iterator = map.keySetIterator();
+        boolean isFirst = true;
+        while (iterator.hasNextKey()) {
+            String key = iterator.nextKey();
+            if (!isFirst) {
+                builder.append(',');
+            }
+            isFirst = false;
+            appendString(builder, key);
+            builder.append(':');
+            switch (map.getType(key)) {
+                case Null:
+                    builder.append("null");
+                    break;
+                case Boolean:
+                    builder.append(map.getBoolean(key));
+                    break;
+                case Number:
+                    builder.append(map.getDouble(key));
+                    break;
+                case String:
+                    appendString(builder, map.getString(key));
+                    break;
+                case Map:
+                    appendMap(builder, map.getMap(key));
+                    break;
+                case Array:
+                    appendArray(builder, map.getArray(key));
+                    break;
+            }
+        }
+        builder.append('}');
+    }
+
+    // NOTE: No escaping - benchmark data doesn't need it
+    private static void appendString(StringBuilder builder, String value) {
+        builder.append('"').append(value).append('"');
+    }
+}
@@ -0,0 +1,85 @@
+package com.nozbe.watermelondb.benchmarks;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.nozbe.watermelondb.WMDatabase;
+import com.nozbe.watermelondb.WMDatabaseDriver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+// The same `count` and `queryIds` re-run between writes (as UI does when re-rendering), with the
+// query result cache enabled or not. `updateThenCount` writes to the table read before each count,
+// so it measures the cost of invalidation (cache never hits)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryResultCacheBenchmark {
+    private static final int RECORD_COUNT = 10000;
+
+    private static final String COUNT_SQL = "select count(*) as \"count\" from \"tasks\" " +
+            "where \"tasks\".\"is_completed\" = ? and \"tasks\".\"_status\" is not 'deleted'";
+    private static final String IDS_SQL = "select \"tasks\".\"id\" from \"tasks\" " +
+            "where \"tasks\".\"project_id\" = ? and \"tasks\".\"_status\" is not 'deleted'";
+    private static final String UPDATE_SQL = "update \"tasks\" set \"name\" = ? where \"id\" is ?";
+
+    @Param({"false", "true"})
+    public boolean cacheEnabled;
+
+    private File file;
+    private WMDatabase database;
+    private WMDatabaseDriver driver;
+    private int nextUpdate = 0;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws Exception {
+        file = Fixtures.createDatabaseFile();
+        database = Fixtures.openDatabase(file);
+        driver = Fixtures.createPopulatedDriver(database, RECORD_COUNT);
+        if (cacheEnabled) {
+            driver.configureQueryResultCache(256, 4 * 1024 * 1024);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() {
+        database.close();
+        Fixtures.deleteDatabaseFile(file);
+    }
+
+    @Benchmark
+    public int count() {
+        return driver.count(COUNT_SQL, new Object[] {true});
+    }
+
+    @Benchmark
+    public Object queryIds() {
+        return driver.queryIds(IDS_SQL, new Object[] {"project7"});
+    }
+
+    @Benchmark
+    public int updateThenCount() {
+        int index = nextUpdate++ % RECORD_COUNT;
+        JavaOnlyArray operations = new JavaOnlyArray();
+        operations.pushArray(JavaOnlyArray.of(0, null, UPDATE_SQL,
+                JavaOnlyArray.of(JavaOnlyArray.of("Updated " + nextUpdate, Fixtures.recordId(index)))));
+        driver.batch(operations);
+        return driver.count(COUNT_SQL, new Object[] {true});
+    }
+}
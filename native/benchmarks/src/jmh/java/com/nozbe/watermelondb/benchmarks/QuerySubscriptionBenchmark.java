@@ -0,0 +1,83 @@
+package com.nozbe.watermelondb.benchmarks;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.nozbe.watermelondb.WMDatabase;
+import com.nozbe.watermelondb.WMDatabaseDriver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+// Keeping a list of tasks up to date after a one-record update: re-running the query (as JS
+// observers do) vs a native query subscription, which re-checks only the updated record. Updates
+// toggle `is_completed` of records in turn, and the list is of tasks not completed, so records move
+// in and out of it
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QuerySubscriptionBenchmark {
+    private static final String QUERY_SQL = "select \"tasks\".* from \"tasks\" " +
+            "where \"tasks\".\"is_completed\" = ? and \"tasks\".\"_status\" is not 'deleted'";
+    private static final String UPDATE_SQL = "update \"tasks\" set \"is_completed\" = ? where \"id\" is ?";
+
+    @Param({"1000", "10000"})
+    public int recordCount;
+
+    @Param({"false", "true"})
+    public boolean subscribed;
+
+    private File file;
+    private WMDatabase database;
+    private WMDatabaseDriver driver;
+    private int nextUpdate = 0;
+    private Object lastDiffs;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws Exception {
+        file = Fixtures.createDatabaseFile();
+        database = Fixtures.openDatabase(file);
+        driver = Fixtures.createPopulatedDriver(database, recordCount);
+        if (subscribed) {
+            driver.setQueryDiffListener((diffs) -> lastDiffs = diffs);
+            driver.subscribeQuery(Fixtures.TABLE, QUERY_SQL, new Object[] {false});
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() {
+        database.close();
+        Fixtures.deleteDatabaseFile(file);
+    }
+
+    @Benchmark
+    public Object updateAndRefresh() {
+        int index = nextUpdate % recordCount;
+        boolean isCompleted = (nextUpdate / recordCount) % 2 == 0;
+        nextUpdate++;
+        JavaOnlyArray operations = new JavaOnlyArray();
+        operations.pushArray(JavaOnlyArray.of(0, null, UPDATE_SQL,
+                JavaOnlyArray.of(JavaOnlyArray.of(isCompleted, Fixtures.recordId(index)))));
+        driver.batch(operations);
+        if (subscribed) {
+            // NOTE: Diff was delivered to the listener during batch
+            return lastDiffs;
+        }
+        return driver.cachedQuery(Fixtures.TABLE, QUERY_SQL, new Object[] {false});
+    }
+}
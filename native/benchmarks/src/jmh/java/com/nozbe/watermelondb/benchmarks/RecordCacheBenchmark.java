@@ -0,0 +1,125 @@
+package com.nozbe.watermelondb.benchmarks;
+
+import com.nozbe.watermelondb.RecordIdSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Lookups in the driver's per-table record cache: RecordIdSet vs HashSet<String> vs the
+// List<String> it replaced. For memory use, see RecordCacheFootprint
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordCacheBenchmark {
+    interface IdCache {
+        boolean contains(String id);
+
+        void add(String id);
+
+        void remove(String id);
+    }
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"RecordIdSet", "HashSet", "ArrayList"})
+    public String implementation;
+
+    private IdCache cache;
+    private char[][] cachedIds;
+    private char[][] otherIds;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        cache = create(implementation);
+        for (String id : Fixtures.randomIds(size, 1)) {
+            cache.add(id);
+        }
+        cachedIds = toChars(Fixtures.randomIds(size, 1));
+        otherIds = toChars(Fixtures.randomIds(size, 2));
+    }
+
+    private static char[][] toChars(String[] ids) {
+        char[][] chars = new char[ids.length][];
+        for (int i = 0; i < ids.length; i++) {
+            chars[i] = ids[i].toCharArray();
+        }
+        return chars;
+    }
+
+    // NOTE: In the driver, every looked up id is a new String read from the cursor (so its hash
+    // code is not cached yet, and it's not identical to the cached one), so we do the same
+    private String cachedId() {
+        return new String(cachedIds[nextIndex()]);
+    }
+
+    static IdCache create(String implementation) {
+        switch (implementation) {
+            case "RecordIdSet":
+                RecordIdSet set = new RecordIdSet();
+                return new IdCache() {
+                    public boolean contains(String id) { return set.contains(id); }
+                    public void add(String id) { set.add(id); }
+                    public void remove(String id) { set.remove(id); }
+                };
+            case "HashSet":
+                Set<String> hashSet = new HashSet<>();
+                return new IdCache() {
+                    public boolean contains(String id) { return hashSet.contains(id); }
+                    public void add(String id) { hashSet.add(id); }
+                    public void remove(String id) { hashSet.remove(id); }
+                };
+            case "ArrayList":
+                List<String> list = new ArrayList<>();
+                return new IdCache() {
+                    public boolean contains(String id) { return list.contains(id); }
+                    public void add(String id) { list.add(id); }
+                    public void remove(String id) { list.remove(id); }
+                };
+            default:
+                throw new IllegalArgumentException(implementation);
+        }
+    }
+
+    private int nextIndex() {
+        next = (next + 7919) % size;
+        return next;
+    }
+
+    @Benchmark
+    public boolean containsCached() {
+        return cache.contains(cachedId());
+    }
+
+    @Benchmark
+    public boolean containsNotCached() {
+        return cache.contains(new String(otherIds[nextIndex()]));
+    }
+
+    // Keeps the size constant
+    @Benchmark
+    public void removeAndAdd() {
+        String id = cachedId();
+        cache.remove(id);
+        cache.add(id);
+    }
+}
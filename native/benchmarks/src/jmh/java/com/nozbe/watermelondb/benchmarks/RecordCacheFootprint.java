@@ -0,0 +1,39 @@
+package com.nozbe.watermelondb.benchmarks;
+
+import com.nozbe.watermelondb.RecordIdSet;
+
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Retained heap of the driver's per-table record cache with 100k ids (including the id Strings
+// themselves, which the cache keeps alive). Run with:
+//   ../androidTest/gradlew -p . recordCacheFootprint
+public class RecordCacheFootprint {
+    private static final int SIZE = 100_000;
+
+    public static void main(String[] args) {
+        String[] ids = Fixtures.randomIds(SIZE, 1);
+
+        RecordIdSet recordIdSet = new RecordIdSet();
+        Set<String> hashSet = new HashSet<>();
+        List<String> list = new ArrayList<>();
+        for (String id : ids) {
+            recordIdSet.add(id);
+            hashSet.add(id);
+            list.add(id);
+        }
+
+        print("RecordIdSet", GraphLayout.parseInstance(recordIdSet).totalSize());
+        print("HashSet", GraphLayout.parseInstance(hashSet).totalSize());
+        print("ArrayList", GraphLayout.parseInstance(list).totalSize());
+        System.out.printf("RecordIdSet.estimatedBytes(): %d%n", recordIdSet.estimatedBytes());
+    }
+
+    private static void print(String implementation, long bytes) {
+        System.out.printf("%-12s %,12d bytes (%.1f per id)%n", implementation, bytes, (double) bytes / SIZE);
+    }
+}
@@ -0,0 +1,56 @@
+package com.nozbe.watermelondb.benchmarks;
+
+import com.nozbe.watermelondb.WMDatabase;
+import com.nozbe.watermelondb.WMDatabaseDriver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+// Schema setup (unsafeResetDatabase) of a database that already holds `recordCount` records,
+// as happens when the app's schema is reset or the database is found to be newer than the app
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SchemaSetupBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int recordCount;
+
+    private File file;
+    private WMDatabase database;
+    private WMDatabaseDriver driver;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        file = Fixtures.createDatabaseFile();
+        database = Fixtures.openDatabase(file);
+        driver = Fixtures.createPopulatedDriver(database, recordCount);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        database.close();
+        Fixtures.deleteDatabaseFile(file);
+    }
+
+    @Benchmark
+    public void unsafeResetDatabase() {
+        driver.unsafeResetDatabase(Fixtures.SCHEMA);
+    }
+}
@@ -0,0 +1,113 @@
+package com.nozbe.watermelondb.benchmarks;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.facebook.react.bridge.JavaOnlyMap;
+import com.nozbe.watermelondb.TurboSync;
+import com.nozbe.watermelondb.WMDatabase;
+import com.nozbe.watermelondb.WMDatabaseDriver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+// First sync of `recordCount` tasks into an empty database: loading the sync JSON natively
+// (unsafeLoadFromSync) vs a batch of the same records. The batch is a lower bound of the JS path,
+// which also parses the JSON, and sends the records over the bridge as a batch.
+// Records/sec = recordCount / score
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TurboSyncBenchmark {
+    private static final int JSON_ID = 1;
+
+    @Param({"1000", "10000", "100000"})
+    public int recordCount;
+
+    private String json;
+    private JavaOnlyMap schema;
+    private File file;
+    private WMDatabase database;
+    private WMDatabaseDriver driver;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        json = createSyncJson(recordCount);
+        schema = createSchema();
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        file = Fixtures.createDatabaseFile();
+        database = Fixtures.openDatabase(file);
+        driver = new WMDatabaseDriver(database);
+        driver.unsafeResetDatabase(Fixtures.SCHEMA);
+        TurboSync.provideSyncJson(JSON_ID, json);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        database.close();
+        Fixtures.deleteDatabaseFile(file);
+    }
+
+    @Benchmark
+    public Object unsafeLoadFromSync() {
+        return driver.unsafeLoadFromSync(JSON_ID, schema, "", "");
+    }
+
+    @Benchmark
+    public void batch() {
+        driver.batch(Fixtures.createRecordsOperations(recordCount));
+    }
+
+    // Same records as Fixtures.createRecordsOperations, as a sync pull response
+    private static String createSyncJson(int count) {
+        StringBuilder builder = new StringBuilder("{\"changes\":{\"tasks\":{\"created\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"id\":\"").append(Fixtures.recordId(i))
+                    .append("\",\"name\":\"Task number ").append(i)
+                    .append("\",\"position\":").append(i)
+                    .append(",\"is_completed\":").append(i % 2 == 0)
+                    .append(",\"project_id\":\"project").append(i % 100)
+                    .append("\"}");
+        }
+        builder.append("],\"updated\":[],\"deleted\":[]}},\"timestamp\":1623666158603}");
+        return builder.toString();
+    }
+
+    // Same shape as sent by the JS dispatcher
+    private static JavaOnlyMap createSchema() {
+        JavaOnlyArray columns = JavaOnlyArray.of(
+                column("name", "string"),
+                column("position", "number"),
+                column("is_completed", "boolean"),
+                column("project_id", "string")
+        );
+        JavaOnlyMap tables = new JavaOnlyMap();
+        tables.putMap(Fixtures.TABLE, JavaOnlyMap.of("columnArray", columns));
+        return JavaOnlyMap.of("tables", tables);
+    }
+
+    private static JavaOnlyMap column(String name, String type) {
+        return JavaOnlyMap.of("name", name, "type", type, "isOptional", false);
+    }
+}
@@ -0,0 +1,422 @@
+package com.nozbe.watermelondb.jvm;
+
+import com.nozbe.watermelondb.StorageBackend;
+import com.nozbe.watermelondb.StorageCursor;
+import com.nozbe.watermelondb.StorageStatement;
+
+import org.sqlite.SQLiteConfig;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+// StorageBackend on top of sqlite-jdbc, so that the driver can run on a plain JVM (benchmarks)
+// NOTE: Not thread-safe, same as a single Android connection
+public class JdbcStorageBackend implements StorageBackend {
+    private final String path;
+    private final boolean isReadOnly;
+    private final Connection connection;
+    private boolean isWAL;
+
+    // One entry per open (nested) transaction - whether it was marked as successful
+    private final ArrayDeque<Boolean> transactions = new ArrayDeque<>();
+    private boolean hasFailedTransaction = false;
+
+    private JdbcStorageBackend(String path, boolean isReadOnly, boolean isWAL) {
+        this.path = path;
+        this.isReadOnly = isReadOnly;
+        this.isWAL = isWAL;
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(isReadOnly);
+        if (isWAL && !isReadOnly) {
+            config.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        }
+        try {
+            this.connection = config.createConnection("jdbc:sqlite:" + path);
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    public static JdbcStorageBackend open(String path, boolean isWAL) {
+        return new JdbcStorageBackend(path, false, isWAL);
+    }
+
+    @Override
+    public StorageBackend openReader() {
+        return new JdbcStorageBackend(path, true, isWAL);
+    }
+
+    @Override
+    public void execute(String sql) {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    @Override
+    public void execute(String sql, Object[] args) {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            bindArgs(statement, args);
+            statement.execute();
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    @Override
+    public StorageStatement compileStatement(String sql) {
+        try {
+            return new JdbcStatement(connection.prepareStatement(sql));
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    @Override
+    public StorageCursor query(String sql, Object[] args) {
+        // NOTE: Like Android's CursorWindow, we read all rows up front, so getCount() is cheap
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            bindArgs(statement, args);
+            if (!statement.execute()) {
+                // e.g. some pragmas
+                return new JdbcCursor(new String[0], new ArrayList<>());
+            }
+            try (ResultSet resultSet = statement.getResultSet()) {
+                ResultSetMetaData metaData = resultSet.getMetaData();
+                String[] columnNames = new String[metaData.getColumnCount()];
+                for (int i = 0; i < columnNames.length; i++) {
+                    columnNames[i] = metaData.getColumnLabel(i + 1);
+                }
+                List<Object[]> rows = new ArrayList<>();
+                while (resultSet.next()) {
+                    Object[] row = new Object[columnNames.length];
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] = resultSet.getObject(i + 1);
+                    }
+                    rows.add(row);
+                }
+                return new JdbcCursor(columnNames, rows);
+            }
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    @Override
+    public void beginTransaction() {
+        try {
+            if (transactions.isEmpty()) {
+                connection.setAutoCommit(false);
+                hasFailedTransaction = false;
+            }
+            transactions.push(false);
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    @Override
+    public void setTransactionSuccessful() {
+        if (transactions.isEmpty()) {
+            throw new IllegalStateException("No transaction in progress");
+        }
+        transactions.pop();
+        transactions.push(true);
+    }
+
+    @Override
+    public void endTransaction() {
+        if (transactions.isEmpty()) {
+            throw new IllegalStateException("No transaction in progress");
+        }
+        if (!transactions.pop()) {
+            hasFailedTransaction = true;
+        }
+        if (!transactions.isEmpty()) {
+            return;
+        }
+        try {
+            if (hasFailedTransaction) {
+                connection.rollback();
+            } else {
+                connection.commit();
+            }
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    @Override
+    public int getVersion() {
+        try (StorageCursor cursor = query("pragma user_version", new Object[] {})) {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        }
+    }
+
+    @Override
+    public void setVersion(int version) {
+        execute("pragma user_version = " + version);
+    }
+
+    @Override
+    public boolean isWriteAheadLoggingEnabled() {
+        return isWAL;
+    }
+
+    @Override
+    public void enableWriteAheadLogging() {
+        if (isReadOnly) {
+            throw new IllegalStateException("Can't enable WAL on a read-only connection");
+        }
+        try (StorageCursor cursor = query("pragma journal_mode = wal", new Object[] {})) {
+            cursor.moveToFirst();
+        }
+        isWAL = true;
+    }
+
+    @Override
+    public long getSqliteMemoryUsed() {
+        // NOTE: Not exposed by sqlite-jdbc
+        return -1;
+    }
+
+    @Override
+    public boolean isOpen() {
+        try {
+            return !connection.isClosed();
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    private static void bindArgs(PreparedStatement statement, Object[] args) throws SQLException {
+        for (int i = 0; i < args.length; i++) {
+            Object arg = args[i];
+            if (arg instanceof String) {
+                statement.setString(i + 1, (String) arg);
+            } else if (arg instanceof Boolean) {
+                statement.setLong(i + 1, (Boolean) arg ? 1 : 0);
+            } else if (arg instanceof Double) {
+                statement.setDouble(i + 1, (Double) arg);
+            } else if (arg instanceof Long || arg instanceof Integer) {
+                statement.setLong(i + 1, ((Number) arg).longValue());
+            } else if (arg == null) {
+                statement.setNull(i + 1, java.sql.Types.NULL);
+            } else {
+                throw new IllegalArgumentException("Bad query arg type: " + arg.getClass().getCanonicalName());
+            }
+        }
+    }
+
+    public static class StorageException extends RuntimeException {
+        StorageException(SQLException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    private static class JdbcStatement implements StorageStatement {
+        private final PreparedStatement statement;
+
+        JdbcStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        @Override
+        public void bindString(int index, String value) {
+            try {
+                statement.setString(index, value);
+            } catch (SQLException e) {
+                throw new StorageException(e);
+            }
+        }
+
+        @Override
+        public void bindLong(int index, long value) {
+            try {
+                statement.setLong(index, value);
+            } catch (SQLException e) {
+                throw new StorageException(e);
+            }
+        }
+
+        @Override
+        public void bindDouble(int index, double value) {
+            try {
+                statement.setDouble(index, value);
+            } catch (SQLException e) {
+                throw new StorageException(e);
+            }
+        }
+
+        @Override
+        public void bindNull(int index) {
+            try {
+                statement.setNull(index, java.sql.Types.NULL);
+            } catch (SQLException e) {
+                throw new StorageException(e);
+            }
+        }
+
+        @Override
+        public void clearBindings() {
+            try {
+                statement.clearParameters();
+            } catch (SQLException e) {
+                throw new StorageException(e);
+            }
+        }
+
+        @Override
+        public void execute() {
+            try {
+                statement.execute();
+            } catch (SQLException e) {
+                throw new StorageException(e);
+            }
+        }
+
+        @Override
+        public long simpleQueryForLong(long defaultValue) {
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getLong(1) : defaultValue;
+            } catch (SQLException e) {
+                throw new StorageException(e);
+            }
+        }
+
+        @Override
+        public String simpleQueryForString() {
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getString(1) : null;
+            } catch (SQLException e) {
+                throw new StorageException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                throw new StorageException(e);
+            }
+        }
+    }
+
+    private static class JdbcCursor implements StorageCursor {
+        private final String[] columnNames;
+        private final List<Object[]> rows;
+        private int position = -1;
+
+        JdbcCursor(String[] columnNames, List<Object[]> rows) {
+            this.columnNames = columnNames;
+            this.rows = rows;
+        }
+
+        @Override
+        public int getCount() {
+            return rows.size();
+        }
+
+        @Override
+        public boolean moveToFirst() {
+            position = 0;
+            return !rows.isEmpty();
+        }
+
+        @Override
+        public boolean moveToNext() {
+            if (position < rows.size()) {
+                position++;
+            }
+            return position < rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return columnNames.length;
+        }
+
+        @Override
+        public String getColumnName(int columnIndex) {
+            return columnNames[columnIndex];
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return columnNames;
+        }
+
+        @Override
+        public int getColumnIndex(String columnName) {
+            for (int i = 0; i < columnNames.length; i++) {
+                if (columnNames[i].equals(columnName)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public int getType(int columnIndex) {
+            Object value = rows.get(position)[columnIndex];
+            if (value == null) {
+                return FIELD_TYPE_NULL;
+            } else if (value instanceof Integer || value instanceof Long) {
+                return FIELD_TYPE_INTEGER;
+            } else if (value instanceof Number) {
+                return FIELD_TYPE_FLOAT;
+            } else if (value instanceof byte[]) {
+                return FIELD_TYPE_BLOB;
+            } else {
+                return FIELD_TYPE_STRING;
+            }
+        }
+
+        @Override
+        public String getString(int columnIndex) {
+            Object value = rows.get(position)[columnIndex];
+            return value != null ? value.toString() : null;
+        }
+
+        @Override
+        public long getLong(int columnIndex) {
+            Object value = rows.get(position)[columnIndex];
+            return value instanceof Number ? ((Number) value).longValue() : 0;
+        }
+
+        @Override
+        public int getInt(int columnIndex) {
+            return (int) getLong(columnIndex);
+        }
+
+        @Override
+        public double getDouble(int columnIndex) {
+            Object value = rows.get(position)[columnIndex];
+            return value instanceof Number ? ((Number) value).doubleValue() : 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.nozbe.watermelondb.jvm;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.facebook.react.bridge.JavaOnlyMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.nozbe.watermelondb.Platform;
+
+// Bridge values backed by plain Java collections (no React Native runtime needed), no tracing
+public class JvmPlatform extends Platform {
+    @Override
+    public WritableArray createArray() {
+        return new JavaOnlyArray();
+    }
+
+    @Override
+    public WritableMap createMap() {
+        return new JavaOnlyMap();
+    }
+}
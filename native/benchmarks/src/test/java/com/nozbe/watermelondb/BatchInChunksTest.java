@@ -0,0 +1,145 @@
+package com.nozbe.watermelondb;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.nozbe.watermelondb.TestDatabase.batch;
+import static com.nozbe.watermelondb.TestDatabase.createTasks;
+import static com.nozbe.watermelondb.TestDatabase.operation;
+import static com.nozbe.watermelondb.TestDatabase.taskIds;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatchInChunksTest {
+    private static final String CHECKPOINT_KEY = "__watermelon_batch_checkpoint_sync";
+    // Not idempotent, so that a row applied twice shows
+    private static final String BUMP_POSITION = "update \"tasks\" set \"position\" = \"position\" + 1000 where \"id\" is ?";
+
+    private TestDatabase db;
+    private final List<String> progress = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        db = TestDatabase.open();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void resumesAfterInterruption() {
+        JavaOnlyArray operations = operations();
+        try {
+            db.driver.batchInChunks(operations, options(10), (rowsCommitted, totalRows) -> {
+                progress.add(rowsCommitted + "/" + totalRows);
+                if (rowsCommitted == 20) {
+                    throw new RuntimeException("Interrupted");
+                }
+            });
+            fail("Expected batch to be interrupted");
+        } catch (RuntimeException e) {
+            assertEquals("Interrupted", e.getMessage());
+        }
+        assertEquals(Arrays.asList("10/30", "20/30"), progress);
+        assertEquals(20, db.countTasks());
+        assertEquals("20/30", db.database.getFromLocalStorage(CHECKPOINT_KEY));
+
+        progress.clear();
+        assertEquals(20, db.driver.batchInChunks(operations, options(10), this::recordProgress));
+        assertEquals(Arrays.asList("30/30"), progress);
+        assertApplied();
+    }
+
+    @Test
+    public void resumesAfterFailedChunk() {
+        db.driver.batch(batch(createTasks("t22")));
+        try {
+            db.driver.batchInChunks(operations(), options(10), this::recordProgress);
+            fail("Expected batch to fail on a duplicate id");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        // Failed chunk is rolled back, committed ones stay
+        assertEquals(Arrays.asList("10/30", "20/30"), progress);
+        assertEquals(21, db.countTasks());
+        assertEquals("20/30", db.database.getFromLocalStorage(CHECKPOINT_KEY));
+
+        progress.clear();
+        db.database.execute(TestDatabase.DELETE_TASK, new Object[] {"t22"});
+        assertEquals(20, db.driver.batchInChunks(operations(), options(7), this::recordProgress));
+        assertEquals(Arrays.asList("27/30", "30/30"), progress);
+        assertApplied();
+    }
+
+    @Test
+    public void removesCheckpointOfFinishedBatch() {
+        // e.g. interrupted after the last chunk was committed, but before its result got to JS
+        db.database.execute(Queries.insert_local_storage, new Object[] {CHECKPOINT_KEY, "30/30"});
+        assertEquals(30, db.driver.batchInChunks(operations(), options(10), this::recordProgress));
+        assertEquals(0, db.countTasks());
+        assertTrue(progress.isEmpty());
+        assertNull(db.database.getFromLocalStorage(CHECKPOINT_KEY));
+    }
+
+    @Test
+    public void rejectsCheckpointOfOtherOperations() {
+        db.database.execute(Queries.insert_local_storage, new Object[] {CHECKPOINT_KEY, "10/40"});
+        try {
+            db.driver.batchInChunks(operations(), options(10), this::recordProgress);
+            fail("Expected a mismatched checkpoint to be rejected");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("doesn't match operations with 30 rows"));
+        }
+        assertEquals(0, db.countTasks());
+    }
+
+    @Test
+    public void savesNoCheckpointWithoutKey() {
+        BatchCommitOptions options = options(10);
+        options.checkpointKey = null;
+        assertEquals(0, db.driver.batchInChunks(operations(), options, this::recordProgress));
+        assertEquals(Arrays.asList("10/30", "20/30", "30/30"), progress);
+        assertEquals(0, db.database.count("select count(*) as \"count\" from \"local_storage\""));
+        assertApplied();
+    }
+
+    // 25 inserts, then 5 updates of the first 5 tasks - 30 rows
+    private static JavaOnlyArray operations() {
+        JavaOnlyArray[] bumps = new JavaOnlyArray[5];
+        for (int i = 0; i < bumps.length; i++) {
+            bumps[i] = JavaOnlyArray.of("t" + i);
+        }
+        return batch(createTasks(taskIds(0, 25)), operation(0, "tasks", BUMP_POSITION, bumps));
+    }
+
+    private static BatchCommitOptions options(int maxRows) {
+        BatchCommitOptions options = new BatchCommitOptions();
+        options.maxRows = maxRows;
+        options.checkpointKey = "sync";
+        return options;
+    }
+
+    private void recordProgress(int rowsCommitted, int totalRows) {
+        progress.add(rowsCommitted + "/" + totalRows);
+    }
+
+    // Every row applied exactly once, and checkpoint removed
+    private void assertApplied() {
+        assertEquals(25, db.countTasks());
+        assertEquals(5, db.database.count("select count(*) as \"count\" from \"tasks\" where \"position\" >= 1000"));
+        assertEquals(0, db.database.count("select count(*) as \"count\" from \"tasks\" where \"position\" >= 2000"));
+        assertNull(db.database.getFromLocalStorage(CHECKPOINT_KEY));
+    }
+}
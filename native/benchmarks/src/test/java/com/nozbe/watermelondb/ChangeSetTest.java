@@ -0,0 +1,131 @@
+package com.nozbe.watermelondb;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.nozbe.watermelondb.jvm.JvmPlatform;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ChangeSetTest {
+    @Before
+    public void setUp() {
+        Platform.setCurrent(new JvmPlatform());
+    }
+
+    @Test
+    public void recordsCreatedAndDeletedIds() {
+        ChangeSet changes = new ChangeSet();
+        ChangeSet.RowRecorder created = changes.recorderFor(operation(1, "tasks", "insert into \"tasks\" (\"id\", \"name\") values (?, ?)"));
+        created.record(JavaOnlyArray.of("t1", "a"));
+        created.record(JavaOnlyArray.of("t2", "b"));
+        changes.recorderFor(operation(-1, "tasks", "delete from \"tasks\" where \"id\" == ?"))
+                .record(JavaOnlyArray.of("t3"));
+
+        ChangeSet.TableChanges tasks = changes.tables.get("tasks");
+        assertEquals(Arrays.asList("t1", "t2"), tasks.created);
+        assertEquals(Arrays.asList("t3"), tasks.deleted);
+        assertTrue(tasks.updated.isEmpty());
+        assertFalse(tasks.isIncomplete);
+        assertFalse(changes.hasUnknownChanges);
+    }
+
+    @Test
+    public void recordsUpdatedIdsFromLastArg() {
+        ChangeSet changes = new ChangeSet();
+        ChangeSet.RowRecorder updated = changes.recorderFor(
+                operation(0, "tasks", "update \"tasks\" set \"name\" = ?, \"position\" = ? where \"id\" is ?"));
+        updated.record(JavaOnlyArray.of("a", 1, "t1"));
+
+        ChangeSet.TableChanges tasks = changes.tables.get("tasks");
+        assertEquals(Arrays.asList("t1"), tasks.updated);
+        assertFalse(tasks.isIncomplete);
+    }
+
+    @Test
+    public void marksOtherWritesAsIncomplete() {
+        ChangeSet changes = new ChangeSet();
+        assertNull(changes.recorderFor(operation(0, "", "update `tasks` set `name` = ? where `position` > ?")));
+        assertNull(changes.recorderFor(operation(0, "", "delete from \"comments\"")));
+
+        assertTrue(changes.tables.get("tasks").isIncomplete);
+        assertTrue(changes.tables.get("comments").isIncomplete);
+        assertFalse(changes.hasUnknownChanges);
+    }
+
+    @Test
+    public void ignoresIndexStatements() {
+        ChangeSet changes = new ChangeSet();
+        assertNull(changes.recorderFor(operation(0, "", "create index if not exists \"tasks_name\" on \"tasks\" (\"name\")")));
+        assertNull(changes.recorderFor(operation(0, "", "drop index \"tasks_name\"")));
+
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void marksWritesToUnknownTables() {
+        ChangeSet changes = new ChangeSet();
+        assertNull(changes.recorderFor(operation(0, "", "pragma user_version = 2")));
+        assertNull(changes.recorderFor(operation(0, "", "insert into main.tasks values (?)")));
+
+        assertTrue(changes.tables.isEmpty());
+        assertTrue(changes.hasUnknownChanges);
+        assertFalse(changes.isEmpty());
+    }
+
+    @Test
+    public void mergesChangeSets() {
+        ChangeSet first = new ChangeSet();
+        first.table("tasks").created.add("t1");
+        ChangeSet second = new ChangeSet();
+        second.table("tasks").deleted.add("t2");
+        second.table("tasks").isIncomplete = true;
+        second.table("comments").updated.add("c1");
+        second.hasUnknownChanges = true;
+
+        first.addAll(second);
+
+        ChangeSet.TableChanges tasks = first.tables.get("tasks");
+        assertEquals(Arrays.asList("t1"), tasks.created);
+        assertEquals(Arrays.asList("t2"), tasks.deleted);
+        assertTrue(tasks.isIncomplete);
+        assertEquals(Arrays.asList("c1"), first.tables.get("comments").updated);
+        assertTrue(first.hasUnknownChanges);
+    }
+
+    @Test
+    public void convertsToMap() {
+        ChangeSet changes = new ChangeSet();
+        changes.table("tasks").created.add("t1");
+        changes.table("tasks").updated.add("t2");
+        changes.table("tasks").isIncomplete = true;
+
+        ReadableMap map = changes.toMap();
+        assertFalse(map.getBoolean("hasUnknownChanges"));
+        ReadableMap tasks = map.getMap("tables").getMap("tasks");
+        assertIds(tasks.getArray("created"), "t1");
+        assertIds(tasks.getArray("updated"), "t2");
+        assertIds(tasks.getArray("deleted"));
+        assertTrue(tasks.getBoolean("isIncomplete"));
+    }
+
+    // [cacheBehavior, table, sql, argBatches], as encoded by encodeBatch
+    private static ReadableArray operation(int cacheBehavior, String table, String sql) {
+        return JavaOnlyArray.of(cacheBehavior, table, sql, new JavaOnlyArray());
+    }
+
+    private static void assertIds(ReadableArray array, String... ids) {
+        assertEquals(ids.length, array.size());
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], array.getString(i));
+        }
+    }
+}
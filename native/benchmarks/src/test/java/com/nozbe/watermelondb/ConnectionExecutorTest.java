@@ -0,0 +1,252 @@
+package com.nozbe.watermelondb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConnectionExecutorTest {
+    private ConnectionExecutor executor;
+    private final List<String> order = Collections.synchronizedList(new ArrayList<>());
+    // Opened once blocking work starts running
+    private final CountDownLatch blockingStarted = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        executor = new ConnectionExecutor("test");
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void runsWorkInOrderOfSubmission() throws InterruptedException {
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(4);
+        executor.submit(ConnectionExecutor.Kind.WRITE, blocking("w1", gate, done));
+        executor.submit(ConnectionExecutor.Kind.READ, recording("r1", done));
+        executor.submit(ConnectionExecutor.Kind.BACKGROUND_WRITE, recording("w2", done));
+        executor.submit(ConnectionExecutor.Kind.READ, recording("r2", done));
+        gate.countDown();
+
+        await(done);
+        assertEquals(Arrays.asList("w1", "r1", "w2", "r2"), order);
+    }
+
+    @Test
+    public void readsOvertakeOnlyBackgroundWrites() throws InterruptedException {
+        executor.configure(true, ConnectionExecutor.DEFAULT_MAX_READ_BYPASSES);
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(5);
+        executor.submit(ConnectionExecutor.Kind.BACKGROUND_WRITE, blocking("bg1", gate, done));
+        await(blockingStarted);
+        executor.submit(ConnectionExecutor.Kind.BACKGROUND_WRITE, recording("bg2", done));
+        executor.submit(ConnectionExecutor.Kind.READ, recording("r1", done));
+        executor.submit(ConnectionExecutor.Kind.WRITE, recording("w", done));
+        executor.submit(ConnectionExecutor.Kind.READ, recording("r2", done));
+        gate.countDown();
+
+        await(done);
+        assertEquals(Arrays.asList("bg1", "r1", "bg2", "w", "r2"), order);
+        assertEquals(1, executor.getStats().bypassCount);
+    }
+
+    @Test
+    public void limitsConsecutiveReadBypasses() throws InterruptedException {
+        executor.configure(true, 2);
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(5);
+        executor.submit(ConnectionExecutor.Kind.READ, blocking("r0", gate, done));
+        await(blockingStarted);
+        executor.submit(ConnectionExecutor.Kind.BACKGROUND_WRITE, recording("bg", done));
+        executor.submit(ConnectionExecutor.Kind.READ, recording("r1", done));
+        executor.submit(ConnectionExecutor.Kind.READ, recording("r2", done));
+        executor.submit(ConnectionExecutor.Kind.READ, recording("r3", done));
+        gate.countDown();
+
+        await(done);
+        assertEquals(Arrays.asList("r0", "r1", "r2", "bg", "r3"), order);
+    }
+
+    @Test
+    public void runsGroupedWritesTogether() throws InterruptedException {
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        List<List<Object>> groups = Collections.synchronizedList(new ArrayList<>());
+        List<long[]> submitTimes = Collections.synchronizedList(new ArrayList<>());
+        ConnectionExecutor.Grouping grouping = grouping(2, (items, submittedAtNanos) -> {
+            groups.add(items);
+            submitTimes.add(submittedAtNanos);
+            done.countDown();
+        });
+        long submittedAfter = System.nanoTime();
+        executor.submit(ConnectionExecutor.Kind.WRITE, blocking("w", gate, null));
+        executor.submitGrouped(grouping, "a");
+        executor.submitGrouped(grouping, "b");
+        executor.submitGrouped(grouping, "c");
+        long submittedBefore = System.nanoTime();
+        gate.countDown();
+
+        await(done);
+        assertEquals(Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("c")), groups);
+        assertEquals(2, submitTimes.get(0).length);
+        assertEquals(1, submitTimes.get(1).length);
+        long[] times = {submitTimes.get(0)[0], submitTimes.get(0)[1], submitTimes.get(1)[0]};
+        for (int i = 0; i < times.length; i++) {
+            assertTrue(times[i] >= submittedAfter && times[i] <= submittedBefore);
+            assertTrue(i == 0 || times[i] >= times[i - 1]);
+        }
+    }
+
+    @Test
+    public void doesNotGroupWritesAcrossReads() throws InterruptedException {
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(3);
+        ConnectionExecutor.Grouping grouping = grouping(10, (items, submittedAtNanos) -> {
+            order.add(items.toString());
+            done.countDown();
+        });
+        executor.submit(ConnectionExecutor.Kind.WRITE, blocking("w", gate, null));
+        executor.submitGrouped(grouping, "a");
+        executor.submit(ConnectionExecutor.Kind.READ, recording("r", done));
+        executor.submitGrouped(grouping, "b");
+        gate.countDown();
+
+        await(done);
+        assertEquals(Arrays.asList("w", "[a]", "r", "[b]"), order);
+    }
+
+    @Test
+    public void rejectsWorkAfterShutdown() throws InterruptedException {
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        executor.submit(ConnectionExecutor.Kind.WRITE, blocking("w", gate, done));
+        executor.submit(ConnectionExecutor.Kind.READ, recording("r", done));
+        executor.shutdown();
+        try {
+            executor.submit(ConnectionExecutor.Kind.READ, recording("after", done));
+            fail("Expected work submitted after shutdown to be rejected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        gate.countDown();
+
+        // Work submitted before shutdown still runs
+        await(done);
+        assertEquals(Arrays.asList("w", "r"), order);
+    }
+
+    @Test
+    public void runsReadsAlongsideWritesOnReaderThreads() throws InterruptedException {
+        executor.setReaderThreads(1);
+        CountDownLatch writeRan = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicBoolean sawWrite = new AtomicBoolean(false);
+        executor.submit(ConnectionExecutor.Kind.READ, () -> {
+            ConnectionExecutor.snapshotTaken();
+            // Run serially, the write would only start after this read
+            sawWrite.set(awaitQuietly(writeRan));
+            done.countDown();
+        });
+        executor.submit(ConnectionExecutor.Kind.WRITE, writeRan::countDown);
+
+        await(done);
+        assertTrue(sawWrite.get());
+    }
+
+    @Test
+    public void readsOnReaderThreadsWaitForEarlierWrites() throws InterruptedException {
+        executor.setReaderThreads(2);
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch readRan = new CountDownLatch(1);
+        executor.submit(ConnectionExecutor.Kind.WRITE, blocking("w", gate, null));
+        executor.submit(ConnectionExecutor.Kind.READ, () -> {
+            order.add("r");
+            readRan.countDown();
+        });
+
+        assertFalse(readRan.await(100, TimeUnit.MILLISECONDS));
+        gate.countDown();
+        await(readRan);
+        assertEquals(Arrays.asList("w", "r"), order);
+    }
+
+    private interface GroupRunner {
+        void run(List<Object> items, long[] submittedAtNanos);
+    }
+
+    private static ConnectionExecutor.Grouping grouping(int maxItems, GroupRunner runner) {
+        return new ConnectionExecutor.Grouping() {
+            @Override
+            public int maxItems() {
+                return maxItems;
+            }
+
+            @Override
+            public long maxWeight() {
+                return 0;
+            }
+
+            @Override
+            public long weightOf(Object item) {
+                return 1;
+            }
+
+            @Override
+            public long windowMillis() {
+                return 0;
+            }
+
+            @Override
+            public void run(List<Object> items, long[] submittedAtNanos) {
+                runner.run(items, submittedAtNanos);
+            }
+        };
+    }
+
+    private Runnable recording(String name, CountDownLatch done) {
+        return () -> {
+            order.add(name);
+            done.countDown();
+        };
+    }
+
+    // Records `name` and holds up the thread until `gate` is opened, so that work submitted after it
+    // queues up
+    private Runnable blocking(String name, CountDownLatch gate, CountDownLatch done) {
+        return () -> {
+            order.add(name);
+            blockingStarted.countDown();
+            awaitQuietly(gate);
+            if (done != null) {
+                done.countDown();
+            }
+        };
+    }
+
+    private static boolean awaitQuietly(CountDownLatch latch) {
+        try {
+            return latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    private static void await(CountDownLatch latch) throws InterruptedException {
+        assertTrue("Timed out", latch.await(5, TimeUnit.SECONDS));
+    }
+}
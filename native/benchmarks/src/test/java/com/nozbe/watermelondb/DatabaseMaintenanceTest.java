@@ -0,0 +1,168 @@
+package com.nozbe.watermelondb;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static com.nozbe.watermelondb.TestDatabase.ALL_TASKS;
+import static com.nozbe.watermelondb.TestDatabase.INSERT_TASK;
+import static com.nozbe.watermelondb.TestDatabase.batch;
+import static com.nozbe.watermelondb.TestDatabase.deleteTasks;
+import static com.nozbe.watermelondb.TestDatabase.operation;
+import static com.nozbe.watermelondb.TestDatabase.taskIds;
+import static com.nozbe.watermelondb.TestDatabase.taskRow;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DatabaseMaintenanceTest {
+    private static final int VACUUM_PAGES_PER_STEP = 8;
+
+    private TestDatabase db;
+    private long freePages;
+
+    @Before
+    public void setUp() throws IOException {
+        PerformanceProfile profile = PerformanceProfile.defaults();
+        profile.autoVacuum = "INCREMENTAL";
+        db = TestDatabase.open(profile);
+        assertEquals(2, queryLong("pragma auto_vacuum"));
+
+        // Pages of deleted records are left free
+        String[] ids = taskIds(0, 500);
+        JavaOnlyArray[] rows = new JavaOnlyArray[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            rows[i] = taskRow(ids[i], new String(new char[500]).replace('\0', 'x'), i);
+        }
+        db.driver.batch(batch(operation(1, "tasks", INSERT_TASK, rows)));
+        db.driver.batch(batch(deleteTasks(ids)));
+        freePages = queryLong("pragma freelist_count");
+        assertTrue("free pages: " + freePages, freePages > 4 * VACUUM_PAGES_PER_STEP);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void doesNothingWhenDisabled() {
+        assertNull(db.database.getMaintenance().runSlice(true, () -> false));
+        assertTrue(db.driver.runMaintenanceSlice(() -> false));
+        assertEquals(0, db.driver.getMaintenanceStats().slices);
+        assertEquals(freePages, queryLong("pragma freelist_count"));
+    }
+
+    @Test
+    public void releasesFreePages() {
+        db.driver.configureMaintenance(options("PASSIVE", 10_000));
+        DatabaseMaintenance.Report report = db.database.getMaintenance().runSlice(true, () -> false);
+
+        assertTrue(report.isComplete);
+        assertEquals(freePages, report.pagesVacuumed);
+        assertEquals(0, report.freelistPages);
+        assertEquals(0, queryLong("pragma freelist_count"));
+        // Nothing left to do
+        assertTrue(db.driver.runMaintenanceSlice(() -> false));
+        DatabaseMaintenance.Stats stats = db.driver.getMaintenanceStats();
+        assertEquals(2, stats.slices);
+        assertEquals(0, stats.interruptedSlices);
+        assertEquals(freePages, stats.pagesVacuumed);
+        assertEquals(0, stats.lastFreelistPages);
+    }
+
+    @Test
+    public void stopsWhenInterrupted() {
+        db.driver.configureMaintenance(options("PASSIVE", 10_000));
+        int[] calls = {0};
+        // User work arrives after two vacuum steps
+        assertFalse(db.driver.runMaintenanceSlice(() -> ++calls[0] > 2));
+
+        assertEquals(3, calls[0]);
+        DatabaseMaintenance.Stats stats = db.driver.getMaintenanceStats();
+        assertEquals(1, stats.interruptedSlices);
+        // NOTE: sqlite-jdbc only steps incremental_vacuum once, so a step releases 1 page here
+        assertTrue("pages vacuumed: " + stats.pagesVacuumed, stats.pagesVacuumed >= 2 && stats.pagesVacuumed <= 2 * VACUUM_PAGES_PER_STEP);
+        assertEquals(freePages - stats.pagesVacuumed, queryLong("pragma freelist_count"));
+        assertEquals(stats.lastFreelistPages, queryLong("pragma freelist_count"));
+
+        // Next slice picks up where it stopped
+        assertTrue(db.driver.runMaintenanceSlice(() -> false));
+        assertEquals(freePages, db.driver.getMaintenanceStats().pagesVacuumed);
+        assertEquals(0, queryLong("pragma freelist_count"));
+    }
+
+    @Test
+    public void stopsWhenOutOfTime() {
+        db.driver.configureMaintenance(options("PASSIVE", 1));
+        // Each step takes longer than the whole slice
+        DatabaseMaintenance.Report report = db.database.getMaintenance().runSlice(true, () -> {
+            sleep(2);
+            return false;
+        });
+
+        assertFalse(report.isComplete);
+        assertTrue("pages vacuumed: " + report.pagesVacuumed, report.pagesVacuumed <= VACUUM_PAGES_PER_STEP);
+        assertEquals(freePages - report.pagesVacuumed, report.freelistPages);
+        assertEquals(1, db.driver.getMaintenanceStats().interruptedSlices);
+    }
+
+    @Test
+    public void truncatesWalOnlyWithoutOpenQueries() {
+        MaintenanceOptions options = options("TRUNCATE", 10_000);
+        // Vacuum would write past the open query's snapshot, which no checkpoint can copy then
+        options.vacuumPagesPerStep = 0;
+        db.driver.configureMaintenance(options);
+        assertTrue(walFile().length() > 0);
+        int handle = db.driver.openQuery("tasks", ALL_TASKS, new Object[] {});
+
+        // PASSIVE, so it doesn't wait for the open query's reader, and the WAL file is left as is.
+        // (TRUNCATE would wait for the reader, and then report the checkpoint as busy)
+        assertTrue(db.driver.runMaintenanceSlice(() -> false));
+        DatabaseMaintenance.Stats stats = db.driver.getMaintenanceStats();
+        assertTrue("WAL bytes: " + stats.lastWalBytes, stats.lastWalBytes > 0);
+        assertTrue(walFile().length() > 0);
+        DatabaseMaintenance.Report report = db.database.getMaintenance().runSlice(false, () -> false);
+        assertFalse(report.isCheckpointBusy);
+        assertEquals(report.walBytesBefore, report.walBytesAfter);
+        assertEquals(freePages, report.freelistPages);
+
+        db.driver.closeQuery(handle);
+        assertTrue(db.driver.runMaintenanceSlice(() -> false));
+        assertEquals(0, db.driver.getMaintenanceStats().lastWalBytes);
+        assertEquals(0, walFile().length());
+    }
+
+    private static MaintenanceOptions options(String checkpointMode, long sliceMillis) {
+        MaintenanceOptions options = new MaintenanceOptions();
+        options.checkpointMode = checkpointMode;
+        options.sliceMillis = sliceMillis;
+        options.vacuumPagesPerStep = VACUUM_PAGES_PER_STEP;
+        return options;
+    }
+
+    private long queryLong(String sql) {
+        try (StorageCursor cursor = db.database.rawQuery(sql)) {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        }
+    }
+
+    private File walFile() {
+        return new File(db.directory, "test.db-wal");
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
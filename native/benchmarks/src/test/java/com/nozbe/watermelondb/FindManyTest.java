@@ -0,0 +1,122 @@
+package com.nozbe.watermelondb;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.nozbe.watermelondb.TestDatabase.batch;
+import static com.nozbe.watermelondb.TestDatabase.createTasks;
+import static com.nozbe.watermelondb.TestDatabase.ids;
+import static com.nozbe.watermelondb.TestDatabase.taskIds;
+import static org.junit.Assert.assertEquals;
+
+public class FindManyTest {
+    private TestDatabase db;
+    private WMDatabaseDriver driver;
+
+    @Before
+    public void setUp() throws IOException {
+        db = TestDatabase.open();
+        db.driver.batch(batch(createTasks(taskIds(0, 2000))));
+        // Created by a fresh driver, so that no records are cached yet
+        driver = new WMDatabaseDriver(db.database);
+        // Logs every query, so that chunks can be checked
+        driver.configureSlowQueryLog(0, 16);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void fetchesInChunksOfAtMost999Ids() {
+        assertChunks(999, Collections.singletonList(999));
+        assertChunks(1000, Arrays.asList(999, 1));
+        assertChunks(1998, Arrays.asList(999, 999));
+        assertChunks(2000, Arrays.asList(999, 999, 2));
+    }
+
+    @Test
+    public void returnsRecordsInRequestedOrderAcrossChunks() {
+        List<String> requested = new ArrayList<>(Arrays.asList(taskIds(0, 1200)));
+        Collections.reverse(requested);
+        List<String> results = ids(driver.findMany("tasks", JavaOnlyArray.from(requested)));
+
+        assertEquals(requested, results);
+        assertEquals(Arrays.asList(999, 201), loggedChunkSizes());
+    }
+
+    @Test
+    public void sendsCachedRecordsAsBareIds() {
+        driver.find("tasks", "t1");
+        loggedChunkSizes();
+        assertEquals(Arrays.asList("t0", "=t1", "t2"), ids(findMany("t0", "t1", "t2")));
+        assertEquals(Arrays.asList(2), loggedChunkSizes());
+
+        // All cached - nothing is queried
+        assertEquals(Arrays.asList("=t2", "=t0", "=t1"), ids(findMany("t2", "t0", "t1")));
+        assertEquals(Collections.emptyList(), loggedChunkSizes());
+
+        // Fetched records are cached across chunks, too
+        driver.findMany("tasks", JavaOnlyArray.from(Arrays.asList(taskIds(0, 1200))));
+        loggedChunkSizes();
+        assertEquals(Arrays.asList("=t0", "=t1000", "=t1199"), ids(findMany("t0", "t1000", "t1199")));
+        assertEquals(Collections.emptyList(), loggedChunkSizes());
+    }
+
+    @Test
+    public void returnsNullForMissingRecords() {
+        assertEquals(Arrays.asList(null, "t1", null), ids(findMany("missing", "t1", "t2000")));
+        assertEquals(Arrays.asList(3), loggedChunkSizes());
+        // Missing records are not cached, and are looked up again
+        assertEquals(Arrays.asList(null, "=t1", null), ids(findMany("missing", "t1", "t2000")));
+        assertEquals(Arrays.asList(2), loggedChunkSizes());
+    }
+
+    @Test
+    public void sendsRepeatedRecordsInFullOnce() {
+        assertEquals(Arrays.asList("t1", "t2", "=t1", "=t1"), ids(findMany("t1", "t2", "t1", "t1")));
+        assertEquals(Arrays.asList(2), loggedChunkSizes());
+
+        ReadableArray records = findMany("t3");
+        ReadableMap record = records.getMap(0);
+        assertEquals("Task t3", record.getString("name"));
+        assertEquals(3, record.getDouble("position"), 0);
+    }
+
+    private ReadableArray findMany(String... ids) {
+        return driver.findMany("tasks", JavaOnlyArray.from(Arrays.asList(ids)));
+    }
+
+    // Fetches `count` uncached records (all of them are cached afterwards)
+    private void assertChunks(int count, List<Integer> chunkSizes) {
+        WMDatabaseDriver driver = new WMDatabaseDriver(db.database);
+        driver.configureSlowQueryLog(0, 16);
+        List<String> requested = Arrays.asList(taskIds(0, count));
+        assertEquals(requested, ids(driver.findMany("tasks", JavaOnlyArray.from(requested))));
+        this.driver = driver;
+        assertEquals("chunks of " + count + " ids", chunkSizes, loggedChunkSizes());
+    }
+
+    // Argument counts of the queries run since the last call
+    private List<Integer> loggedChunkSizes() {
+        List<Integer> sizes = new ArrayList<>();
+        ReadableArray queries = driver.getSlowQueries();
+        for (int i = 0; i < queries.size(); i++) {
+            sizes.add(queries.getMap(i).getArray("argTypes").size());
+        }
+        driver.configureSlowQueryLog(0, 16);
+        return sizes;
+    }
+}
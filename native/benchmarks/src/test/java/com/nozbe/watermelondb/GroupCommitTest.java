@@ -0,0 +1,206 @@
+package com.nozbe.watermelondb;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.nozbe.watermelondb.TestDatabase.batch;
+import static com.nozbe.watermelondb.TestDatabase.createTasks;
+import static com.nozbe.watermelondb.TestDatabase.taskIds;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GroupCommitTest {
+    private static final int TAG = 1;
+
+    private TestDatabase db;
+    // Results of batches, in order: ids created, or "error"
+    private final List<String> results = Collections.synchronizedList(new ArrayList<>());
+    // Number of records created per commit (change listeners are notified once per commit)
+    private final List<Integer> commits = Collections.synchronizedList(new ArrayList<>());
+    private int nextId = 0;
+
+    @Before
+    public void setUp() throws IOException {
+        db = TestDatabase.open();
+        db.driver.batch(batch(createTasks("existing")));
+        db.driver.setChangeListener((changes) -> commits.add(changes.table("tasks").created.size()));
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void commitsBatchesInOneTransaction() {
+        GroupCommit groupCommit = configure(10, 0);
+        run(groupCommit, batchOf(2), batchOf(1), batchOf(3));
+
+        assertEquals(Arrays.asList("t0 t1", "t2", "t3 t4 t5"), results);
+        assertEquals(Arrays.asList(6), commits);
+        assertEquals(7, db.countTasks());
+        assertStats(groupCommit, 3, 1, 0, 3);
+
+        DriverStats.OperationStats stats = batchStats();
+        assertEquals(3, stats.count);
+        assertEquals(0, stats.errors);
+        assertEquals(6, stats.rowsWritten);
+    }
+
+    @Test
+    public void commitsBatchesOneByOneIfGroupFails() {
+        GroupCommit groupCommit = configure(10, 0);
+        GroupCommit.Batch failing = new GroupCommit.Batch(batch(createTasks("t10", "existing")), this::recordResult);
+        run(groupCommit, batchOf(2), failing, batchOf(1));
+
+        // Group was rolled back - otherwise re-running the first batch would fail on duplicate ids
+        assertEquals(Arrays.asList("t0 t1", "error", "t2"), results);
+        assertEquals(Arrays.asList(2, 1), commits);
+        assertEquals(4, db.countTasks());
+        assertNull(db.driver.find("tasks", "t10"));
+        assertStats(groupCommit, 3, 3, 1, 3);
+
+        // Recorded as separate calls
+        DriverStats.OperationStats stats = batchStats();
+        assertEquals(3, stats.count);
+        assertEquals(1, stats.errors);
+        // Rows of the failed batch are counted, too - same as for a batch that's not grouped
+        assertEquals(3 + 2, stats.rowsWritten);
+    }
+
+    @Test
+    public void commitsSingleBatchWithoutGroup() {
+        GroupCommit groupCommit = configure(10, 0);
+        run(groupCommit, batchOf(2));
+        run(groupCommit, new GroupCommit.Batch(batch(createTasks("existing")), this::recordResult));
+
+        assertEquals(Arrays.asList("t0 t1", "error"), results);
+        // Not a fallback - nothing was rolled back
+        assertStats(groupCommit, 2, 2, 0, 1);
+        assertEquals(1, batchStats().errors);
+    }
+
+    @Test
+    public void capsGroupsAtMaxBatches() throws InterruptedException {
+        GroupCommit groupCommit = configure(3, 0);
+        submitAll(groupCommit, batchOf(1), batchOf(1), batchOf(1), batchOf(1), batchOf(1), batchOf(1), batchOf(1));
+
+        assertEquals(Arrays.asList(3, 3, 1), commits);
+        assertStats(groupCommit, 7, 3, 0, 3);
+        assertEquals(2.33, groupCommit.getStats().coalescingRatio(), 0.01);
+    }
+
+    @Test
+    public void capsGroupsAtMaxRows() throws InterruptedException {
+        GroupCommit groupCommit = configure(10, 4);
+        // A batch over maxRows is committed on its own
+        submitAll(groupCommit, batchOf(2), batchOf(2), batchOf(1), batchOf(3), batchOf(5), batchOf(1));
+
+        assertEquals(Arrays.asList(4, 4, 5, 1), commits);
+        assertStats(groupCommit, 6, 4, 0, 2);
+        assertEquals(14 + 1, db.countTasks());
+    }
+
+    @Test
+    public void disablesGroupCommit() {
+        configure(10, 0);
+        db.driver.configureGroupCommit(TAG, 0, 0, 0);
+        assertNull(db.driver.getGroupCommit());
+        db.driver.configureGroupCommit(TAG, 5, 2, 100);
+        assertEquals(0, db.driver.getGroupCommit().getStats().batches);
+        try {
+            db.driver.configureGroupCommit(TAG, 0, 2, -1);
+            fail("Expected invalid options to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid group commit options"));
+        }
+    }
+
+    private GroupCommit configure(int maxBatches, int maxRows) {
+        db.driver.configureGroupCommit(TAG, 0, maxBatches, maxRows);
+        GroupCommit groupCommit = db.driver.getGroupCommit();
+        assertNotNull(groupCommit);
+        return groupCommit;
+    }
+
+    // Batch creating `rows` new tasks
+    private GroupCommit.Batch batchOf(int rows) {
+        JavaOnlyArray operations = batch(createTasks(taskIds(nextId, rows)));
+        nextId += rows;
+        return new GroupCommit.Batch(operations, this::recordResult);
+    }
+
+    private void recordResult(ChangeSet changes, RuntimeException error) {
+        results.add(error != null ? "error" : String.join(" ", changes.table("tasks").created));
+    }
+
+    // Runs batches as one group, as ConnectionExecutor does
+    private static void run(GroupCommit groupCommit, GroupCommit.Batch... batches) {
+        long[] submittedAtNanos = new long[batches.length];
+        Arrays.fill(submittedAtNanos, System.nanoTime());
+        groupCommit.run(new ArrayList<>(Arrays.asList((Object[]) batches)), submittedAtNanos);
+    }
+
+    // Submits batches while the connection is busy, so that they're queued together
+    private void submitAll(GroupCommit groupCommit, GroupCommit.Batch... batches) throws InterruptedException {
+        ConnectionExecutor executor = new ConnectionExecutor("test");
+        try {
+            CountDownLatch gate = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(batches.length);
+            executor.submit(ConnectionExecutor.Kind.WRITE, () -> {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            for (GroupCommit.Batch batch : batches) {
+                executor.submitGrouped(groupCommit, new GroupCommit.Batch(batch.operations, (changes, error) -> {
+                    batch.callback.onResult(changes, error);
+                    done.countDown();
+                }));
+            }
+            gate.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(batches.length, results.size());
+        assertFalse(results.toString(), results.contains("error"));
+    }
+
+    private static void assertStats(GroupCommit groupCommit, long batches, long commits, long fallbacks, int maxGroupSize) {
+        GroupCommit.Stats stats = groupCommit.getStats();
+        assertEquals("batches", batches, stats.batches);
+        assertEquals("commits", commits, stats.commits);
+        assertEquals("fallbacks", fallbacks, stats.fallbacks);
+        assertEquals("maxGroupSize", maxGroupSize, stats.maxGroupSize);
+    }
+
+    private DriverStats.OperationStats batchStats() {
+        DriverStats stats = db.driver.getStats();
+        synchronized (stats) {
+            for (DriverStats.OperationStats operation : stats.getOperations()) {
+                if (operation.operation.equals("batch")) {
+                    return operation;
+                }
+            }
+        }
+        throw new AssertionError("No batch calls recorded");
+    }
+}
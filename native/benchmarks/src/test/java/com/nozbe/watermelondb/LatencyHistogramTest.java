@@ -0,0 +1,72 @@
+package com.nozbe.watermelondb;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+    @Test
+    public void isEmptyInitially() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMeanMicros(), 0);
+        assertEquals(0, histogram.getPercentileMicros(50));
+        assertEquals(0, histogram.getMaxMicros());
+    }
+
+    @Test
+    public void recordsSmallValuesExactly() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int micros = 1; micros <= 4; micros++) {
+            histogram.record(micros * 1000L);
+        }
+        assertEquals(4, histogram.getCount());
+        assertEquals(2.5, histogram.getMeanMicros(), 0);
+        assertEquals(4, histogram.getMaxMicros());
+        assertEquals(1, histogram.getPercentileMicros(25));
+        assertEquals(2, histogram.getPercentileMicros(50));
+        assertEquals(4, histogram.getPercentileMicros(100));
+    }
+
+    @Test
+    public void keepsPercentilesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int micros = 1; micros <= 10_000; micros++) {
+            histogram.record(micros * 1000L);
+        }
+        assertEquals(10_000, histogram.getMaxMicros());
+        assertWithinPrecision(5000, histogram.getPercentileMicros(50));
+        assertWithinPrecision(9000, histogram.getPercentileMicros(90));
+        assertWithinPrecision(9900, histogram.getPercentileMicros(99));
+        // Never above the max
+        assertTrue(histogram.getPercentileMicros(100) <= 10_000);
+    }
+
+    @Test
+    public void clampsOutOfRangeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5000);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getPercentileMicros(50));
+        assertEquals(Long.MAX_VALUE / 1000, histogram.getMaxMicros());
+        assertTrue(histogram.getPercentileMicros(100) > 0);
+    }
+
+    @Test
+    public void resets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5_000_000);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxMicros());
+        histogram.record(1000);
+        assertEquals(1, histogram.getPercentileMicros(99));
+    }
+
+    // Buckets are 1/8 of a power of two wide, and percentiles are their lower bounds
+    private static void assertWithinPrecision(long expected, long actual) {
+        assertTrue("expected ~" + expected + ", was " + actual, actual <= expected && actual >= expected * 7 / 8);
+    }
+}
@@ -0,0 +1,88 @@
+package com.nozbe.watermelondb;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.facebook.react.bridge.ReadableArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static com.nozbe.watermelondb.TestDatabase.ALL_TASKS;
+import static com.nozbe.watermelondb.TestDatabase.batch;
+import static com.nozbe.watermelondb.TestDatabase.createTasks;
+import static com.nozbe.watermelondb.TestDatabase.deleteTasks;
+import static com.nozbe.watermelondb.TestDatabase.ids;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MultiQueryTest {
+    private static final String COUNT_TASKS = "select count(*) as \"count\" from \"tasks\"";
+
+    private TestDatabase db;
+
+    @Before
+    public void setUp() throws IOException {
+        db = TestDatabase.open();
+        db.driver.batch(batch(createTasks("t1", "t2", "t3", "t4", "t5")));
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void runsInOneReadTransaction() {
+        boolean[] committed = {false};
+        // Commits a write after the first operation has run, before the second one
+        JavaOnlyArray operations = new JavaOnlyArray() {
+            @Override
+            public ReadableArray getArray(int index) {
+                if (index == 1 && !committed[0]) {
+                    committed[0] = true;
+                    db.driver.batch(batch(deleteTasks("t1"), createTasks("t6", "t7")));
+                }
+                return super.getArray(index);
+            }
+        };
+        operations.pushArray(JavaOnlyArray.of("count", COUNT_TASKS, JavaOnlyArray.of()));
+        operations.pushArray(JavaOnlyArray.of("query", "tasks", ALL_TASKS, JavaOnlyArray.of()));
+        operations.pushArray(JavaOnlyArray.of("queryIds", "select \"id\" from \"tasks\" order by \"id\"", JavaOnlyArray.of()));
+        operations.pushArray(JavaOnlyArray.of("count", COUNT_TASKS, JavaOnlyArray.of()));
+
+        ReadableArray results = db.driver.multiQuery(operations);
+        assertTrue(committed[0]);
+        assertEquals(5, results.getInt(0));
+        // Deleted t1 is no longer cached, so it's sent in full
+        assertEquals(Arrays.asList("t1", "=t2", "=t3", "=t4", "=t5"), ids(results.getArray(1)));
+        assertEquals(Arrays.asList("=t1", "=t2", "=t3", "=t4", "=t5"), ids(results.getArray(2)));
+        assertEquals(5, results.getInt(3));
+
+        assertEquals(Arrays.asList("=t2", "=t3", "=t4", "=t5", "=t6", "=t7"),
+                ids(db.driver.cachedQuery("tasks", ALL_TASKS, new Object[] {})));
+    }
+
+    @Test
+    public void sendsSharedRecordsInFullOnce() {
+        // Created by a fresh driver, so that no records are cached yet
+        WMDatabaseDriver driver = new WMDatabaseDriver(db.database);
+        JavaOnlyArray operations = JavaOnlyArray.of(
+                JavaOnlyArray.of("query", "tasks", "select \"tasks\".* from \"tasks\" where \"id\" in (?, ?) order by \"id\"",
+                        JavaOnlyArray.of("t1", "t2")),
+                JavaOnlyArray.of("find", "tasks", "t2"),
+                JavaOnlyArray.of("find", "tasks", "t7"),
+                JavaOnlyArray.of("findMany", "tasks", JavaOnlyArray.of("t2", "t3")),
+                JavaOnlyArray.of("query", "tasks", ALL_TASKS, JavaOnlyArray.of()));
+
+        ReadableArray results = driver.multiQuery(operations);
+        assertEquals(Arrays.asList("t1", "t2"), ids(results.getArray(0)));
+        assertEquals("t2", results.getString(1));
+        assertNull(results.getString(2));
+        assertEquals(Arrays.asList("=t2", "t3"), ids(results.getArray(3)));
+        assertEquals(Arrays.asList("=t1", "=t2", "=t3", "t4", "t5"), ids(results.getArray(4)));
+    }
+}
@@ -0,0 +1,147 @@
+package com.nozbe.watermelondb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static com.nozbe.watermelondb.TestDatabase.ALL_TASKS;
+import static com.nozbe.watermelondb.TestDatabase.batch;
+import static com.nozbe.watermelondb.TestDatabase.createTasks;
+import static com.nozbe.watermelondb.TestDatabase.deleteTasks;
+import static com.nozbe.watermelondb.TestDatabase.ids;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class QueryHandlesTest {
+    private TestDatabase db;
+
+    @Before
+    public void setUp() throws IOException {
+        PerformanceProfile profile = PerformanceProfile.defaults();
+        profile.readerCount = 4;
+        db = TestDatabase.open(profile);
+        db.driver.batch(batch(createTasks("t1", "t2", "t3", "t4", "t5")));
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void fetchesInChunks() {
+        int handle = db.driver.openQuery("tasks", ALL_TASKS, new Object[] {});
+        assertEquals(Arrays.asList("=t1", "=t2"), ids(db.driver.fetchNext(handle, 2)));
+        assertEquals(Arrays.asList("=t3", "=t4"), ids(db.driver.fetchNext(handle, 2)));
+        // Fewer rows than asked for - the query is fully read, and closed
+        assertEquals(Arrays.asList("=t5"), ids(db.driver.fetchNext(handle, 2)));
+        assertClosed(handle);
+    }
+
+    @Test
+    public void marksFetchedRecordsAsCached() {
+        db.driver.batch(batch(deleteTasks("t1", "t2", "t3", "t4", "t5"), createTasks("t1", "t2", "t3")));
+        // Created by a fresh driver, so that no records are cached yet
+        WMDatabaseDriver driver = new WMDatabaseDriver(db.database);
+        int handle = driver.openQuery("tasks", ALL_TASKS, new Object[] {});
+        assertEquals(Arrays.asList("t1", "t2"), ids(driver.fetchNext(handle, 2)));
+        driver.closeQuery(handle);
+
+        assertEquals(Arrays.asList("=t1", "=t2", "t3"), ids(driver.cachedQuery("tasks", ALL_TASKS, new Object[] {})));
+    }
+
+    @Test
+    public void keepsSnapshotWhileWritesCommit() {
+        int handle = db.driver.openQuery("tasks", ALL_TASKS, new Object[] {});
+        assertEquals(Arrays.asList("=t1"), ids(db.driver.fetchNext(handle, 1)));
+        db.driver.batch(batch(deleteTasks("t2"), createTasks("t6")));
+
+        // Deleted t2 is no longer cached, so it's sent in full
+        assertEquals(Arrays.asList("t2", "=t3", "=t4", "=t5"), ids(db.driver.fetchNext(handle, 10)));
+        assertEquals(Arrays.asList("=t1", "=t3", "=t4", "=t5", "=t6"),
+                ids(db.driver.cachedQuery("tasks", ALL_TASKS, new Object[] {})));
+    }
+
+    @Test
+    public void doesNotSeeUncommittedWrites() {
+        int[] handle = {0};
+        db.database.transaction(() -> {
+            db.database.execute(TestDatabase.DELETE_TASK, new Object[] {"t1"});
+            // Opened on a reader, not on the writer in the middle of its transaction
+            handle[0] = db.driver.openQuery(null, "select \"id\" from \"tasks\" order by \"id\"", new Object[] {});
+        });
+
+        assertEquals(5, db.driver.fetchNext(handle[0], 10).size());
+        assertEquals(4, db.countTasks());
+    }
+
+    @Test
+    public void capsOpenQueries() {
+        db.driver.configureQueryHandles(2, 30_000);
+        int first = db.driver.openQuery("tasks", ALL_TASKS, new Object[] {});
+        db.driver.openQuery("tasks", ALL_TASKS, new Object[] {});
+        try {
+            db.driver.openQuery("tasks", ALL_TASKS, new Object[] {});
+            fail("Expected open queries to be capped");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Too many open queries"));
+        }
+
+        db.driver.closeQuery(first);
+        db.driver.openQuery("tasks", ALL_TASKS, new Object[] {});
+        assertClosed(first);
+    }
+
+    @Test
+    public void leavesReaderForRegularReads() {
+        db.driver.configureQueryHandles(10, 30_000);
+        // 4 readers, of which 3 can be held by open queries
+        for (int i = 0; i < 3; i++) {
+            db.driver.openQuery("tasks", ALL_TASKS, new Object[] {});
+        }
+        try {
+            db.driver.openQuery("tasks", ALL_TASKS, new Object[] {});
+            fail("Expected opening a query to fail without a spare reader");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("No reader connection can be spared"));
+        }
+        assertEquals(5, db.driver.count("select count(*) as \"count\" from \"tasks\"", new Object[] {}));
+    }
+
+    @Test
+    public void closesIdleQueries() throws InterruptedException {
+        db.driver.configureQueryHandles(2, 1);
+        int first = db.driver.openQuery("tasks", ALL_TASKS, new Object[] {});
+        int second = db.driver.openQuery("tasks", ALL_TASKS, new Object[] {});
+        Thread.sleep(5);
+
+        assertEquals(2, db.driver.closeIdleQueries());
+        assertEquals(0, db.driver.closeIdleQueries());
+        assertClosed(first);
+        assertClosed(second);
+        // Readers were released
+        db.driver.openQuery("tasks", ALL_TASKS, new Object[] {});
+        db.driver.openQuery("tasks", ALL_TASKS, new Object[] {});
+    }
+
+    @Test
+    public void closesAllQueriesOnReset() {
+        int handle = db.driver.openQuery("tasks", ALL_TASKS, new Object[] {});
+        db.driver.unsafeResetDatabase(TestDatabase.SCHEMA);
+        assertClosed(handle);
+    }
+
+    private void assertClosed(int handle) {
+        try {
+            db.driver.fetchNext(handle, 1);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("No open query with handle " + handle));
+            return;
+        }
+        fail("Expected query " + handle + " to be closed");
+    }
+}
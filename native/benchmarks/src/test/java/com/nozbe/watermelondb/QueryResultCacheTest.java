@@ -0,0 +1,147 @@
+package com.nozbe.watermelondb;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class QueryResultCacheTest {
+    private static final String COUNT_TASKS = "select count(*) as \"count\" from \"tasks\" where \"project_id\" = ?";
+    private static final String COUNT_JOINED = "select count(*) from \"tasks\" join \"projects\" on \"projects\".\"id\" = \"tasks\".\"project_id\"";
+    private static final Object[] ARGS = {"p1"};
+
+    @Test
+    public void isDisabledByDefault() {
+        QueryResultCache cache = new QueryResultCache();
+        assertFalse(cache.isEnabled());
+        cache.put(QueryResultCache.Kind.COUNT, COUNT_TASKS, ARGS, 5, 16, cache.beginRead());
+        assertNull(cache.get(QueryResultCache.Kind.COUNT, COUNT_TASKS, ARGS));
+    }
+
+    @Test
+    public void returnsResultsByKindQueryAndArgs() {
+        QueryResultCache cache = enabledCache();
+        cache.put(QueryResultCache.Kind.COUNT, COUNT_TASKS, ARGS, 5, 16, cache.beginRead());
+        assertEquals(5, cache.get(QueryResultCache.Kind.COUNT, COUNT_TASKS, new Object[] {"p1"}));
+        assertNull(cache.get(QueryResultCache.Kind.COUNT, COUNT_TASKS, new Object[] {"p2"}));
+        assertNull(cache.get(QueryResultCache.Kind.QUERY_IDS, COUNT_TASKS, ARGS));
+        QueryResultCache.Stats stats = cache.getStats();
+        assertEquals(1, stats.hits);
+        assertEquals(2, stats.misses);
+        assertEquals(1, stats.entries);
+    }
+
+    @Test
+    public void invalidatesOnWritesToTablesRead() {
+        QueryResultCache cache = enabledCache();
+        cache.put(QueryResultCache.Kind.COUNT, COUNT_TASKS, ARGS, 5, 16, cache.beginRead());
+        cache.put(QueryResultCache.Kind.COUNT, COUNT_JOINED, new Object[0], 7, 16, cache.beginRead());
+
+        cache.noteWrite("insert into \"comments\" (\"id\") values (?)");
+        assertEquals(5, cache.get(QueryResultCache.Kind.COUNT, COUNT_TASKS, ARGS));
+        assertEquals(7, cache.get(QueryResultCache.Kind.COUNT, COUNT_JOINED, new Object[0]));
+
+        // Table names are case-insensitive
+        cache.noteWrite("update \"Projects\" set \"name\" = ? where \"id\" is ?");
+        assertEquals(5, cache.get(QueryResultCache.Kind.COUNT, COUNT_TASKS, ARGS));
+        assertNull(cache.get(QueryResultCache.Kind.COUNT, COUNT_JOINED, new Object[0]));
+
+        cache.noteWrite("delete from \"tasks\" where \"id\" == ?");
+        assertNull(cache.get(QueryResultCache.Kind.COUNT, COUNT_TASKS, ARGS));
+        assertEquals(2, cache.getStats().invalidations);
+    }
+
+    @Test
+    public void ignoresIndexStatements() {
+        QueryResultCache cache = enabledCache();
+        cache.put(QueryResultCache.Kind.COUNT, COUNT_TASKS, ARGS, 5, 16, cache.beginRead());
+        cache.noteWrite("drop index if exists \"tasks_project_id\"");
+        cache.noteWrite("create index \"tasks_project_id\" on \"tasks\" (\"project_id\")");
+        assertEquals(5, cache.get(QueryResultCache.Kind.COUNT, COUNT_TASKS, ARGS));
+    }
+
+    @Test
+    public void invalidatesAllOnUnknownWrites() {
+        QueryResultCache cache = enabledCache();
+        cache.put(QueryResultCache.Kind.COUNT, COUNT_TASKS, ARGS, 5, 16, cache.beginRead());
+        cache.noteWrite("pragma user_version = 2");
+        assertNull(cache.get(QueryResultCache.Kind.COUNT, COUNT_TASKS, ARGS));
+
+        cache.put(QueryResultCache.Kind.COUNT, COUNT_TASKS, ARGS, 5, 16, cache.beginRead());
+        cache.invalidateAll();
+        assertNull(cache.get(QueryResultCache.Kind.COUNT, COUNT_TASKS, ARGS));
+    }
+
+    @Test
+    public void doesNotCacheResultsReadBeforeAWrite() {
+        // A query that began before a write to its table may have missed it
+        QueryResultCache cache = enabledCache();
+        long readAt = cache.beginRead();
+        cache.noteWrite("insert into \"tasks\" (\"id\") values (?)");
+        cache.put(QueryResultCache.Kind.COUNT, COUNT_TASKS, ARGS, 5, 16, readAt);
+        assertNull(cache.get(QueryResultCache.Kind.COUNT, COUNT_TASKS, ARGS));
+
+        readAt = cache.beginRead();
+        cache.noteWrite("insert into \"comments\" (\"id\") values (?)");
+        cache.put(QueryResultCache.Kind.COUNT, COUNT_TASKS, ARGS, 5, 16, readAt);
+        assertEquals(5, cache.get(QueryResultCache.Kind.COUNT, COUNT_TASKS, ARGS));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        QueryResultCache cache = new QueryResultCache();
+        cache.configure(2, 1_000_000);
+        cache.put(QueryResultCache.Kind.COUNT, "select count(*) from a", new Object[0], 1, 16, cache.beginRead());
+        cache.put(QueryResultCache.Kind.COUNT, "select count(*) from b", new Object[0], 2, 16, cache.beginRead());
+        cache.get(QueryResultCache.Kind.COUNT, "select count(*) from a", new Object[0]);
+        cache.put(QueryResultCache.Kind.COUNT, "select count(*) from c", new Object[0], 3, 16, cache.beginRead());
+
+        assertEquals(1, cache.get(QueryResultCache.Kind.COUNT, "select count(*) from a", new Object[0]));
+        assertNull(cache.get(QueryResultCache.Kind.COUNT, "select count(*) from b", new Object[0]));
+        assertEquals(3, cache.get(QueryResultCache.Kind.COUNT, "select count(*) from c", new Object[0]));
+        assertEquals(1, cache.getStats().evictions);
+    }
+
+    @Test
+    public void staysWithinBytes() {
+        QueryResultCache cache = new QueryResultCache();
+        cache.configure(100, 1000);
+        cache.put(QueryResultCache.Kind.RAW, COUNT_TASKS, ARGS, "too large", 2000, cache.beginRead());
+        assertNull(cache.get(QueryResultCache.Kind.RAW, COUNT_TASKS, ARGS));
+        for (int i = 0; i < 10; i++) {
+            cache.put(QueryResultCache.Kind.RAW, COUNT_TASKS, new Object[] {"p" + i}, i, 200, cache.beginRead());
+        }
+        QueryResultCache.Stats stats = cache.getStats();
+        assertTrue(stats.estimatedBytes <= 1000);
+        assertTrue(stats.entries < 10);
+        assertEquals(9, cache.get(QueryResultCache.Kind.RAW, COUNT_TASKS, new Object[] {"p9"}));
+
+        long freed = cache.clear();
+        assertEquals(stats.estimatedBytes, freed);
+        assertEquals(0, cache.getStats().entries);
+    }
+
+    @Test
+    public void rejectsInvalidLimits() {
+        QueryResultCache cache = new QueryResultCache();
+        for (long[] limits : new long[][] {{-1, 1000}, {10, -1}, {10, 0}}) {
+            try {
+                cache.configure((int) limits[0], limits[1]);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            fail("Expected limits " + limits[0] + ", " + limits[1] + " to be rejected");
+        }
+        cache.configure(0, 0);
+        assertFalse(cache.isEnabled());
+    }
+
+    private static QueryResultCache enabledCache() {
+        QueryResultCache cache = new QueryResultCache();
+        cache.configure(100, 1_000_000);
+        return cache;
+    }
+}
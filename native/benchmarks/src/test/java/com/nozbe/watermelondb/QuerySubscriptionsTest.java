@@ -0,0 +1,275 @@
+package com.nozbe.watermelondb;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.nozbe.watermelondb.TestDatabase.INSERT_PROJECT;
+import static com.nozbe.watermelondb.TestDatabase.INSERT_TASK;
+import static com.nozbe.watermelondb.TestDatabase.batch;
+import static com.nozbe.watermelondb.TestDatabase.createTasks;
+import static com.nozbe.watermelondb.TestDatabase.deleteTasks;
+import static com.nozbe.watermelondb.TestDatabase.ids;
+import static com.nozbe.watermelondb.TestDatabase.operation;
+import static com.nozbe.watermelondb.TestDatabase.taskIds;
+import static com.nozbe.watermelondb.TestDatabase.taskRow;
+import static com.nozbe.watermelondb.TestDatabase.updateTask;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class QuerySubscriptionsTest {
+    private static final String POSITION_AT_LEAST = "select \"tasks\".* from \"tasks\" where \"position\" >= ?";
+    private static final String SET_PROJECT = "update \"tasks\" set \"project_id\" = ? where \"id\" is ?";
+    private static final String RENAME_PROJECT = "update \"projects\" set \"name\" = ? where \"id\" is ?";
+
+    private TestDatabase db;
+    private final List<QuerySubscriptions.Diff> diffs = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        db = TestDatabase.open();
+        // Positions 0-4
+        db.driver.batch(batch(createTasks("t0", "t1", "t2", "t3", "t4"),
+                operation(1, "projects", INSERT_PROJECT, JavaOnlyArray.of("p1", "", "created", "Active"),
+                        JavaOnlyArray.of("p2", "", "created", "Done"))));
+        db.driver.setQueryDiffListener(diffs::addAll);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void recognizesRowLocalQueries() {
+        assertTrue(isRowLocal(POSITION_AT_LEAST));
+        assertTrue(isRowLocal("select \"tasks\".* from \"tasks\", \"projects\" where \"projects\".\"id\" = \"tasks\".\"project_id\""));
+        assertFalse(isRowLocal("select \"tasks\".* from \"tasks\" join \"projects\" on \"projects\".\"id\" = \"tasks\".\"project_id\""));
+        assertFalse(isRowLocal("select \"tasks\".* from \"tasks\" order by \"position\" limit 2"));
+        assertFalse(isRowLocal("select \"tasks\".* from \"tasks\" where \"id\" in (select \"id\" from \"tasks\")"));
+        assertFalse(isRowLocal("select count(*) as \"count\" from \"tasks\""));
+
+        assertEquals("select * from (" + POSITION_AT_LEAST + ") where \"id\" in (?, ?, ?)",
+                QuerySubscriptions.restrictToIds(POSITION_AT_LEAST, 3));
+    }
+
+    @Test
+    public void returnsIdsToRecheck() {
+        QuerySubscriptions.Subscription subscription = new QuerySubscriptions().add("tasks", POSITION_AT_LEAST, new Object[] {3});
+        ChangeSet changes = new ChangeSet();
+        changes.table("tasks").created.add("t5");
+        changes.table("tasks").updated.add("t1");
+        changes.table("tasks").deleted.add("t4");
+        assertEquals(set("t1", "t4", "t5"), QuerySubscriptions.changedIds(subscription, changes));
+
+        changes.table("projects").created.add("p3");
+        assertEquals(set("t1", "t4", "t5"), QuerySubscriptions.changedIds(subscription, changes));
+        assertFalse(QuerySubscriptions.isAffected(subscription, withTable("projects")));
+
+        changes.table("tasks").isIncomplete = true;
+        assertNull(QuerySubscriptions.changedIds(subscription, changes));
+
+        ChangeSet unknown = new ChangeSet();
+        unknown.hasUnknownChanges = true;
+        assertTrue(QuerySubscriptions.isAffected(subscription, unknown));
+        assertNull(QuerySubscriptions.changedIds(subscription, unknown));
+    }
+
+    @Test
+    public void sendsRecordsAddedAndRemoved() {
+        ReadableMap subscribed = db.driver.subscribeQuery("tasks", POSITION_AT_LEAST, new Object[] {3});
+        assertEquals(Arrays.asList("=t3", "=t4"), ids(subscribed.getArray("results")));
+        int subscriptionId = subscribed.getInt("subscriptionId");
+
+        db.driver.configureSlowQueryLog(0, 16);
+        db.driver.batch(batch(
+                updateTask("t1", "Task t1", 10),
+                updateTask("t3", "Task t3", 0),
+                updateTask("t4", "Task t4", 20),
+                operation(1, "tasks", INSERT_TASK, taskRow("t5", "Task t5", 5), taskRow("t6", "Task t6", 1)),
+                deleteTasks("t2")));
+
+        // t4 still matches, t2 and t6 never did
+        QuerySubscriptions.Diff diff = onlyDiff();
+        assertEquals(subscriptionId, diff.subscriptionId);
+        assertNull(diff.error);
+        assertEquals(Arrays.asList("=t1", "=t5"), sorted(ids(diff.added)));
+        assertEquals(Arrays.asList("t3"), strings(diff.removed));
+        // Only changed records were re-checked
+        assertEquals(Arrays.asList("select * from (" + POSITION_AT_LEAST + ") where \"id\" in (?, ?, ?, ?, ?, ?) / 7"),
+                loggedQueries());
+
+        db.driver.batch(batch(deleteTasks("t4", "t0")));
+        assertEquals(Arrays.asList("t4"), strings(onlyDiff().removed));
+    }
+
+    @Test
+    public void sendsNothingIfResultsDidNotChange() {
+        db.driver.subscribeQuery("tasks", POSITION_AT_LEAST, new Object[] {3});
+        db.driver.configureSlowQueryLog(0, 16);
+
+        db.driver.batch(batch(updateTask("t0", "Task t0", 1), updateTask("t4", "Renamed", 4)));
+        assertTrue(diffs.isEmpty());
+        assertEquals(1, loggedQueries().size());
+
+        // Not read by the query
+        db.driver.batch(batch(operation(0, "projects", RENAME_PROJECT, JavaOnlyArray.of("Renamed", "p1"))));
+        assertTrue(diffs.isEmpty());
+        assertEquals(Collections.emptyList(), loggedQueries());
+
+        db.driver.unsubscribeQuery(db.driver.subscribeQuery("tasks", POSITION_AT_LEAST, new Object[] {0}).getInt("subscriptionId"));
+        db.driver.batch(batch(createTasks("t9")));
+        assertTrue(diffs.isEmpty());
+    }
+
+    @Test
+    public void rerunsJoinedQueryOnChangeOfOtherTable() {
+        db.driver.batch(batch(operation(0, "tasks", SET_PROJECT, JavaOnlyArray.of("p1", "t1"), JavaOnlyArray.of("p2", "t2"))));
+        String join = "select \"tasks\".* from \"tasks\" join \"projects\" on \"projects\".\"id\" = \"tasks\".\"project_id\" " +
+                "where \"projects\".\"name\" is ?";
+        // Row-local by syntax, but reads another table
+        String commaJoin = "select \"tasks\".* from \"tasks\", \"projects\" where \"projects\".\"id\" = \"tasks\".\"project_id\" " +
+                "and \"projects\".\"name\" is ?";
+        assertEquals(Arrays.asList("=t1"), ids(db.driver.subscribeQuery("tasks", join, new Object[] {"Active"}).getArray("results")));
+        assertEquals(Arrays.asList("=t1"), ids(db.driver.subscribeQuery("tasks", commaJoin, new Object[] {"Active"}).getArray("results")));
+        db.driver.configureSlowQueryLog(0, 16);
+
+        db.driver.batch(batch(operation(0, "projects", RENAME_PROJECT, JavaOnlyArray.of("Active", "p2"))));
+        assertEquals(2, diffs.size());
+        for (QuerySubscriptions.Diff diff : diffs) {
+            assertEquals(Arrays.asList("=t2"), ids(diff.added));
+            assertEquals(0, diff.removed.size());
+        }
+        assertEquals(Arrays.asList(join + " / 1", commaJoin + " / 1"), loggedQueries());
+    }
+
+    @Test
+    public void rerunsQueryWithLimit() {
+        String limited = "select \"tasks\".* from \"tasks\" where \"position\" >= ? order by \"position\" limit 2";
+        assertEquals(Arrays.asList("=t2", "=t3"), ids(db.driver.subscribeQuery("tasks", limited, new Object[] {2}).getArray("results")));
+        db.driver.configureSlowQueryLog(0, 16);
+
+        // t4 isn't changed, but moves into the result
+        db.driver.batch(batch(updateTask("t2", "Task t2", -1)));
+        QuerySubscriptions.Diff diff = onlyDiff();
+        assertEquals(Arrays.asList("=t4"), ids(diff.added));
+        assertEquals(Arrays.asList("t2"), strings(diff.removed));
+        assertEquals(Arrays.asList(limited + " / 1"), loggedQueries());
+    }
+
+    @Test
+    public void rerunsQueryOnUnknownAndIncompleteChanges() {
+        db.driver.subscribeQuery("tasks", POSITION_AT_LEAST, new Object[] {3});
+        db.driver.configureSlowQueryLog(0, 16);
+
+        // Schema-qualified tables are not recognized - the write is unknown
+        db.driver.batch(batch(operation(0, "tasks", "delete from main.\"tasks\" where \"id\" == ?", JavaOnlyArray.of("t3"))));
+        assertEquals(Arrays.asList("t3"), strings(onlyDiff().removed));
+        assertEquals(Arrays.asList(POSITION_AT_LEAST + " / 1"), loggedQueries());
+
+        // Ids of records updated are not known
+        db.driver.batch(batch(operation(0, "tasks", "update \"tasks\" set \"position\" = ? where \"position\" < ?",
+                JavaOnlyArray.of(100, 2))));
+        assertEquals(Arrays.asList("=t0", "=t1"), sorted(ids(onlyDiff().added)));
+        assertEquals(Arrays.asList(POSITION_AT_LEAST + " / 1"), loggedQueries());
+    }
+
+    @Test
+    public void rerunsQueryIfChangedIdsDoNotFitInOneQuery() {
+        db.driver.subscribeQuery("tasks", POSITION_AT_LEAST, new Object[] {3});
+        db.driver.configureSlowQueryLog(0, 16);
+
+        // 998 ids + 1 arg of the query
+        db.driver.batch(batch(createTasks(taskIds(100, 998))));
+        assertEquals(995, onlyDiff().added.size());
+        List<String> queries = loggedQueries();
+        assertEquals(1, queries.size());
+        assertTrue(queries.get(0), queries.get(0).startsWith("select * from (") && queries.get(0).endsWith(" / 999"));
+
+        db.driver.batch(batch(createTasks(taskIds(2000, 999))));
+        assertEquals(996, onlyDiff().added.size());
+        assertEquals(Arrays.asList(POSITION_AT_LEAST + " / 1"), loggedQueries());
+    }
+
+    @Test
+    public void removesFailingSubscription() {
+        int failing = db.driver.subscribeQuery("projects", "select \"projects\".* from \"projects\"", new Object[] {}).getInt("subscriptionId");
+        db.driver.subscribeQuery("tasks", POSITION_AT_LEAST, new Object[] {3});
+
+        // NOTE: Committed anyway
+        db.driver.batch(batch(operation(0, "projects", "drop table \"projects\"", JavaOnlyArray.of())));
+        QuerySubscriptions.Diff diff = onlyDiff();
+        assertEquals(failing, diff.subscriptionId);
+        assertNotNull(diff.error);
+        assertTrue(diff.error, diff.error.contains("no such table"));
+        assertNull(diff.added);
+        assertNull(diff.removed);
+
+        db.database.unsafeExecuteStatements("create table \"projects\" (\"id\" primary key, \"_changed\", \"_status\", \"name\");");
+        db.driver.batch(batch(operation(1, "projects", INSERT_PROJECT, JavaOnlyArray.of("p3", "", "created", "New")),
+                updateTask("t0", "Task t0", 3)));
+        diff = onlyDiff();
+        assertEquals(Arrays.asList("=t0"), ids(diff.added));
+    }
+
+    private QuerySubscriptions.Diff onlyDiff() {
+        assertEquals(1, diffs.size());
+        QuerySubscriptions.Diff diff = diffs.get(0);
+        diffs.clear();
+        return diff;
+    }
+
+    // Queries run since the last call, as "sql / arg count"
+    private List<String> loggedQueries() {
+        List<String> queries = new ArrayList<>();
+        ReadableArray entries = db.driver.getSlowQueries();
+        for (int i = 0; i < entries.size(); i++) {
+            ReadableMap entry = entries.getMap(i);
+            queries.add(entry.getString("sql") + " / " + entry.getArray("argTypes").size());
+        }
+        db.driver.configureSlowQueryLog(0, 16);
+        return queries;
+    }
+
+    private static boolean isRowLocal(String sql) {
+        return new QuerySubscriptions().add("tasks", sql, new Object[] {}).isRowLocal;
+    }
+
+    private static ChangeSet withTable(String table) {
+        ChangeSet changes = new ChangeSet();
+        changes.table(table).updated.add("x");
+        return changes;
+    }
+
+    private static Set<String> set(String... ids) {
+        return new HashSet<>(Arrays.asList(ids));
+    }
+
+    private static List<String> strings(ReadableArray array) {
+        List<String> strings = new ArrayList<>();
+        for (int i = 0; i < array.size(); i++) {
+            strings.add(array.getString(i));
+        }
+        return strings;
+    }
+
+    private static List<String> sorted(List<String> list) {
+        Collections.sort(list);
+        return list;
+    }
+}
@@ -0,0 +1,168 @@
+package com.nozbe.watermelondb;
+
+import com.nozbe.watermelondb.jvm.JdbcStorageBackend;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ReaderPoolTest {
+    private static final String COUNT_SQL = "select count(*) as \"count\" from \"tasks\"";
+
+    private File directory;
+    private WMDatabase database;
+    private final List<WMDatabase> openedReaders = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("watermelondb-test").toFile();
+        database = WMDatabase.open(JdbcStorageBackend.open(path(), true), PerformanceProfile.defaults());
+        database.unsafeExecuteStatements("create table \"tasks\" (\"id\" primary key, \"name\");");
+        insert("t1");
+    }
+
+    @After
+    public void tearDown() {
+        for (WMDatabase reader : openedReaders) {
+            reader.close();
+        }
+        database.close();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void readsCommittedSnapshotWhileWriteTransactionIsOpen() {
+        assertEquals(WMDatabase.DEFAULT_READER_COUNT, database.getReaderCount());
+        database.transaction(() -> {
+            insert("t2");
+            assertEquals(2, database.count(COUNT_SQL));
+            // Uncommitted write is not visible to readers
+            assertEquals(Integer.valueOf(1), database.read((reader) -> {
+                assertNotSame(database, reader);
+                return reader.count(COUNT_SQL);
+            }));
+        });
+        assertEquals(Integer.valueOf(2), database.read((reader) -> reader.count(COUNT_SQL)));
+    }
+
+    @Test
+    public void keepsSnapshotForWholeRead() {
+        int[] counts = database.read((reader) -> {
+            int before = reader.count(COUNT_SQL);
+            insert("t2");
+            return new int[] {before, reader.count(COUNT_SQL)};
+        });
+
+        assertEquals(1, counts[0]);
+        assertEquals(1, counts[1]);
+        assertEquals(Integer.valueOf(2), database.read((reader) -> reader.count(COUNT_SQL)));
+    }
+
+    @Test
+    public void dropsReadersOnSchemaChange() {
+        WMDatabase oldReader = database.read((reader) -> reader);
+        assertTrue(oldReader.isOpen());
+        // Reader in use while the schema changes is not reused either
+        WMDatabase inUse = database.read((reader) -> {
+            database.unsafeExecuteStatements("create table \"projects\" (\"id\" primary key);");
+            return reader;
+        });
+
+        assertFalse(oldReader.isOpen());
+        assertFalse(inUse.isOpen());
+        WMDatabase newReader = database.read((reader) -> {
+            assertEquals(0, reader.count("select count(*) as \"count\" from \"projects\""));
+            return reader;
+        });
+        assertNotSame(oldReader, newReader);
+        assertTrue(newReader.isOpen());
+    }
+
+    @Test
+    public void reusesReadersOfCurrentGeneration() throws InterruptedException {
+        ReaderPool pool = new ReaderPool(2, this::openReader);
+        ReaderPool.Lease first = pool.acquire();
+        pool.release(first);
+        ReaderPool.Lease second = pool.acquire();
+        assertSame(first.reader, second.reader);
+
+        pool.invalidate();
+        pool.release(second);
+        assertFalse(second.reader.isOpen());
+        ReaderPool.Lease third = pool.acquire();
+        assertNotSame(second.reader, third.reader);
+        pool.release(third);
+        assertEquals(2, openedReaders.size());
+
+        pool.invalidate();
+        assertFalse(third.reader.isOpen());
+    }
+
+    @Test
+    public void waitsForReaderWhenAllAreInUse() throws InterruptedException {
+        ReaderPool pool = new ReaderPool(1, this::openReader);
+        ReaderPool.Lease lease = pool.acquire();
+        CountDownLatch acquired = new CountDownLatch(1);
+        new Thread(() -> {
+            try {
+                pool.release(pool.acquire());
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                // ignored
+            }
+        }).start();
+
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        pool.release(lease);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        assertEquals(1, openedReaders.size());
+    }
+
+    @Test
+    public void sparesReaderOnlyIfAnotherIsLeft() throws InterruptedException {
+        ReaderPool pool = new ReaderPool(2, this::openReader);
+        ReaderPool.Lease spare = pool.tryAcquireSpare();
+        assertNotNull(spare);
+        assertNull(pool.tryAcquireSpare());
+        ReaderPool.Lease regular = pool.acquire();
+        assertNotNull(regular);
+        pool.release(regular);
+        pool.release(spare);
+
+        assertNull(new ReaderPool(1, this::openReader).tryAcquireSpare());
+        assertNull(new ReaderPool(0, this::openReader).acquire());
+    }
+
+    private WMDatabase openReader() {
+        WMDatabase reader = WMDatabase.open(JdbcStorageBackend.open(path(), true).openReader(), PerformanceProfile.defaults());
+        openedReaders.add(reader);
+        return reader;
+    }
+
+    private void insert(String id) {
+        database.execute("insert into \"tasks\" (\"id\", \"name\") values (?, ?)", new Object[] {id, "name"});
+    }
+
+    private String path() {
+        return new File(directory, "test.db").getPath();
+    }
+}
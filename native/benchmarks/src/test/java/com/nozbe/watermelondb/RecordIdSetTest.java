@@ -0,0 +1,124 @@
+package com.nozbe.watermelondb;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RecordIdSetTest {
+    @Test
+    public void addsAndRemovesIds() {
+        RecordIdSet set = new RecordIdSet();
+        assertTrue(set.add("abcdefghijklmnop"));
+        assertFalse(set.add("abcdefghijklmnop"));
+        assertTrue(set.contains("abcdefghijklmnop"));
+        assertFalse(set.contains("abcdefghijklmnoq"));
+        assertEquals(1, set.size());
+        assertTrue(set.remove("abcdefghijklmnop"));
+        assertFalse(set.remove("abcdefghijklmnop"));
+        assertFalse(set.contains("abcdefghijklmnop"));
+        assertEquals(0, set.size());
+    }
+
+    @Test
+    public void distinguishesIdsThatPackSimilarly() {
+        RecordIdSet set = new RecordIdSet();
+        // Prefixes of each other, ids split between the two packed longs, trailing characters
+        String[] ids = {"a", "ab", "abcdefgh", "abcdefghi", "abcdefgh1", "1abcdefgh", "abcdefghijklmno", "abcdefghijklmnop"};
+        for (String id : ids) {
+            assertTrue(id, set.add(id));
+        }
+        for (String id : ids) {
+            assertTrue(id, set.contains(id));
+        }
+        assertFalse(set.contains("abc"));
+        assertFalse(set.contains("abcdefghijklmnopq"));
+        assertEquals(ids.length, set.size());
+    }
+
+    @Test
+    public void storesIdsThatCantBePacked() {
+        RecordIdSet set = new RecordIdSet();
+        String[] ids = {"", "abcdefghijklmnopq", "zażółć", "a\u0000b", "😀", "ab\u0080"};
+        for (String id : ids) {
+            assertTrue(set.add(id));
+            assertFalse(set.add(id));
+        }
+        assertTrue(set.add("a"));
+        assertFalse(set.contains("ab"));
+        for (String id : ids) {
+            assertTrue(set.contains(id));
+        }
+        assertEquals(ids.length + 1, set.size());
+        for (String id : ids) {
+            assertTrue(set.remove(id));
+        }
+        assertEquals(1, set.size());
+        assertTrue(set.contains("a"));
+    }
+
+    @Test
+    public void matchesHashSet() {
+        // Random adds and removes, so that tables grow, probe sequences wrap, and removals shift entries
+        Random random = new Random(42);
+        RecordIdSet set = new RecordIdSet();
+        Set<String> expected = new HashSet<>();
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            ids.add(randomId(random, 1 + random.nextInt(20)));
+        }
+        for (int i = 0; i < 50_000; i++) {
+            String id = ids.get(random.nextInt(ids.size()));
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(id), set.remove(id));
+            } else {
+                assertEquals(expected.add(id), set.add(id));
+            }
+        }
+        assertEquals(expected.size(), set.size());
+        for (String id : ids) {
+            assertEquals(id, expected.contains(id), set.contains(id));
+        }
+    }
+
+    @Test
+    public void compactsAndClears() {
+        RecordIdSet set = new RecordIdSet();
+        for (int i = 0; i < 1000; i++) {
+            set.add("id" + i);
+        }
+        set.add("an id that is too long to pack");
+        long bytesBefore = set.estimatedBytes();
+        for (int i = 10; i < 1000; i++) {
+            set.remove("id" + i);
+        }
+        set.compact();
+        assertTrue(set.estimatedBytes() < bytesBefore);
+        assertEquals(11, set.size());
+        for (int i = 0; i < 10; i++) {
+            assertTrue(set.contains("id" + i));
+        }
+        assertTrue(set.contains("an id that is too long to pack"));
+
+        set.clear();
+        assertEquals(0, set.size());
+        assertFalse(set.contains("id0"));
+        assertFalse(set.contains("an id that is too long to pack"));
+    }
+
+    private static String randomId(Random random, int length) {
+        String alphabet = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+        char[] id = new char[length];
+        for (int i = 0; i < length; i++) {
+            id[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+        }
+        return new String(id);
+    }
+}
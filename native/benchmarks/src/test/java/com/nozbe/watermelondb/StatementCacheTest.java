@@ -0,0 +1,128 @@
+package com.nozbe.watermelondb;
+
+import com.nozbe.watermelondb.jvm.JdbcStorageBackend;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class StatementCacheTest {
+    private StorageBackend storage;
+    private StatementCache.Counters counters;
+
+    @Before
+    public void setUp() {
+        storage = JdbcStorageBackend.open(":memory:", false);
+        counters = new StatementCache.Counters();
+    }
+
+    @After
+    public void tearDown() {
+        storage.close();
+    }
+
+    @Test
+    public void reusesStatementsWithFreshBindings() {
+        StatementCache cache = new StatementCache(storage, 2, counters);
+        StorageStatement first = cache.acquire("select ?", new Object[] {1L});
+        assertEquals(1, first.simpleQueryForLong(-1));
+        cache.release(first);
+        StorageStatement second = cache.acquire("select ?", new Object[] {2L});
+        assertSame(first, second);
+        assertEquals(2, second.simpleQueryForLong(-1));
+        cache.release(second);
+
+        assertEquals(1, counters.getHitCount());
+        assertEquals(1, counters.getMissCount());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedStatements() {
+        StatementCache cache = new StatementCache(storage, 2, counters);
+        acquireAndRelease(cache, "select 1");
+        StorageStatement evicted = acquireAndRelease(cache, "select 2");
+        acquireAndRelease(cache, "select 1");
+        acquireAndRelease(cache, "select 3");
+
+        assertEquals(2, cache.size());
+        assertClosed(evicted);
+        acquireAndRelease(cache, "select 3");
+        assertEquals(2, counters.getHitCount());
+        assertNotSame(evicted, acquireAndRelease(cache, "select 2"));
+        assertEquals(4, counters.getMissCount());
+    }
+
+    @Test
+    public void trimsToSize() {
+        StatementCache cache = new StatementCache(storage, 4, counters);
+        StorageStatement one = acquireAndRelease(cache, "select 1");
+        StorageStatement two = acquireAndRelease(cache, "select 2");
+        StorageStatement three = acquireAndRelease(cache, "select 3");
+        acquireAndRelease(cache, "select 1");
+
+        assertEquals(2, cache.trimTo(1));
+        assertEquals(1, cache.size());
+        assertClosed(two);
+        assertClosed(three);
+        assertSame(one, acquireAndRelease(cache, "select 1"));
+        assertEquals(0, cache.trimTo(1));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertClosed(one);
+    }
+
+    @Test
+    public void closesStatementsWhenDisabled() {
+        StatementCache cache = new StatementCache(storage, 0, counters);
+        StorageStatement first = acquireAndRelease(cache, "select 1");
+        assertClosed(first);
+        acquireAndRelease(cache, "select 1");
+
+        assertEquals(0, cache.size());
+        assertEquals(0, counters.getHitCount());
+        assertEquals(2, counters.getMissCount());
+    }
+
+    @Test
+    public void countsGeneratedAndUnsafeQueries() {
+        WMDatabase database = WMDatabase.open(JdbcStorageBackend.open(":memory:", false), PerformanceProfile.defaults());
+        try {
+            database.unsafeExecuteStatements("create table `tasks` (`id` primary key, `name`);" +
+                    "insert into `tasks` values ('t1', 'a'), ('t2', 'b'), ('t3', 'b');");
+            assertEquals(3, database.count("select count(*) as \"count\" from \"tasks\""));
+            long hits = database.getStatementCacheHitCount();
+            assertEquals(2, database.count("select count(distinct \"tasks\".\"id\") as \"count\" from \"tasks\" where \"name\" is ?",
+                    new Object[] {"b"}));
+            assertEquals(3, database.count("select count(*) as \"count\" from \"tasks\""));
+            assertEquals(hits + 1, database.getStatementCacheHitCount());
+
+            // Unsafe SQL counts are read from the `count` column, wherever it is
+            assertEquals(2, database.count("select `name`, count(*) as `count` from `tasks` group by `name` order by `name` desc"));
+            assertEquals(0, database.count("select `name`, count(*) as `count` from `tasks` where `name` is 'c' group by `name`"));
+        } finally {
+            database.close();
+        }
+    }
+
+    private static StorageStatement acquireAndRelease(StatementCache cache, String sql) {
+        StorageStatement statement = cache.acquire(sql, new Object[] {});
+        statement.simpleQueryForLong(-1);
+        cache.release(statement);
+        return statement;
+    }
+
+    private static void assertClosed(StorageStatement statement) {
+        try {
+            statement.simpleQueryForLong(-1);
+        } catch (JdbcStorageBackend.StorageException e) {
+            return;
+        }
+        fail("Expected statement to be closed");
+    }
+}
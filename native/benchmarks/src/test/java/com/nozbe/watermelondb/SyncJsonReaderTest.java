@@ -0,0 +1,194 @@
+package com.nozbe.watermelondb;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SyncJsonReaderTest {
+    @Test
+    public void readsValuesOfAllTypes() {
+        SyncJsonReader reader = new SyncJsonReader(" { \"s\": \"text\", \"n\": -12.5e2, \"t\": true, \"f\": false, \"z\": null, \"a\": [1, 2] } ");
+        reader.beginObject();
+        assertEquals("s", reader.nextName());
+        assertEquals(SyncJsonReader.Token.STRING, reader.peek());
+        assertEquals("text", reader.nextString());
+        assertEquals("n", reader.nextName());
+        assertEquals(SyncJsonReader.Token.NUMBER, reader.peek());
+        assertEquals(-1250, reader.nextDouble(), 0);
+        assertEquals("t", reader.nextName());
+        assertEquals(SyncJsonReader.Token.BOOLEAN, reader.peek());
+        assertTrue(reader.nextBoolean());
+        assertEquals("f", reader.nextName());
+        assertFalse(reader.nextBoolean());
+        assertEquals("z", reader.nextName());
+        assertEquals(SyncJsonReader.Token.NULL, reader.peek());
+        reader.nextNull();
+        assertEquals("a", reader.nextName());
+        assertEquals(SyncJsonReader.Token.BEGIN_ARRAY, reader.peek());
+        reader.beginArray();
+        assertEquals(1, reader.nextDouble(), 0);
+        assertEquals(2, reader.nextDouble(), 0);
+        assertEquals(SyncJsonReader.Token.END_ARRAY, reader.peek());
+        reader.endArray();
+        assertEquals(SyncJsonReader.Token.END_OBJECT, reader.peek());
+        reader.endObject();
+        assertEquals(SyncJsonReader.Token.END_DOCUMENT, reader.peek());
+    }
+
+    @Test
+    public void readsEmptyContainers() {
+        SyncJsonReader reader = new SyncJsonReader("{\"a\":[],\"o\":{}}");
+        reader.beginObject();
+        assertEquals("a", reader.nextName());
+        reader.beginArray();
+        assertFalse(reader.hasNext());
+        reader.endArray();
+        assertEquals("o", reader.nextName());
+        reader.beginObject();
+        assertFalse(reader.hasNext());
+        reader.endObject();
+        assertFalse(reader.hasNext());
+        reader.endObject();
+    }
+
+    @Test
+    public void decodesEscapes() {
+        assertEquals("a\"b\\c/d\be\ff\ng\rh\ti", readString("\"a\\\"b\\\\c\\/d\\be\\ff\\ng\\rh\\ti\""));
+        assertEquals("é", readString("\"\\u00e9\""));
+        assertEquals("\u0000", readString("\"\\u0000\""));
+    }
+
+    @Test
+    public void decodesSurrogatePairs() {
+        // U+1F600, escaped as a surrogate pair
+        assertEquals("x\uD83D\uDE00y", readString("\"x\\ud83d\\ude00y\""));
+    }
+
+    @Test
+    public void decodesMultiByteUtf8() {
+        String text = "zażółć ∑ 日本語 \uD83D\uDE00";
+        assertEquals(text, readString("\"" + text + "\""));
+        // Multi-byte characters next to escapes
+        assertEquals("ż\nł\uD83D\uDE00\t日", readString("\"ż\\nł\uD83D\uDE00\\t日\""));
+    }
+
+    @Test
+    public void readsDirectBuffers() {
+        byte[] bytes = "[\"zażółć\", \"a\\nb\"]".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        SyncJsonReader reader = new SyncJsonReader(buffer);
+        reader.beginArray();
+        assertEquals("zażółć", reader.nextString());
+        assertEquals("a\nb", reader.nextString());
+        reader.endArray();
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void readsBetweenPositionAndLimit() {
+        byte[] bytes = "xx[1]yy".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.position(2);
+        buffer.limit(5);
+        SyncJsonReader reader = new SyncJsonReader(buffer.slice());
+        reader.beginArray();
+        assertEquals(1, reader.nextDouble(), 0);
+        reader.endArray();
+        assertEquals(SyncJsonReader.Token.END_DOCUMENT, reader.peek());
+    }
+
+    @Test
+    public void returnsRawValues() {
+        String nested = "{\"a\": [1, \"]}\", {\"b\": null}], \"c\": \"\\\"}\"}";
+        SyncJsonReader reader = new SyncJsonReader("{\"nested\": " + nested + ", \"n\": 1.5e3, \"s\": \"x\\ny\", \"t\": true, \"z\": null, \"last\": 1}");
+        reader.beginObject();
+        assertEquals("nested", reader.nextName());
+        assertEquals(nested, reader.nextRawValue());
+        assertEquals("n", reader.nextName());
+        assertEquals("1.5e3", reader.nextRawValue());
+        assertEquals("s", reader.nextName());
+        assertEquals("\"x\\ny\"", reader.nextRawValue());
+        assertEquals("t", reader.nextName());
+        assertEquals("true", reader.nextRawValue());
+        assertEquals("z", reader.nextName());
+        assertEquals("null", reader.nextRawValue());
+        assertEquals("last", reader.nextName());
+        assertEquals(1, reader.nextDouble(), 0);
+        reader.endObject();
+    }
+
+    @Test
+    public void skipsValues() {
+        SyncJsonReader reader = new SyncJsonReader("[{\"a\": [\"[\", {}]}, \"s\", 1, null, 2]");
+        reader.beginArray();
+        reader.skipValue();
+        reader.skipValue();
+        reader.skipValue();
+        reader.skipValue();
+        assertEquals(2, reader.nextDouble(), 0);
+        reader.endArray();
+    }
+
+    @Test
+    public void rejectsMalformedJson() {
+        assertMalformed("{\"a\" 1}", (reader) -> {
+            reader.beginObject();
+            reader.nextName();
+        });
+        assertMalformed("[1 2]", (reader) -> {
+            reader.beginArray();
+            reader.nextDouble();
+            reader.nextDouble();
+        });
+        assertMalformed("\"abc", SyncJsonReader::nextString);
+        assertMalformed("\"a\\u12\"", SyncJsonReader::nextString);
+        assertMalformed("\"a\\u12zz\"", SyncJsonReader::nextString);
+        assertMalformed("[1", (reader) -> {
+            reader.beginArray();
+            reader.nextDouble();
+            reader.endArray();
+        });
+        // NOTE: Raw values are only checked for nesting, but the document as a whole is rejected
+        assertMalformed("{\"a\": [1, 2}", (reader) -> {
+            reader.beginObject();
+            reader.nextName();
+            reader.nextRawValue();
+            reader.endObject();
+        });
+        assertMalformed("tru", SyncJsonReader::nextBoolean);
+        assertMalformed("nul", SyncJsonReader::nextNull);
+        assertMalformed("--1", SyncJsonReader::nextDouble);
+        assertMalformed("\"1\"", SyncJsonReader::nextDouble);
+        assertMalformed("1", SyncJsonReader::nextString);
+        assertMalformed("]", SyncJsonReader::endArray);
+    }
+
+    private static String readString(String json) {
+        SyncJsonReader reader = new SyncJsonReader(json);
+        String value = reader.nextString();
+        assertEquals(SyncJsonReader.Token.END_DOCUMENT, reader.peek());
+        return value;
+    }
+
+    private interface ReaderAction {
+        void run(SyncJsonReader reader);
+    }
+
+    private static void assertMalformed(String json, ReaderAction action) {
+        try {
+            action.run(new SyncJsonReader(json));
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Malformed sync JSON"));
+            return;
+        }
+        fail("Expected " + json + " to be rejected");
+    }
+}
@@ -0,0 +1,133 @@
+package com.nozbe.watermelondb;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableType;
+import com.nozbe.watermelondb.jvm.JdbcStorageBackend;
+import com.nozbe.watermelondb.jvm.JvmPlatform;
+import com.nozbe.watermelondb.utils.Schema;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+// Driver on a temporary WAL database (sqlite-jdbc), and batch operations in the format sent by JS
+// (see src/adapters/sqlite/encodeBatch)
+final class TestDatabase {
+    static final Schema SCHEMA = new Schema(1,
+            "create table \"local_storage\" (\"key\" varchar(16) primary key not null, \"value\" text not null);" +
+                    "create index \"local_storage_key_index\" on \"local_storage\" (\"key\");" +
+                    "create table \"tasks\" (\"id\" primary key, \"_changed\", \"_status\", \"name\", \"position\", " +
+                    "\"project_id\");" +
+                    "create index \"tasks_project_id\" on \"tasks\" (\"project_id\");" +
+                    "create table \"projects\" (\"id\" primary key, \"_changed\", \"_status\", \"name\");");
+
+    static final String INSERT_TASK = "insert into \"tasks\" (\"id\", \"_changed\", \"_status\", \"name\", \"position\", " +
+            "\"project_id\") values (?, ?, ?, ?, ?, ?)";
+    static final String UPDATE_TASK = "update \"tasks\" set \"name\" = ?, \"position\" = ? where \"id\" is ?";
+    static final String DELETE_TASK = "delete from \"tasks\" where \"id\" == ?";
+    static final String INSERT_PROJECT = "insert into \"projects\" (\"id\", \"_changed\", \"_status\", \"name\") values (?, ?, ?, ?)";
+    static final String ALL_TASKS = "select \"tasks\".* from \"tasks\" order by \"id\"";
+
+    final File directory;
+    final WMDatabase database;
+    final WMDatabaseDriver driver;
+
+    private TestDatabase(File directory, WMDatabase database) {
+        this.directory = directory;
+        this.database = database;
+        this.driver = new WMDatabaseDriver(database);
+        driver.unsafeResetDatabase(SCHEMA);
+    }
+
+    static TestDatabase open() throws IOException {
+        return open(PerformanceProfile.defaults());
+    }
+
+    static TestDatabase open(PerformanceProfile profile) throws IOException {
+        Platform.setCurrent(new JvmPlatform());
+        File directory = Files.createTempDirectory("watermelondb-test").toFile();
+        String path = new File(directory, "test.db").getPath();
+        if (profile.pageSize != null || profile.autoVacuum != null) {
+            // Same as WMDatabase.buildDatabase does for new databases - these can't be changed once in WAL mode
+            JdbcStorageBackend storage = JdbcStorageBackend.open(path, false);
+            WMDatabase database = WMDatabase.open(storage, profile);
+            profile.applyFileSettings(database);
+            storage.enableWriteAheadLogging();
+            database.close();
+        }
+        return new TestDatabase(directory, WMDatabase.open(JdbcStorageBackend.open(path, true), profile));
+    }
+
+    void close() {
+        driver.close();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    int countTasks() {
+        return database.count("select count(*) as \"count\" from \"tasks\"");
+    }
+
+    static JavaOnlyArray batch(JavaOnlyArray... operations) {
+        return JavaOnlyArray.of((Object[]) operations);
+    }
+
+    static JavaOnlyArray operation(int cacheBehavior, String table, String sql, JavaOnlyArray... rows) {
+        return JavaOnlyArray.of(cacheBehavior, table, sql, JavaOnlyArray.of((Object[]) rows));
+    }
+
+    static JavaOnlyArray createTasks(String... ids) {
+        JavaOnlyArray[] rows = new JavaOnlyArray[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            rows[i] = taskRow(ids[i], "Task " + ids[i], i);
+        }
+        return operation(1, "tasks", INSERT_TASK, rows);
+    }
+
+    static JavaOnlyArray taskRow(String id, String name, double position) {
+        return JavaOnlyArray.of(id, "", "created", name, position, null);
+    }
+
+    static JavaOnlyArray updateTask(String id, String name, double position) {
+        return operation(0, "tasks", UPDATE_TASK, JavaOnlyArray.of(name, position, id));
+    }
+
+    static JavaOnlyArray deleteTasks(String... ids) {
+        JavaOnlyArray[] rows = new JavaOnlyArray[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            rows[i] = JavaOnlyArray.of(ids[i]);
+        }
+        return operation(-1, "tasks", DELETE_TASK, rows);
+    }
+
+    static String[] taskIds(int from, int count) {
+        String[] ids = new String[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = "t" + (from + i);
+        }
+        return ids;
+    }
+
+    // Results of cachedQuery, findMany etc. as ids: "id" for a full record, "=id" for an id of a
+    // record cached on the JS side, null for null
+    static List<String> ids(ReadableArray results) {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            if (results.getType(i) == ReadableType.Null) {
+                ids.add(null);
+            } else if (results.getType(i) == ReadableType.String) {
+                ids.add("=" + results.getString(i));
+            } else {
+                ReadableMap record = results.getMap(i);
+                ids.add(record.getString("id"));
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,198 @@
+package com.nozbe.watermelondb;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.facebook.react.bridge.JavaOnlyMap;
+import com.nozbe.watermelondb.jvm.JdbcStorageBackend;
+import com.nozbe.watermelondb.jvm.JvmPlatform;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Loading must match Database-turboSync.cpp (JSI), including which values of the wrong type fall
+// back to the column's default
+public class TurboSyncTest {
+    private File directory;
+    private WMDatabase database;
+
+    @Before
+    public void setUp() throws IOException {
+        Platform.setCurrent(new JvmPlatform());
+        directory = Files.createTempDirectory("watermelondb-test").toFile();
+        database = WMDatabase.open(JdbcStorageBackend.open(new File(directory, "test.db").getPath(), true),
+                PerformanceProfile.defaults());
+        database.unsafeExecuteStatements(
+                "create table `tasks` (`id` primary key, `_changed`, `_status`, `name`, `position`, `is_done`, " +
+                        "`note`, `rank`, `is_flagged`);");
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void loadsRecordsAndResidualValues() {
+        TurboSync.Result result = load("{\"changes\": {\"tasks\": {" +
+                "\"created\": [{\"id\": \"t1\", \"name\": \"Zażółć \\\"x\\\"\", \"position\": 1.5, \"is_done\": true, " +
+                "\"note\": \"n\", \"rank\": 2, \"is_flagged\": false}]," +
+                "\"updated\": [{\"id\": \"t2\"}], \"deleted\": []}}, " +
+                "\"timestamp\": 1623666158603, \"messages\": [\"a\", {\"b\": null}]}");
+
+        assertEquals(2, result.totalRecordCount);
+        assertEquals(Integer.valueOf(2), result.recordCounts.get("tasks"));
+        assertEquals("1623666158603", result.residualValues.get("timestamp"));
+        assertEquals("[\"a\", {\"b\": null}]", result.residualValues.get("messages"));
+        assertEquals("synced||Zażółć \"x\"|real 1.5|integer 1|n|real 2.0|integer 0", row("t1"));
+        // Missing fields have default values
+        assertEquals("synced|||real 0.0|integer 0|null|null|null", row("t2"));
+    }
+
+    @Test
+    public void replacesValuesOfWrongTypeWithDefaults() {
+        load("{\"changes\": {\"tasks\": {\"created\": [" +
+                "{\"id\": \"strings\", \"name\": 1, \"position\": \"1\", \"is_done\": \"true\", " +
+                "\"note\": false, \"rank\": \"2\", \"is_flagged\": \"false\"}," +
+                "{\"id\": \"nulls\", \"name\": null, \"position\": null, \"is_done\": null, " +
+                "\"note\": null, \"rank\": null, \"is_flagged\": null}," +
+                "{\"id\": \"objects\", \"name\": {\"a\": 1}, \"position\": [1], \"is_done\": {}, " +
+                "\"note\": [], \"rank\": {\"b\": [2]}, \"is_flagged\": [true]}" +
+                "]}}}");
+
+        assertEquals("synced|||real 0.0|integer 0|null|null|null", row("strings"));
+        assertEquals("synced|||real 0.0|integer 0|null|null|null", row("nulls"));
+        assertEquals("synced|||real 0.0|integer 0|null|null|null", row("objects"));
+    }
+
+    @Test
+    public void acceptsZeroAndOneAsBooleans() {
+        load("{\"changes\": {\"tasks\": {\"created\": [" +
+                "{\"id\": \"one\", \"is_done\": 1, \"is_flagged\": 1.0}," +
+                "{\"id\": \"zero\", \"is_done\": 0, \"is_flagged\": 0}," +
+                "{\"id\": \"other\", \"is_done\": 2, \"is_flagged\": 0.5}" +
+                "]}}}");
+
+        assertEquals("integer 1|integer 1", booleans("one"));
+        assertEquals("integer 0|integer 0", booleans("zero"));
+        assertEquals("integer 0|null", booleans("other"));
+    }
+
+    @Test
+    public void ignoresUnknownTablesAndColumns() {
+        TurboSync.Result result = load("{\"changes\": {" +
+                "\"unknown\": {\"created\": [{\"id\": \"u1\", \"x\": [1, {\"y\": 2}]}], \"updated\": [], \"deleted\": []}," +
+                "\"tasks\": {\"created\": [{\"id\": \"t1\", \"unknown_column\": {\"a\": [1]}, \"name\": \"n\"}]}" +
+                "}}");
+
+        assertEquals(1, result.totalRecordCount);
+        assertFalse(result.recordCounts.containsKey("unknown"));
+        assertEquals("synced||n|real 0.0|integer 0|null|null|null", row("t1"));
+    }
+
+    @Test
+    public void rejectsUnsupportedChanges() {
+        assertRejected("{\"changes\": {\"tasks\": {\"deleted\": [\"t1\"]}}}", "expected deleted field to be empty");
+        assertRejected("{\"changes\": {\"tasks\": {\"removed\": []}}}", "bad changeset field: removed");
+        assertRejected("{\"changes\": {\"tasks\": {\"created\": [{\"name\": \"n\"}]}}}", "expected record to have an id");
+        assertRejected("{\"changes\": {\"tasks\": {\"created\": [{\"id\": 1}]}}}", "expected record id to be a string");
+        assertRejected("{\"changes\": {\"tasks\": {\"created\": [{\"id\": \"t1\"}]", "Malformed sync JSON");
+    }
+
+    @Test
+    public void rollsBackFailedLoads() {
+        assertRejected("{\"changes\": {\"tasks\": {\"created\": [{\"id\": \"t1\"}, {\"id\": 2}]}}}", "expected record id to be a string");
+        assertEquals(0, database.count("select count(*) as `count` from `tasks`"));
+    }
+
+    @Test
+    public void loadsProvidedJsonOnce() {
+        TurboSync.provideSyncJson(1, "{\"changes\": {}}");
+        TurboSync.takeSyncJson(1);
+        try {
+            TurboSync.takeSyncJson(1);
+            fail("Expected sync JSON to be removed");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Sync json 1 does not exist", e.getMessage());
+        }
+    }
+
+    private TurboSync.Result load(String json) {
+        ByteBuffer buffer = ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8));
+        return TurboSync.load(database, buffer, schema(), "", "");
+    }
+
+    private void assertRejected(String json, String message) {
+        try {
+            load(json);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+            return;
+        }
+        fail("Expected " + json + " to be rejected");
+    }
+
+    // Same shape as sent by the JS dispatcher
+    private static Map<String, TurboSync.TableSchema> schema() {
+        JavaOnlyArray columns = JavaOnlyArray.of(
+                column("name", "string", false),
+                column("position", "number", false),
+                column("is_done", "boolean", false),
+                column("note", "string", true),
+                column("rank", "number", true),
+                column("is_flagged", "boolean", true)
+        );
+        JavaOnlyMap tables = new JavaOnlyMap();
+        tables.putMap("tasks", JavaOnlyMap.of("columnArray", columns));
+        return TurboSync.schemaFromMap(JavaOnlyMap.of("tables", tables));
+    }
+
+    private static JavaOnlyMap column(String name, String type, boolean isOptional) {
+        return JavaOnlyMap.of("name", name, "type", type, "isOptional", isOptional);
+    }
+
+    // Values of a record as "_status|_changed|name|typeof(position) position|...", so that types
+    // are checked, too
+    private String row(String id) {
+        return select("`_status`, `_changed`, `name`, " + typed("position") + ", " + typed("is_done") + ", " +
+                "coalesce(`note`, 'null'), " + typed("rank") + ", " + typed("is_flagged"), id);
+    }
+
+    private String booleans(String id) {
+        return select(typed("is_done") + ", " + typed("is_flagged"), id);
+    }
+
+    private static String typed(String column) {
+        return "case when `" + column + "` is null then 'null' else typeof(`" + column + "`) || ' ' || `" + column + "` end";
+    }
+
+    private String select(String columns, String id) {
+        try (StorageCursor cursor = database.rawQuery("select " + columns + " from `tasks` where `id` = ?", new Object[] {id})) {
+            assertTrue("No record " + id, cursor.moveToFirst());
+            StringBuilder row = new StringBuilder();
+            for (int i = 0; i < cursor.getColumnCount(); i++) {
+                if (i > 0) {
+                    row.append('|');
+                }
+                row.append(cursor.getString(i));
+            }
+            assertFalse(cursor.moveToNext());
+            return row.toString();
+        }
+    }
+}
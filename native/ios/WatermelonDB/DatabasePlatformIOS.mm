@@ -60,7 +60,7 @@ void deleteDatabaseFile(std::string path, bool warnIfDoesNotExist) {
     }
 }
 
-void onMemoryAlert(std::function<void(void)> callback) {
+void onMemoryAlert(std::function<MemoryTrimResult(MemoryTrimTier)> callback) {
     // TODO: Unimplemented
 }
 
@@ -219,6 +219,25 @@ RCT_EXPORT_METHOD(provideSyncJson:(nonnull NSNumber *)id
     }
 }
 
+// Same as provideSyncJson, but JSON is memory-mapped from a file (e.g. downloaded there by JS),
+// so that it doesn't have to be passed from JS, or copied, at all
+RCT_EXPORT_METHOD(provideSyncJsonFile:(nonnull NSNumber *)id
+    path:(nonnull NSString *)path
+    resolve:(RCTPromiseResolveBlock)resolve
+    reject:(RCTPromiseRejectBlock)reject)
+{
+    NSError *error;
+    NSData *json = [NSData dataWithContentsOfFile:path options:NSDataReadingMappedIfSafe error:&error];
+    if (json) {
+        watermelondbProvideSyncJson(id.intValue, json, &error);
+    }
+    if (error) {
+        reject(@"db.provideSyncJsonFile.error", error.localizedDescription, error);
+    } else {
+        resolve(@YES);
+    }
+}
+
 RCT_EXPORT_BLOCKING_SYNCHRONOUS_METHOD(getRandomBytes:(nonnull NSNumber *)count)
 {
     size_t batchSize = 256;
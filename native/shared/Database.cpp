@@ -1,4 +1,5 @@
 #include "Database.h"
+#include <algorithm>
 
 namespace watermelondb {
 
@@ -68,6 +69,74 @@ void Database::removeFromCache(std::string cacheKey) {
     cachedRecords_.erase(cacheKey);
 }
 
+long long Database::recordCacheBytes() {
+    // Approximation of libc++/libstdc++ layout: bucket array + one node (next pointer, hash,
+    // string) per key + heap buffer of keys too long for small string optimization
+    long long bytes = cachedRecords_.bucket_count() * sizeof(void *);
+    for (auto const &key : cachedRecords_) {
+        bytes += sizeof(void *) + sizeof(size_t) + sizeof(std::string);
+        if (key.capacity() >= sizeof(std::string)) {
+            bytes += key.capacity() + 1;
+        }
+    }
+    return bytes;
+}
+
+int Database::getRecordCacheGeneration() {
+    return recordCacheGeneration_.load();
+}
+
+MemoryTrimResult Database::trimMemory(MemoryTrimTier tier) {
+    MemoryTrimResult result;
+    if (tier == MemoryTrimTier::None) {
+        return result;
+    }
+
+    // NOTE: This is called on the main thread, so we can't wait for a long batch to finish
+    std::unique_lock<std::mutex> lock(mutex_, std::try_to_lock);
+    if (!lock.owns_lock()) {
+        consoleLog("Database is busy, skipping memory trim");
+        return result;
+    }
+    if (isDestroyed_) {
+        return result;
+    }
+
+    long long memoryUsedBefore = sqlite3_memory_used();
+
+    if (tier >= MemoryTrimTier::ShrinkCaches) {
+        for (auto const &cachedStatement : cachedStatements_) {
+            if (cachedStatement.second != nullptr) {
+                sqlite3_finalize(cachedStatement.second);
+                result.statementsFinalized++;
+            }
+        }
+        cachedStatements_ = {};
+    }
+
+    sqlite3_db_release_memory(db_->sqlite);
+    result.sqliteBytes = std::max(memoryUsedBefore - sqlite3_memory_used(), 0LL);
+
+    if (tier == MemoryTrimTier::DropCaches) {
+        // Ids no longer in the cache will be sent as full records next time they're queried
+        result.recordCacheBytes = recordCacheBytes();
+        result.recordIdsDropped = cachedRecords_.size();
+        cachedRecords_ = {};
+        recordCacheGeneration_++;
+    } else if (tier == MemoryTrimTier::ShrinkCaches) {
+        long long bytesBefore = recordCacheBytes();
+        cachedRecords_.rehash(0);
+        result.recordCacheBytes = std::max(bytesBefore - recordCacheBytes(), 0LL);
+    }
+
+    consoleLog("Trimmed memory (tier " + std::to_string((int)tier) + "): " + std::to_string(result.totalBytes()) +
+               " bytes freed - SQLite: " + std::to_string(result.sqliteBytes) + " bytes, " +
+               std::to_string(result.statementsFinalized) + " statements finalized, record cache: " +
+               std::to_string(result.recordCacheBytes) + " bytes, " + std::to_string(result.recordIdsDropped) +
+               " ids dropped");
+    return result;
+}
+
 void Database::unsafeResetDatabase(jsi::String &schema, int schemaVersion) {
     auto &rt = getRt();
     const std::lock_guard<std::mutex> lock(mutex_);
@@ -4,6 +4,7 @@
 #include <unordered_map>
 #include <unordered_set>
 #include <mutex>
+#include <atomic>
 #include <sqlite3.h>
 
 // FIXME: Make these paths consistent across platforms
@@ -17,6 +18,7 @@
 #endif
 
 #include "Sqlite.h"
+#include "MemoryTrim.h"
 #include "DatabasePlatform.h"
 
 using namespace facebook;
@@ -42,6 +44,9 @@ public:
     void unsafeResetDatabase(jsi::String &schema, int schemaVersion);
     jsi::Value getLocal(jsi::String &key);
     void executeMultiple(std::string sql);
+    MemoryTrimResult trimMemory(MemoryTrimTier tier);
+    // Number of times trimMemory dropped the record cache
+    int getRecordCacheGeneration();
 
 private:
     bool initialized_;
@@ -51,6 +56,8 @@ private:
     std::unique_ptr<SqliteDb> db_;
     std::unordered_map<std::string, sqlite3_stmt *> cachedStatements_; // NOTE: may contain null pointers!
     std::unordered_set<std::string> cachedRecords_;
+    // NOTE: Atomic, because memory is trimmed on the main thread
+    std::atomic<int> recordCacheGeneration_{0};
 
     jsi::Runtime &getRt();
     jsi::JSError dbError(std::string description);
@@ -80,6 +87,7 @@ private:
     bool isCached(std::string cacheKey);
     void markAsCached(std::string cacheKey);
     void removeFromCache(std::string cacheKey);
+    long long recordCacheBytes();
 };
 
 inline std::string cacheKey(std::string tableName, std::string recordId) {
@@ -75,6 +75,12 @@ void Database::install(jsi::Runtime *runtime) {
                 databaseToDestroy->destroy();
             }
         });
+        platform::onMemoryAlert([weakDatabase](MemoryTrimTier tier) {
+            if (auto databaseToTrim = weakDatabase.lock()) {
+                return databaseToTrim->trimMemory(tier);
+            }
+            return MemoryTrimResult();
+        });
 
         createMethod(rt, adapter, "initialize", 2, [database](jsi::Runtime &rt, const jsi::Value *args) {
             jsi::String dbName = args[0].getString(rt);
@@ -213,6 +219,9 @@ void Database::install(jsi::Runtime *runtime) {
                 std::abort();
             }
         });
+        createMethod(rt, adapter, "getRecordCacheGeneration", 0, [database](jsi::Runtime &rt, const jsi::Value *args) {
+            return jsi::Value(database->getRecordCacheGeneration());
+        });
         createMethod(rt, adapter, "unsafeClose", 0, [database](jsi::Runtime &rt, const jsi::Value *args) {
             assert(database->initialized_);
             database->destroy();
@@ -222,8 +231,6 @@ void Database::install(jsi::Runtime *runtime) {
 
         return adapter;
     });
-
-    // TODO: Use the onMemoryAlert hook!
 }
 
 
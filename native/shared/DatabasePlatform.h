@@ -3,6 +3,7 @@
 #include <functional>
 #include <string>
 #include "Database.h"
+#include "MemoryTrim.h"
 
 namespace watermelondb {
 namespace platform {
@@ -25,8 +26,8 @@ std::string resolveDatabasePath(std::string path);
 // Throws an exception if it's not possible to delete this file
 void deleteDatabaseFile(std::string path, bool warnIfDoesNotExist);
 
-// Calls function when device memory is getting low
-void onMemoryAlert(std::function<void(void)> callback);
+// Calls function when device memory is getting low, with how much memory should be freed
+void onMemoryAlert(std::function<MemoryTrimResult(MemoryTrimTier)> callback);
 
 // Returns sync json provided by the user
 std::string_view getSyncJson(int id);
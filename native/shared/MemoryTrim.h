@@ -0,0 +1,32 @@
+#pragma once
+
+#include <cstddef>
+
+namespace watermelondb {
+
+// How much memory to free when the system is running low. Each tier does everything the tiers
+// below it do. Mirrors MemoryTrim.Tier of the Android bridge (non-JSI) adapter
+enum class MemoryTrimTier {
+    None = 0,
+    // SQLite frees its page cache and other memory it can rebuild
+    ReleaseSqliteMemory = 1,
+    // Compiled statements are finalized, record cache is compacted
+    ShrinkCaches = 2,
+    // Record cache is dropped. Records JS already has are then sent in full again, until they're
+    // cached anew
+    DropCaches = 3,
+};
+
+// What a trim freed. sqliteBytes is freed by SQLite as a whole, not just by one database
+struct MemoryTrimResult {
+    long long sqliteBytes = 0;
+    int statementsFinalized = 0;
+    long long recordCacheBytes = 0;
+    size_t recordIdsDropped = 0;
+
+    long long totalBytes() const {
+        return sqliteBytes + recordCacheBytes;
+    }
+};
+
+} // namespace watermelondb
@@ -19,6 +19,12 @@ export default class RecordCache<Record: Model> {
 
   _debugCollection: Collection<Record>
 
+  // After native drops its cached record ID set (see SQLiteAdapter), records cached here are sent
+  // over the bridge in full again, once each, until native caches them anew
+  _nativeCacheGeneration: number = 0
+
+  _idsResentSinceNativeCacheDrop: Set<RecordId> = new Set()
+
   constructor(
     tableName: TableName<Record>,
     recordInsantiator: Instantiator<Record>,
@@ -113,6 +119,7 @@ export default class RecordCache<Record: Model> {
       // This may legitimately happen if we previously got ID without a record and we cleared
       // adapter-side cached record ID maps to recover
       warnIfCached &&
+        !this._wasResentAfterNativeCacheDrop(raw.id) &&
         logger.warn(
           `Record ${this.tableName}#${cachedRecord.id} is cached, but full raw object was sent over the bridge`,
         )
@@ -124,4 +131,26 @@ export default class RecordCache<Record: Model> {
     this.add(newRecord)
     return newRecord
   }
+
+  _wasResentAfterNativeCacheDrop(id: RecordId): boolean {
+    let generation = 0
+    try {
+      const adapter = this._debugCollection.database.adapter.underlyingAdapter
+      // $FlowFixMe
+      generation = adapter._nativeRecordCacheGeneration ? adapter._nativeRecordCacheGeneration() : 0
+    } catch (error) {
+      return false
+    }
+
+    if (generation !== this._nativeCacheGeneration) {
+      this._nativeCacheGeneration = generation
+      this._idsResentSinceNativeCacheDrop = new Set()
+    }
+
+    if (!generation || this._idsResentSinceNativeCacheDrop.has(id)) {
+      return false
+    }
+    this._idsResentSinceNativeCacheDrop.add(id)
+    return true
+  }
 }
@@ -42,6 +42,8 @@ export default class DatabaseAdapterCompat {
 
   provideSyncJson(id: number, syncPullResultJson: string): Promise<void>
 
+  provideSyncJsonFile(id: number, path: string): Promise<void>
+
   unsafeResetDatabase(): Promise<void>
 
   unsafeExecute(work: UnsafeExecuteOperations): Promise<void>
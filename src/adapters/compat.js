@@ -77,6 +77,10 @@ export default class DatabaseAdapterCompat {
     )
   }
 
+  provideSyncJsonFile(id: number, path: string): Promise<void> {
+    return toPromise((callback) => this.underlyingAdapter.provideSyncJsonFile(id, path, callback))
+  }
+
   unsafeResetDatabase(): Promise<void> {
     return toPromise((callback) => this.underlyingAdapter.unsafeResetDatabase(callback))
   }
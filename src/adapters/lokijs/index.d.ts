@@ -112,6 +112,8 @@ export default class LokiJSAdapter implements DatabaseAdapter {
 
   provideSyncJson(id: number, syncPullResultJson: string, callback: ResultCallback<void>): void
 
+  provideSyncJsonFile(id: number, path: string, callback: ResultCallback<void>): void
+
   unsafeResetDatabase(callback: ResultCallback<void>): void
 
   unsafeExecute(operations: UnsafeExecuteOperations, callback: ResultCallback<void>): void
@@ -198,6 +198,10 @@ export default class LokiJSAdapter implements DatabaseAdapter {
     callback({ error: new Error('provideSyncJson unavailable in LokiJS') })
   }
 
+  provideSyncJsonFile(id: number, path: string, callback: ResultCallback<void>): void {
+    callback({ error: new Error('provideSyncJsonFile unavailable in LokiJS') })
+  }
+
   unsafeResetDatabase(callback: ResultCallback<void>): void {
     this._dispatcher.call('unsafeResetDatabase', [], callback)
   }
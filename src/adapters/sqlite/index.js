@@ -73,6 +73,9 @@ export default class SQLiteAdapter implements DatabaseAdapter {
       migrationEvents,
       usesExclusiveLocking = false,
       experimentalUnsafeNativeReuse = false,
+      performanceProfile = null,
+      encryption = null,
+      experimentalColumnarQueryResults = false,
     } = options
     this.schema = schema
     this.migrations = migrations
@@ -84,6 +87,9 @@ export default class SQLiteAdapter implements DatabaseAdapter {
     this._dispatcher = makeDispatcher(this._dispatcherType, this._tag, this.dbName, {
       usesExclusiveLocking,
       experimentalUnsafeNativeReuse,
+      performanceProfile,
+      encryption,
+      experimentalColumnarQueryResults,
     })
 
     if (process.env.NODE_ENV !== 'production') {
@@ -296,7 +302,7 @@ export default class SQLiteAdapter implements DatabaseAdapter {
   }
 
   unsafeLoadFromSync(jsonId: number, callback: ResultCallback<any>): void {
-    if (this._dispatcherType !== 'jsi') {
+    if (!this._supportsTurboSync()) {
       callback({ error: new Error('unsafeLoadFromSync unavailable. Use JSI mode to enable.') })
       return
     }
@@ -318,7 +324,7 @@ export default class SQLiteAdapter implements DatabaseAdapter {
   }
 
   provideSyncJson(id: number, syncPullResultJson: string, callback: ResultCallback<void>): void {
-    if (this._dispatcherType !== 'jsi') {
+    if (!this._supportsTurboSync()) {
       callback({ error: new Error('provideSyncJson unavailable. Use JSI mode to enable.') })
       return
     }
@@ -326,6 +332,24 @@ export default class SQLiteAdapter implements DatabaseAdapter {
     this._dispatcher.call('provideSyncJson', [id, syncPullResultJson], callback)
   }
 
+  provideSyncJsonFile(id: number, path: string, callback: ResultCallback<void>): void {
+    if (!this._supportsTurboSync()) {
+      callback({ error: new Error('provideSyncJsonFile unavailable. Use JSI mode to enable.') })
+      return
+    }
+
+    this._dispatcher.call('provideSyncJsonFile', [id, path], callback)
+  }
+
+  _supportsTurboSync(): boolean {
+    return this._dispatcherType === 'jsi' || !!this._dispatcher.supportsTurboSync
+  }
+
+  // (internal) Changes when native drops its cached record ID set (see RecordCache)
+  _nativeRecordCacheGeneration(): number {
+    return this._dispatcher.recordCacheGeneration || 0
+  }
+
   unsafeResetDatabase(callback: ResultCallback<void>): void {
     this._dispatcher.call(
       'unsafeResetDatabase',
@@ -1,32 +1,76 @@
 // @flow
 /* eslint-disable global-require */
 
-import { NativeModules, Platform } from 'react-native'
+import { NativeModules, NativeEventEmitter, Platform } from 'react-native'
 import { type ConnectionTag, logger, invariant } from '../../../utils/common'
-import { fromPromise, type ResultCallback } from '../../../utils/fp/Result'
+import { fromPromise, mapValue, type ResultCallback } from '../../../utils/fp/Result'
+import { mapObj } from '../../../utils/fp'
+import type { AppSchema } from '../../../Schema'
 import type {
   DispatcherType,
   SQLiteAdapterOptions,
   SqliteDispatcher,
   SqliteDispatcherMethod,
   SqliteDispatcherOptions,
+  SQLitePerformanceProfile,
+  SQLiteEncryptionOptions,
 } from '../type'
 
 const { WMDatabaseBridge, WMDatabaseJSIBridge } = NativeModules
 
+let recordCacheDropEmitter: ?NativeEventEmitter = null
+
+const encodeTurboSyncSchema = (schema: AppSchema) => ({
+  tables: mapObj(
+    (table) => ({
+      columnArray: table.columnArray.map(({ name, type, isOptional }) => ({
+        name,
+        type,
+        isOptional: !!isOptional,
+      })),
+    }),
+    schema.tables,
+  ),
+})
+
 class SqliteNativeModulesDispatcher implements SqliteDispatcher {
   _tag: ConnectionTag
   _unsafeNativeReuse: boolean
+  _performanceProfile: ?SQLitePerformanceProfile
+  _encryption: ?SQLiteEncryptionOptions
+  _columnarQueryResults: boolean
   _bridge: any
+  supportsTurboSync: boolean
+  recordCacheGeneration: number = 0
 
   constructor(
     tag: ConnectionTag,
     bridge: any,
-    { experimentalUnsafeNativeReuse }: SqliteDispatcherOptions,
+    {
+      experimentalUnsafeNativeReuse,
+      performanceProfile,
+      encryption,
+      experimentalColumnarQueryResults,
+    }: SqliteDispatcherOptions,
   ): void {
     this._tag = tag
     this._bridge = bridge
     this._unsafeNativeReuse = experimentalUnsafeNativeReuse
+    this._performanceProfile = performanceProfile
+    this._encryption = encryption
+    this._columnarQueryResults = experimentalColumnarQueryResults
+    // NOTE: On Android, sync JSON can be loaded natively without JSI, too
+    this.supportsTurboSync = Platform.OS === 'android' && !!bridge && !!bridge.unsafeLoadFromSync
+    // NOTE: On Android, native record cache is dropped under memory pressure, after which records
+    // JS already has are sent as full records again (see RecordCache)
+    if (Platform.OS === 'android' && bridge && bridge.addListener) {
+      recordCacheDropEmitter = recordCacheDropEmitter || new NativeEventEmitter(bridge)
+      recordCacheDropEmitter.addListener('WMDatabaseRecordCacheDropped', ({ tag, generation }) => {
+        if (tag === this._tag) {
+          this.recordCacheGeneration = generation
+        }
+      })
+    }
     if (process.env.NODE_ENV !== 'production') {
       invariant(
         this._bridge,
@@ -52,6 +96,28 @@ class SqliteNativeModulesDispatcher implements SqliteDispatcher {
     ) {
       // FIXME: Hacky, refactor once native reuse isn't an "unsafe experimental" option
       args.push(this._unsafeNativeReuse)
+      args.push(this._performanceProfile || null)
+      args.push(this._encryption || null)
+    } else if (methodName === 'provideSyncJson' || methodName === 'provideSyncJsonFile') {
+      // NOTE: Sync JSON isn't tied to a connection
+      const bridgeMethodName =
+        methodName === 'provideSyncJson' ? 'provideBridgeSyncJson' : 'provideBridgeSyncJsonFile'
+      fromPromise(this._bridge[bridgeMethodName](...args), callback)
+      return
+    } else if (methodName === 'unsafeLoadFromSync') {
+      // NOTE: AppSchema can't be sent over the bridge as is, and only columns are needed anyway
+      const [jsonId, schema, ...rest] = args
+      args = [jsonId, encodeTurboSyncSchema(schema), ...rest]
+    } else if (
+      this._columnarQueryResults &&
+      (methodName === 'query' || methodName === 'unsafeQueryRaw') &&
+      this._bridge[`${methodName}AsArray`]
+    ) {
+      // Same format as JSI's queryAsArray
+      fromPromise(this._bridge[`${methodName}AsArray`](this._tag, ...args), (result) =>
+        callback(mapValue(require('./decodeQueryResult').default, result)),
+      )
+      return
     }
     fromPromise(this._bridge[methodName](this._tag, ...args), callback)
   }
@@ -66,6 +132,11 @@ class SqliteJsiDispatcher implements SqliteDispatcher {
     this._unsafeErrorListener = () => {}
   }
 
+  get recordCacheGeneration(): number {
+    // NOTE: Record cache is dropped under memory pressure (see WatermelonJSI.onTrimMemory)
+    return this._db.getRecordCacheGeneration ? this._db.getRecordCacheGeneration() : 0
+  }
+
   call(name: SqliteDispatcherMethod, _args: any[], callback: ResultCallback<any>): void {
     let methodName: string = name
     let args = _args
@@ -79,11 +150,13 @@ class SqliteJsiDispatcher implements SqliteDispatcher {
       args = [JSON.stringify(args[0])]
     } else if (
       Platform.OS === 'windows' &&
-      (methodName === 'provideSyncJson' || methodName === 'unsafeLoadFromSync')
+      (methodName === 'provideSyncJson' ||
+        methodName === 'provideSyncJsonFile' ||
+        methodName === 'unsafeLoadFromSync')
     ) {
       callback({ error: new Error(`${methodName} unavailable on Windows. Please contribute.`) })
-    } else if (methodName === 'provideSyncJson') {
-      fromPromise(WMDatabaseBridge.provideSyncJson(...args), callback)
+    } else if (methodName === 'provideSyncJson' || methodName === 'provideSyncJsonFile') {
+      fromPromise(WMDatabaseBridge[methodName](...args), callback)
       return
     }
 
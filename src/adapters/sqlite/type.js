@@ -35,6 +35,38 @@ export type SQLiteAdapterOptions = $Exact<{
   //   import com.nozbe.watermelondb.*
   //   Database.getInstance(dbName, context) // use the same dbName as in JS
   experimentalUnsafeNativeReuse?: boolean,
+  // (Android/non-JSI only) SQLite tuning applied when the database is opened. Pass a preset name
+  // (`default`, `balanced`, `readHeavy` - with memory-mapped I/O, `bulkIngest`) and/or explicit
+  // pragma values, which take precedence over the preset
+  performanceProfile?: SQLitePerformanceProfile,
+  // (Android/non-JSI only) Encrypts the database file (SQLCipher 4 compatible). The key derived
+  // from the passphrase is cached (wrapped with an Android Keystore key), so that key derivation
+  // doesn't slow down every app launch. NOTE: An existing unencrypted database can't be opened this way
+  encryption?: SQLiteEncryptionOptions,
+  // (Android/non-JSI only) Query results are sent over the bridge in a columnar format - column
+  // names once per result, then an array of values for each record - instead of as one object
+  // (repeating every column name) per record. Makes large queries faster
+  experimentalColumnarQueryResults?: boolean,
+}>
+
+export type SQLiteEncryptionOptions = $Exact<{
+  passphrase: string,
+  kdfIterations?: number, // default: 256000
+  cipherPageSize?: number, // default: 4096
+  cachesDerivedKey?: boolean, // default: true
+}>
+
+export type SQLitePerformanceProfile = $Exact<{
+  preset?: 'default' | 'balanced' | 'readHeavy' | 'bulkIngest',
+  readerCount?: number,
+  mmapSize?: number,
+  cacheSize?: number,
+  pageSize?: number,
+  synchronous?: 'OFF' | 'NORMAL' | 'FULL' | 'EXTRA',
+  tempStore?: 'DEFAULT' | 'FILE' | 'MEMORY',
+  journalSizeLimit?: number,
+  // NOTE: Only takes effect when the database file is created
+  autoVacuum?: 'NONE' | 'FULL' | 'INCREMENTAL',
 }>
 
 export type DispatcherType = 'asynchronous' | 'jsi'
@@ -66,6 +98,9 @@ export type SyncReturn<T> =
 export type SqliteDispatcherOptions = $Exact<{
   usesExclusiveLocking: boolean,
   experimentalUnsafeNativeReuse: boolean,
+  performanceProfile: ?SQLitePerformanceProfile,
+  encryption: ?SQLiteEncryptionOptions,
+  experimentalColumnarQueryResults: boolean,
 }>
 
 export type SqliteDispatcherMethod =
@@ -80,10 +115,15 @@ export type SqliteDispatcherMethod =
   | 'batch'
   | 'unsafeLoadFromSync'
   | 'provideSyncJson'
+  | 'provideSyncJsonFile'
   | 'unsafeResetDatabase'
   | 'getLocal'
   | 'unsafeExecuteMultiple'
 
 export interface SqliteDispatcher {
   call(methodName: SqliteDispatcherMethod, args: any[], callback: ResultCallback<any>): void;
+  // Whether unsafeLoadFromSync is available without JSI
+  +supportsTurboSync?: boolean;
+  // Number of times native dropped its cached record ID set (without JS asking for it)
+  +recordCacheGeneration?: number;
 }
@@ -65,6 +65,9 @@ export interface DatabaseAdapter {
   // Provides JSON for use by unsafeLoadFromSync
   provideSyncJson(id: number, syncPullResultJson: string, callback: ResultCallback<void>): void;
 
+  // Same as provideSyncJson, but JSON is read from a file (without passing it through JS)
+  provideSyncJsonFile(id: number, path: string, callback: ResultCallback<void>): void;
+
   // Destroys the whole database, its schema, indexes, everything.
   unsafeResetDatabase(callback: ResultCallback<void>): void;
 
@@ -20,7 +20,7 @@ describe('synchronize - turbo', () => {
 
     await expectToRejectWithMessage(
       synchronize({ database, pullChanges: () => ({}), unsafeTurbo: true }),
-      'missing syncJson/syncJsonId',
+      'missing syncJson/syncJsonId/syncJsonPath',
     )
 
     await synchronize({ database, pullChanges: emptyPull() })
@@ -78,6 +78,31 @@ describe('synchronize - turbo', () => {
     expect(adapter.unsafeLoadFromSync.mock.calls.length).toBe(1)
     expect(adapter.unsafeLoadFromSync.mock.calls[0][0]).toBe(2137)
   })
+  it(`can pull with turbo login (using file)`, async () => {
+    const { database, adapter } = makeDatabase()
+    // FIXME: Test on real native db instead of mocking
+    adapter.provideSyncJsonFile = jest
+      .fn()
+      .mockImplementationOnce((id, path, callback) => callback({ value: true }))
+    adapter.unsafeLoadFromSync = jest
+      .fn()
+      .mockImplementationOnce((id, callback) => callback({ value: { timestamp: 1013 } }))
+
+    await synchronize({
+      database,
+      pullChanges: () => ({ syncJsonPath: '/tmp/sync.json' }),
+      unsafeTurbo: true,
+    })
+
+    expect(await getLastPulledAt(database)).toBe(1013)
+
+    expect(adapter.provideSyncJsonFile.mock.calls.length).toBe(1)
+    const jsonId = adapter.provideSyncJsonFile.mock.calls[0][0]
+    expect(typeof jsonId).toBe('number')
+    expect(adapter.provideSyncJsonFile.mock.calls[0][1]).toBe('/tmp/sync.json')
+    expect(adapter.unsafeLoadFromSync.mock.calls.length).toBe(1)
+    expect(adapter.unsafeLoadFromSync.mock.calls[0][0]).toBe(jsonId)
+  })
   describe('onDidPullChanges', () => {
     it(`calls onDidPullChanges`, async () => {
       const { database } = makeDatabase()
@@ -73,8 +73,8 @@ export default async function synchronize({
         'unsafeTurbo must not be used with _unsafeBatchPerCollection',
       )
       invariant(
-        'syncJson' in pullResult || 'syncJsonId' in pullResult,
-        'missing syncJson/syncJsonId',
+        'syncJson' in pullResult || 'syncJsonId' in pullResult || 'syncJsonPath' in pullResult,
+        'missing syncJson/syncJsonId/syncJsonPath',
       )
       invariant(lastPulledAt === null, 'unsafeTurbo can only be used as the first sync')
 
@@ -82,6 +82,8 @@ export default async function synchronize({
 
       if (pullResult.syncJson) {
         await database.adapter.provideSyncJson(syncJsonId, pullResult.syncJson)
+      } else if (pullResult.syncJsonPath) {
+        await database.adapter.provideSyncJsonFile(syncJsonId, pullResult.syncJsonPath)
       }
 
       const resultRest = await database.adapter.unsafeLoadFromSync(syncJsonId)
@@ -52,6 +52,7 @@ export type SyncPullResult =
     }>
   | $Exact<{ syncJson: string }>
   | $Exact<{ syncJsonId: number }>
+  | $Exact<{ syncJsonPath: string }>
 
 export type SyncRejectedIds = { [TableName<any>]: RecordId[] }
 
@@ -99,7 +100,8 @@ export type SyncArgs = $Exact<{
   conflictResolver?: SyncConflictResolver,
   // commits changes in multiple batches, and not one - temporary workaround for memory issue
   _unsafeBatchPerCollection?: boolean,
-  // Advanced optimization - pullChanges must return syncJson or syncJsonId to be processed by native code.
+  // Advanced optimization - pullChanges must return syncJson, syncJsonId, or syncJsonPath (path to a
+  // file with the response) to be processed by native code.
   // This can only be used on initial (login) sync, not for incremental syncs.
   // This can only be used with SQLiteAdapter with JSI enabled.
   // The exact API may change between versions of WatermelonDB.